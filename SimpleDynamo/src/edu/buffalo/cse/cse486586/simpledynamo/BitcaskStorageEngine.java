@@ -0,0 +1,702 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * This class implements a Bitcask style log structured hash storage engine.
+ *
+ * All writes are appended to the active data file. An in memory key directory
+ * maps every key to the file, offset, size and version of its latest record,
+ * so a point read is a single positioned read. The keys are also kept in
+ * a sorted index, so range reads go through only the keys in the range.
+ * When the active file grows
+ * beyond MAX_FILE_SIZE it is closed and becomes immutable.
+ *
+ * Every data file has a hint file holding just the key directory entries of
+ * the file, so a restart rebuilds the key directory by reading the hint files
+ * instead of the data. The hint of the active file is written along with the
+ * data and is only trusted once the file is closed.
+ *
+ * A background thread merges the immutable files once there are MERGE_FILE_COUNT
+ * of them, copying only the live records to a new file and dropping the
+ * overwritten and deleted ones.
+ *
+ * @author biplap
+ *
+ */
+public class BitcaskStorageEngine implements StorageEngine {
+	public static final long MAX_FILE_SIZE = 16 * 1024 * 1024;	// Size (bytes) at which the active file is closed
+	public static final int MERGE_FILE_COUNT = 4;				// Immutable files which trigger a merge
+	private static final String DATA_SUFFIX = ".data";
+	private static final String HINT_SUFFIX = ".hint";
+	private static final String TMP_SUFFIX = ".tmp";
+	private static final int HEADER_SIZE = 4 + 8 + 4 + 4;		// crc, version, key length, value length
+	private static final int TOMBSTONE = -1;					// Value length of a delete record
+
+	private final File dir;
+	private HashMap<String, KeyDirEntry> keyDir = new HashMap<String, KeyDirEntry>();
+	private TreeSet<String> sortedKeys = new TreeSet<String>();		// Keys of keyDir in order
+	private final TreeMap<Integer, RandomAccessFile> readers = new TreeMap<Integer, RandomAccessFile>();
+	private int activeFileId;
+	private FileOutputStream activeStream;
+	private DataOutputStream activeOut;
+	private final LogSync logSync = new LogSync();
+	private long activeSize;
+	private FileOutputStream activeHintStream;
+	private DataOutputStream activeHint;
+	private int nextFileId = 1;
+	private boolean closed = false;
+	private final Thread merger;
+
+	/**
+	 * Location and version of the latest record of a key
+	 */
+	private static class KeyDirEntry {
+		final int fileId;
+		final long offset;
+		final int size;
+		final long version;
+
+		KeyDirEntry(int fileId, long offset, int size, long version){
+			this.fileId = fileId;
+			this.offset = offset;
+			this.size = size;
+			this.version = version;
+		}
+	}
+
+	/**
+	 * Opens (or creates) the engine in the given directory and rebuilds
+	 * the key directory.
+	 *
+	 * @param dir:- Directory holding the files of the engine
+	 * @throws IOException
+	 */
+	public BitcaskStorageEngine(File dir) throws IOException{
+		this.dir = dir;
+		if(!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Can't create directory "+dir);
+		rebuildKeyDir();
+		openActiveFile();
+		merger = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				mergeLoop();
+			}
+		}, BitcaskStorageEngine.class.getSimpleName());
+		merger.setDaemon(true);
+		merger.start();
+	}
+
+	@Override
+	public synchronized KeyVal get(String key) {
+		KeyDirEntry entry = keyDir.get(key);
+		if(entry == null)
+			return null;
+		try {
+			return readRecord(entry);
+		} catch (IOException e) {
+			throw new IllegalStateException("Can't read key "+key, e);
+		}
+	}
+
+	/**
+	 * The version is taken from the key directory, no read of the data is needed.
+	 * The active file is synced after the engine lock is released.
+	 */
+	@Override
+	public boolean put(String key, String val) {
+		long sequence;
+		synchronized (this) {
+			KeyDirEntry current = keyDir.get(key);
+			long version = current == null ? 1 : current.version + 1;
+			sequence = append(Collections.singletonList(buildKeyVal(key, val, version)), false);
+		}
+		return commit(sequence);
+	}
+
+	@Override
+	public boolean put(String key, String val, String version) {
+		long sequence;
+		synchronized (this) {
+			sequence = append(Collections.singletonList(buildKeyVal(key, val, Long.parseLong(version))), false);
+		}
+		return commit(sequence);
+	}
+
+	@Override
+	public boolean putAll(List<KeyVal> keyValList) {
+		long sequence;
+		synchronized (this) {
+			sequence = append(keyValList, false);
+		}
+		return commit(sequence);
+	}
+
+	/**
+	 * Appends a delete record for the key, if the key is present
+	 */
+	@Override
+	public int delete(String key) {
+		long sequence;
+		synchronized (this) {
+			KeyDirEntry current = keyDir.get(key);
+			if(current == null)
+				return 0;
+			sequence = append(Collections.singletonList(buildKeyVal(key, null, current.version)), true);
+		}
+		if(!commit(sequence))
+			return 0;
+		return 1;
+	}
+
+	/**
+	 * Drops all the files and starts with an empty active file
+	 */
+	@Override
+	public synchronized int deleteAll() {
+		int count = keyDir.size();
+		try{
+			closeActiveFile(false);
+			Iterator<RandomAccessFile> iterator = readers.values().iterator();
+			while(iterator.hasNext())
+				iterator.next().close();
+			readers.clear();
+			keyDir = new HashMap<String, KeyDirEntry>();
+			sortedKeys = new TreeSet<String>();
+			File[] files = dir.listFiles();
+			for(int i=0;files != null && i<files.length;i++)
+				files[i].delete();
+			openActiveFile();
+		}
+		catch(IOException e){
+			throw new IllegalStateException("Can't delete all the entries", e);
+		}
+		return count;
+	}
+
+	@Override
+	public synchronized ArrayList<KeyVal> scan() {
+		return range(null, null);
+	}
+
+	@Override
+	public synchronized ArrayList<KeyVal> range(String fromKey, String toKey) {
+		return range(fromKey, toKey, 0);
+	}
+
+	/**
+	 * The keys in the range are read from the sorted index, up to the limit,
+	 * and then their records.
+	 */
+	@Override
+	public synchronized ArrayList<KeyVal> range(String fromKey, String toKey, int limit) {
+		SortedSet<String> keys = sortedKeys;
+		if(fromKey != null && toKey != null)
+			keys = fromKey.compareTo(toKey) < 0 ? sortedKeys.subSet(fromKey, toKey) : new TreeSet<String>();
+		else if(fromKey != null)
+			keys = sortedKeys.tailSet(fromKey);
+		else if(toKey != null)
+			keys = sortedKeys.headSet(toKey);
+		ArrayList<KeyVal> keyValList = new ArrayList<KeyVal>();
+		Iterator<String> iterator = keys.iterator();
+		try{
+			while(iterator.hasNext() && (limit <= 0 || keyValList.size() < limit))
+				keyValList.add(readRecord(keyDir.get(iterator.next())));
+		}
+		catch(IOException e){
+			throw new IllegalStateException("Can't scan the data files", e);
+		}
+		return keyValList;
+	}
+
+	/**
+	 * Sets the key directory entry of a key, adding the key to the sorted index
+	 */
+	private void putEntry(String key, KeyDirEntry entry){
+		if(keyDir.put(key, entry) == null)
+			sortedKeys.add(key);
+	}
+
+	/**
+	 * Removes the key directory entry of a key and the key from the sorted index
+	 */
+	private void removeEntry(String key){
+		if(keyDir.remove(key) != null)
+			sortedKeys.remove(key);
+	}
+
+	@Override
+	public void close() {
+		synchronized (this) {
+			try {
+				closeActiveFile(true);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			closed = true;
+			notifyAll();
+		}
+		try {
+			merger.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			try {
+				Iterator<RandomAccessFile> iterator = readers.values().iterator();
+				while(iterator.hasNext())
+					iterator.next().close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Appends records to the active file and updates the key directory.
+	 * The file is flushed but not synced, the caller syncs it with commit()
+	 * after releasing the engine lock.
+	 * Closes the active file and starts a new one if it is full.
+	 *
+	 * @param keyValList:- Records to be appended
+	 * @param deleted:- Whether the records are delete records
+	 * @return sequence number of the append, 0 if the file can't be written
+	 */
+	private long append(List<KeyVal> keyValList, boolean deleted){
+		long sequence;
+		ArrayList<KeyDirEntry> entries = new ArrayList<KeyDirEntry>(keyValList.size());
+		try{
+			long offset = activeSize;
+			for(int i=0;i<keyValList.size();i++){
+				KeyVal keyVal = keyValList.get(i);
+				long version = Long.parseLong(keyVal.getVersion());
+				byte[] record = encodeRecord(keyVal.getKey(), deleted ? null : keyVal.getVal(), version);
+				activeOut.write(record);
+				KeyDirEntry entry = new KeyDirEntry(activeFileId, offset, record.length, version);
+				writeHint(activeHint, keyVal.getKey(), entry, deleted);
+				entries.add(entry);
+				offset += record.length;
+			}
+			activeOut.flush();
+			sequence = logSync.appended(activeStream);
+			activeSize = offset;
+		}
+		catch(IOException e){
+			e.printStackTrace();
+			return 0;
+		}
+		for(int i=0;i<keyValList.size();i++){
+			if(deleted)
+				removeEntry(keyValList.get(i).getKey());
+			else
+				putEntry(keyValList.get(i).getKey(), entries.get(i));
+		}
+		if(activeSize >= MAX_FILE_SIZE){
+			try {
+				closeActiveFile(true);
+				openActiveFile();
+				notifyAll();		// Wake up the merger
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return sequence;
+	}
+
+	/**
+	 * Waits till the active file is synced up to an append, concurrent
+	 * writers share one sync. Must be called without holding the engine lock.
+	 *
+	 * @param sequence:- Sequence number returned by append()
+	 * @return true if the records are durable
+	 */
+	private boolean commit(long sequence){
+		return sequence > 0 && logSync.await(sequence);
+	}
+
+	/**
+	 * Reads the record of a key directory entry with one positioned read
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	private KeyVal readRecord(KeyDirEntry entry) throws IOException{
+		byte[] record = new byte[entry.size];
+		RandomAccessFile reader = readers.get(entry.fileId);
+		synchronized (reader) {
+			reader.seek(entry.offset);
+			reader.readFully(record);
+		}
+		return decodeRecord(record);
+	}
+
+	/**
+	 * Encodes a record, a null value is encoded as a delete record
+	 *
+	 * Layout:- crc | version | key length | value length | key | value
+	 * The crc covers everything after it.
+	 */
+	private static byte[] encodeRecord(String key, String val, long version) throws IOException{
+		byte[] keyBytes = key.getBytes("UTF-8");
+		byte[] valBytes = val == null ? null : val.getBytes("UTF-8");
+		int size = HEADER_SIZE + keyBytes.length + (valBytes == null ? 0 : valBytes.length);
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.putInt(0);
+		buffer.putLong(version);
+		buffer.putInt(keyBytes.length);
+		buffer.putInt(valBytes == null ? TOMBSTONE : valBytes.length);
+		buffer.put(keyBytes);
+		if(valBytes != null)
+			buffer.put(valBytes);
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 4, size - 4);
+		buffer.putInt(0, (int) crc.getValue());
+		return buffer.array();
+	}
+
+	/**
+	 * Decodes a record written by encodeRecord() after checking its crc
+	 * @param record
+	 * @return key value pair, with null value for a delete record
+	 * @throws IOException if the crc does not match
+	 */
+	private static KeyVal decodeRecord(byte[] record) throws IOException{
+		ByteBuffer buffer = ByteBuffer.wrap(record);
+		int storedCrc = buffer.getInt();
+		CRC32 crc = new CRC32();
+		crc.update(record, 4, record.length - 4);
+		if(storedCrc != (int) crc.getValue())
+			throw new IOException("Corrupt record");
+		long version = buffer.getLong();
+		int keyLength = buffer.getInt();
+		int valLength = buffer.getInt();
+		String key = new String(record, HEADER_SIZE, keyLength, "UTF-8");
+		String val = valLength == TOMBSTONE ? null : new String(record, HEADER_SIZE + keyLength, valLength, "UTF-8");
+		return buildKeyVal(key, val, version);
+	}
+
+	/**
+	 * Builds a key value pair
+	 */
+	private static KeyVal buildKeyVal(String key, String val, long version){
+		KeyVal keyVal = new KeyVal();
+		keyVal.setKey(key);
+		keyVal.setVal(val);
+		keyVal.setVersion(String.valueOf(version));
+		return keyVal;
+	}
+
+	/**
+	 * Writes the hint of a record
+	 * Layout:- key | offset | size | version | deleted
+	 */
+	private static void writeHint(DataOutputStream out, String key, KeyDirEntry entry, boolean deleted) throws IOException{
+		SSTable.writeString(out, key);
+		out.writeLong(entry.offset);
+		out.writeInt(entry.size);
+		out.writeLong(entry.version);
+		out.writeBoolean(deleted);
+	}
+
+	/**
+	 * Rebuilds the key directory from the data files in the order they were
+	 * written. Closed files are read from their hint files, the file which was
+	 * active at the time of the crash (no hint file) is scanned record by record.
+	 * @throws IOException
+	 */
+	private void rebuildKeyDir() throws IOException{
+		File[] files = dir.listFiles();
+		ArrayList<Integer> fileIds = new ArrayList<Integer>();
+		for(int i=0;files != null && i<files.length;i++){
+			String name = files[i].getName();
+			if(name.endsWith(TMP_SUFFIX))
+				files[i].delete();		// Leftover of an interrupted merge or hint
+			else if(name.endsWith(DATA_SUFFIX))
+				fileIds.add(Integer.valueOf(name.substring(0, name.length() - DATA_SUFFIX.length())));
+		}
+		Collections.sort(fileIds);
+		for(int i=0;i<fileIds.size();i++){
+			int fileId = fileIds.get(i);
+			File hintFile = new File(dir, fileId+HINT_SUFFIX);
+			if(hintFile.exists())
+				loadHints(fileId, hintFile);
+			else
+				scanDataFile(fileId);
+			readers.put(fileId, new RandomAccessFile(new File(dir, fileId+DATA_SUFFIX), "r"));
+			nextFileId = Math.max(nextFileId, fileId + 1);
+		}
+	}
+
+	/**
+	 * Applies the hints of a closed file to the key directory
+	 */
+	private void loadHints(int fileId, File hintFile) throws IOException{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(hintFile)));
+		try{
+			while(true){
+				String key;
+				try{
+					key = SSTable.readString(in);
+				}
+				catch(EOFException e){
+					break;
+				}
+				long offset = in.readLong();
+				int size = in.readInt();
+				long version = in.readLong();
+				if(in.readBoolean())
+					removeEntry(key);
+				else
+					putEntry(key, new KeyDirEntry(fileId, offset, size, version));
+			}
+		}
+		finally{
+			in.close();
+		}
+	}
+
+	/**
+	 * Scans a data file without a hint file. A partially written or corrupt
+	 * record at the end (crash during a write) is cut off, that write was
+	 * never acknowledged. A hint file is written for the scanned records.
+	 */
+	private void scanDataFile(int fileId) throws IOException{
+		File dataFile = new File(dir, fileId+DATA_SUFFIX);
+		RandomAccessFile raf = new RandomAccessFile(dataFile, "rw");
+		File hintTmp = new File(dir, fileId+HINT_SUFFIX+TMP_SUFFIX);
+		FileOutputStream hintStream = new FileOutputStream(hintTmp);
+		DataOutputStream hintOut = new DataOutputStream(new BufferedOutputStream(hintStream));
+		try{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(dataFile)));
+			long offset = 0;
+			byte[] header = new byte[HEADER_SIZE];
+			try{
+				while(true){
+					in.readFully(header);
+					ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+					headerBuffer.position(12);
+					int keyLength = headerBuffer.getInt();
+					int valLength = headerBuffer.getInt();
+					int size = HEADER_SIZE + keyLength + Math.max(0, valLength);
+					if(keyLength < 0 || size < HEADER_SIZE || offset + size > raf.length())
+						break;
+					byte[] record = Arrays.copyOf(header, size);
+					in.readFully(record, HEADER_SIZE, size - HEADER_SIZE);
+					KeyVal keyVal = decodeRecord(record);
+					boolean deleted = keyVal.getVal() == null;
+					KeyDirEntry entry = new KeyDirEntry(fileId, offset, size, Long.parseLong(keyVal.getVersion()));
+					if(deleted)
+						removeEntry(keyVal.getKey());
+					else
+						putEntry(keyVal.getKey(), entry);
+					writeHint(hintOut, keyVal.getKey(), entry, deleted);
+					offset += size;
+				}
+			}
+			catch(IOException e){
+				// End of the valid records
+			}
+			finally{
+				in.close();
+			}
+			if(raf.length() > offset)
+				raf.setLength(offset);
+			hintOut.flush();
+			hintStream.getFD().sync();
+		}
+		finally{
+			hintOut.close();
+			raf.close();
+		}
+		if(!hintTmp.renameTo(new File(dir, fileId+HINT_SUFFIX)))
+			throw new IOException("Can't rename "+hintTmp);
+	}
+
+	/**
+	 * Starts a new active file along with its hint file
+	 * @throws IOException
+	 */
+	private void openActiveFile() throws IOException{
+		activeFileId = nextFileId++;
+		File dataFile = new File(dir, activeFileId+DATA_SUFFIX);
+		activeStream = new FileOutputStream(dataFile);
+		activeOut = new DataOutputStream(new BufferedOutputStream(activeStream));
+		activeSize = 0;
+		activeHintStream = new FileOutputStream(new File(dir, activeFileId+HINT_SUFFIX+TMP_SUFFIX));
+		activeHint = new DataOutputStream(new BufferedOutputStream(activeHintStream));
+		readers.put(activeFileId, new RandomAccessFile(dataFile, "r"));
+	}
+
+	/**
+	 * Closes the active file, syncing the records not synced by the
+	 * writers yet. Its hint file is renamed in place only after
+	 * it is complete, so a restart never trusts a partial hint file.
+	 * @param keepHint:- false to discard the hint file
+	 * @throws IOException
+	 */
+	private void closeActiveFile(boolean keepHint) throws IOException{
+		activeOut.flush();
+		if(keepHint)
+			activeStream.getFD().sync();
+		logSync.durable();
+		activeOut.close();
+		if(keepHint){
+			activeHint.flush();
+			activeHintStream.getFD().sync();
+		}
+		activeHint.close();
+		File hintTmp = new File(dir, activeFileId+HINT_SUFFIX+TMP_SUFFIX);
+		if(keepHint)
+			hintTmp.renameTo(new File(dir, activeFileId+HINT_SUFFIX));
+		else
+			hintTmp.delete();
+	}
+
+	/**
+	 * Loop run by the merger thread. Waits till there are MERGE_FILE_COUNT
+	 * immutable files and merges them.
+	 */
+	private void mergeLoop(){
+		while(true){
+			ArrayList<Integer> mergeFileIds;
+			int mergedFileId;
+			HashMap<String, KeyDirEntry> liveEntries = new HashMap<String, KeyDirEntry>();
+			synchronized (this) {
+				while(!closed && readers.size() - 1 < MERGE_FILE_COUNT){
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if(closed)
+					return;
+				// Reserve an id for the merged file and start a new active file after it,
+				// so the merged file sits between the merged files and the newer writes
+				mergedFileId = nextFileId++;
+				try {
+					closeActiveFile(true);
+					openActiveFile();
+				} catch (IOException e) {
+					e.printStackTrace();
+					continue;
+				}
+				mergeFileIds = new ArrayList<Integer>(readers.headMap(mergedFileId).keySet());
+				Iterator<Map.Entry<String, KeyDirEntry>> iterator = keyDir.entrySet().iterator();
+				while(iterator.hasNext()){
+					Map.Entry<String, KeyDirEntry> entry = iterator.next();
+					if(entry.getValue().fileId < mergedFileId)
+						liveEntries.put(entry.getKey(), entry.getValue());
+				}
+			}
+			try{
+				merge(mergeFileIds, mergedFileId, liveEntries);
+			}
+			catch(IOException e){
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Copies the live records of the immutable files to a new file with
+	 * a hint file, and switches the key directory over to it.
+	 * The copying is done without the engine lock, the files are immutable.
+	 *
+	 * @param mergeFileIds:- Immutable files to be merged
+	 * @param mergedFileId:- Id of the merged file
+	 * @param liveEntries:- Key directory entries pointing to the immutable files
+	 * @throws IOException
+	 */
+	private void merge(List<Integer> mergeFileIds, int mergedFileId, Map<String, KeyDirEntry> liveEntries) throws IOException{
+		File dataTmp = new File(dir, mergedFileId+DATA_SUFFIX+TMP_SUFFIX);
+		File hintTmp = new File(dir, mergedFileId+HINT_SUFFIX+TMP_SUFFIX);
+		HashMap<String, KeyDirEntry> mergedEntries = new HashMap<String, KeyDirEntry>();
+		FileOutputStream dataStream = new FileOutputStream(dataTmp);
+		FileOutputStream hintStream = new FileOutputStream(hintTmp);
+		DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(dataStream));
+		DataOutputStream hintOut = new DataOutputStream(new BufferedOutputStream(hintStream));
+		try{
+			long offset = 0;
+			Iterator<Map.Entry<String, KeyDirEntry>> iterator = liveEntries.entrySet().iterator();
+			while(iterator.hasNext()){
+				Map.Entry<String, KeyDirEntry> liveEntry = iterator.next();
+				KeyDirEntry old = liveEntry.getValue();
+				byte[] record = new byte[old.size];
+				RandomAccessFile reader;
+				synchronized (this) {
+					reader = readers.get(old.fileId);
+				}
+				if(reader == null)
+					throw new IOException("File "+old.fileId+" was dropped during the merge");
+				synchronized (reader) {
+					reader.seek(old.offset);
+					reader.readFully(record);
+				}
+				dataOut.write(record);
+				KeyDirEntry entry = new KeyDirEntry(mergedFileId, offset, old.size, old.version);
+				writeHint(hintOut, liveEntry.getKey(), entry, false);
+				mergedEntries.put(liveEntry.getKey(), entry);
+				offset += old.size;
+			}
+			dataOut.flush();
+			dataStream.getFD().sync();
+			hintOut.flush();
+			hintStream.getFD().sync();
+		}
+		finally{
+			dataOut.close();
+			hintOut.close();
+		}
+
+		synchronized (this) {
+			if(closed || !readers.keySet().containsAll(mergeFileIds)){	// Files were dropped by deleteAll()
+				dataTmp.delete();
+				hintTmp.delete();
+				return;
+			}
+			// The hint is renamed first, a data file without hint is scanned on restart.
+			// Till the merged files are deleted a restart reads them before the
+			// merged file, which has the same live records.
+			File dataFile = new File(dir, mergedFileId+DATA_SUFFIX);
+			if(!hintTmp.renameTo(new File(dir, mergedFileId+HINT_SUFFIX)) || !dataTmp.renameTo(dataFile))
+				throw new IOException("Can't rename merged file "+mergedFileId);
+			readers.put(mergedFileId, new RandomAccessFile(dataFile, "r"));
+			for(int i=0;i<mergeFileIds.size();i++){
+				int fileId = mergeFileIds.get(i);
+				readers.remove(fileId).close();
+				new File(dir, fileId+DATA_SUFFIX).delete();
+				new File(dir, fileId+HINT_SUFFIX).delete();
+			}
+			// Switch only the keys which were not written or deleted during the merge
+			Iterator<Map.Entry<String, KeyDirEntry>> iterator = mergedEntries.entrySet().iterator();
+			while(iterator.hasNext()){
+				Map.Entry<String, KeyDirEntry> mergedEntry = iterator.next();
+				if(keyDir.get(mergedEntry.getKey()) == liveEntries.get(mergedEntry.getKey()))
+					keyDir.put(mergedEntry.getKey(), mergedEntry.getValue());
+			}
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * This class implements a bloom filter over string keys.
+ * A bloom filter answers whether a key might be present or is definitely
+ * not present, using a fixed size bit array and k hash functions.
+ * The k hash functions are derived from two base hashes of the key
+ * (double hashing), so a key is hashed only once per lookup.
+ *
+ * @author biplap
+ *
+ */
+public class BloomFilter {
+	private final long[] bits;		// Bit array
+	private final int bitCount;		// Number of bits in the bit array
+	private final int hashCount;	// Number of hash functions
+
+	/**
+	 * Creates a bloom filter sized for the expected number of keys
+	 * and the desired false positive rate.
+	 *
+	 * @param expectedKeys:- Number of keys expected to be added
+	 * @param falsePositiveRate:- Desired false positive rate, eg. 0.01
+	 */
+	public BloomFilter(int expectedKeys, double falsePositiveRate){
+		if(expectedKeys < 1)
+			expectedKeys = 1;
+		double ln2 = Math.log(2);
+		long optimalBits = (long) Math.ceil(-expectedKeys * Math.log(falsePositiveRate) / (ln2 * ln2));
+		int bitCount = (int) Math.max(64, Math.min(Integer.MAX_VALUE - 63, optimalBits));
+		this.bitCount = (bitCount + 63) / 64 * 64;
+		this.hashCount = Math.max(1, (int) Math.round((double) this.bitCount / expectedKeys * ln2));
+		this.bits = new long[this.bitCount / 64];
+	}
+
+	/**
+	 * Private constructor used while deserializing
+	 * @param bits
+	 * @param hashCount
+	 */
+	private BloomFilter(long[] bits, int hashCount){
+		this.bits = bits;
+		this.bitCount = bits.length * 64;
+		this.hashCount = hashCount;
+	}
+
+	/**
+	 * Copy constructor
+	 * @param other
+	 */
+	public BloomFilter(BloomFilter other){
+		this(other.bits.clone(), other.hashCount);
+	}
+
+	/**
+	 * Adds a key to the filter
+	 * @param key
+	 */
+	public void add(String key){
+		long hash = hash64(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for(int i=0;i<hashCount;i++){
+			int index = ((h1 + i * h2) & Integer.MAX_VALUE) % bitCount;
+			bits[index >>> 6] |= 1L << index;
+		}
+	}
+
+	/**
+	 * Checks whether a key might be present in the filter.
+	 *
+	 * @param key
+	 * @return false if the key is definitely absent, true if it might be present
+	 */
+	public boolean mightContain(String key){
+		long hash = hash64(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for(int i=0;i<hashCount;i++){
+			int index = ((h1 + i * h2) & Integer.MAX_VALUE) % bitCount;
+			if((bits[index >>> 6] & (1L << index)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of the key followed by a final mix so that
+	 * both halves are usable as independent hashes.
+	 * @param key
+	 * @return
+	 */
+	private static long hash64(String key){
+		long hash = 0xcbf29ce484222325L;
+		for(int i=0;i<key.length();i++){
+			hash ^= key.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/**
+	 * Serializes the filter
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutput out) throws IOException{
+		out.writeInt(hashCount);
+		out.writeInt(bits.length);
+		for(int i=0;i<bits.length;i++)
+			out.writeLong(bits[i]);
+	}
+
+	/**
+	 * Deserializes a filter written by writeTo()
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static BloomFilter readFrom(DataInput in) throws IOException{
+		int hashCount = in.readInt();
+		long[] bits = new long[in.readInt()];
+		for(int i=0;i<bits.length;i++)
+			bits[i] = in.readLong();
+		return new BloomFilter(bits, hashCount);
+	}
+}
@@ -0,0 +1,290 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+/**
+ * This class is the compact form of a key value pair used on the bulk paths
+ * (scans, sync and merging of replica responses).
+ * The key and value are held as UTF-8 bytes and the version as a primitive,
+ * so a record costs three objects instead of the four Strings and char arrays
+ * of a KeyVal, and versions are compared without parsing.
+ * KeyVal remains the form exchanged in messages and returned to the clients.
+ *
+ * @author biplap
+ *
+ */
+public final class CompactKeyVal {
+	private static final String UTF8 = "UTF-8";
+
+	private final byte[] key;
+	private final byte[] val;
+	private final long version;
+	private final int hash;		// Hash of the key, cached for the merge table
+
+	/**
+	 * Public constructor
+	 * @param key:- UTF-8 bytes of the key
+	 * @param val:- UTF-8 bytes of the value
+	 * @param version
+	 */
+	public CompactKeyVal(byte[] key, byte[] val, long version){
+		this.key = key;
+		this.val = val;
+		this.version = version;
+		this.hash = hash(key);
+	}
+
+	/**
+	 * Creates the record of a key value pair
+	 * @param keyVal
+	 * @return
+	 */
+	public static CompactKeyVal fromKeyVal(KeyVal keyVal){
+		return new CompactKeyVal(encode(keyVal.getKey()), encode(keyVal.getVal()), Long.parseLong(keyVal.getVersion()));
+	}
+
+	/**
+	 * Returns the key value pair of the record
+	 * @return
+	 */
+	public KeyVal toKeyVal(){
+		KeyVal keyVal = new KeyVal();
+		keyVal.setKey(decode(key));
+		keyVal.setVal(decode(val));
+		keyVal.setVersion(String.valueOf(version));
+		return keyVal;
+	}
+
+	/**
+	 * Returns the UTF-8 bytes of the key
+	 * @return
+	 */
+	public byte[] getKey() {
+		return key;
+	}
+
+	/**
+	 * Returns the UTF-8 bytes of the value
+	 * @return
+	 */
+	public byte[] getVal() {
+		return val;
+	}
+
+	/**
+	 * Returns the version
+	 * @return
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the key as a String
+	 * @return
+	 */
+	public String getKeyString(){
+		return decode(key);
+	}
+
+	/**
+	 * Checks whether the record has the given key
+	 * @param otherKey:- UTF-8 bytes of the other key
+	 * @param otherHash:- Hash of the other key
+	 * @return
+	 */
+	boolean hasKey(byte[] otherKey, int otherHash){
+		return hash == otherHash && Arrays.equals(key, otherKey);
+	}
+
+	/**
+	 * Checks whether the record has the given key, without encoding the key
+	 * @param otherKey
+	 * @param otherHash:- Hash of the other key, see hash(String)
+	 * @return
+	 */
+	boolean hasKey(String otherKey, int otherHash){
+		return hash == otherHash && isEncodingOf(key, otherKey);
+	}
+
+	/**
+	 * Checks whether the record has the given value, without encoding the value
+	 * @param otherVal
+	 * @return
+	 */
+	boolean hasVal(String otherVal){
+		if(val == null || otherVal == null)
+			return val == null && otherVal == null;
+		return isEncodingOf(val, otherVal);
+	}
+
+	/**
+	 * Compares two UTF-8 values byte by byte as unsigned bytes, which is the
+	 * order of their code points. A null value is the smallest.
+	 * @param a
+	 * @param b
+	 * @return negative, 0 or positive as a is less than, equal to or greater than b
+	 */
+	static int compare(byte[] a, byte[] b){
+		if(a == null || b == null)
+			return (a == null ? 0 : 1) - (b == null ? 0 : 1);
+		int length = Math.min(a.length, b.length);
+		for(int i=0;i<length;i++)
+			if(a[i] != b[i])
+				return (a[i] & 0xff) - (b[i] & 0xff);
+		return a.length - b.length;
+	}
+
+	/**
+	 * Checks whether bytes are the UTF-8 encoding of a String, without encoding it
+	 * @param bytes
+	 * @param s
+	 * @return
+	 */
+	private static boolean isEncodingOf(byte[] bytes, String s){
+		byte[] buf = null;
+		int position = 0;
+		for(int i=0;i<s.length();){
+			char c = s.charAt(i);
+			if(c < 0x80){		// ASCII, one byte
+				if(position == bytes.length || bytes[position++] != c)
+					return false;
+				i++;
+				continue;
+			}
+			if(buf == null)
+				buf = new byte[4];
+			int length = encodeChar(s, i, buf);
+			if(position + length > bytes.length)
+				return false;
+			for(int j=0;j<length;j++)
+				if(bytes[position++] != buf[j])
+					return false;
+			i += length == 4 ? 2 : 1;
+		}
+		return position == bytes.length;
+	}
+
+	/**
+	 * Returns the hash of the key
+	 * @return
+	 */
+	int getHash(){
+		return hash;
+	}
+
+	/**
+	 * Hash of the bytes of a key, with the bits mixed so that the low bits
+	 * can index an open addressing table
+	 * @param bytes
+	 * @return
+	 */
+	static int hash(byte[] bytes){
+		return mix(Arrays.hashCode(bytes));
+	}
+
+	/**
+	 * Hash of a key, same as hash(byte[]) of its UTF-8 bytes but computed
+	 * without encoding the key
+	 * @param key
+	 * @return
+	 */
+	static int hash(String key){
+		byte[] buf = null;
+		int h = 1;
+		for(int i=0;i<key.length();){
+			char c = key.charAt(i);
+			if(c < 0x80){		// ASCII, one byte
+				h = 31 * h + c;
+				i++;
+				continue;
+			}
+			if(buf == null)
+				buf = new byte[4];
+			int length = encodeChar(key, i, buf);
+			for(int j=0;j<length;j++)
+				h = 31 * h + buf[j];
+			i += length == 4 ? 2 : 1;
+		}
+		return mix(h);
+	}
+
+	private static int mix(int h){
+		h ^= h >>> 16;		// Murmur3 finalizer, linear probing needs well spread low bits
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	/**
+	 * Encodes the character at an index of a String to UTF-8, as String.getBytes() does.
+	 * A surrogate pair is encoded as one code point of 4 bytes, an unpaired
+	 * surrogate as '?'.
+	 *
+	 * @param s
+	 * @param i:- Index of the character
+	 * @param buf:- Buffer of at least 4 bytes for the encoded bytes
+	 * @return number of bytes encoded, 4 when two characters were consumed
+	 */
+	private static int encodeChar(String s, int i, byte[] buf){
+		char c = s.charAt(i);
+		if(c < 0x80){
+			buf[0] = (byte) c;
+			return 1;
+		}
+		if(c < 0x800){
+			buf[0] = (byte) (0xc0 | (c >> 6));
+			buf[1] = (byte) (0x80 | (c & 0x3f));
+			return 2;
+		}
+		if(Character.isHighSurrogate(c) || Character.isLowSurrogate(c)){
+			if(Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))){
+				int codePoint = Character.toCodePoint(c, s.charAt(i + 1));
+				buf[0] = (byte) (0xf0 | (codePoint >> 18));
+				buf[1] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+				buf[2] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+				buf[3] = (byte) (0x80 | (codePoint & 0x3f));
+				return 4;
+			}
+			buf[0] = (byte) '?';
+			return 1;
+		}
+		buf[0] = (byte) (0xe0 | (c >> 12));
+		buf[1] = (byte) (0x80 | ((c >> 6) & 0x3f));
+		buf[2] = (byte) (0x80 | (c & 0x3f));
+		return 3;
+	}
+
+	/**
+	 * Encodes a String to UTF-8
+	 * @param s
+	 * @return null for a null String
+	 */
+	static byte[] encode(String s){
+		if(s == null)
+			return null;
+		try {
+			return s.getBytes(UTF8);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);		// UTF-8 is always supported
+		}
+	}
+
+	/**
+	 * Decodes UTF-8 bytes to a String
+	 * @param bytes
+	 * @return null for null bytes
+	 */
+	static String decode(byte[] bytes){
+		if(bytes == null)
+			return null;
+		try {
+			return new String(bytes, UTF8);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+/**
+ * This enum lists the consistency levels a request can ask for, ie. how
+ * many replicas of a key the coordinator waits for before it returns.
+ * The requests are still sent to all the replicas.
+ *
+ * @author biplap
+ *
+ */
+public enum ConsistencyLevel {
+	ONE,		// Wait for one replica
+	QUORUM,		// Wait for the read or write quorum
+	ALL;		// Wait for all the replicas (which have not failed)
+
+	/**
+	 * Returns the number of replicas to wait for
+	 * @param replicationCount:- Number of replicas
+	 * @param quorum:- Read quorum for reads, write quorum for writes and deletes
+	 * @return
+	 */
+	public int getRequiredCount(int replicationCount, int quorum){
+		if(this == ONE)
+			return 1;
+		if(this == QUORUM)
+			return quorum;
+		return replicationCount;
+	}
+
+	/**
+	 * Parses a level, ignoring case
+	 * @param name:- Name of the level, null for the default
+	 * @param defaultLevel:- Level used if the name is null
+	 * @return
+	 */
+	public static ConsistencyLevel parse(String name, ConsistencyLevel defaultLevel){
+		if(name == null)
+			return defaultLevel;
+		return valueOf(name.toUpperCase());
+	}
+}
@@ -1,10 +1,13 @@
 package edu.buffalo.cse.cse486586.simpledynamo;
 
+import java.util.List;
+
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 /**
@@ -12,21 +15,35 @@ import android.util.Log;
  * to insert, query and delete key value pairs
  * while maintaining their versions.
  * 
+ * All the methods share the single database cached by SQLiteOpenHelper, and
+ * they are called from several threads: reads from the server threads and
+ * batches from the committer thread of WriteBatcher. So no method closes the
+ * database, a read closing it would close it under a running batch. It stays
+ * open for the lifetime of the storage engine and is closed by close(), after
+ * the WriteBatcher is closed (see SQLiteStorageEngine.close()).
+ * 
  * @author biplap
  *
  */
 public class DBHelper extends SQLiteOpenHelper{	
-	public static final int DB_VERSION = 1;
+	public static final int DB_VERSION = 2;
 	public static final String DBNAME = "simpledynamo";
 	public static final String TABLE_NAME = "keyval";
 	public static final String KEY_FIELD = "key";
 	public static final String VALUE_FIELD = "value";
 	public static final String VERSION_FIELD = "version";
+	public static final String EXPIRES_FIELD = "expires";	// Expiry time (ms) of an insert, stored in the value (see Expiry)
 
 	/* SQL statement to create the table */
 	private static final String CREATE_TABLE = "CREATE TABLE "+ TABLE_NAME + "( " +
 			KEY_FIELD+" TEXT PRIMARY KEY, " + 
-			VALUE_FIELD+" TEXT ,"+VERSION_FIELD+" TEXT ) ";
+			VALUE_FIELD+" TEXT ,"+VERSION_FIELD+" INTEGER ) ";
+
+	/* SQL statement to write a key value pair with version one more than its current version.
+	 * The current version is read inside the same statement so the increment is atomic. */
+	private static final String UPSERT_NEXT_VERSION = "INSERT OR REPLACE INTO "+TABLE_NAME+" ( " +
+			KEY_FIELD+", "+VALUE_FIELD+", "+VERSION_FIELD+" ) VALUES ( ?, ?, " +
+			"COALESCE((SELECT "+VERSION_FIELD+" FROM "+TABLE_NAME+" WHERE "+KEY_FIELD+"=?), 0) + 1 ) ";
 
 	/**
 	 * Default constructor for given context
@@ -49,12 +66,22 @@ public class DBHelper extends SQLiteOpenHelper{
 	}
 
 	/**
-	 * Creates table on upgrade
+	 * Migrates the table on upgrade, keeping the existing key value pairs.
+	 * Version 2 stores the version as INTEGER instead of TEXT, so the
+	 * old table is copied over casting the versions.
+	 * This runs inside the upgrade transaction of SQLiteOpenHelper.
 	 */
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-		Log.v("Log", "Upgrading Table");
-		this.onCreate(db);
+		Log.v("Log", "Upgrading Table from "+oldVersion+" to "+newVersion);
+		if(oldVersion < 2){
+			String oldTable = TABLE_NAME+"_v1";
+			db.execSQL("ALTER TABLE "+TABLE_NAME+" RENAME TO "+oldTable);
+			db.execSQL(CREATE_TABLE);
+			db.execSQL("INSERT INTO "+TABLE_NAME+" ( "+KEY_FIELD+", "+VALUE_FIELD+", "+VERSION_FIELD+" ) " +
+					"SELECT "+KEY_FIELD+", "+VALUE_FIELD+", CAST("+VERSION_FIELD+" AS INTEGER) FROM "+oldTable);
+			db.execSQL("DROP TABLE "+oldTable);
+		}
 	}
 
 	/**
@@ -65,7 +92,61 @@ public class DBHelper extends SQLiteOpenHelper{
 		SQLiteDatabase db = this.getWritableDatabase();
 		db.insertWithOnConflict(TABLE_NAME, null, value, SQLiteDatabase.CONFLICT_REPLACE);
 		Log.v("dbhelper", "inserted key="+value.getAsString("key")+" value="+value.getAsString("value"));
-		db.close();
+	}
+
+	/**
+	 * Inserts a batch of key value pairs in a single transaction, so that
+	 * the journal is synced once for the whole batch.
+	 * A row without a version is written with the next version of the key
+	 * (see upsertNextVersion), other rows are written with the version given.
+	 * @param values
+	 */
+	public void insertBatch(List<ContentValues> values){
+		SQLiteDatabase db = this.getWritableDatabase();
+		SQLiteStatement upsertStatement = null;
+		db.beginTransaction();
+		try{
+			for(int i=0;i<values.size();i++){
+				ContentValues value = values.get(i);
+				if(value.containsKey(VERSION_FIELD))
+					db.insertWithOnConflict(TABLE_NAME, null, value, SQLiteDatabase.CONFLICT_REPLACE);
+				else{
+					if(upsertStatement == null)
+						upsertStatement = db.compileStatement(UPSERT_NEXT_VERSION);
+					upsertNextVersion(upsertStatement, value.getAsString(KEY_FIELD), value.getAsString(VALUE_FIELD));
+				}
+			}
+			db.setTransactionSuccessful();
+		}
+		finally{
+			db.endTransaction();
+			if(upsertStatement != null)
+				upsertStatement.close();
+		}
+		Log.v("dbhelper", "inserted batch of "+values.size()+" key value pairs");
+	}
+
+	/**
+	 * Writes a key value pair with version one more than the current version
+	 * of the key, or version 1 if the key is not present.
+	 * This is a single statement so there is no read before the write and
+	 * concurrent writers can not lose a version increment.
+	 * SQLite on the target devices predates ON CONFLICT DO UPDATE, hence
+	 * INSERT OR REPLACE with the current version read in a sub query.
+	 *
+	 * @param upsertStatement:- Compiled UPSERT_NEXT_VERSION statement
+	 * @param key
+	 * @param val
+	 */
+	private void upsertNextVersion(SQLiteStatement upsertStatement, String key, String val){
+		upsertStatement.clearBindings();
+		upsertStatement.bindString(1, key);
+		if(val == null)
+			upsertStatement.bindNull(2);
+		else
+			upsertStatement.bindString(2, val);
+		upsertStatement.bindString(3, key);
+		upsertStatement.executeInsert();
 	}
 
 	/**
@@ -79,13 +160,27 @@ public class DBHelper extends SQLiteOpenHelper{
 	 */
 	public Cursor query(String[] projection, String selection, String[] selectionArgs,
 			String sortOrder){
+		return query(projection, selection, selectionArgs, sortOrder, null);
+	}
+	
+	/**
+	 * Queries the table and returns a Cursor object of at most limit rows of the result
+	 * 
+	 * @param projection
+	 * @param selection
+	 * @param selectionArgs
+	 * @param sortOrder
+	 * @param limit:- Max number of rows, null for no limit
+	 * @return
+	 */
+	public Cursor query(String[] projection, String selection, String[] selectionArgs,
+			String sortOrder, String limit){
 		Cursor res = null;
 		String []column = new String[1];
 		column[0] = KEY_FIELD;
 		SQLiteDatabase db = this.getReadableDatabase();
-		res = db.query(TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+		res = db.query(TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder, limit);
 		res.moveToFirst();
-		db.close();
 		return res;
 	}
 	
@@ -0,0 +1,87 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+/**
+ * This class logs the messages of the node logic (DynamoOperation and the
+ * classes it uses), so that it runs both on Android and on a plain JVM
+ * (eg. the local cluster harness).
+ *
+ * On Android the messages go to android.util.Log as before. On a JVM they
+ * go to System.err, verbose messages only if enabled by setVerbose().
+ *
+ * @author biplap
+ *
+ */
+public final class DynamoLog {
+	private static final boolean ANDROID = isAndroid();
+	private static volatile boolean verbose = false;
+
+	private DynamoLog(){
+	}
+
+	/**
+	 * Enables verbose messages on a JVM, they are always passed to android.util.Log on Android
+	 * @param verbose
+	 */
+	public static void setVerbose(boolean verbose){
+		DynamoLog.verbose = verbose;
+	}
+
+	public static void v(String tag, String msg){
+		if(ANDROID)
+			AndroidLog.v(tag, msg);
+		else if(verbose)
+			System.err.println("V/"+tag+": "+msg);
+	}
+
+	public static void i(String tag, String msg){
+		if(ANDROID)
+			AndroidLog.i(tag, msg);
+		else
+			System.err.println("I/"+tag+": "+msg);
+	}
+
+	public static void e(String tag, String msg){
+		if(ANDROID)
+			AndroidLog.e(tag, msg, null);
+		else
+			System.err.println("E/"+tag+": "+msg);
+	}
+
+	public static void e(String tag, String msg, Throwable tr){
+		if(ANDROID)
+			AndroidLog.e(tag, msg, tr);
+		else{
+			System.err.println("E/"+tag+": "+msg);
+			tr.printStackTrace();
+		}
+	}
+
+	private static boolean isAndroid(){
+		try {
+			Class.forName("android.util.Log");
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Calls to android.util.Log, loaded only on Android
+	 */
+	private static class AndroidLog {
+		static void v(String tag, String msg){
+			android.util.Log.v(tag, msg);
+		}
+
+		static void i(String tag, String msg){
+			android.util.Log.i(tag, msg);
+		}
+
+		static void e(String tag, String msg, Throwable tr){
+			if(tr == null)
+				android.util.Log.e(tag, msg);
+			else
+				android.util.Log.e(tag, msg, tr);
+		}
+	}
+}
@@ -1,21 +1,33 @@
 package edu.buffalo.cse.cse486586.simpledynamo;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map.Entry;
-
-import android.content.ContentValues;
-import android.content.Context;
-import android.database.Cursor;
-import android.util.Log;
-import android.util.SparseArray;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This is a singleton class whose object implements all the dynamo level details
@@ -26,10 +38,45 @@ import android.util.SparseArray;
  *
  */
 public class DynamoOperation {
+	public static final int CACHE_OFF = 0;			// Reads always go to the replicas
+	public static final int CACHE_ON = 1;			// Reads of cached keys are answered from the cache, possibly stale (see configureCache())
+	public static final int CACHE_VERIFY = 2;		// Cached versions are checked against a read quorum first
+	private static final int FILTER_MAX_AGE = 3;	// Intervals for which a shared bloom filter is trusted
+	private static final int MIN_BULK_SIZE = 1024;		// Initial size of the merge tables of the bulk paths
+	private static final int KEY_LOCK_STRIPES = 64;		// Number of locks ordering the local operations on a key
+	private static final int COMPACTION_BATCH = 1000;	// Local keys gone through by a step of the tombstone compaction
 	private static final String TAG = DynamoRing.class.getSimpleName();
-	private static DynamoOperation dynamoOperation = null;
+	public static final String DEFAULT_NODE_HOST = "10.0.2.2";	// Host of the emulators, redirecting the node ports
+	private static volatile DynamoOperation dynamoOperation = null;	// Published once configured, see publishInstance()
 	private DynamoRing dynamoRing = null;
-	private DBHelper dbHelper = null;
+	private StorageEngine storageEngine = null;
+	private SnapshotManager snapshotManager = null;
+	private volatile KeyValCache keyValCache = new KeyValCache(10000, 60000);
+	private volatile int cacheMode = CACHE_OFF;
+	private volatile KeyFilterManager keyFilterManager = null;	// Bloom filters of the nodes, null if disabled
+	private final LatencyMetrics latencyMetrics = new LatencyMetrics();
+	private final ReplicaLatencyTracker replicaLatencyTracker = new ReplicaLatencyTracker();
+	private volatile HedgeBudget hedgeBudget = null;		// Budget of hedged reads, null if hedging is disabled
+	private volatile double hedgePercentile = 0.95;
+	private volatile boolean adaptiveSelection = false;	// Whether reads needing fewer than all replicas go to the best ranked ones
+	private volatile ReadCoalescer readCoalescer = null;	// Coalescer of concurrent reads of a key, null if disabled
+	private volatile SlowOperationLog slowOperationLog = null;	// Traces of the slow operations, null if disabled
+	private volatile WireCodec wireCodec = new WireCodec(WireCodec.DEFAULT_THRESHOLD);	// Enabled before the sync of the constructor
+	private final Set<Integer> compressingNodes = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());	// Nodes seen to accept compression
+	private volatile long tombstoneGracePeriod = 0;		// Time (ms) after a delete for which its tombstone is kept in any case
+	private volatile String compactionCursor = null;	// Key from which the next step of the compaction starts, null for the first
+	private final ArrayList<Thread> backgroundThreads = new ArrayList<Thread>();	// Filter sharer and compactor, stopped by close()
+	private final StripedKeyLock keyLocks = new StripedKeyLock(KEY_LOCK_STRIPES);	// Orders the local operations on a key
+	private final ExecutorService requestExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {		// Daemon, requests left in the background must not keep the process
+			Thread thread = new Thread(r, DynamoOperation.class.getSimpleName());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private final InetAddress NODE_HOST;		// Host at which the ports of the nodes are reachable
+	private final Map<Integer, InetSocketAddress> NODE_ENDPOINTS;	// Host and port of each node, null if all are at NODE_HOST
 	private final int MY_ADDRESS;
 	private final int REPLICATION_COUNT;
 	private final int READ_QUORUM;
@@ -38,16 +85,23 @@ public class DynamoOperation {
 	
 	/**
 	 * Private constructor of the class to make it singleton
-	 * @param context
+	 * @param storageEngine
+	 * @param snapshotDir
+	 * @param nodeHost
+	 * @param nodeEndpoints
+	 * @param dynamoRing
 	 * @param myAddress
-	 * @param nodeCount
 	 * @param replicationCount
 	 * @param readQuorum
 	 * @param writeQuorum
 	 */
-	private DynamoOperation(Context context, int myAddress, int nodeCount, int replicationCount, int readQuorum, int writeQuorum){
-		dbHelper = new DBHelper(context);
-		dynamoRing = DynamoRing.createAndGetInstance(nodeCount);
+	private DynamoOperation(StorageEngine storageEngine, File snapshotDir, InetAddress nodeHost, Map<Integer, InetSocketAddress> nodeEndpoints,
+			DynamoRing dynamoRing, int myAddress, int replicationCount, int readQuorum, int writeQuorum){
+		this.storageEngine = storageEngine;
+		this.dynamoRing = dynamoRing;
+		snapshotManager = new SnapshotManager(snapshotDir, storageEngine, dynamoRing);
+		NODE_HOST = nodeHost;
+		NODE_ENDPOINTS = nodeEndpoints;
 		MY_ADDRESS = myAddress;
 		REPLICATION_COUNT = replicationCount;
 		READ_QUORUM = readQuorum;
@@ -59,7 +113,8 @@ public class DynamoOperation {
 	 * This method creates and returns the single object of this class which will be
 	 * alive throughout the execution of this program.
 	 * 
-	 * @param context:- Context of the activity which calls this method
+	 * @param storageEngine:- Storage engine of this node (see StorageEngineFactory)
+	 * @param snapshotDir:- Directory for the snapshot files of this node
 	 * @param myAddress:- Address of this node
 	 * @param nodeCount:- Total number of nodes in the DHT Ring
 	 * @param replicationCount:- Replication count
@@ -68,11 +123,87 @@ public class DynamoOperation {
 	 * 
 	 * @return:- A singleton instance of this class 
 	 */
-	public static DynamoOperation createAndGetInstance(Context context, int myAddress, int nodeCount, int replicationCount, int readQuorum, int writeQuorum){
-		dynamoOperation = new DynamoOperation(context, myAddress, nodeCount, replicationCount, readQuorum, writeQuorum);
+	public static DynamoOperation createAndGetInstance(StorageEngine storageEngine, File snapshotDir, int myAddress, int nodeCount, int replicationCount, int readQuorum, int writeQuorum){
+		publishInstance(createInstance(storageEngine, snapshotDir, myAddress, nodeCount, replicationCount, readQuorum, writeQuorum));
 		return dynamoOperation;
 	}
 	
+	/**
+	 * This method creates the object of this class of an emulator without publishing
+	 * it to getInstance(), so that it can be configured (configure*()) before the
+	 * content provider uses it. It is published with publishInstance().
+	 * 
+	 * @param storageEngine:- Storage engine of this node (see StorageEngineFactory)
+	 * @param snapshotDir:- Directory for the snapshot files of this node
+	 * @param myAddress:- Address of this node
+	 * @param nodeCount:- Total number of nodes in the DHT Ring
+	 * @param replicationCount:- Replication count
+	 * @param readQuorum:- Read quorum
+	 * @param writeQuorum:- Write quorum
+	 * @return
+	 */
+	public static DynamoOperation createInstance(StorageEngine storageEngine, File snapshotDir, int myAddress, int nodeCount, int replicationCount, int readQuorum, int writeQuorum){
+		try {
+			return new DynamoOperation(storageEngine, snapshotDir, InetAddress.getByName(DEFAULT_NODE_HOST), null,
+					DynamoRing.createAndGetInstance(nodeCount), myAddress, replicationCount, readQuorum, writeQuorum);
+		} catch (UnknownHostException e) {
+			throw new IllegalStateException(e);		// Literal address, not resolved
+		}
+	}
+	
+	/**
+	 * Makes a configured object the singleton instance returned by getInstance()
+	 * @param instance
+	 */
+	public static void publishInstance(DynamoOperation instance){
+		dynamoOperation = instance;
+	}
+	
+	/**
+	 * This method creates an object of this class for one of several nodes
+	 * running in the same process, eg. the nodes of a local cluster. It is
+	 * not returned by getInstance().
+	 * 
+	 * @param storageEngine:- Storage engine of this node
+	 * @param snapshotDir:- Directory for the snapshot files of this node
+	 * @param nodeHost:- Host at which the ports (addresses) of the nodes are reachable, eg. the loopback address
+	 * @param myAddress:- Address of this node
+	 * @param nodeCount:- Total number of nodes in the DHT Ring
+	 * @param baseAddress:- Address of the first node, see DynamoRing
+	 * @param replicationCount:- Replication count
+	 * @param readQuorum:- Read quorum
+	 * @param writeQuorum:- Write quorum
+	 * @return
+	 */
+	public static DynamoOperation create(StorageEngine storageEngine, File snapshotDir, InetAddress nodeHost, int myAddress, int nodeCount, int baseAddress, int replicationCount, int readQuorum, int writeQuorum){
+		return new DynamoOperation(storageEngine, snapshotDir, nodeHost, null, DynamoRing.createAndGetInstance(nodeCount, baseAddress),
+				myAddress, replicationCount, readQuorum, writeQuorum);
+	}
+	
+	/**
+	 * This method creates an object of this class for a node whose ring members
+	 * are on different hosts, eg. standalone servers. Addresses identify the
+	 * nodes in the ring (they are hashed to their ids), the endpoints are where
+	 * they are reached. It is not returned by getInstance().
+	 * 
+	 * @param storageEngine:- Storage engine of this node
+	 * @param snapshotDir:- Directory for the snapshot files of this node
+	 * @param nodeEndpoints:- Host and port of each node of the ring, by address
+	 * @param myAddress:- Address of this node, one of the keys of nodeEndpoints
+	 * @param replicationCount:- Replication count
+	 * @param readQuorum:- Read quorum
+	 * @param writeQuorum:- Write quorum
+	 * @return
+	 */
+	public static DynamoOperation create(StorageEngine storageEngine, File snapshotDir, Map<Integer, InetSocketAddress> nodeEndpoints,
+			int myAddress, int replicationCount, int readQuorum, int writeQuorum){
+		if(!nodeEndpoints.containsKey(myAddress))
+			throw new IllegalArgumentException("Address "+myAddress+" is not a member of the ring");
+		DynamoRing dynamoRing = DynamoRing.createAndGetInstance(new ArrayList<Integer>(nodeEndpoints.keySet()));
+		return new DynamoOperation(storageEngine, snapshotDir, null, new HashMap<Integer, InetSocketAddress>(nodeEndpoints),
+				dynamoRing, myAddress, replicationCount, readQuorum, writeQuorum);
+	}
+	
 	
 	/**
 	 * Returns the singleton instance of this class which was previously created
@@ -84,185 +215,1123 @@ public class DynamoOperation {
 		return dynamoOperation;
 	}
 	
+	/**
+	 * Configures the coordinator side cache of hot keys.
+	 * With CACHE_ON a cached key value pair is returned without checking its
+	 * version, so a read may return a stale value written by another coordinator,
+	 * till the entry expires after ttl. CACHE_VERIFY checks the version first.
+	 * 
+	 * @param cacheMode:- One of CACHE_OFF, CACHE_ON, CACHE_VERIFY
+	 * @param maxSize:- Max number of cached key value pairs
+	 * @param ttl:- Time to live of a cached key value pair in milliseconds
+	 * @param offHeapCapacity:- Max off heap bytes for the large cached values, 0 to keep them on the heap
+	 * @param offHeapThreshold:- Size in bytes from which a cached value is kept off heap
+	 */
+	public void configureCache(int cacheMode, int maxSize, long ttl, long offHeapCapacity, int offHeapThreshold){
+		OffHeapArena arena = offHeapCapacity > 0 ? new OffHeapArena(offHeapCapacity, BuildConfig.DEBUG) : null;
+		this.keyValCache = new KeyValCache(maxSize, ttl, arena, offHeapThreshold);
+		this.cacheMode = cacheMode;
+	}
+	
+	/**
+	 * Enables the bloom filters over the keys of the nodes. The filter of this
+	 * node is shared with the other nodes every interval if it changed, and at
+	 * least every other interval so that it does not expire at the other nodes.
+	 * A shared filter is trusted for FILTER_MAX_AGE intervals. The local filter
+	 * is rebuilt by the same thread before it is shared, when needed.
+	 * 
+	 * @param falsePositiveRate:- False positive rate of the filters, eg. 0.01
+	 * @param interval:- Interval in milliseconds at which the filter is shared
+	 */
+	public void configureFilters(double falsePositiveRate, final long interval){
+		keyFilterManager = new KeyFilterManager(storageEngine, falsePositiveRate, FILTER_MAX_AGE * interval);
+		Thread sharer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for(long round=0;;round++){
+					keyFilterManager.rebuildIfNeeded();
+					shareFilter(round % 2 == 0);
+					try {
+						Thread.sleep(interval);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		}, KeyFilterManager.class.getSimpleName());
+		sharer.setDaemon(true);
+		startBackgroundThread(sharer);
+	}
+	
+	/**
+	 * Starts a background thread of this node, to be stopped by close()
+	 * @param thread
+	 */
+	private synchronized void startBackgroundThread(Thread thread){
+		backgroundThreads.add(thread);
+		thread.start();
+	}
+	
+	/**
+	 * Stops the background threads of this node (filter sharing and tombstone
+	 * compaction), before its storage engine is closed
+	 */
+	public synchronized void close(){
+		for(int i=0;i<backgroundThreads.size();i++)
+			backgroundThreads.get(i).interrupt();
+		backgroundThreads.clear();
+	}
+	
+	/**
+	 * Sends the filter of this node to all the other nodes
+	 * @param force:- Send the filter even if it did not change
+	 */
+	private void shareFilter(boolean force){
+		BloomFilter filter = keyFilterManager.getFilterToShare(force);
+		if(filter == null)
+			return;
+		Message msg = new Message();
+		msg.setType(Message.FILTER);
+		msg.setSender(MY_ADDRESS);
+		msg.setBloomFilter(filter);
+		String msgStr = wireCodec.encode(msg, false);	// The bits of a filter hardly compress
+		ArrayList<DHTNode> nodeList = dynamoRing.getAllNodes();
+		for(int i=0;i<nodeList.size();i++){
+			if(nodeList.get(i).getAddress() == MY_ADDRESS)
+				continue;
+			try{		// try inside the for loop so as to continue sharing with other
+						// nodes even if one node fails
+				Socket socket = connect(nodeList.get(i).getAddress());
+				BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+				BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+				bw.write(msgStr+"\n");
+				bw.flush();
+				br.readLine();
+				bw.close();
+				br.close();
+				socket.close();
+			}
+			catch(Exception e){
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Stores the filter shared by another node
+	 * @param msg:- FILTER message
+	 */
+	public void receiveFilter(Message msg){
+		if(keyFilterManager != null && msg.getBloomFilter() != null)
+			keyFilterManager.updateNodeFilter(msg.getSender(), msg.getBloomFilter());
+	}
+	
+	/**
+	 * Returns the bloom filters of the nodes, for the number of reads they saved
+	 * @return null if the filters are disabled
+	 */
+	public KeyFilterManager getKeyFilterManager(){
+		return keyFilterManager;
+	}
+	
+	/**
+	 * Enables hedged reads. A read which waits for fewer than all the replicas
+	 * (see ConsistencyLevel) is first sent to only as many replicas as needed.
+	 * If a reply has not arrived within the given latency percentile of the
+	 * replicas asked, the read is also sent to another replica.
+	 * 
+	 * @param percentile:- Latency percentile of a replica after which a read is hedged, eg. 0.95
+	 * @param budgetRatio:- Max hedged requests per read, eg. 0.05
+	 */
+	public void configureHedging(double percentile, double budgetRatio){
+		this.hedgePercentile = percentile;
+		this.hedgeBudget = new HedgeBudget(budgetRatio);
+	}
+	
+	/**
+	 * Enables or disables adaptive replica selection. When enabled, a read
+	 * which waits for fewer than all the replicas is sent only to as many
+	 * replicas as needed, chosen by their recent response times and
+	 * outstanding requests (see ReplicaLatencyTracker), so busy replicas
+	 * get less read traffic.
+	 * 
+	 * @param adaptiveSelection
+	 */
+	public void configureReplicaSelection(boolean adaptiveSelection){
+		this.adaptiveSelection = adaptiveSelection;
+	}
+	
+	/**
+	 * Enables or disables coalescing of concurrent reads of the same key
+	 * (see ReadCoalescer)
+	 * 
+	 * @param coalesceReads
+	 */
+	public void configureReadCoalescing(boolean coalesceReads){
+		this.readCoalescer = coalesceReads ? new ReadCoalescer() : null;
+	}
+	
+	/**
+	 * Returns the read coalescer, for the number of reads saved
+	 * @return null if coalescing is disabled
+	 */
+	public ReadCoalescer getReadCoalescer(){
+		return readCoalescer;
+	}
+	
+	/**
+	 * Enables tracing of the operations coordinated by this node, keeping
+	 * the traces of the slow ones (see SlowOperationLog)
+	 * 
+	 * @param thresholdMillis:- Duration (ms) from which an operation is slow
+	 * @param capacity:- Max number of traces kept
+	 */
+	public void configureSlowOperationLog(long thresholdMillis, int capacity){
+		this.slowOperationLog = new SlowOperationLog(thresholdMillis, capacity);
+	}
+	
+	/**
+	 * Returns the slow operation log, to dump the traces kept
+	 * @return null if tracing is disabled
+	 */
+	public SlowOperationLog getSlowOperationLog(){
+		return slowOperationLog;
+	}
+	
+	/**
+	 * Sets the length of JSON from which messages are compressed on the wire
+	 * (see WireCodec). Replies are compressed only to nodes asking for it, and
+	 * requests only to nodes which did, so nodes with compression disabled
+	 * still work with the others. Enabled at WireCodec.DEFAULT_THRESHOLD by default.
+	 * 
+	 * @param threshold:- Length of JSON, -1 to disable compression
+	 */
+	public void configureCompression(int threshold){
+		this.wireCodec = new WireCodec(threshold);
+	}
+	
+	/**
+	 * Returns the codec of the messages sent by this node
+	 * @return
+	 */
+	public WireCodec getWireCodec(){
+		return wireCodec;
+	}
+	
+	/**
+	 * Records whether a node accepts compressed messages, from a message it sent
+	 * @param address:- Address of the node
+	 * @param msg
+	 */
+	private void recordCompression(int address, Message msg){
+		if(msg == null)
+			return;
+		if(msg.acceptsCompression())
+			compressingNodes.add(address);
+		else
+			compressingNodes.remove(address);
+	}
+	
+	/**
+	 * Checks whether all of the nodes accept compressed messages
+	 * @param nodeList
+	 * @return
+	 */
+	private boolean acceptCompression(ArrayList<DHTNode> nodeList){
+		for(int i=0;i<nodeList.size();i++)
+			if(!compressingNodes.contains(nodeList.get(i).getAddress()))
+				return false;
+		return true;
+	}
+	
+	/**
+	 * Starts the trace of an operation
+	 * @return null if tracing is disabled
+	 */
+	private OperationTrace beginTrace(String operation, String key){
+		return slowOperationLog == null ? null : slowOperationLog.begin(operation, key);
+	}
+	
+	/**
+	 * Ends the trace of an operation, keeping it if the operation was slow
+	 * @param trace:- Trace, null if tracing is disabled
+	 */
+	private void endTrace(OperationTrace trace){
+		if(trace != null)
+			slowOperationLog.end(trace);
+	}
+	
+	/**
+	 * Returns the budget of hedged reads, for the number of hedges sent
+	 * @return null if hedging is disabled
+	 */
+	public HedgeBudget getHedgeBudget(){
+		return hedgeBudget;
+	}
+	
+	/**
+	 * Returns the latencies of the operations coordinated by this node
+	 * @return
+	 */
+	public LatencyMetrics getLatencyMetrics(){
+		return latencyMetrics;
+	}
+	
+	/**
+	 * Returns the coordinator side cache, for its hit and miss statistics
+	 * @return
+	 */
+	public KeyValCache getKeyValCache(){
+		return keyValCache;
+	}
+	
+	/**
+	 * Returns the stats of this node, as sent in reply to a STATS message:-
+	 * the latencies and counters of this node and of the process (eg. JSON
+	 * encoding), the bytes sent before and after compression, and the counters
+	 * of the cache, filters, hedging and read coalescing which are enabled.
+	 * 
+	 * @return
+	 */
+	public NodeStats getStats(){
+		NodeStats stats = new NodeStats(MY_ADDRESS, System.currentTimeMillis());
+		stats.addLatencies(latencyMetrics.getStats());
+		stats.addLatencies(LatencyMetrics.PROCESS.getStats());
+		Iterator<Map.Entry<String, Long>> iterator = latencyMetrics.getCounters().entrySet().iterator();
+		while(iterator.hasNext()){
+			Map.Entry<String, Long> entry = iterator.next();
+			stats.putCounter(entry.getKey(), entry.getValue());
+		}
+		if(cacheMode != CACHE_OFF){
+			stats.putCounter("cache.hits", keyValCache.getHitCount());
+			stats.putCounter("cache.misses", keyValCache.getMissCount());
+			stats.putCounter("cache.evictions", keyValCache.getEvictionCount());
+			stats.putCounter("cache.size", keyValCache.size());
+		}
+		if(keyFilterManager != null)
+			stats.putCounter("filter.skippedReads", keyFilterManager.getSkippedReadCount());
+		if(hedgeBudget != null){
+			stats.putCounter("hedge.reads", hedgeBudget.getReadCount());
+			stats.putCounter("hedge.hedges", hedgeBudget.getHedgeCount());
+		}
+		if(slowOperationLog != null)
+			stats.putCounter("operations.slow", slowOperationLog.getSlowCount());
+		if(readCoalescer != null){
+			stats.putCounter("coalescer.reads", readCoalescer.getReadCount());
+			stats.putCounter("coalescer.flights", readCoalescer.getFlightCount());
+		}
+		WireCodec codec = wireCodec;
+		stats.putCounter("wire.messages", codec.getMessageCount());
+		stats.putCounter("wire.bytes", codec.getByteCount());
+		stats.putCounter("wire.compressed.messages", codec.getCompressedCount());
+		stats.putCounter("wire.compressed.before", codec.getBytesBeforeCompression());
+		stats.putCounter("wire.compressed.after", codec.getBytesAfterCompression());
+		stats.putCounter("wire.incompressible.messages", codec.getIncompressibleCount());
+		return stats;
+	}
+	
+	/**
+	 * Opens a connection to a node
+	 * @param address:- Address (port) of the node
+	 * @return
+	 * @throws IOException
+	 */
+	private Socket connect(int address) throws IOException{
+		if(NODE_ENDPOINTS != null){
+			InetSocketAddress endpoint = NODE_ENDPOINTS.get(address);
+			return new Socket(endpoint.getAddress(), endpoint.getPort());
+		}
+		return new Socket(NODE_HOST, address);
+	}
+	
+	/**
+	 * Returns the address of this node
+	 * @return
+	 */
+	public int getAddress(){
+		return MY_ADDRESS;
+	}
+	
+	/**
+	 * Returns the storage engine of this node
+	 * @return
+	 */
+	public StorageEngine getStorageEngine(){
+		return storageEngine;
+	}
+	
+	/**
+	 * Reads a page of the key value pairs of the local node in key order,
+	 * without the tombstones and expired key value pairs. Pages are read
+	 * until limit key value pairs are found or the keys end.
+	 * @param fromKey:- Inclusive start of the page, null for the first page
+	 * @param limit:- Max number of key value pairs in the page, positive
+	 * @return
+	 */
+	public ScanPage scanLocal(String fromKey, int limit){
+		return scanLocal(fromKey, null, limit);
+	}
+	
+	/**
+	 * Reads a page of the key value pairs of the local node in a key range,
+	 * see above
+	 * @param fromKey:- Inclusive start of the page, null for the first page
+	 * @param toKey:- Exclusive end of the range, null for no end
+	 * @param limit:- Max number of key value pairs in the page, positive
+	 * @return
+	 */
+	public ScanPage scanLocal(String fromKey, String toKey, int limit){
+		ScanPage.checkPageSize(limit);
+		ArrayList<KeyVal> resultList = new ArrayList<KeyVal>(limit);
+		ScanPage page;
+		do{
+			page = scanLocalWithTombstones(fromKey, toKey, limit - resultList.size());
+			resultList.addAll(Expiry.resolve(Tombstone.removeTombstones(page.getKeyValList()), System.currentTimeMillis()));
+			fromKey = page.getContinuation();
+		}
+		while(fromKey != null && resultList.size() < limit);
+		return new ScanPage(resultList, page.getContinuation());
+	}
+	
+	/**
+	 * Reads a page of the key value pairs of the local node in key order,
+	 * tombstones included, for the merge of the pages of the nodes by scanDHT().
+	 * The page is read from the ordered index of the storage engine.
+	 * @param fromKey:- Inclusive start of the page, null for the first page
+	 * @param toKey:- Exclusive end of the range, null for no end
+	 * @param limit:- Max number of key value pairs in the page, positive
+	 * @return
+	 */
+	public ScanPage scanLocalWithTombstones(String fromKey, String toKey, int limit){
+		ScanPage.checkPageSize(limit);		// The engines read all the keys with limit 0
+		long start = System.nanoTime();
+		ArrayList<KeyVal> keyValList = storageEngine.range(fromKey, toKey, limit);
+		latencyMetrics.record("local.range", start);
+		String continuation = null;
+		if(keyValList.size() == limit)
+			continuation = ScanPage.continuationAfter(keyValList.get(keyValList.size()-1).getKey());
+		return new ScanPage(keyValList, continuation);
+	}
+	
 	/**
 	 * Reads a key value pair from the local node
 	 * @param key:- key of the key value pair
 	 * @return List of key value pairs whose key is supplied as argument 
 	 */
 	public ArrayList<KeyVal> readLocalKeyVal(String key){
+		long start = System.nanoTime();
+		if(key.equals("@")){	// Fetch all the records
+			ArrayList<KeyVal> keyValList = storageEngine.scan();
+			latencyMetrics.record("local.scan", start);
+			return keyValList;
+		}
 		ArrayList<KeyVal> keyValList = new ArrayList<KeyVal>();
-		String querySelection = DBHelper.KEY_FIELD+"=?";
-		String selection = key;
-		String []querySelectionArgs = new String[]{selection};
-		if(selection.equals("@")){	// Fetch all the records
-			querySelection = null;
-			querySelectionArgs = null;
-		}
-		Cursor cursor = dbHelper.query(null, querySelection, querySelectionArgs, null);
-		if (cursor.moveToFirst()){
-			do{
-				KeyVal newKeyVal = new KeyVal();
-				newKeyVal.setKey(cursor.getString(0));
-				newKeyVal.setVal(cursor.getString(1));
-				newKeyVal.setVersion(cursor.getString(2));
-				keyValList.add(newKeyVal);
-			}while(cursor.moveToNext());
-		}
-		cursor.close();
+		KeyVal keyVal = storageEngine.get(key);
+		latencyMetrics.record("local.get", start);
+		if(keyVal != null)
+			keyValList.add(keyVal);
 		return keyValList;
 	}
 	
 	/**
-	 * Writes a key value pair in the local node.
-	 * The version will be updated to be the newest one ie.
-	 * the version will be one more than the max version of the key value pair
-	 * if it existed earlier
+	 * Writes a key value pair in the local node.
+	 * The version will be updated to be the newest one ie.
+	 * the version will be one more than the max version of the key value pair
+	 * if it existed earlier.
+	 * The increment is done atomically by the storage engine, and the write
+	 * is ordered with the other local operations on the key by the lock of
+	 * its stripe, so that requests can be served concurrently.
+	 * 
+	 * @param key
+	 * @param val
+	 * @return true if the write was committed
+	 */
+	public boolean writeLocalKeyVal(String key, String val){
+		long start = System.nanoTime();
+		keyLocks.lock(key);
+		try{
+			boolean committed = storageEngine.put(key, val);
+			latencyMetrics.record("local.put", start);
+			if(!committed)
+				return false;
+			recordLocalWrite(key);
+			return true;
+		}
+		finally{
+			keyLocks.unlock(key);
+		}
+	}
+	
+	/**
+	 * Writes a key value pair in the local node along with 
+	 * the version supplied.
+	 * The write is skipped if the node already has a newer version, so
+	 * that the version of a key never goes back when replicas are applied
+	 * concurrently, or the same version with a value which wins the tie
+	 * (see Tombstone), so that replicas applied in any order agree.
+	 * 
+	 * @param key
+	 * @param val
+	 * @param version
+	 * @return true if the write was committed or was skipped
+	 */
+	public boolean writeLocalKeyVal(String key, String val, String version){
+		long start = System.nanoTime();
+		keyLocks.lock(key);
+		try{
+			KeyVal current = storageEngine.get(key);
+			if(current != null){
+				long currentVersion = Long.parseLong(current.getVersion());
+				if(currentVersion > Long.parseLong(version)
+						|| (currentVersion == Long.parseLong(version) && !Tombstone.winsTie(val, current.getVal())))
+					return true;
+			}
+			boolean committed = storageEngine.put(key, val, version);
+			latencyMetrics.record("local.put", start);
+			if(!committed)
+				return false;
+			recordLocalWrite(key);
+			return true;
+		}
+		finally{
+			keyLocks.unlock(key);
+		}
+	}
+	
+	/**
+	 * Writes a key value pair in the local node if the key has the expected
+	 * version, with the next version. A deleted or expired key has version 0,
+	 * as a key which is not present. The version is compared and the write
+	 * done under the lock of the key, so concurrent requests can not both
+	 * succeed on the same version.
+	 * 
+	 * @param key
+	 * @param val
+	 * @param expectedVersion:- Version the key must have, 0 if it must not be present
+	 * @return version written if the key had the expected version, otherwise minus
+	 * the current version. null if the write was not committed
+	 */
+	public Long casLocalKeyVal(String key, String val, long expectedVersion){
+		long start = System.nanoTime();
+		keyLocks.lock(key);
+		try{
+			KeyVal current = storageEngine.get(key);
+			boolean present = current != null && !Tombstone.isTombstone(current)
+					&& !Expiry.isExpired(current.getVal(), System.currentTimeMillis());
+			long currentVersion = present ? Long.parseLong(current.getVersion()) : 0;
+			if(currentVersion != expectedVersion)
+				return -currentVersion;
+			boolean committed = storageEngine.put(key, val);
+			latencyMetrics.record("local.cas", start);
+			if(!committed)
+				return null;
+			recordLocalWrite(key);
+			return current == null ? 1 : Long.parseLong(current.getVersion()) + 1;	// Next to the tombstone's if deleted
+		}
+		finally{
+			keyLocks.unlock(key);
+		}
+	}
+	
+	/**
+	 * Updates the snapshot, cache and filter after a local write, under
+	 * the lock of the key
+	 * @param key
+	 */
+	private void recordLocalWrite(String key){
+		snapshotManager.recordWrite(key);
+		keyValCache.invalidate(key);
+		if(keyFilterManager != null)
+			keyFilterManager.recordWrite(key);
+	}
+	
+	/**
+	 * Reads a key value pair from the distributed hash table
+	 * with failure handling.
+	 * Normally failure detection should be done using socket exceptions
+	 * but I observed that after port redirection, even if no application is
+	 * running on the emulator, connect succeeds and there is no connection timed out
+	 * exception. Even write to the socket succeeds. The only way to determine
+	 * failure is when reading to socket returns null. 
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public ArrayList<KeyVal> readDHTKeyVal(String key){
+		return readDHTKeyVal(key, ConsistencyLevel.ALL);
+	}
+	
+	/**
+	 * Reads a key value pair from the distributed hash table, waiting for
+	 * the number of replicas of the consistency level.
+	 * 
+	 * @param key
+	 * @param level:- Consistency level of the read
+	 * @return
+	 */
+	public ArrayList<KeyVal> readDHTKeyVal(final String key, final ConsistencyLevel level){
+		long start = System.nanoTime();
+		final OperationTrace trace = beginTrace("read."+level.name(), key);
+		ArrayList<KeyVal> resultList;
+		if(readCoalescer != null){		// Share the read with concurrent reads of the key
+			resultList = readCoalescer.read(level.name()+":"+key, new ReadCoalescer.Loader() {
+				@Override
+				public ArrayList<KeyVal> load() {
+					return readDHTKeyValWithCache(key, level, trace);
+				}
+			});
+			if(trace != null)		// Includes the phases of the read, unless it joined another one
+				trace.phase("coalesce", start);
+		}
+		else
+			resultList = readDHTKeyValWithCache(key, level, trace);
+		resultList = Expiry.resolve(resultList, System.currentTimeMillis());	// After the cache, which keeps the expiry
+		latencyMetrics.record("read", level, start);
+		endTrace(trace);
+		return resultList;
+	}
+	
+	/**
+	 * Reads a key value pair from the cache, the bloom filters or the replicas
+	 * @param key
+	 * @param level
+	 * @param trace:- Trace of the read, null if not traced
+	 * @return
+	 */
+	private ArrayList<KeyVal> readDHTKeyValWithCache(String key, ConsistencyLevel level, OperationTrace trace){
+		if(cacheMode != CACHE_OFF){
+			long start = System.nanoTime();
+			KeyVal cached = keyValCache.get(key);
+			boolean hit = cached != null && (cacheMode == CACHE_ON || isLatestVersion(cached));
+			if(trace != null)
+				trace.phase(hit ? "cache.hit" : "cache.miss", start);
+			if(hit){
+				ArrayList<KeyVal> resultList = new ArrayList<KeyVal>();
+				resultList.add(cached);
+				return resultList;
+			}
+		}
+		if(keyFilterManager != null){
+			long start = System.nanoTime();
+			boolean absent = isDefinitelyAbsent(key);
+			if(trace != null)
+				trace.phase("filter", start);
+			if(absent){
+				keyFilterManager.recordSkippedRead();
+				return new ArrayList<KeyVal>();
+			}
+		}
+		long stamp = keyValCache.getInvalidationStamp();
+		ArrayList<KeyVal> resultList = readDHTKeyValFromReplicas(key, level, trace);
+		// Only a read of all the replicas is sure to have seen the latest write
+		if(cacheMode != CACHE_OFF && level == ConsistencyLevel.ALL && resultList.size() == 1)
+			keyValCache.put(resultList.get(0), stamp);
+		return resultList;
+	}
+	
+	/**
+	 * Checks the bloom filters of all the replicas of a key
+	 * @param key
+	 * @return true if the filters of all the replicas say the key is not present
+	 */
+	private boolean isDefinitelyAbsent(String key){
+		DHTNode node = dynamoRing.getResponsibleNode(key);
+		ArrayList<DHTNode> responsibleNodeList = dynamoRing.getNSuccessors(node, REPLICATION_COUNT-1);
+		responsibleNodeList.add(node);
+		for(int i=0;i<responsibleNodeList.size();i++)
+			if(keyFilterManager.mightContain(responsibleNodeList.get(i).getAddress(), MY_ADDRESS, key))
+				return false;
+		return true;
+	}
+	
+	/**
+	 * Checks the version of a cached key value pair against the versions
+	 * held by a read quorum of its replicas. Only the versions are sent
+	 * back by the replicas, not the values.
+	 * 
+	 * @param cached:- Cached key value pair
+	 * @return true if no replica of the quorum has a newer version
+	 */
+	private boolean isLatestVersion(KeyVal cached){
+		DHTNode node = dynamoRing.getResponsibleNode(cached.getKey());
+		ArrayList<DHTNode> responsibleNodeList = dynamoRing.getNSuccessors(node, REPLICATION_COUNT-1);
+		responsibleNodeList.add(node);
+		long cachedVersion = Long.parseLong(cached.getVersion());
+		int responses = 0;
+		for(int i=0;i<responsibleNodeList.size() && responses<READ_QUORUM;i++){
+			try{
+				DHTNode nextNode = responsibleNodeList.get(i);
+				Socket socket = connect(nextNode.getAddress());
+				BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+				BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+				Message msg = new Message();
+				msg.setType(Message.READ_VERSION);
+				msg.setKey(cached.getKey());
+				bw.write(wireCodec.encode(msg, false)+"\n");
+				bw.flush();
+				Message response = Message.fromJson(br.readLine());
+				bw.close();
+				br.close();
+				socket.close();
+				if(response == null)	// null response, the remote node must have failed
+					continue;
+				responses++;
+				ArrayList<KeyVal> keyValList = response.getKeyValList();
+				for(int j=0;j<keyValList.size();j++)
+					if(Long.parseLong(keyValList.get(j).getVersion()) > cachedVersion)
+						return false;
+			}
+			catch(Exception e){
+				e.printStackTrace();
+			}
+		}
+		return responses >= READ_QUORUM;
+	}
+	
+	/**
+	 * Reads the versions of a key at the local node, without the values.
+	 * A tombstone is sent as it is, so that it is known to be one.
+	 * @param key
+	 * @return
+	 */
+	public ArrayList<KeyVal> readLocalVersion(String key){
+		ArrayList<KeyVal> keyValList = readLocalKeyVal(key);
+		for(int i=0;i<keyValList.size();i++)
+			if(!Tombstone.isTombstone(keyValList.get(i)))
+				keyValList.get(i).setVal(null);
+		return keyValList;
+	}
+	
+	/**
+	 * Reads a key value pair from the replicas and returns the
+	 * latest version among the replicas which responded, nothing
+	 * if it is a tombstone
+	 * 
+	 * @param key
+	 * @param level:- Consistency level, ie. number of replicas to wait for
+	 * @param trace:- Trace of the read, null if not traced
+	 * @return
+	 */
+	private ArrayList<KeyVal> readDHTKeyValFromReplicas(String key, ConsistencyLevel level, OperationTrace trace){
+		long start = System.nanoTime();
+		DHTNode node = dynamoRing.getResponsibleNode(key);
+		ArrayList<DHTNode> successorList = dynamoRing.getNSuccessors(node, REPLICATION_COUNT-1);
+		ArrayList<DHTNode> responsibleNodeList = successorList;
+		KeyValMergeTable resultTable = new KeyValMergeTable(1);
+		responsibleNodeList.add(node);
+		Message msg = new Message();
+		msg.setType(Message.READ);
+		msg.setKey(key);
+		int requiredCount = level.getRequiredCount(responsibleNodeList.size(), READ_QUORUM);
+		ArrayList<Message> responseList;
+		if(requiredCount < responsibleNodeList.size() && (adaptiveSelection || hedgeBudget != null)){
+			// Ask the replicas likely to be fastest first, see ReplicaLatencyTracker
+			if(adaptiveSelection)
+				responsibleNodeList = replicaLatencyTracker.rank(responsibleNodeList);
+			if(trace != null)
+				trace.phase("routing", start);
+			responseList = sendToReplicasHedged(responsibleNodeList, msg, requiredCount, trace);
+		}
+		else{
+			if(trace != null)
+				trace.phase("routing", start);
+			responseList = sendToReplicas(responsibleNodeList, msg, requiredCount, trace);
+		}
+		start = System.nanoTime();
+		for(int i=0;i<responseList.size();i++){
+			ArrayList<KeyVal> keyValList = responseList.get(i).getKeyValList();
+			for(int j=0;j<keyValList.size();j++)
+				resultTable.merge(keyValList.get(j));
+		}
+		ArrayList<KeyVal> resultList = Tombstone.removeTombstones(resultTable.toKeyValList());
+		if(trace != null)
+			trace.phase("merge", start);
+		return resultList;
+	}
+	
+	/**
+	 * Sends a request to the replicas in parallel and waits for the
+	 * given number of them to respond. The requests to the other replicas
+	 * go on in the background.
+	 * 
+	 * @param nodeList:- Replicas
+	 * @param msg:- Request
+	 * @param requiredCount:- Number of responses to wait for
+	 * @param trace:- Trace of the operation, null if not traced
+	 * @return responses received, fewer than requiredCount if too many replicas failed
+	 */
+	private ArrayList<Message> sendToReplicas(ArrayList<DHTNode> nodeList, Message msg, int requiredCount, final OperationTrace trace){
+		final String msgStr = encodeRequest(msg, nodeList, trace);
+		long start = System.nanoTime();
+		CompletionService<Message> completionService = new ExecutorCompletionService<Message>(requestExecutor);
+		for(int i=0;i<nodeList.size();i++){
+			final DHTNode nextNode = nodeList.get(i);
+			completionService.submit(new Callable<Message>() {
+				@Override
+				public Message call() {
+					return sendRequest(nextNode, msgStr, trace);
+				}
+			});
+		}
+		ArrayList<Message> responseList = new ArrayList<Message>();
+		for(int completed=0;completed<nodeList.size() && responseList.size()<requiredCount;completed++){
+			try {
+				Message response = completionService.take().get();
+				if(response != null)
+					responseList.add(response);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException e) {
+				e.printStackTrace();
+			}
+		}
+		if(responseList.size() < requiredCount)
+			latencyMetrics.increment("responses.short");
+		if(trace != null)
+			trace.phase("await."+responseList.size()+"/"+requiredCount, start);
+		return responseList;
+	}
+	
+	/**
+	 * Encodes a request, marking it as traced if the operation is. It is
+	 * compressed if large and all of the nodes accept compression.
+	 * @param msg
+	 * @param nodeList:- Nodes the request may be sent to
+	 * @param trace:- Trace of the operation, null if not traced
+	 * @return line of the request
+	 */
+	private String encodeRequest(Message msg, ArrayList<DHTNode> nodeList, OperationTrace trace){
+		if(trace == null)
+			return wireCodec.encode(msg, acceptCompression(nodeList));
+		long start = System.nanoTime();
+		msg.setTraced();
+		String msgStr = wireCodec.encode(msg, acceptCompression(nodeList));
+		trace.phase("encode", 0, start, msgStr.length());
+		return msgStr;
+	}
+	
+	/**
+	 * Sends a request to the first requiredCount replicas in parallel and waits
+	 * for them to respond. Another replica is asked if one of them fails, or,
+	 * if hedging is enabled and the hedge budget allows, if no reply arrives
+	 * within the hedge percentile of the latencies of the replicas asked.
+	 * 
+	 * @param nodeList:- Replicas in the order they are to be asked
+	 * @param msg:- Request
+	 * @param requiredCount:- Number of responses to wait for
+	 * @param trace:- Trace of the operation, null if not traced
+	 * @return responses received, fewer than requiredCount if too many replicas failed
+	 */
+	private ArrayList<Message> sendToReplicasHedged(ArrayList<DHTNode> nodeList, Message msg, int requiredCount, OperationTrace trace){
+		final String msgStr = encodeRequest(msg, nodeList, trace);
+		CompletionService<Message> completionService = new ExecutorCompletionService<Message>(requestExecutor);
+		if(hedgeBudget != null)
+			hedgeBudget.onRead();
+		long start = System.nanoTime();
+		long awaitStart = start;
+		long hedgeDelay = -1;		// Max percentile of the replicas asked, -1 if unknown
+		int sent = 0;
+		for(;sent<requiredCount;sent++)
+			hedgeDelay = submitRequest(completionService, nodeList.get(sent), msgStr, hedgeDelay, trace);
+		ArrayList<Message> responseList = new ArrayList<Message>();
+		int completed = 0;
+		while(responseList.size() < requiredCount && completed < sent){
+			try {
+				Future<Message> future;
+				if(sent < nodeList.size() && hedgeDelay >= 0 && hedgeBudget != null){
+					future = completionService.poll(start + hedgeDelay - System.nanoTime(), TimeUnit.NANOSECONDS);
+					if(future == null){		// Too slow, hedge if the budget allows
+						if(hedgeBudget.tryAcquire()){
+							DynamoLog.v(TAG, "Hedging read to "+nodeList.get(sent).getAddress());
+							if(trace != null)
+								trace.phase("hedge", nodeList.get(sent).getAddress(), awaitStart, 0);
+							hedgeDelay = submitRequest(completionService, nodeList.get(sent++), msgStr, hedgeDelay, trace);
+							latencyMetrics.increment("requests.hedged");
+							start = System.nanoTime();		// Next hedge only after another delay
+						}
+						else
+							hedgeDelay = -1;	// No more hedges for this read
+						continue;
+					}
+				}
+				else
+					future = completionService.take();
+				completed++;
+				Message response = future.get();
+				if(response != null)
+					responseList.add(response);
+				else if(sent < nodeList.size())		// The replica failed, ask the next one
+					hedgeDelay = submitRequest(completionService, nodeList.get(sent++), msgStr, hedgeDelay, trace);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException e) {
+				e.printStackTrace();
+			}
+		}
+		if(responseList.size() < requiredCount)
+			latencyMetrics.increment("responses.short");
+		if(trace != null)
+			trace.phase("await."+responseList.size()+"/"+requiredCount, awaitStart);
+		return responseList;
+	}
+	
+	/**
+	 * Submits a request to a node
+	 * @param completionService
+	 * @param node
+	 * @param msgStr
+	 * @param hedgeDelay:- Hedge delay of the nodes asked so far
+	 * @param trace:- Trace of the operation, null if not traced
+	 * @return hedge delay including this node
+	 */
+	private long submitRequest(CompletionService<Message> completionService, final DHTNode node, final String msgStr, long hedgeDelay, final OperationTrace trace){
+		completionService.submit(new Callable<Message>() {
+			@Override
+			public Message call() {
+				return sendRequest(node, msgStr, trace);
+			}
+		});
+		long percentile = replicaLatencyTracker.getPercentile(node.getAddress(), hedgePercentile);
+		if(percentile < 0)		// Not enough samples of the node to know when it is slow
+			return hedgeDelay;
+		return Math.max(hedgeDelay, percentile);
+	}
+	
+	/**
+	 * Sends a request to a node and reads its response.
+	 * Normally failure detection should be done using socket exceptions
+	 * but after port redirection, connect and write succeed even if no application
+	 * is running on the emulator. The only way to determine failure is when
+	 * reading the response returns null.
+	 * 
+	 * If the operation is traced, the connect, send, await and decode of the
+	 * request are added to its trace, with the time the replica spent in
+	 * its storage engine.
+	 * 
+	 * @param node:- Node to send to
+	 * @param msgStr:- Line of the request (see WireCodec)
+	 * @param trace:- Trace of the operation, null if not traced
+	 * @return response, null if the node failed
+	 */
+	private Message sendRequest(DHTNode node, String msgStr, OperationTrace trace){
+		long start = System.nanoTime();
+		long phaseStart = start;
+		int address = node.getAddress();
+		Message response = null;
+		replicaLatencyTracker.onRequestStart(address);
+		latencyMetrics.increment("requests.inflight");
+		try{
+			Socket socket = connect(address);
+			DynamoLog.v(TAG, "Connected with "+address);
+			if(trace != null)
+				phaseStart = trace.phase("connect", address, phaseStart, 0);
+			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+			BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			bw.write(msgStr+"\n");
+			bw.flush();
+			if(trace != null)
+				phaseStart = trace.phase("send", address, phaseStart, msgStr.length()+1);
+			String responseStr = br.readLine();
+			bw.close();
+			br.close();
+			socket.close();
+			if(trace != null)
+				phaseStart = trace.phase("await", address, phaseStart, responseStr == null ? 0 : responseStr.length()+1);
+			response = Message.fromJson(responseStr);
+			recordCompression(address, response);
+			if(trace != null && response != null){
+				trace.phase("decode", address, phaseStart, 0);
+				if(response.getStorageNanos() >= 0)
+					trace.remotePhase("storage", address, response.getStorageNanos());
+			}
+		}
+		catch(Exception e){
+			e.printStackTrace();
+		}
+		finally{
+			if(trace != null && response == null)
+				trace.phase("failed", address, phaseStart, 0);
+			long nanos = System.nanoTime() - start;
+			replicaLatencyTracker.onRequestEnd(node.getAddress(), nanos, response != null);
+			latencyMetrics.add("requests.inflight", -1);
+			if(response != null)
+				latencyMetrics.recordNanos("rtt."+node.getAddress(), nanos);
+			else
+				latencyMetrics.increment("requests.failed");
+		}
+		return response;
+	}
+	
+	/**
+	 * Writes a key value pair to the distributed hash table
+	 * with failure handling.
+	 * Similar to read, I observed that after port redirection, even if no application is
+	 * running on the emulator, connect succeeds and there is no connection timed out
+	 * exception. Even write to the socket succeeds. The only way to determine
+	 * failure is when reading to response from remote node socket returns null. 
 	 * 
 	 * @param key
 	 * @param val
 	 */
-	public void writeLocalKeyVal(String key, String val){
-		String version = "";
-		ArrayList<KeyVal> oldEntry = readLocalKeyVal(key);
-		if(oldEntry.size()==0)
-			version = String.valueOf(1);
-		else{
-			int oldVersion = Integer.parseInt(oldEntry.get(0).getVersion());
-			version = String.valueOf(oldVersion+1);
-		}
-		writeLocalKeyVal(key, val, version);
+	public void writeDHTKeyVal(String key, String val){
+		writeDHTKeyVal(key, val, ConsistencyLevel.ALL);
 	}
 	
 	/**
-	 * Writes a key value pair in the local node along with 
-	 * the version supplied.
+	 * Writes a key value pair to the distributed hash table, waiting for
+	 * the acknowledgements of the number of replicas of the consistency level.
 	 * 
 	 * @param key
-	 * @param val
-	 * @param version
+	 * @param val:- Value, it can not start with Tombstone.PREFIX
+	 * @param level:- Consistency level of the write
 	 */
-	public void writeLocalKeyVal(String key, String val, String version){
-		ContentValues values = new ContentValues();
-		values.put(DBHelper.KEY_FIELD, key);
-		values.put(DBHelper.VALUE_FIELD, val);
-		values.put(DBHelper.VERSION_FIELD, version);
-		dbHelper.insert(values);
+	public void writeDHTKeyVal(String key, String val, ConsistencyLevel level){
+		writeDHTKeyVal(key, val, level, 0);
 	}
 	
 	/**
-	 * Reads a key value pair from the distributed hash table
-	 * with failure handling.
-	 * Normally failure detection should be done using socket exceptions
-	 * but I observed that after port redirection, even if no application is
-	 * running on the emulator, connect succeeds and there is no connection timed out
-	 * exception. Even write to the socket succeeds. The only way to determine
-	 * failure is when reading to socket returns null. 
+	 * Writes a key value pair which expires to the distributed hash table.
+	 * The expiry time is stored with the value (see Expiry), so all the
+	 * replicas agree on it. Expired key value pairs are not read.
 	 * 
 	 * @param key
-	 * @return
+	 * @param val:- Value, it can not start with Tombstone.PREFIX or Expiry.PREFIX
+	 * @param level:- Consistency level of the write
+	 * @param expiresAt:- Time (ms) from which the key value pair is expired, 0 if it does not expire
 	 */
-	public ArrayList<KeyVal> readDHTKeyVal(String key){
+	public void writeDHTKeyVal(String key, String val, ConsistencyLevel level, long expiresAt){
+		if(Tombstone.isTombstone(val) || Expiry.isExpiring(val))
+			throw new IllegalArgumentException("Value starts with the tombstone or expiry marker");
+		if(expiresAt > 0)
+			val = Expiry.create(val, expiresAt);
+		long start = System.nanoTime();
+		OperationTrace trace = beginTrace("write."+level.name(), key);
 		DHTNode node = dynamoRing.getResponsibleNode(key);
 		ArrayList<DHTNode> successorList = dynamoRing.getNSuccessors(node, REPLICATION_COUNT-1);
 		ArrayList<DHTNode> responsibleNodeList = successorList;
-		HashMap<String, KeyVal> resultMap = new HashMap<String, KeyVal>();
-		ArrayList<KeyVal> resultList = new ArrayList<KeyVal>();
 		responsibleNodeList.add(node);
-		for(int i=0;i<responsibleNodeList.size();i++){
-			try{	// try inside the for loop so as to continue fetching data from other
-					// responsible nodes even if one node fails to return any value.
-				DHTNode nextNode = responsibleNodeList.get(i);
-				Socket socket = new Socket(InetAddress.getByAddress(new byte[]{10, 0, 2, 2}),
-						nextNode.getAddress());
-				Log.v(TAG, "Connected with "+nextNode.getAddress());
-				BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-				BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-				Message msg = new Message();
-				msg.setType(Message.READ);
-				msg.setKey(key);
-				String msgStr = msg.toJson();
-				bw.write(msgStr+"\n");
-				bw.flush();
-				String responseStr = br.readLine();
-				Message response = Message.fromJson(responseStr);
-				if(response == null)	// null response, the remote node must have failed
-										// continue fetching from the next node
-					continue;
-				ArrayList<KeyVal> keyValList = response.getKeyValList();
-				for(int j=0;j<keyValList.size();j++){
-					KeyVal keyVal = keyValList.get(j);
-					if(resultMap.get(keyVal.getKey())==null){
-						resultMap.put(keyVal.getKey(), keyVal);
-					}
-					else{
-						int oldVersion = Integer.parseInt(resultMap.get(keyVal.getKey()).getVersion());
-						int newVersion = Integer.parseInt(keyVal.getVersion());
-						if(newVersion > oldVersion)
-							resultMap.put(keyVal.getKey(), keyVal);
-					}
-				}
-				bw.close();
-				br.close();
-				socket.close();
-			}
-			catch(Exception e){
-				e.printStackTrace();
-			}
-		}
-		
-		Iterator<Entry<String, KeyVal>> resultIterator = resultMap.entrySet().iterator();
-		while(resultIterator.hasNext()){
-			Entry<String, KeyVal> nextEntry = resultIterator.next();
-			resultList.add(nextEntry.getValue());
+		if(keyFilterManager != null){		// Before the write, so no read can skip the new key
+			for(int i=0;i<responsibleNodeList.size();i++)
+				keyFilterManager.addToNodeFilter(responsibleNodeList.get(i).getAddress(), key);
 		}
-		return resultList;
+		Message msg = new Message();
+		msg.setType(Message.WRITE);
+		msg.setKey(key);
+		msg.setValue(val);
+		if(trace != null)
+			trace.phase("routing", start);
+		sendToReplicas(responsibleNodeList, msg, level.getRequiredCount(responsibleNodeList.size(), WRITE_QUORUM), trace);
+		keyValCache.invalidate(key);		// After the write, so no read can cache the old value
+		latencyMetrics.record("write", level, start);
+		endTrace(trace);
 	}
 	
 	/**
-	 * Writes a key value pair to the distributed hash table
-	 * with failure handling.
-	 * Similar to read, I observed that after port redirection, even if no application is
-	 * running on the emulator, connect succeeds and there is no connection timed out
-	 * exception. Even write to the socket succeeds. The only way to determine
-	 * failure is when reading to response from remote node socket returns null. 
+	 * Writes a key value pair to the distributed hash table if the key has the
+	 * expected version (compare and set), in one round trip to the replicas.
+	 * Each replica writes the value only if its version of the key is the
+	 * expected one (see casLocalKeyVal()), and the write succeeds if the number
+	 * of replicas of the consistency level did. The replicas are waited for
+	 * only until that is decided. As in sendToReplicas(), failed replicas are
+	 * not waited for with ALL, which then needs the replicas which answered
+	 * (at least a write quorum of them) to apply the write.
+	 * 
+	 * As any write which does not reach its consistency level, a failed write
+	 * may have been done at some of the replicas.
 	 * 
 	 * @param key
-	 * @param val
+	 * @param val:- Value, it can not start with Tombstone.PREFIX or Expiry.PREFIX
+	 * @param expectedVersion:- Version the key must have (as read), 0 if it must not be present
+	 * @param level:- Consistency level of the write
+	 * @param expiresAt:- Time (ms) from which the key value pair is expired, 0 if it does not expire
+	 * @return new version of the key (> 0) if the write succeeded. On a conflict
+	 * -(current version + 1), with the highest version reported by the replicas
+	 * which did not apply the write (0 if not present), so it is always negative.
+	 * 0 if too few replicas answered to decide.
 	 */
-	public void writeDHTKeyVal(String key, String val){
+	public long casDHTKeyVal(String key, String val, long expectedVersion, ConsistencyLevel level, long expiresAt){
+		if(Tombstone.isTombstone(val) || Expiry.isExpiring(val))
+			throw new IllegalArgumentException("Value starts with the tombstone or expiry marker");
+		if(expiresAt > 0)
+			val = Expiry.create(val, expiresAt);
+		long start = System.nanoTime();
+		OperationTrace trace = beginTrace("cas."+level.name(), key);
 		DHTNode node = dynamoRing.getResponsibleNode(key);
-		ArrayList<DHTNode> successorList = dynamoRing.getNSuccessors(node, REPLICATION_COUNT-1);
-		ArrayList<DHTNode> responsibleNodeList = successorList;
+		ArrayList<DHTNode> responsibleNodeList = dynamoRing.getNSuccessors(node, REPLICATION_COUNT-1);
 		responsibleNodeList.add(node);
+		if(keyFilterManager != null){		// Before the write, so no read can skip the new key
+			for(int i=0;i<responsibleNodeList.size();i++)
+				keyFilterManager.addToNodeFilter(responsibleNodeList.get(i).getAddress(), key);
+		}
+		Message msg = new Message();
+		msg.setType(Message.CAS);
+		msg.setKey(key);
+		msg.setValue(val);
+		msg.setVersion(String.valueOf(expectedVersion));
+		if(trace != null)
+			trace.phase("routing", start);
+		final String msgStr = encodeRequest(msg, responsibleNodeList, trace);
+		final OperationTrace requestTrace = trace;
+		long awaitStart = System.nanoTime();
+		CompletionService<Message> completionService = new ExecutorCompletionService<Message>(requestExecutor);
 		for(int i=0;i<responsibleNodeList.size();i++){
-			try{		// try block inside the for loop so as to continue writing data to other
-						// responsible nodes even if one node fails
-				DHTNode nextNode = responsibleNodeList.get(i);
-				Socket socket = new Socket(InetAddress.getByAddress(new byte[]{10, 0, 2, 2}),
-						nextNode.getAddress());
-				Log.v(TAG, "Connected with "+nextNode.getAddress());
-				BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-				BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-				Message msg = new Message();
-				msg.setType(Message.WRITE);
-				msg.setKey(key);
-				msg.setValue(val);
-				String msgStr = msg.toJson();
-				bw.write(msgStr+"\n");
-				bw.flush();
-				String responseStr = br.readLine();
-				Message response = Message.fromJson(responseStr);
-				if(response == null)		// null returned, remote node must have failed
-											// continue writing to next responsible node
-					continue;
-				bw.close();
-				br.close();
-				socket.close();
-			}
-			catch(Exception e){
+			final DHTNode nextNode = responsibleNodeList.get(i);
+			completionService.submit(new Callable<Message>() {
+				@Override
+				public Message call() {
+					return sendRequest(nextNode, msgStr, requestTrace);
+				}
+			});
+		}
+		int requiredCount = level.getRequiredCount(responsibleNodeList.size(), WRITE_QUORUM);
+		int minimumCount = Math.min(requiredCount, WRITE_QUORUM);	// Replicas ALL needs when others fail
+		int applied = 0;
+		int completed = 0;
+		boolean conflict = false;
+		long newVersion = 0;
+		long currentVersion = 0;	// Highest reported by the replicas which did not apply the write
+		// Until enough replicas applied the write, or too few are left for it to succeed
+		while(applied < requiredCount && applied+responsibleNodeList.size()-completed >= requiredCount){
+			Message response = null;
+			try {
+				response = completionService.take().get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException e) {
 				e.printStackTrace();
 			}
+			completed++;
+			if(response == null){		// The replica failed
+				if(level == ConsistencyLevel.ALL)
+					requiredCount = Math.max(minimumCount, requiredCount-1);
+				continue;
+			}
+			long version = Long.parseLong(response.getVersion());
+			if(response.getSqlResult() == 1){
+				applied++;
+				newVersion = Math.max(newVersion, version);
+			}
+			else{
+				conflict = true;
+				currentVersion = Math.max(currentVersion, version);
+			}
 		}
+		if(trace != null)
+			trace.phase("await."+applied+"/"+requiredCount, awaitStart);
+		keyValCache.invalidate(key);		// After the write, so no read can cache the old value
+		latencyMetrics.record("cas", level, start);
+		endTrace(trace);
+		if(applied >= requiredCount)
+			return newVersion;
+		if(!conflict){
+			latencyMetrics.increment("responses.short");
+			return 0;
+		}
+		latencyMetrics.increment("cas.conflicts");
+		return -(currentVersion+1);
 	}
 	
 	/**
@@ -275,15 +1344,14 @@ public class DynamoOperation {
 	public ArrayList<KeyVal> readDHTAllFromNode(DHTNode node){
 		ArrayList<KeyVal> keyValList = new ArrayList<KeyVal>();
 		try{
-			Socket socket = new Socket(InetAddress.getByAddress(new byte[]{10, 0, 2, 2}),
-					node.getAddress());
-			Log.v(TAG, "Connected with "+node.getAddress());
+			Socket socket = connect(node.getAddress());
+			DynamoLog.v(TAG, "Connected with "+node.getAddress());
 			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
 			BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
 			Message msg = new Message();
 			msg.setType(Message.READ);
 			msg.setKey("@");
-			String msgStr = msg.toJson();
+			String msgStr = wireCodec.encode(msg, false);	// The reply is compressed if large
 			bw.write(msgStr+"\n");
 			bw.flush();
 			String responseStr = br.readLine();
@@ -291,6 +1359,7 @@ public class DynamoOperation {
 			br.close();
 			socket.close();
 			Message response = Message.fromJson(responseStr);
+			recordCompression(node.getAddress(), response);
 			if(response != null)
 				keyValList = response.getKeyValList();
 			return keyValList;
@@ -302,13 +1371,78 @@ public class DynamoOperation {
 		return keyValList;
 	}
 	
+	/**
+	 * Reads the key value pairs of the given partitions from the snapshot of
+	 * the specified node, along with the writes done at the node after the snapshot.
+	 * The segments are received into a memory mapped file instead of JSON.
+	 * 
+	 * @param node:- DHT node from where the snapshot has to be read
+	 * @param partitions:- Addresses of the nodes whose partitions are needed
+	 * 
+	 * @return List of records, null if the node failed
+	 */
+	public ArrayList<CompactKeyVal> readSnapshotFromNode(DHTNode node, ArrayList<Integer> partitions){
+		try{
+			Socket socket = connect(node.getAddress());
+			DynamoLog.v(TAG, "Connected with "+node.getAddress());
+			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+			BufferedInputStream bis = new BufferedInputStream(socket.getInputStream());
+			Message msg = new Message();
+			msg.setType(Message.SNAPSHOT);
+			ArrayList<SnapshotSegment> segmentList = new ArrayList<SnapshotSegment>();
+			for(int i=0;i<partitions.size();i++){
+				SnapshotSegment segment = new SnapshotSegment();
+				segment.setPartition(partitions.get(i));
+				segmentList.add(segment);
+			}
+			msg.setSegmentList(segmentList);
+			String msgStr = wireCodec.encode(msg, false);	// The header of the reply is compressed if large
+			bw.write(msgStr+"\n");
+			bw.flush();
+			String responseStr = SnapshotManager.readLine(bis);
+			Message response = Message.fromJson(responseStr);
+			recordCompression(node.getAddress(), response);
+			ArrayList<CompactKeyVal> recordList = null;
+			if(response != null){
+				// Writes after the snapshot override the snapshot
+				ArrayList<CompactKeyVal> snapshotList = snapshotManager.receive(response, bis);
+				KeyValMergeTable resultTable = new KeyValMergeTable(snapshotList.size());
+				for(int i=0;i<snapshotList.size();i++)
+					resultTable.put(snapshotList.get(i));
+				ArrayList<KeyVal> delta = response.getKeyValList();
+				for(int i=0;i<delta.size();i++)
+					resultTable.put(CompactKeyVal.fromKeyVal(delta.get(i)));
+				recordList = resultTable.toRecordList();
+			}
+			bw.close();
+			bis.close();
+			socket.close();
+			return recordList;
+		}
+		catch(Exception e){
+			e.printStackTrace();
+		}
+		return null;
+	}
+	
+	/**
+	 * Serves a snapshot request from a recovering node
+	 * 
+	 * @param request:- SNAPSHOT request
+	 * @param socket:- Socket to the recovering node
+	 * @throws IOException
+	 */
+	public void serveSnapshot(Message request, Socket socket) throws IOException{
+		snapshotManager.serve(request, socket, wireCodec);
+	}
+	
 	/**
 	 * Reads all key value pairs from the local node
 	 * @return
 	 */
 	public ArrayList<KeyVal> readAllLocal(){
 		DHTNode myNode = dynamoRing.getNode(MY_ADDRESS);
-		return readDHTAllFromNode(myNode);
+		return Expiry.resolve(Tombstone.removeTombstones(readDHTAllFromNode(myNode)), System.currentTimeMillis());
 	}
 	
 	/**
@@ -319,48 +1453,388 @@ public class DynamoOperation {
 	 */
 	public ArrayList<KeyVal> readDHTAll(){
 		ArrayList<DHTNode> nodeList = dynamoRing.getAllNodes();
-		HashMap<String, KeyVal> resultMap = new HashMap<String, KeyVal>();
-		ArrayList<KeyVal> resultList = new ArrayList<KeyVal>();
+		KeyValMergeTable resultTable = new KeyValMergeTable(MIN_BULK_SIZE);
 		for(int i=0;i<nodeList.size();i++){
 			ArrayList<KeyVal> keyValList = readDHTAllFromNode(nodeList.get(i));
 			for(int j=0;j<keyValList.size();j++){
-				KeyVal keyVal = keyValList.get(j);
-				if(resultMap.get(keyVal.getKey())==null){
-					resultMap.put(keyVal.getKey(), keyVal);
+				resultTable.merge(keyValList.get(j));
+				keyValList.set(j, null);	// Let the response be collected as it is merged
+			}
+		}
+		return Expiry.resolve(Tombstone.removeTombstones(resultTable.toKeyValList()), System.currentTimeMillis());
+	}
+	
+	
+	/**
+	 * Reads a page of all the key value pairs in the Dynamo DHT in key order.
+	 * Every node sends its first limit keys from fromKey. A node which sent
+	 * a full page may have more keys after its last key, so the merged keys
+	 * are complete only up to the smallest last key of the full pages. The
+	 * page is cut there (and at limit), and the next page starts after it.
+	 * 
+	 * @param fromKey:- Inclusive start of the page, null for the first page
+	 * @param limit:- Max number of key value pairs in the page, positive
+	 * @return
+	 */
+	public ScanPage scanDHT(String fromKey, int limit){
+		return scanDHT(fromKey, null, limit);
+	}
+	
+	/**
+	 * Reads a page of the key value pairs in a key range of the Dynamo DHT,
+	 * see above. The nodes are asked in parallel, each answering from the
+	 * ordered index of its storage engine, and their pages are merged as
+	 * they arrive, the latest version of each key winning.
+	 * A prefix scan is the range from the prefix to ScanPage.prefixEnd().
+	 * Tombstones and expired key value pairs are not returned, so the nodes
+	 * are asked again after the merged keys till limit key value pairs are
+	 * found or the keys end. Every page but the last is full.
+	 * 
+	 * @param fromKey:- Inclusive start of the page, null for the first page
+	 * @param toKey:- Exclusive end of the range, null for no end
+	 * @param limit:- Max number of key value pairs in the page, positive
+	 * @return
+	 */
+	public ScanPage scanDHT(String fromKey, String toKey, int limit){
+		ScanPage.checkPageSize(limit);
+		long start = System.nanoTime();
+		OperationTrace trace = beginTrace("scan", fromKey);
+		ArrayList<KeyVal> resultList = new ArrayList<KeyVal>(limit);
+		ScanPage page;
+		do{
+			page = scanDHTOnce(fromKey, toKey, limit, limit - resultList.size(), trace);
+			resultList.addAll(page.getKeyValList());
+			fromKey = page.getContinuation();
+		}
+		while(fromKey != null && resultList.size() < limit);
+		latencyMetrics.record("scan", start);
+		endTrace(trace);
+		return new ScanPage(resultList, page.getContinuation());
+	}
+	
+	/**
+	 * Asks every node for a page once and merges the pages, see scanDHT()
+	 * @param fromKey:- Inclusive start of the page, null for the first page
+	 * @param toKey:- Exclusive end of the range, null for no end
+	 * @param limit:- Max number of keys, live or not, asked from each node
+	 * @param wanted:- Max number of key value pairs returned
+	 * @param trace:- Trace of the scan, null if not traced
+	 * @return
+	 */
+	private ScanPage scanDHTOnce(String fromKey, String toKey, int limit, int wanted, OperationTrace trace){
+		ArrayList<DHTNode> nodeList = dynamoRing.getAllNodes();
+		TreeMap<String, KeyVal> resultMap = new TreeMap<String, KeyVal>();
+		String boundary = null;		// Last key up to which the merged keys are complete
+		Message msg = new Message();
+		msg.setType(Message.SCAN);
+		msg.setKey(fromKey);
+		msg.setToKey(toKey);
+		msg.setLimit(limit);
+		final String msgStr = wireCodec.encode(msg, false);	// The page is compressed if large
+		final OperationTrace requestTrace = trace;
+		CompletionService<Message> completionService = new ExecutorCompletionService<Message>(requestExecutor);
+		for(int i=0;i<nodeList.size();i++){
+			final DHTNode nextNode = nodeList.get(i);
+			completionService.submit(new Callable<Message>() {
+				@Override
+				public Message call() {
+					return requestScanPage(nextNode, msgStr, requestTrace);
 				}
-				else{
-					int oldVersion = Integer.parseInt(resultMap.get(keyVal.getKey()).getVersion());
-					int newVersion = Integer.parseInt(keyVal.getVersion());
-					if(newVersion > oldVersion)
+			});
+		}
+		for(int i=0;i<nodeList.size();i++){
+			try{		// try inside the for loop so as to continue scanning other
+						// nodes even if one node fails, its keys are on its replicas
+				Message response = completionService.take().get();
+				if(response == null)	// null response, the remote node must have failed
+					continue;
+				long pageStart = System.nanoTime();
+				ArrayList<KeyVal> keyValList = response.getKeyValList();
+				for(int j=0;j<keyValList.size();j++){
+					KeyVal keyVal = keyValList.get(j);
+					if(Tombstone.supersedes(keyVal, resultMap.get(keyVal.getKey())))
 						resultMap.put(keyVal.getKey(), keyVal);
 				}
+				if(keyValList.size() == limit){
+					String lastKey = keyValList.get(keyValList.size()-1).getKey();
+					if(boundary == null || lastKey.compareTo(boundary) < 0)
+						boundary = lastKey;
+				}
+				if(trace != null)
+					trace.phase("merge", pageStart);
+			}
+			catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				break;
+			}
+			catch(Exception e){
+				e.printStackTrace();
 			}
 		}
-		Iterator<Entry<String, KeyVal>> resultIterator = resultMap.entrySet().iterator();
-		while(resultIterator.hasNext()){
-			Entry<String, KeyVal> nextEntry = resultIterator.next();
-			resultList.add(nextEntry.getValue());
+		
+		// Tombstones and expired key value pairs are merged, so they hide older copies of their keys, but not returned
+		long now = System.currentTimeMillis();
+		ArrayList<KeyVal> resultList = new ArrayList<KeyVal>(Math.min(wanted, resultMap.size()));
+		Iterator<KeyVal> iterator = (boundary == null ? resultMap : resultMap.headMap(boundary, true)).values().iterator();
+		String lastKey = null;		// Last key gone through, live or not
+		int count = 0;
+		while(iterator.hasNext() && resultList.size() < wanted){
+			KeyVal keyVal = iterator.next();
+			lastKey = keyVal.getKey();
+			count++;
+			if(!Tombstone.isTombstone(keyVal) && !Expiry.isExpired(keyVal.getVal(), now))
+				resultList.add(keyVal);
 		}
-		return resultList;
+		resultList = Expiry.resolve(resultList, now);
+		String continuation = null;
+		if(lastKey != null && (boundary != null || count < resultMap.size()))
+			continuation = ScanPage.continuationAfter(lastKey);
+		return new ScanPage(resultList, continuation);
 	}
 	
+	/**
+	 * Reads a page of the keys of a node for scanDHT(). Scans are not
+	 * counted in the latencies of the node, which decide hedging.
+	 * @param node
+	 * @param msgStr:- Line of the scan request
+	 * @param trace:- Trace of the scan, null if not traced
+	 * @return response, null if the node failed
+	 */
+	private Message requestScanPage(DHTNode node, String msgStr, OperationTrace trace){
+		long pageStart = System.nanoTime();
+		try{
+			Socket socket = connect(node.getAddress());
+			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+			BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			bw.write(msgStr+"\n");
+			bw.flush();
+			String responseStr = br.readLine();
+			Message response = Message.fromJson(responseStr);
+			recordCompression(node.getAddress(), response);
+			bw.close();
+			br.close();
+			socket.close();
+			if(trace != null)
+				trace.phase(response == null ? "failed" : "page", node.getAddress(), pageStart,
+						responseStr == null ? 0 : responseStr.length()+1);
+			return response;
+		}
+		catch(Exception e){
+			e.printStackTrace();
+			return null;
+		}
+	}
 	
 	/**
 	 * Deletes a key value pair from the local node specified by the key.
+	 * The delete is a write of a tombstone (see Tombstone) with the next
+	 * version of the key, so that it wins over the copies of the key at
+	 * replicas which missed it. The tombstone is written even if the key is
+	 * not present, as another replica may still have it. "@" deletes all
+	 * the local key value pairs outright.
+	 * 
 	 * @param key
-	 * @return
+	 * @return number of key value pairs deleted, 0 if the key was not present or already deleted
 	 */
 	public int deleteLocalKeyVal(String key){
-		int result = 0;
-		String whereClause = DBHelper.KEY_FIELD+"=?";
-		String selection = key;
-    	String []whereArgs = new String[]{selection};
-    	if(selection.equals("@")){
-    		whereClause = "1";
-    		whereArgs = null;
-    	}
-    	result = dbHelper.delete(whereClause, whereArgs);
-		return result;
+		if(key.equals("@")){
+			keyLocks.lockAll();
+			try{
+				keyValCache.invalidateAll();
+				int result = storageEngine.deleteAll();
+				if(keyFilterManager != null)
+					keyFilterManager.rebuild();
+				return result;
+			}
+			finally{
+				keyLocks.unlockAll();
+			}
+		}
+		long start = System.nanoTime();
+		keyLocks.lock(key);
+		try{
+			KeyVal current = storageEngine.get(key);
+			if(current != null && Tombstone.isTombstone(current))
+				return 0;
+			if(!storageEngine.put(key, Tombstone.create(System.currentTimeMillis())))
+				return 0;
+			latencyMetrics.record("local.delete", start);
+			latencyMetrics.increment("tombstones.written");
+			snapshotManager.recordWrite(key);
+			keyValCache.invalidate(key);
+			if(keyFilterManager != null && current != null)
+				keyFilterManager.recordDelete(key);
+			return current == null ? 0 : 1;
+		}
+		finally{
+			keyLocks.unlock(key);
+		}
+	}
+	
+	/**
+	 * Enables the compaction of the tombstones and expired key value pairs of
+	 * this node. Every interval the next COMPACTION_BATCH local keys are gone
+	 * through (see compactTombstones()), so a pass over all the keys is spread
+	 * over several intervals.
+	 * 
+	 * @param gracePeriod:- Time (ms) after a delete for which its tombstone is kept in any case
+	 * @param interval:- Interval (ms) between the steps of the compaction
+	 */
+	public void configureTombstoneCompaction(long gracePeriod, final long interval){
+		this.tombstoneGracePeriod = gracePeriod;
+		Thread compactor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while(true){
+					try {
+						Thread.sleep(interval);
+					} catch (InterruptedException e) {
+						return;
+					}
+					try{
+						compactTombstones(COMPACTION_BATCH);
+					}
+					catch(Exception e){
+						e.printStackTrace();
+					}
+				}
+			}
+		}, Tombstone.class.getSimpleName());
+		compactor.setDaemon(true);
+		startBackgroundThread(compactor);
+	}
+	
+	/**
+	 * Goes through the next local keys, from where the previous call stopped,
+	 * and purges the tombstones older than the grace period which all the
+	 * other replicas of their key have acknowledged:- a replica acknowledges
+	 * a tombstone if it has a tombstone of the key, a newer version, or no
+	 * version (it purged its own tombstone already). A replica still having
+	 * an older version is sent the delete again, and the tombstone is kept
+	 * until a later pass, as it is if a replica does not respond.
+	 * 
+	 * Expired key value pairs are turned into tombstones of their version,
+	 * deleted at their expiry time. Every replica does the same with its own
+	 * copy, so they agree, and the tombstones are purged as those of deletes.
+	 * 
+	 * @param maxKeys:- Max number of keys to go through
+	 * @return number of tombstones purged
+	 */
+	public int compactTombstones(int maxKeys){
+		long start = System.nanoTime();
+		String fromKey = compactionCursor;
+		ArrayList<KeyVal> keyValList = storageEngine.range(fromKey, null, maxKeys);
+		compactionCursor = keyValList.size() < maxKeys ? null
+				: ScanPage.continuationAfter(keyValList.get(keyValList.size()-1).getKey());
+		long now = System.currentTimeMillis();
+		long purgeBefore = now - tombstoneGracePeriod;
+		int purged = 0;
+		int swept = 0;
+		for(int i=0;i<keyValList.size();i++){
+			KeyVal keyVal = keyValList.get(i);
+			if(Expiry.isExpired(keyVal.getVal(), now) && sweepExpired(keyVal)){
+				swept++;
+				continue;		// Its tombstone is purged on a later pass, after the grace period
+			}
+			if(!Tombstone.isTombstone(keyVal) || Tombstone.getDeletedAt(keyVal.getVal()) > purgeBefore)
+				continue;
+			if(isTombstoneAcknowledged(keyVal) && purgeTombstone(keyVal))
+				purged++;
+		}
+		if(purged > 0)
+			snapshotManager.dropSnapshot();		// It may hold the versions the tombstones replaced
+		latencyMetrics.add("tombstones.purged", purged);
+		latencyMetrics.add("expired.swept", swept);
+		latencyMetrics.record("compaction", start);
+		return purged;
+	}
+	
+	/**
+	 * Checks whether all the other replicas of the key of a tombstone have acknowledged it,
+	 * sending the delete again to the replicas having an older version
+	 * @param tombstone
+	 * @return
+	 */
+	private boolean isTombstoneAcknowledged(KeyVal tombstone){
+		DHTNode node = dynamoRing.getResponsibleNode(tombstone.getKey());
+		ArrayList<DHTNode> responsibleNodeList = dynamoRing.getNSuccessors(node, REPLICATION_COUNT-1);
+		responsibleNodeList.add(node);
+		long version = Long.parseLong(tombstone.getVersion());
+		boolean acknowledged = true;
+		for(int i=0;i<responsibleNodeList.size();i++){
+			DHTNode replica = responsibleNodeList.get(i);
+			if(replica.getAddress() == MY_ADDRESS)
+				continue;
+			Message msg = new Message();
+			msg.setType(Message.READ_VERSION);
+			msg.setKey(tombstone.getKey());
+			Message response = sendRequest(replica, wireCodec.encode(msg, false), null);
+			if(response == null){
+				acknowledged = false;
+				continue;
+			}
+			ArrayList<KeyVal> keyValList = response.getKeyValList();
+			for(int j=0;j<keyValList.size();j++){
+				KeyVal keyVal = keyValList.get(j);
+				if(Tombstone.isTombstone(keyVal) || Long.parseLong(keyVal.getVersion()) > version)
+					continue;
+				// The replica missed the delete
+				Message delete = new Message();
+				delete.setType(Message.DELETE);
+				delete.setKey(tombstone.getKey());
+				sendRequest(replica, wireCodec.encode(delete, false), null);
+				latencyMetrics.increment("tombstones.repaired");
+				acknowledged = false;
+			}
+		}
+		return acknowledged;
+	}
+	
+	/**
+	 * Replaces an expired key value pair with a tombstone of the same version,
+	 * unless the key was written meanwhile
+	 * @param expired
+	 * @return true if the key value pair was replaced
+	 */
+	private boolean sweepExpired(KeyVal expired){
+		String key = expired.getKey();
+		keyLocks.lock(key);
+		try{
+			KeyVal current = storageEngine.get(key);
+			if(current == null || !current.getVersion().equals(expired.getVersion()) || !current.getVal().equals(expired.getVal()))
+				return false;
+			if(!storageEngine.put(key, Tombstone.create(Expiry.getExpiresAt(expired.getVal())), expired.getVersion()))
+				return false;
+			snapshotManager.recordWrite(key);
+			keyValCache.invalidate(key);
+			if(keyFilterManager != null)
+				keyFilterManager.recordDelete(key);
+			return true;
+		}
+		finally{
+			keyLocks.unlock(key);
+		}
+	}
+	
+	/**
+	 * Removes a tombstone from the storage engine, unless the key was written meanwhile
+	 * @param tombstone
+	 * @return true if the tombstone was removed
+	 */
+	private boolean purgeTombstone(KeyVal tombstone){
+		String key = tombstone.getKey();
+		keyLocks.lock(key);
+		try{
+			KeyVal current = storageEngine.get(key);
+			if(current == null || !Tombstone.isTombstone(current) || !current.getVersion().equals(tombstone.getVersion()))
+				return false;
+			storageEngine.delete(key);
+			keyValCache.invalidate(key);
+			return true;
+		}
+		finally{
+			keyLocks.unlock(key);
+		}
 	}
 	
 	/**
@@ -372,47 +1846,45 @@ public class DynamoOperation {
 	 * @return
 	 */
 	public int deleteDHTKeyVal(String key){
+		return deleteDHTKeyVal(key, ConsistencyLevel.ALL);
+	}
+	
+	/**
+	 * Deletes a key value pair from the DHT, waiting for the acknowledgements
+	 * of the number of replicas of the consistency level.
+	 * 
+	 * @param key
+	 * @param level:- Consistency level of the delete
+	 * @return max number of key value pairs deleted at a replica which responded
+	 */
+	public int deleteDHTKeyVal(String key, ConsistencyLevel level){
+		long start = System.nanoTime();
+		OperationTrace trace = beginTrace("delete."+level.name(), key);
 		DHTNode node = dynamoRing.getResponsibleNode(key);
 		ArrayList<DHTNode> successorList = dynamoRing.getNSuccessors(node, REPLICATION_COUNT-1);
 		ArrayList<DHTNode> responsibleNodeList = successorList;
 		int result = 0;
 		responsibleNodeList.add(node);
-		for(int i=0;i<responsibleNodeList.size();i++){
-			try{			// try block inside the for loop so as to continue sending delete request to other
-							// responsible nodes even if one node fails
-				DHTNode nextNode = responsibleNodeList.get(i);
-				Socket socket = new Socket(InetAddress.getByAddress(new byte[]{10, 0, 2, 2}),
-						nextNode.getAddress());
-				Log.v(TAG, "Connected with "+nextNode.getAddress());
-				BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-				BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-				Message msg = new Message();
-				msg.setType(Message.DELETE);
-				msg.setKey(key);
-				String msgStr = msg.toJson();
-				bw.write(msgStr+"\n");
-				bw.flush();
-				String responseStr = br.readLine();
-				Message response = Message.fromJson(responseStr);
-				if(response == null)	// response is null, the remote node must have failed
-										// continue sending delete requests to other responsible nodes
-					continue;
-				if(response.getSqlResult()>result)
-					result = response.getSqlResult();
-				bw.close();
-				br.close();
-				socket.close();
-			}
-			catch(Exception e){
-				e.printStackTrace();
-			}
-		}
+		Message msg = new Message();
+		msg.setType(Message.DELETE);
+		msg.setKey(key);
+		if(trace != null)
+			trace.phase("routing", start);
+		ArrayList<Message> responseList = sendToReplicas(responsibleNodeList, msg,
+				level.getRequiredCount(responsibleNodeList.size(), WRITE_QUORUM), trace);
+		for(int i=0;i<responseList.size();i++)
+			if(responseList.get(i).getSqlResult()>result)
+				result = responseList.get(i).getSqlResult();
 		
+		keyValCache.invalidate(key);
+		latencyMetrics.record("delete", level, start);
+		endTrace(trace);
 		return result;
 	}
 	
 	/**
 	 * This method synchronizes the entries at a node from it's successors and predecessors.
+	 * The entries are fetched as snapshot segments of the needed partitions (see SnapshotManager).
 	 * More specifically, this node has to store all key value pairs for whom this node and it's N-1 predecessors
 	 * are responsible where N is the total number of replica. For this, it contacts it's N-1 predecessors
 	 * and N-1 successors.
@@ -423,46 +1895,55 @@ public class DynamoOperation {
 	 * 
 	 */
 	public void sync(){
+		long start = System.nanoTime();
+		long transferred = 0;		// Rows received from the other nodes
 		DHTNode myNode = dynamoRing.getNode(MY_ADDRESS);
 		ArrayList<DHTNode> dependentNodes = dynamoRing.getNPredecessors(myNode, REPLICATION_COUNT-1);
 		dependentNodes.add(myNode);
-		SparseArray<String> dependentNodeMap = new SparseArray<String>();
-		HashMap<String, KeyVal> resultMap = new HashMap<String, KeyVal>();
-		for(int i=0;i<dependentNodes.size();i++)	// Ideally it should contact only N-1 successors and N-1 predecessors
+		HashMap<Integer, String> dependentNodeMap = new HashMap<Integer, String>();
+		ArrayList<Integer> partitions = new ArrayList<Integer>();
+		KeyValMergeTable resultTable = new KeyValMergeTable(MIN_BULK_SIZE);
+		for(int i=0;i<dependentNodes.size();i++){	// Ideally it should contact only N-1 successors and N-1 predecessors
 													// but for total node count = 5 and replica count = 2, this
 													// number spans through all the nodes
 			dependentNodeMap.put(dependentNodes.get(i).getAddress(), dependentNodes.get(i).getId());
+			partitions.add(dependentNodes.get(i).getAddress());
+		}
 		
 		ArrayList<DHTNode> nodeList = dynamoRing.getAllNodes();
 		for(int i=0;i<nodeList.size();i++){
 			if(nodeList.get(i)==myNode)
 				continue;
+			// Bootstrap from the snapshot of the node, fall back to a full dump
+			ArrayList<CompactKeyVal> recordList = readSnapshotFromNode(nodeList.get(i), partitions);
+			if(recordList != null){
+				transferred += recordList.size();
+				for(int j=0;j<recordList.size();j++){
+					CompactKeyVal record = recordList.get(j);
+					int responsibleNodeAddress = dynamoRing.getResponsibleNode(record.getKeyString()).getAddress();
+					if(dependentNodeMap.get(responsibleNodeAddress)!=null)
+						resultTable.merge(record);
+				}
+				continue;
+			}
 			ArrayList<KeyVal> keyValList = readDHTAllFromNode(nodeList.get(i));
+			transferred += keyValList.size();
 			for(int j=0;j<keyValList.size();j++){
 				KeyVal keyVal = keyValList.get(j);
+				keyValList.set(j, null);	// Let the response be collected as it is merged
 				int responsibleNodeAddress = dynamoRing.getResponsibleNode(keyVal.getKey()).getAddress();
-				if(dependentNodeMap.get(responsibleNodeAddress)==null)
-					continue;
-				else{
-					if(resultMap.get(keyVal.getKey())==null){
-						resultMap.put(keyVal.getKey(), keyVal);
-					}
-					else{
-						int oldVersion = Integer.parseInt(resultMap.get(keyVal.getKey()).getVersion());
-						int newVersion = Integer.parseInt(keyVal.getVersion());
-						if(newVersion > oldVersion)
-							resultMap.put(keyVal.getKey(), keyVal);
-					}
-				}
+				if(dependentNodeMap.get(responsibleNodeAddress)!=null)
+					resultTable.merge(keyVal);
 			}
 		}
 		
-		Iterator<Entry<String, KeyVal>> resultIterator = resultMap.entrySet().iterator();
-		while(resultIterator.hasNext()){
-			Entry<String, KeyVal> nextEntry = resultIterator.next();
-			KeyVal keyVal = nextEntry.getValue();
-			writeLocalKeyVal(keyVal.getKey(), keyVal.getVal(), keyVal.getVersion());
-		}
+		// Write all the synced entries together so that the engine can commit them in bulk
+		long putStart = System.nanoTime();
+		storageEngine.putAll(resultTable.toKeyValList());
+		latencyMetrics.record("local.putAll", putStart);
+		latencyMetrics.record("sync", start);
+		latencyMetrics.add("sync.rows.transferred", transferred);
+		latencyMetrics.add("sync.rows.written", resultTable.size());
 		
 	}
 }
@@ -3,6 +3,7 @@ package edu.buffalo.cse.cse486586.simpledynamo;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 /**
  * This is a singleton class which provides abstraction for the DHT Ring of
@@ -15,27 +16,28 @@ import java.util.Collections;
 public class DynamoRing {
 	private static DynamoRing dynamoRing = null;
 	private static final String TAG = DynamoRing.class.getSimpleName();
-	private static final int BASE_ADDRESS = 11108;
+	public static final int DEFAULT_BASE_ADDRESS = 11108;	// Address of the first emulator (port 5554 * 2)
+	private static final int ADDRESS_STEP = 4;				// Difference between the addresses of consecutive nodes
 	private int nodeCount;
 	ArrayList<DHTNode> nodeList = new ArrayList<DHTNode>();
 	
 	/**
-	 * Private constructor to initialize dynamo ring with specified
-	 * number of nodes
+	 * Private constructor to initialize dynamo ring with the
+	 * nodes at the specified addresses
 	 * 
-	 * @param nodeCount:- number of nodes in Dynamo DHT
+	 * @param addressList:- addresses of the nodes in Dynamo DHT
 	 */
-	private DynamoRing(int nodeCount){
-		this.nodeCount = nodeCount;
-		initDynamoRing();
+	private DynamoRing(List<Integer> addressList){
+		this.nodeCount = addressList.size();
+		initDynamoRing(addressList);
 	}
 	
 	/**
 	 * Initialize the dynamo ring
 	 */
-	private void initDynamoRing(){
+	private void initDynamoRing(List<Integer> addressList){
 		for(int i=0;i<nodeCount;i++){
-			nodeList.add(new DHTNode(BASE_ADDRESS+(i*4)));
+			nodeList.add(new DHTNode(addressList.get(i)));
 		}
 		Collections.sort(nodeList);
 	}
@@ -48,10 +50,50 @@ public class DynamoRing {
 	 * @return Singleton instance of this class
 	 */
 	public static DynamoRing createAndGetInstance(int nodeCount){
-		dynamoRing = new DynamoRing(nodeCount);
+		return createAndGetInstance(nodeCount, DEFAULT_BASE_ADDRESS);
+	}
+	
+	/**
+	 * This method instantiates and returns the single instance
+	 * of this class, with the nodes at addresses other than the
+	 * ones of the emulators
+	 * 
+	 * @param nodeCount:- number of nodes in the dynamo DHT
+	 * @param baseAddress:- address of the first node, the others follow in steps of 4
+	 * @return Singleton instance of this class
+	 */
+	public static DynamoRing createAndGetInstance(int nodeCount, int baseAddress){
+		ArrayList<Integer> addressList = new ArrayList<Integer>();
+		for(int i=0;i<nodeCount;i++)
+			addressList.add(getAddress(baseAddress, i));
+		return createAndGetInstance(addressList);
+	}
+	
+	/**
+	 * This method instantiates and returns the single instance
+	 * of this class, with the nodes at arbitrary addresses, eg. the
+	 * members listed in the configuration of a standalone server
+	 * 
+	 * @param addressList:- addresses of the nodes in the dynamo DHT
+	 * @return Singleton instance of this class
+	 */
+	public static DynamoRing createAndGetInstance(List<Integer> addressList){
+		dynamoRing = new DynamoRing(addressList);
 		return dynamoRing;
 	}
 	
+	/**
+	 * Returns the address of the node at a position in the order of the
+	 * addresses (not of the ring)
+	 * 
+	 * @param baseAddress:- address of the first node
+	 * @param index:- position of the node
+	 * @return
+	 */
+	public static int getAddress(int baseAddress, int index){
+		return baseAddress+(index*ADDRESS_STEP);
+	}
+	
 	/**
 	 * This method returns the instance of this class which was 
 	 * created earlier using createAndGetInstance(int) method
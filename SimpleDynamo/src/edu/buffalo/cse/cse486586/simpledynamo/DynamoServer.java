@@ -0,0 +1,332 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * This class implements the server of a node, which accepts the requests
+ * of the other nodes on a server socket and serves them with DynamoOperation.
+ * 
+ * Each request is served by a thread of a pool, local operations on the
+ * same key are ordered by DynamoOperation. Client requests (GET, PUT and
+ * REMOVE), which this node coordinates, are served by a pool of their own,
+ * as they wait for requests to the replicas which may be served by this
+ * node's own pool. The server runs the same way in
+ * the app (see SimpleDynamoActivity) and on a JVM (eg. in a local cluster).
+ * 
+ * @author biplap
+ *
+ */
+public class DynamoServer {
+	private static final String TAG = DynamoServer.class.getSimpleName();
+	private final DynamoOperation dynamoOperation;
+	private final ServerSocket serverSocket;
+	private final ExecutorService serverExecutor;
+	private final ExecutorService clientExecutor;	// Serves the client requests coordinated by this node
+	private final Set<Socket> activeSockets = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+	private volatile boolean closed = false;
+	
+	/**
+	 * Public constructor
+	 * 
+	 * @param dynamoOperation:- Dynamo operations of this node
+	 * @param serverSocket:- Bound server socket. It should be opened from a
+	 * ServerSocketChannel so that snapshots can be sent with zero copy transferTo()
+	 * @param threadCount:- Number of threads serving requests
+	 */
+	public DynamoServer(DynamoOperation dynamoOperation, ServerSocket serverSocket, int threadCount){
+		this(dynamoOperation, serverSocket, threadCount, threadCount);
+	}
+	
+	/**
+	 * Public constructor
+	 * 
+	 * @param dynamoOperation:- Dynamo operations of this node
+	 * @param serverSocket:- Bound server socket, see above
+	 * @param threadCount:- Number of threads serving requests of the other nodes
+	 * @param clientThreadCount:- Number of threads serving client requests
+	 */
+	public DynamoServer(DynamoOperation dynamoOperation, ServerSocket serverSocket, int threadCount, int clientThreadCount){
+		this.dynamoOperation = dynamoOperation;
+		this.serverSocket = serverSocket;
+		this.serverExecutor = Executors.newFixedThreadPool(threadCount);
+		this.clientExecutor = Executors.newFixedThreadPool(clientThreadCount);
+	}
+	
+	/**
+	 * Accepts and serves requests until the server is closed
+	 */
+	public void serve(){
+		while(!closed){		// Keep listening to incoming requests
+			Socket soc;
+			try {
+				soc = serverSocket.accept();
+			} catch (IOException e) {
+				if(!closed)
+					DynamoLog.e(TAG, "ServerTask socket IOException");
+				continue;
+			}
+			activeSockets.add(soc);		// From accept, so that close() also closes the queued requests
+			try {
+				serverExecutor.execute(new RequestHandler(soc));
+			} catch (RejectedExecutionException e) {		// Closed meanwhile
+				closeQuietly(soc);
+				activeSockets.remove(soc);
+			}
+		}
+	}
+	
+	/**
+	 * Stops accepting requests and closes the server socket. The sockets of
+	 * the requests being served are closed too, as they would be if the node
+	 * crashed, so that their coordinators see this node as failed.
+	 */
+	public void close(){
+		closed = true;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		serverExecutor.shutdownNow();
+		clientExecutor.shutdownNow();
+		Socket[] sockets = activeSockets.toArray(new Socket[0]);
+		for(int i=0;i<sockets.length;i++)
+			closeQuietly(sockets[i]);
+	}
+	
+	private static void closeQuietly(Socket socket){
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// Already closed
+		}
+	}
+	
+	/**
+	 * Reports the time spent in the storage engine to a coordinator tracing the request
+	 * @param request
+	 * @param reply
+	 * @param start:- System.nanoTime() before the storage engine was called
+	 */
+	private static void setStorageNanos(Message request, Message reply, long start){
+		if(request.isTraced())
+			reply.setStorageNanos(System.nanoTime() - start);
+	}
+
+	/**
+	 * Writes a reply, compressed if it is large and the request accepts compression (see WireCodec)
+	 * @param bw
+	 * @param request
+	 * @param reply
+	 * @throws IOException
+	 */
+	private void writeReply(BufferedWriter bw, Message request, Message reply) throws IOException{
+		bw.write(dynamoOperation.getWireCodec().encode(reply, request.acceptsCompression())+"\n");
+		bw.flush();
+	}
+
+	/**
+	 * This class serves one request received by the server socket
+	 * 
+	 * @author biplap
+	 *
+	 */
+	private class RequestHandler implements Runnable {
+		private final Socket soc;
+		
+		public RequestHandler(Socket soc){
+			this.soc = soc;
+		}
+		
+		@Override
+		public void run() {
+			boolean handedOff = false;		// Whether the socket went to a client request handler
+			try {
+				DynamoLog.v(TAG, "Client connected");
+				BufferedReader br = new BufferedReader(new InputStreamReader(soc.getInputStream()));
+				BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(soc.getOutputStream()));
+				String rawMsg = br.readLine();
+				Message inMsg = Message.fromJson(rawMsg);
+				DynamoLog.v(TAG, "Message type "+inMsg.getType());
+			
+				// Client requests go to their own pool
+				if(inMsg.getType() == Message.GET || inMsg.getType() == Message.PUT || inMsg.getType() == Message.REMOVE){
+					clientExecutor.execute(new ClientRequestHandler(soc, inMsg));
+					handedOff = true;
+					return;
+				}
+			
+				// Handling read request
+				if(inMsg.getType() == Message.READ){
+				
+					String key = inMsg.getKey();
+					ArrayList<KeyVal> keyValList = null;
+					long start = System.nanoTime();
+					keyValList = dynamoOperation.readLocalKeyVal(key);
+					Message reply = new Message();
+					reply.setType(Message.READ_ACK);
+					reply.setKeyValList(keyValList);
+					setStorageNanos(inMsg, reply, start);
+					writeReply(bw, inMsg, reply);
+				}
+			
+				// handling request to write a new key value
+				else if(inMsg.getType() == Message.WRITE){
+					DynamoLog.v(TAG, "Insert request received at "+dynamoOperation.getAddress());
+					// Acknowledge only after the write is committed. If the commit fails
+					// no reply is sent and the coordinator treats this node as failed.
+					long start = System.nanoTime();
+					if(dynamoOperation.writeLocalKeyVal(inMsg.getKey(), inMsg.getValue())){
+						Message response = new Message();
+						response.setType(Message.WRITE_ACK);
+						setStorageNanos(inMsg, response, start);
+						writeReply(bw, inMsg, response);
+					}
+				}
+			
+				// handling request to write a key value if the key has the expected version
+				else if(inMsg.getType() == Message.CAS){
+					long start = System.nanoTime();
+					Long version = dynamoOperation.casLocalKeyVal(inMsg.getKey(), inMsg.getValue(), Long.parseLong(inMsg.getVersion()));
+					if(version != null){		// Not committed otherwise, the coordinator treats this node as failed
+						Message response = new Message();
+						response.setType(Message.CAS_ACK);
+						response.setSqlResult(version > 0 ? 1 : 0);
+						response.setVersion(String.valueOf(Math.abs(version)));
+						setStorageNanos(inMsg, response, start);
+						writeReply(bw, inMsg, response);
+					}
+				}
+			
+				// handling request for the version of a key from a caching coordinator
+				else if(inMsg.getType() == Message.READ_VERSION){
+					Message reply = new Message();
+					reply.setType(Message.READ_VERSION_ACK);
+					reply.setKeyValList(dynamoOperation.readLocalVersion(inMsg.getKey()));
+					writeReply(bw, inMsg, reply);
+				}
+			
+				// handling request for a page of the local keys
+				else if(inMsg.getType() == Message.SCAN){
+					Message reply = new Message();
+					reply.setType(Message.SCAN_ACK);
+					reply.setKeyValList(dynamoOperation.scanLocalWithTombstones(inMsg.getKey(), inMsg.getToKey(), inMsg.getLimit()).getKeyValList());
+					writeReply(bw, inMsg, reply);
+				}
+			
+				// handling the bloom filter shared by another node
+				else if(inMsg.getType() == Message.FILTER){
+					dynamoOperation.receiveFilter(inMsg);
+					Message reply = new Message();
+					reply.setType(Message.FILTER_ACK);
+					writeReply(bw, inMsg, reply);
+				}
+			
+				// handling request for the slow operation log of this node
+				else if(inMsg.getType() == Message.SLOW_OPS){
+					Message reply = new Message();
+					reply.setType(Message.SLOW_OPS_ACK);
+					reply.setSender(dynamoOperation.getAddress());
+					SlowOperationLog slowOperationLog = dynamoOperation.getSlowOperationLog();
+					reply.setTraces(slowOperationLog == null ? new ArrayList<OperationTrace>() : slowOperationLog.dump());
+					writeReply(bw, inMsg, reply);
+				}
+			
+				// handling request for the stats of this node
+				else if(inMsg.getType() == Message.STATS){
+					Message reply = new Message();
+					reply.setType(Message.STATS_ACK);
+					reply.setStats(dynamoOperation.getStats());
+					writeReply(bw, inMsg, reply);
+				}
+			
+				// handling request for a snapshot from a recovering node
+				else if(inMsg.getType() == Message.SNAPSHOT){
+					dynamoOperation.serveSnapshot(inMsg, soc);
+				}
+			
+				// handling request to delete key value
+				else if(inMsg.getType() == Message.DELETE){
+					long start = System.nanoTime();
+					int res = dynamoOperation.deleteLocalKeyVal(inMsg.getKey());
+					Message response = new Message();
+					response.setType(Message.DELETE_ACK);
+					response.setSqlResult(res);
+					setStorageNanos(inMsg, response, start);
+			    	writeReply(bw, inMsg, response);
+				}
+				br.close();
+				bw.close();
+				soc.close();
+			} catch (IOException e) {
+				if(!closed)
+					DynamoLog.e(TAG, "ServerTask socket IOException");
+			} catch (RejectedExecutionException e) {
+				// Closed meanwhile
+			} finally {
+				if(!handedOff){
+					closeQuietly(soc);
+					activeSockets.remove(soc);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * This class serves a client request, coordinating it with DynamoOperation
+	 * at the consistency level of the request
+	 * 
+	 * @author biplap
+	 *
+	 */
+	private class ClientRequestHandler implements Runnable {
+		private final Socket soc;
+		private final Message inMsg;
+		
+		public ClientRequestHandler(Socket soc, Message inMsg){
+			this.soc = soc;
+			this.inMsg = inMsg;
+		}
+		
+		@Override
+		public void run() {
+			try {
+				BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(soc.getOutputStream()));
+				Message reply = new Message();
+				if(inMsg.getType() == Message.GET){
+					reply.setType(Message.GET_ACK);
+					reply.setKeyValList(dynamoOperation.readDHTKeyVal(inMsg.getKey(), inMsg.getLevel()));
+				}
+				else if(inMsg.getType() == Message.PUT){
+					dynamoOperation.writeDHTKeyVal(inMsg.getKey(), inMsg.getValue(), inMsg.getLevel(), inMsg.getExpiresAt());
+					reply.setType(Message.PUT_ACK);
+				}
+				else{
+					reply.setType(Message.REMOVE_ACK);
+					reply.setSqlResult(dynamoOperation.deleteDHTKeyVal(inMsg.getKey(), inMsg.getLevel()));
+				}
+				writeReply(bw, inMsg, reply);
+				bw.close();
+			} catch (IOException e) {
+				if(!closed)
+					DynamoLog.e(TAG, "Client request socket IOException");
+			} finally {
+				closeQuietly(soc);
+				activeSockets.remove(soc);
+			}
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.ArrayList;
+
+/**
+ * This class marks key value pairs which expire. A write with an expiry
+ * stores the value as PREFIX, the expiry time, ':' and the value. The
+ * coordinator sets the expiry time before sending the write, so all the
+ * replicas store the same one, and it goes wherever the value goes
+ * (storage engines, snapshots, sync) like a tombstone (see Tombstone).
+ *
+ * Expired key value pairs are left out of what the clients read, and the
+ * compaction of DynamoOperation turns them into tombstones of the same
+ * version, which are purged as those of deletes are.
+ *
+ * @author biplap
+ *
+ */
+public final class Expiry {
+	public static final String PREFIX = "\u0002expires:";	// Values starting with it can not be written by clients
+
+	private Expiry(){
+	}
+
+	/**
+	 * Returns the stored value of an expiring key value pair
+	 * @param val
+	 * @param expiresAt:- Time (ms) from which the key value pair is expired
+	 * @return
+	 */
+	public static String create(String val, long expiresAt){
+		return PREFIX + expiresAt + ':' + val;
+	}
+
+	/**
+	 * Checks whether a stored value expires
+	 * @param val
+	 * @return
+	 */
+	public static boolean isExpiring(String val){
+		return val != null && val.startsWith(PREFIX);
+	}
+
+	/**
+	 * Returns the expiry time of a stored value
+	 * @param val
+	 * @return time (ms), Long.MAX_VALUE if the value does not expire
+	 */
+	public static long getExpiresAt(String val){
+		if(!isExpiring(val))
+			return Long.MAX_VALUE;
+		int end = val.indexOf(':', PREFIX.length());
+		try{
+			return Long.parseLong(val.substring(PREFIX.length(), end));
+		}
+		catch(RuntimeException e){		// Not a number or no ':'
+			return Long.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * Checks whether a stored value is expired
+	 * @param val
+	 * @param now:- Current time (ms)
+	 * @return
+	 */
+	public static boolean isExpired(String val, long now){
+		return isExpiring(val) && getExpiresAt(val) <= now;
+	}
+
+	/**
+	 * Returns the value of the client from a stored value
+	 * @param val
+	 * @return
+	 */
+	public static String getValue(String val){
+		if(!isExpiring(val))
+			return val;
+		return val.substring(val.indexOf(':', PREFIX.length()) + 1);
+	}
+
+	/**
+	 * Returns the key value pairs of a list as the clients read them:- without
+	 * the expired ones, and with the values of the expiring ones. The list and
+	 * its key value pairs are not changed, as they may be shared (eg. by
+	 * coalesced reads or the cache).
+	 * @param keyValList
+	 * @param now:- Current time (ms)
+	 * @return
+	 */
+	public static ArrayList<KeyVal> resolve(ArrayList<KeyVal> keyValList, long now){
+		ArrayList<KeyVal> resultList = new ArrayList<KeyVal>(keyValList.size());
+		for(int i=0;i<keyValList.size();i++){
+			KeyVal keyVal = keyValList.get(i);
+			if(!isExpiring(keyVal.getVal()))
+				resultList.add(keyVal);
+			else if(!isExpired(keyVal.getVal(), now)){
+				KeyVal resolved = new KeyVal();
+				resolved.setKey(keyVal.getKey());
+				resolved.setVal(getValue(keyVal.getVal()));
+				resolved.setVersion(keyVal.getVersion());
+				resultList.add(resolved);
+			}
+		}
+		return resultList;
+	}
+}
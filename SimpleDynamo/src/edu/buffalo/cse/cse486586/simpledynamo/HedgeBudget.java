@@ -0,0 +1,63 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+/**
+ * This class bounds the number of speculative (hedged) requests to a
+ * share of the reads. Every read earns ratio of a token, and a hedged
+ * request spends one token. Tokens are capped so that a long quiet period
+ * can not be followed by a burst of hedges.
+ *
+ * @author biplap
+ *
+ */
+public class HedgeBudget {
+	private static final double MAX_TOKENS = 10;
+
+	private final double ratio;
+	private double tokens = 0;
+	private long readCount = 0;
+	private long hedgeCount = 0;
+
+	/**
+	 * Public constructor
+	 * @param ratio:- Max hedged requests per read, eg. 0.05 for 5% extra requests
+	 */
+	public HedgeBudget(double ratio){
+		this.ratio = ratio;
+	}
+
+	/**
+	 * Records a read, earning its share of a hedge
+	 */
+	public synchronized void onRead(){
+		readCount++;
+		tokens = Math.min(MAX_TOKENS, tokens + ratio);
+	}
+
+	/**
+	 * Spends a token for a hedged request if one is available
+	 * @return true if the hedged request can be sent
+	 */
+	public synchronized boolean tryAcquire(){
+		if(tokens < 1)
+			return false;
+		tokens -= 1;
+		hedgeCount++;
+		return true;
+	}
+
+	/**
+	 * Returns the number of reads
+	 * @return
+	 */
+	public synchronized long getReadCount(){
+		return readCount;
+	}
+
+	/**
+	 * Returns the number of hedged requests sent
+	 * @return
+	 */
+	public synchronized long getHedgeCount(){
+		return hedgeCount;
+	}
+}
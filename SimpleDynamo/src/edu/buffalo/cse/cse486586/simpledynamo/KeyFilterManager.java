@@ -0,0 +1,208 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+
+/**
+ * This class maintains the bloom filter over the keys stored at this node
+ * and the copies of the filters shared by the other nodes.
+ *
+ * A coordinator can answer a read of a key as absent without contacting
+ * the replicas when the filters of all the replicas say the key is
+ * definitely not present.
+ *
+ * Bloom filters can not remove keys, so deletes are only counted and the
+ * local filter is rebuilt from the storage engine once too many of its
+ * keys are deleted, or once more keys are added than it was sized for.
+ * The write path only marks the filter for a rebuild. The rebuild is done by
+ * the filter sharing thread (see DynamoOperation.configureFilters()), which
+ * scans the storage engine and builds the new filter without holding the
+ * lock of this class, so writes and reads go on against the current filter.
+ * The keys written during the scan are added to the new filter before it
+ * replaces the current one.
+ * A shared filter is trusted only for a limited time after it is received,
+ * after which the replica is read as usual until it shares a new one.
+ *
+ * @author biplap
+ *
+ */
+public class KeyFilterManager {
+	private static final int MIN_EXPECTED_KEYS = 1024;		// Min number of keys a filter is sized for
+	private static final int GROWTH_FACTOR = 2;				// Filter is sized for this times the current key count
+	private static final double REBUILD_DELETE_RATIO = 0.25;	// Share of deleted keys after which the filter is rebuilt
+
+	private final StorageEngine storageEngine;
+	private final double falsePositiveRate;
+	private final long maxAge;
+	private BloomFilter localFilter;
+	private int localCapacity = 0;		// Number of keys the local filter is sized for
+	private int localKeyCount = 0;		// Number of keys added to the local filter
+	private int deleteCount = 0;		// Number of deletes since the local filter was built
+	private boolean changed = true;		// Whether the local filter changed since it was last shared
+	private boolean rebuildNeeded = false;
+	private HashSet<String> writtenDuringRebuild = null;	// Keys written while a rebuild scans, null if none does
+	private final Object rebuildLock = new Object();		// Held by the rebuild running
+	private final HashMap<Integer, BloomFilter> nodeFilters = new HashMap<Integer, BloomFilter>();
+	private final HashMap<Integer, Long> receivedAt = new HashMap<Integer, Long>();
+	private long skippedReadCount = 0;
+
+	/**
+	 * Public constructor. Builds the local filter from the keys in the storage engine.
+	 *
+	 * @param storageEngine:- Storage engine of this node
+	 * @param falsePositiveRate:- False positive rate of the filters, eg. 0.01
+	 * @param maxAge:- Time in milliseconds for which a shared filter is trusted
+	 */
+	public KeyFilterManager(StorageEngine storageEngine, double falsePositiveRate, long maxAge){
+		this.storageEngine = storageEngine;
+		this.falsePositiveRate = falsePositiveRate;
+		this.maxAge = maxAge;
+		rebuild();
+	}
+
+	/**
+	 * Rebuilds the local filter from the keys in the storage engine,
+	 * leaving out the deleted ones (see Tombstone). The storage engine is
+	 * scanned without holding the lock of this class, the current filter
+	 * is used meanwhile.
+	 */
+	public void rebuild(){
+		synchronized (rebuildLock) {
+			synchronized (this) {
+				rebuildNeeded = false;
+				deleteCount = 0;
+				writtenDuringRebuild = new HashSet<String>();
+			}
+			ArrayList<KeyVal> keyValList = Tombstone.removeTombstones(storageEngine.scan());
+			int capacity = Math.max(MIN_EXPECTED_KEYS, keyValList.size() * GROWTH_FACTOR);
+			BloomFilter filter = new BloomFilter(capacity, falsePositiveRate);
+			for(int i=0;i<keyValList.size();i++)
+				filter.add(keyValList.get(i).getKey());
+			synchronized (this) {
+				int keyCount = keyValList.size();
+				Iterator<String> iterator = writtenDuringRebuild.iterator();
+				while(iterator.hasNext()){
+					String key = iterator.next();
+					if(!filter.mightContain(key)){
+						filter.add(key);
+						keyCount++;
+					}
+				}
+				writtenDuringRebuild = null;
+				localFilter = filter;
+				localCapacity = capacity;
+				localKeyCount = keyCount;
+				changed = true;
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds the local filter if the writes or deletes marked it for a rebuild
+	 */
+	public void rebuildIfNeeded(){
+		synchronized (this) {
+			if(!rebuildNeeded)
+				return;
+		}
+		rebuild();
+	}
+
+	/**
+	 * Records that a key was written locally. Must be called before the write
+	 * is acknowledged so that no coordinator can miss the key.
+	 * @param key
+	 */
+	public synchronized void recordWrite(String key){
+		if(writtenDuringRebuild != null)	// The scan of the rebuild may have passed the key
+			writtenDuringRebuild.add(key);
+		if(localFilter.mightContain(key))
+			return;
+		localFilter.add(key);
+		localKeyCount++;
+		changed = true;
+		if(localKeyCount > localCapacity)	// Beyond the size the false positive rate was computed for
+			rebuildNeeded = true;
+	}
+
+	/**
+	 * Records that a key was deleted locally
+	 * @param key
+	 */
+	public synchronized void recordDelete(String key){
+		deleteCount++;
+		if(deleteCount > localKeyCount * REBUILD_DELETE_RATIO)
+			rebuildNeeded = true;
+	}
+
+	/**
+	 * Returns a copy of the local filter to be shared if it changed since
+	 * it was last shared, or if force is set.
+	 *
+	 * @param force:- Return the filter even if it did not change, to refresh it at the other nodes
+	 * @return copy of the local filter, null if there is nothing to share
+	 */
+	public synchronized BloomFilter getFilterToShare(boolean force){
+		if(!changed && !force)
+			return null;
+		changed = false;
+		return new BloomFilter(localFilter);
+	}
+
+	/**
+	 * Stores the filter shared by a node
+	 * @param address:- Address of the node
+	 * @param filter
+	 */
+	public synchronized void updateNodeFilter(int address, BloomFilter filter){
+		nodeFilters.put(address, filter);
+		receivedAt.put(address, System.currentTimeMillis());
+	}
+
+	/**
+	 * Adds a key written through this coordinator to the copy of the filter
+	 * of a replica, so that the key is not read as absent until the replica
+	 * shares its next filter.
+	 * @param address:- Address of the replica
+	 * @param key
+	 */
+	public synchronized void addToNodeFilter(int address, String key){
+		BloomFilter filter = nodeFilters.get(address);
+		if(filter != null)
+			filter.add(key);
+	}
+
+	/**
+	 * Checks whether a key might be stored at a node
+	 *
+	 * @param address:- Address of the node, the local filter is used for the address of this node
+	 * @param myAddress:- Address of this node
+	 * @param key
+	 * @return false if the key is definitely absent at the node
+	 */
+	public synchronized boolean mightContain(int address, int myAddress, String key){
+		if(address == myAddress)
+			return localFilter.mightContain(key);
+		BloomFilter filter = nodeFilters.get(address);
+		if(filter == null || System.currentTimeMillis() - receivedAt.get(address) > maxAge)
+			return true;
+		return filter.mightContain(key);
+	}
+
+	/**
+	 * Counts a read answered as absent from the filters
+	 */
+	public synchronized void recordSkippedRead(){
+		skippedReadCount++;
+	}
+
+	/**
+	 * Returns the number of reads answered as absent from the filters
+	 * @return
+	 */
+	public synchronized long getSkippedReadCount(){
+		return skippedReadCount;
+	}
+}
@@ -0,0 +1,415 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class implements a bounded cache of key value pairs used by the
+ * coordinator to answer reads of hot keys.
+ *
+ * Eviction follows W-TinyLFU. New keys enter a small LRU window. A key
+ * evicted from the window is admitted to the main area only if it has been
+ * accessed more often than the key the main area would evict, so a scan
+ * over many cold keys can not flush the hot keys out. The main area is a
+ * segmented LRU (probation and protected). Access frequencies are
+ * estimated with a count-min sketch which is halved periodically so that
+ * old popularity fades.
+ *
+ * Entries also expire after a time to live. Writes and deletes invalidate
+ * the entries of their keys. A read caches its result only if its key was not
+ * invalidated during the read. The last invalidation of the recently written
+ * keys is remembered (as many keys as the cache holds), so a write to another
+ * key does not keep the result out of the cache.
+ *
+ * Values larger than a threshold can be kept in an OffHeapArena, so that
+ * large long lived values do not add to the garbage collection pauses.
+ * The cache releases their handles when the entries are removed. A value
+ * decoded from the arena is weakly held by its entry and shared by the
+ * hits which find it still there, so a hot value is decoded once per
+ * garbage collection rather than on every hit, and never kept alive by
+ * the cache.
+ *
+ * @author biplap
+ *
+ */
+public class KeyValCache {
+	private static final int WINDOW_PERCENT = 1;		// Share of the capacity for the window
+	private static final int PROTECTED_PERCENT = 80;	// Share of the main area for the protected segment
+
+	private final int windowCapacity;
+	private final int probationCapacity;
+	private final int protectedCapacity;
+	private final long ttl;
+	private final OffHeapArena arena;		// null to keep all the values on the heap
+	private final int offHeapThreshold;
+	private final LinkedHashMap<String, CacheEntry> window = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+	private final LinkedHashMap<String, CacheEntry> probation = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+	private final LinkedHashMap<String, CacheEntry> protectedSegment = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+	private final FrequencySketch sketch;
+	private long invalidations = 0;		// Number of invalidations, the clock of the invalidation stamps
+	private final LinkedHashMap<String, Long> lastInvalidations;	// Stamp of the last invalidation of the recently invalidated keys
+	private long forgottenInvalidations = 0;	// Latest stamp of a key no longer in lastInvalidations, or of invalidateAll()
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long evictionCount = 0;
+
+	/**
+	 * A cached key value pair with its expiry time.
+	 * The value is in the arena if offHeapVal is set.
+	 */
+	private static class CacheEntry {
+		final KeyVal keyVal;
+		final ValueHandle offHeapVal;
+		final long expiresAt;
+		WeakReference<String> decodedVal = null;	// Last decoded off heap value, under the lock of the cache
+
+		CacheEntry(KeyVal keyVal, ValueHandle offHeapVal, long expiresAt){
+			this.keyVal = keyVal;
+			this.offHeapVal = offHeapVal;
+			this.expiresAt = expiresAt;
+		}
+
+		KeyVal toKeyVal(){
+			if(offHeapVal == null)
+				return keyVal;
+			String val = decodedVal == null ? null : decodedVal.get();
+			if(val == null){
+				val = offHeapVal.getString();
+				decodedVal = new WeakReference<String>(val);
+			}
+			KeyVal copy = new KeyVal();
+			copy.setKey(keyVal.getKey());
+			copy.setVal(val);
+			copy.setVersion(keyVal.getVersion());
+			return copy;
+		}
+
+		void release(){
+			if(offHeapVal != null)
+				offHeapVal.release();
+		}
+	}
+
+	/**
+	 * Public constructor
+	 *
+	 * @param maxSize:- Max number of key value pairs in the cache
+	 * @param ttl:- Time to live of an entry in milliseconds
+	 */
+	public KeyValCache(int maxSize, long ttl){
+		this(maxSize, ttl, null, 0);
+	}
+
+	/**
+	 * Public constructor for a cache keeping large values off heap
+	 *
+	 * @param maxSize:- Max number of key value pairs in the cache
+	 * @param ttl:- Time to live of an entry in milliseconds
+	 * @param arena:- Arena for the large values, null to keep them on the heap
+	 * @param offHeapThreshold:- Size in bytes from which a value is kept in the arena
+	 */
+	public KeyValCache(int maxSize, long ttl, OffHeapArena arena, int offHeapThreshold){
+		this.arena = arena;
+		this.offHeapThreshold = offHeapThreshold;
+		maxSize = Math.max(maxSize, 3);
+		this.windowCapacity = Math.max(1, maxSize * WINDOW_PERCENT / 100);
+		int mainCapacity = maxSize - windowCapacity;
+		this.protectedCapacity = mainCapacity * PROTECTED_PERCENT / 100;
+		this.probationCapacity = mainCapacity - protectedCapacity;
+		this.ttl = ttl;
+		this.sketch = new FrequencySketch(maxSize);
+		final int invalidationCapacity = maxSize;
+		this.lastInvalidations = new LinkedHashMap<String, Long>(16, 0.75f, false){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+				if(size() <= invalidationCapacity)
+					return false;
+				forgottenInvalidations = Math.max(forgottenInvalidations, eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached key value pair of a key
+	 * @param key
+	 * @return key value pair, null on a miss
+	 */
+	public synchronized KeyVal get(String key){
+		sketch.increment(key);
+		CacheEntry entry = window.get(key);
+		if(entry == null){
+			entry = probation.remove(key);
+			if(entry != null)		// Promote to protected on the second access
+				putProtected(key, entry);
+			else
+				entry = protectedSegment.get(key);
+		}
+		if(entry != null && entry.expiresAt <= System.currentTimeMillis()){
+			remove(key);
+			entry = null;
+		}
+		if(entry == null){
+			missCount++;
+			return null;
+		}
+		hitCount++;
+		return entry.toKeyVal();
+	}
+
+	/**
+	 * Returns the invalidation stamp to be passed to put() after a read
+	 * @return
+	 */
+	public synchronized long getInvalidationStamp(){
+		return invalidations;
+	}
+
+	/**
+	 * Caches a key value pair read from the replicas, unless its key was
+	 * invalidated since the read started, as the value read may then be
+	 * older than the write which invalidated it. A key whose invalidation
+	 * is no longer remembered is taken as invalidated.
+	 *
+	 * @param keyVal:- Key value pair read
+	 * @param stamp:- Value of getInvalidationStamp() before the read started
+	 */
+	public synchronized void put(KeyVal keyVal, long stamp){
+		String key = keyVal.getKey();
+		Long lastInvalidation = lastInvalidations.get(key);
+		if(forgottenInvalidations > stamp || (lastInvalidation != null && lastInvalidation > stamp))
+			return;
+		CacheEntry entry = newEntry(keyVal);
+		if(protectedSegment.containsKey(key)){
+			protectedSegment.put(key, entry).release();
+			return;
+		}
+		if(probation.containsKey(key)){
+			probation.put(key, entry).release();
+			return;
+		}
+		CacheEntry replaced = window.put(key, entry);
+		if(replaced != null)
+			replaced.release();
+		if(window.size() > windowCapacity){
+			// Iterating the entries as a get() would reorder the access ordered map
+			Iterator<Map.Entry<String, CacheEntry>> iterator = window.entrySet().iterator();
+			Map.Entry<String, CacheEntry> candidate = iterator.next();
+			iterator.remove();
+			admit(candidate.getKey(), candidate.getValue());
+		}
+	}
+
+	/**
+	 * Removes the entry of a key
+	 * @param key
+	 */
+	public synchronized void invalidate(String key){
+		invalidations++;
+		lastInvalidations.remove(key);		// Reinserted as the most recent
+		lastInvalidations.put(key, invalidations);
+		remove(key);
+	}
+
+	/**
+	 * Removes all the entries
+	 */
+	public synchronized void invalidateAll(){
+		invalidations++;
+		lastInvalidations.clear();
+		forgottenInvalidations = invalidations;
+		releaseAll(window);
+		releaseAll(probation);
+		releaseAll(protectedSegment);
+		window.clear();
+		probation.clear();
+		protectedSegment.clear();
+	}
+
+	/**
+	 * Returns the number of hits
+	 * @return
+	 */
+	public synchronized long getHitCount(){
+		return hitCount;
+	}
+
+	/**
+	 * Returns the number of misses
+	 * @return
+	 */
+	public synchronized long getMissCount(){
+		return missCount;
+	}
+
+	/**
+	 * Returns the number of entries evicted for lack of space
+	 * @return
+	 */
+	public synchronized long getEvictionCount(){
+		return evictionCount;
+	}
+
+	/**
+	 * Returns the ratio of hits to lookups
+	 * @return
+	 */
+	public synchronized double getHitRate(){
+		long lookups = hitCount + missCount;
+		return lookups == 0 ? 0 : (double) hitCount / lookups;
+	}
+
+	/**
+	 * Returns the number of cached entries
+	 * @return
+	 */
+	public synchronized int size(){
+		return window.size() + probation.size() + protectedSegment.size();
+	}
+
+	/**
+	 * Admits a key evicted from the window to the probation segment if there
+	 * is space, or if it is more frequent than the probation victim.
+	 */
+	private void admit(String candidate, CacheEntry candidateEntry){
+		if(probation.size() + protectedSegment.size() < probationCapacity + protectedCapacity){
+			probation.put(candidate, candidateEntry);
+			return;
+		}
+		Iterator<Map.Entry<String, CacheEntry>> iterator = probation.entrySet().iterator();
+		if(!iterator.hasNext()){	// Everything is protected, demote its LRU entry
+			demoteProtected();
+			iterator = probation.entrySet().iterator();
+		}
+		Map.Entry<String, CacheEntry> victim = iterator.next();
+		evictionCount++;
+		if(sketch.frequency(candidate) > sketch.frequency(victim.getKey())){
+			iterator.remove();
+			victim.getValue().release();
+			probation.put(candidate, candidateEntry);
+		}
+		else
+			candidateEntry.release();
+	}
+
+	/**
+	 * Puts an entry in the protected segment, demoting its LRU entry
+	 * to probation if it is full
+	 */
+	private void putProtected(String key, CacheEntry entry){
+		protectedSegment.put(key, entry);
+		if(protectedSegment.size() > protectedCapacity)
+			demoteProtected();
+	}
+
+	/**
+	 * Moves the LRU entry of the protected segment to probation
+	 */
+	private void demoteProtected(){
+		Iterator<Map.Entry<String, CacheEntry>> iterator = protectedSegment.entrySet().iterator();
+		if(!iterator.hasNext())
+			return;
+		Map.Entry<String, CacheEntry> entry = iterator.next();
+		iterator.remove();
+		probation.put(entry.getKey(), entry.getValue());
+	}
+
+	/**
+	 * Removes a key from whichever segment it is in
+	 */
+	private void remove(String key){
+		CacheEntry entry = window.remove(key);
+		if(entry == null)
+			entry = probation.remove(key);
+		if(entry == null)
+			entry = protectedSegment.remove(key);
+		if(entry != null)
+			entry.release();
+	}
+
+	/**
+	 * Creates the entry of a key value pair, moving a large value to the arena.
+	 * The value stays on the heap if the arena is full.
+	 */
+	private CacheEntry newEntry(KeyVal keyVal){
+		long expiresAt = System.currentTimeMillis() + ttl;
+		String val = keyVal.getVal();
+		if(arena == null || val == null || val.length() < offHeapThreshold / 3)	// A char is at most 3 bytes
+			return new CacheEntry(keyVal, null, expiresAt);
+		byte[] bytes = CompactKeyVal.encode(val);
+		if(bytes.length < offHeapThreshold)
+			return new CacheEntry(keyVal, null, expiresAt);
+		ValueHandle handle = arena.allocate(bytes);
+		if(handle == null)
+			return new CacheEntry(keyVal, null, expiresAt);
+		KeyVal keyOnly = new KeyVal();
+		keyOnly.setKey(keyVal.getKey());
+		keyOnly.setVersion(keyVal.getVersion());
+		return new CacheEntry(keyOnly, handle, expiresAt);
+	}
+
+	/**
+	 * Releases the values of all the entries of a segment
+	 */
+	private static void releaseAll(LinkedHashMap<String, CacheEntry> segment){
+		Iterator<CacheEntry> iterator = segment.values().iterator();
+		while(iterator.hasNext())
+			iterator.next().release();
+	}
+
+	/**
+	 * Count-min sketch of access frequencies with 4 bit counters.
+	 * All counters are halved after a sample of 10 times the cache size.
+	 */
+	private static class FrequencySketch {
+		private static final int DEPTH = 4;
+		private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+		private final byte[][] counters;
+		private final int mask;
+		private final int sampleSize;
+		private int additions = 0;
+
+		FrequencySketch(int maxSize){
+			int width = Integer.highestOneBit(Math.max(16, maxSize) * 2 - 1) << 1;
+			counters = new byte[DEPTH][width];
+			mask = width - 1;
+			sampleSize = 10 * maxSize;
+		}
+
+		void increment(String key){
+			int hash = key.hashCode();
+			for(int i=0;i<DEPTH;i++){
+				int index = index(hash, i);
+				if(counters[i][index] < 15)
+					counters[i][index]++;
+			}
+			if(++additions >= sampleSize)
+				reset();
+		}
+
+		int frequency(String key){
+			int hash = key.hashCode();
+			int frequency = Integer.MAX_VALUE;
+			for(int i=0;i<DEPTH;i++)
+				frequency = Math.min(frequency, counters[i][index(hash, i)]);
+			return frequency;
+		}
+
+		private int index(int hash, int row){
+			long h = (hash + SEEDS[row]) * SEEDS[row];
+			h ^= h >>> 32;
+			return (int) h & mask;
+		}
+
+		private void reset(){
+			for(int i=0;i<DEPTH;i++)
+				for(int j=0;j<counters[i].length;j++)
+					counters[i][j] >>= 1;
+			additions /= 2;
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.ArrayList;
+
+/**
+ * This class merges records from several sources keeping one record per key.
+ * It replaces the HashMap<String, KeyVal> of the bulk paths.
+ *
+ * It is an open addressing table with linear probing over two parallel
+ * arrays, the primitive hashes of the keys and the records, so a merge
+ * allocates no entry objects and compares versions as longs.
+ * Records are never removed, so no deleted slot markers are needed.
+ *
+ * @author biplap
+ *
+ */
+public class KeyValMergeTable {
+	private static final int MIN_CAPACITY = 16;
+
+	private int[] hashes;
+	private CompactKeyVal[] records;
+	private int size = 0;
+	private int mask;
+	private int resizeAt;
+
+	/**
+	 * Public constructor
+	 * @param expectedSize:- Expected number of distinct keys
+	 */
+	public KeyValMergeTable(int expectedSize){
+		int capacity = MIN_CAPACITY;
+		while(capacity * 3 / 4 < expectedSize)		// Max load factor 0.75
+			capacity <<= 1;
+		allocate(capacity);
+	}
+
+	/**
+	 * Adds a record, keeping the existing record of the key if its version
+	 * is newer, or the same unless the record wins the tie (see Tombstone).
+	 * @param record
+	 */
+	public void merge(CompactKeyVal record){
+		insert(record, false);
+	}
+
+	/**
+	 * Adds a key value pair, keeping the existing record of the key if its
+	 * version is newer, or the same unless the key value pair wins the tie.
+	 * The key value pair is converted to a
+	 * record only if it is kept or its value differs, so merging the copies
+	 * of a key from the replicas allocates nothing when they agree.
+	 * @param keyVal
+	 */
+	public void merge(KeyVal keyVal){
+		int hash = CompactKeyVal.hash(keyVal.getKey());
+		int index = hash & mask;
+		while(records[index] != null){
+			if(hashes[index] == hash && records[index].hasKey(keyVal.getKey(), hash)){
+				long version = Long.parseLong(keyVal.getVersion());
+				if(version > records[index].getVersion())
+					records[index] = CompactKeyVal.fromKeyVal(keyVal);
+				else if(version == records[index].getVersion() && !records[index].hasVal(keyVal.getVal())){
+					CompactKeyVal record = CompactKeyVal.fromKeyVal(keyVal);
+					if(Tombstone.winsTie(record.getVal(), records[index].getVal()))
+						records[index] = record;
+				}
+				return;
+			}
+			index = (index + 1) & mask;
+		}
+		add(index, hash, CompactKeyVal.fromKeyVal(keyVal));
+	}
+
+	/**
+	 * Adds a record, replacing the existing record of the key irrespective of version.
+	 * @param record
+	 */
+	public void put(CompactKeyVal record){
+		insert(record, true);
+	}
+
+	/**
+	 * Returns the number of distinct keys
+	 * @return
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Returns the records in the table
+	 * @return
+	 */
+	public ArrayList<CompactKeyVal> toRecordList(){
+		ArrayList<CompactKeyVal> recordList = new ArrayList<CompactKeyVal>(size);
+		for(int i=0;i<records.length;i++)
+			if(records[i] != null)
+				recordList.add(records[i]);
+		return recordList;
+	}
+
+	/**
+	 * Returns the records in the table as key value pairs
+	 * @return
+	 */
+	public ArrayList<KeyVal> toKeyValList(){
+		ArrayList<KeyVal> keyValList = new ArrayList<KeyVal>(size);
+		for(int i=0;i<records.length;i++)
+			if(records[i] != null)
+				keyValList.add(records[i].toKeyVal());
+		return keyValList;
+	}
+
+	private void insert(CompactKeyVal record, boolean replace){
+		int hash = record.getHash();
+		int index = hash & mask;
+		while(records[index] != null){
+			if(hashes[index] == hash && records[index].hasKey(record.getKey(), hash)){
+				if(replace || record.getVersion() > records[index].getVersion() || (record.getVersion() == records[index].getVersion()
+						&& Tombstone.winsTie(record.getVal(), records[index].getVal())))
+					records[index] = record;
+				return;
+			}
+			index = (index + 1) & mask;
+		}
+		add(index, hash, record);
+	}
+
+	private void add(int index, int hash, CompactKeyVal record){
+		hashes[index] = hash;
+		records[index] = record;
+		if(++size > resizeAt)
+			resize();
+	}
+
+	private void allocate(int capacity){
+		hashes = new int[capacity];
+		records = new CompactKeyVal[capacity];
+		mask = capacity - 1;
+		resizeAt = capacity * 3 / 4;
+	}
+
+	private void resize(){
+		CompactKeyVal[] oldRecords = records;
+		allocate(records.length << 1);
+		for(int i=0;i<oldRecords.length;i++){
+			CompactKeyVal record = oldRecords[i];
+			if(record == null)
+				continue;
+			int index = record.getHash() & mask;
+			while(records[index] != null)
+				index = (index + 1) & mask;
+			hashes[index] = record.getHash();
+			records[index] = record;
+		}
+	}
+}
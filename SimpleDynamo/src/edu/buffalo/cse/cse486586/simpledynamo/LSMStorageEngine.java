@@ -0,0 +1,678 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * This class implements a pure java log structured merge tree storage engine.
+ *
+ * Writes go to a write ahead log and an in memory sorted memtable. When the
+ * memtable grows beyond MEMTABLE_SIZE it is flushed to an immutable sorted
+ * table (SSTable) on disk. Reads look at the memtable first and then the
+ * tables from newest to oldest, skipping tables whose bloom filter says the
+ * key is absent. A background thread does size tiered compaction, ie.
+ * merges runs of tables of similar size into one table.
+ *
+ * The MANIFEST file lists the live tables from oldest to newest. It is
+ * rewritten atomically after every flush and compaction.
+ *
+ * @author biplap
+ *
+ */
+public class LSMStorageEngine implements StorageEngine {
+	public static final long MEMTABLE_SIZE = 4 * 1024 * 1024;	// Approximate memtable size (bytes) before flush
+	public static final int COMPACTION_THRESHOLD = 4;			// Similar sized tables which trigger a compaction
+	public static final double BLOOM_FALSE_POSITIVE_RATE = 0.01;
+	private static final String MANIFEST = "MANIFEST";
+	private static final String WAL = "wal.log";
+	private static final String TABLE_SUFFIX = ".sst";
+
+	private final File dir;
+	private TreeMap<String, SSTable.Entry> memtable = new TreeMap<String, SSTable.Entry>();
+	private long memtableSize = 0;
+	private final ArrayList<SSTable> tables = new ArrayList<SSTable>();	// Oldest to newest
+	private FileOutputStream walStream;
+	private DataOutputStream walOut;
+	private final LogSync logSync = new LogSync();
+	private long nextTableId = 1;
+	private boolean compacting = false;
+	private boolean closed = false;
+	private final Thread compactor;
+
+	/**
+	 * Opens (or creates) the engine in the given directory.
+	 * The live tables are opened and the write ahead log is replayed
+	 * into the memtable.
+	 *
+	 * @param dir:- Directory holding the files of the engine
+	 * @throws IOException
+	 */
+	public LSMStorageEngine(File dir) throws IOException{
+		this.dir = dir;
+		if(!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Can't create directory "+dir);
+		openTables();
+		replayWal();
+		compactor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				compactLoop();
+			}
+		}, LSMStorageEngine.class.getSimpleName());
+		compactor.setDaemon(true);
+		compactor.start();
+	}
+
+	@Override
+	public synchronized KeyVal get(String key) {
+		SSTable.Entry entry = getEntry(key);
+		if(entry == null || entry.deleted)
+			return null;
+		return entry.toKeyVal();
+	}
+
+	/**
+	 * The current version is read and the new version written under the
+	 * engine lock, so the increment is atomic. The log is synced after
+	 * the lock is released.
+	 */
+	@Override
+	public boolean put(String key, String val) {
+		long sequence;
+		synchronized (this) {
+			SSTable.Entry current = getEntry(key);
+			long version = (current == null || current.deleted) ? 1 : current.version + 1;
+			sequence = write(Collections.singletonList(new SSTable.Entry(key, val, version, false)));
+		}
+		return commit(sequence);
+	}
+
+	@Override
+	public boolean put(String key, String val, String version) {
+		long sequence;
+		synchronized (this) {
+			sequence = write(Collections.singletonList(new SSTable.Entry(key, val, Long.parseLong(version), false)));
+		}
+		return commit(sequence);
+	}
+
+	@Override
+	public boolean putAll(List<KeyVal> keyValList) {
+		ArrayList<SSTable.Entry> entries = new ArrayList<SSTable.Entry>(keyValList.size());
+		for(int i=0;i<keyValList.size();i++){
+			KeyVal keyVal = keyValList.get(i);
+			entries.add(new SSTable.Entry(keyVal.getKey(), keyVal.getVal(), Long.parseLong(keyVal.getVersion()), false));
+		}
+		long sequence;
+		synchronized (this) {
+			sequence = write(entries);
+		}
+		return commit(sequence);
+	}
+
+	/**
+	 * Writes a tombstone for the key, if the key is present
+	 */
+	@Override
+	public int delete(String key) {
+		long sequence;
+		synchronized (this) {
+			SSTable.Entry current = getEntry(key);
+			if(current == null || current.deleted)
+				return 0;
+			sequence = write(Collections.singletonList(new SSTable.Entry(key, null, current.version, true)));
+		}
+		if(!commit(sequence))
+			return 0;
+		return 1;
+	}
+
+	/**
+	 * Drops the memtable, all the tables and the log
+	 */
+	@Override
+	public synchronized int deleteAll() {
+		int count = scan().size();
+		try {
+			memtable = new TreeMap<String, SSTable.Entry>();
+			memtableSize = 0;
+			resetWal();
+			ArrayList<SSTable> oldTables = new ArrayList<SSTable>(tables);
+			tables.clear();
+			writeManifest();
+			for(int i=0;i<oldTables.size();i++)
+				oldTables.get(i).delete();
+		} catch (IOException e) {
+			throw new IllegalStateException("Can't delete all the entries", e);
+		}
+		return count;
+	}
+
+	@Override
+	public synchronized ArrayList<KeyVal> scan() {
+		return range(null, null);
+	}
+
+	@Override
+	public synchronized ArrayList<KeyVal> range(String fromKey, String toKey) {
+		return range(fromKey, toKey, 0);
+	}
+
+	/**
+	 * Merges the memtable and all the tables, newer entries shadowing older ones.
+	 * The merge stops at the limit, so a page reads only its own blocks.
+	 */
+	@Override
+	public synchronized ArrayList<KeyVal> range(String fromKey, String toKey, int limit) {
+		ArrayList<KeyVal> keyValList = new ArrayList<KeyVal>();
+		ArrayList<Iterator<SSTable.Entry>> sources = new ArrayList<Iterator<SSTable.Entry>>();
+		ArrayList<SSTable.EntryIterator> openIterators = new ArrayList<SSTable.EntryIterator>();
+		try{
+			for(int i=0;i<tables.size();i++){
+				SSTable.EntryIterator iterator = tables.get(i).iterator(fromKey);
+				openIterators.add(iterator);
+				sources.add(iterator);
+			}
+			Map<String, SSTable.Entry> memtableRange = memtable;
+			if(fromKey != null)
+				memtableRange = memtable.tailMap(fromKey);
+			sources.add(memtableRange.values().iterator());
+			MergeIterator merged = new MergeIterator(sources);
+			while(merged.hasNext()){
+				SSTable.Entry entry = merged.next();
+				if((toKey != null && entry.key.compareTo(toKey) >= 0) || (limit > 0 && keyValList.size() == limit))
+					break;
+				if(!entry.deleted)
+					keyValList.add(entry.toKeyVal());
+			}
+		}
+		catch(IOException e){
+			throw new IllegalStateException("Can't scan the tables", e);
+		}
+		finally{
+			for(int i=0;i<openIterators.size();i++)
+				openIterators.get(i).close();
+		}
+		return keyValList;
+	}
+
+	/**
+	 * Flushes the memtable and closes the files
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			try {
+				if(memtable.size() > 0)
+					flushMemtable();
+				walOut.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			closed = true;
+			notifyAll();
+		}
+		try {
+			compactor.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			for(int i=0;i<tables.size();i++)
+				tables.get(i).close();
+		}
+	}
+
+	/**
+	 * Reads the latest entry of a key, including tombstones
+	 * @param key
+	 * @return
+	 */
+	private SSTable.Entry getEntry(String key){
+		SSTable.Entry entry = memtable.get(key);
+		if(entry != null)
+			return entry;
+		try{
+			for(int i=tables.size()-1;i>=0;i--){
+				entry = tables.get(i).get(key);
+				if(entry != null)
+					return entry;
+			}
+		}
+		catch(IOException e){
+			throw new IllegalStateException("Can't read key "+key, e);
+		}
+		return null;
+	}
+
+	/**
+	 * Appends entries to the log and applies them to the memtable.
+	 * The log is flushed but not synced, the caller syncs it with commit()
+	 * after releasing the engine lock.
+	 *
+	 * @param entries:- Entries to be written
+	 * @return sequence number of the append, 0 if the log can't be written
+	 */
+	private long write(List<SSTable.Entry> entries){
+		long sequence;
+		try{
+			for(int i=0;i<entries.size();i++)
+				SSTable.writeEntry(walOut, entries.get(i));
+			walOut.flush();
+			sequence = logSync.appended(walStream);
+		}
+		catch(IOException e){
+			e.printStackTrace();
+			return 0;
+		}
+		for(int i=0;i<entries.size();i++)
+			applyToMemtable(entries.get(i));
+		if(memtableSize >= MEMTABLE_SIZE){
+			try {
+				flushMemtable();
+			} catch (IOException e) {
+				// The entries are in the log, the flush is retried on the next write
+				e.printStackTrace();
+			}
+		}
+		return sequence;
+	}
+
+	/**
+	 * Waits till the log is synced up to an append, concurrent writers
+	 * share one sync. Must be called without holding the engine lock.
+	 *
+	 * @param sequence:- Sequence number returned by write()
+	 * @return true if the entries are durable
+	 */
+	private boolean commit(long sequence){
+		return sequence > 0 && logSync.await(sequence);
+	}
+
+	/**
+	 * Puts an entry in the memtable and accounts for its size
+	 * @param entry
+	 */
+	private void applyToMemtable(SSTable.Entry entry){
+		SSTable.Entry old = memtable.put(entry.key, entry);
+		if(old != null)
+			memtableSize -= entrySize(old);
+		memtableSize += entrySize(entry);
+	}
+
+	/**
+	 * Approximate heap size of an entry
+	 * @param entry
+	 * @return
+	 */
+	private static long entrySize(SSTable.Entry entry){
+		return 64 + 2 * entry.key.length() + (entry.val == null ? 0 : 2 * entry.val.length());
+	}
+
+	/**
+	 * Writes the memtable to a new table, adds it to the manifest
+	 * and starts a new log.
+	 * @throws IOException
+	 */
+	private void flushMemtable() throws IOException{
+		File file = new File(dir, (nextTableId++)+TABLE_SUFFIX);
+		SSTable table = SSTable.write(file, memtable.values().iterator(), memtable.size(), BLOOM_FALSE_POSITIVE_RATE);
+		tables.add(table);
+		writeManifest();
+		memtable = new TreeMap<String, SSTable.Entry>();
+		memtableSize = 0;
+		resetWal();
+		notifyAll();	// Wake up the compactor
+	}
+
+	/**
+	 * Truncates the log, its entries are in the tables now
+	 * @throws IOException
+	 */
+	private void resetWal() throws IOException{
+		logSync.durable();
+		walOut.close();
+		walStream = new FileOutputStream(new File(dir, WAL), false);
+		walOut = new DataOutputStream(walStream);
+	}
+
+	/**
+	 * Writes the list of live tables to a temporary file and renames it
+	 * over the manifest.
+	 * @throws IOException
+	 */
+	private void writeManifest() throws IOException{
+		File tmp = new File(dir, MANIFEST+".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp);
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(fos, "UTF-8"));
+		try{
+			for(int i=0;i<tables.size();i++){
+				writer.write(tables.get(i).getFile().getName());
+				writer.newLine();
+			}
+			writer.flush();
+			fos.getFD().sync();
+		}
+		finally{
+			writer.close();
+		}
+		if(!tmp.renameTo(new File(dir, MANIFEST)))
+			throw new IOException("Can't rename "+tmp);
+	}
+
+	/**
+	 * Opens the tables listed in the manifest and deletes the leftover
+	 * tables of an interrupted flush or compaction.
+	 * @throws IOException
+	 */
+	private void openTables() throws IOException{
+		HashSet<String> live = new HashSet<String>();
+		File manifest = new File(dir, MANIFEST);
+		if(manifest.exists()){
+			BufferedReader reader = new BufferedReader(new FileReader(manifest));
+			try{
+				String name;
+				while((name = reader.readLine()) != null){
+					if(name.length() == 0)
+						continue;
+					live.add(name);
+					tables.add(SSTable.open(new File(dir, name)));
+				}
+			}
+			finally{
+				reader.close();
+			}
+		}
+		File[] files = dir.listFiles();
+		for(int i=0;files != null && i<files.length;i++){
+			String name = files[i].getName();
+			if(!name.endsWith(TABLE_SUFFIX))
+				continue;
+			long id = Long.parseLong(name.substring(0, name.length() - TABLE_SUFFIX.length()));
+			nextTableId = Math.max(nextTableId, id + 1);
+			if(!live.contains(name))
+				files[i].delete();
+		}
+	}
+
+	/**
+	 * Replays the log into the memtable. A partially written entry at the
+	 * end of the log (crash during a write) is cut off, as that write was
+	 * never acknowledged.
+	 * @throws IOException
+	 */
+	private void replayWal() throws IOException{
+		File walFile = new File(dir, WAL);
+		long validLength = 0;
+		if(walFile.exists()){
+			SSTable.CountingInputStream counter = new SSTable.CountingInputStream(
+					new BufferedInputStream(new FileInputStream(walFile)));
+			DataInputStream in = new DataInputStream(counter);
+			try{
+				while(true){
+					applyToMemtable(SSTable.readEntry(in));
+					validLength = counter.getCount();
+				}
+			}
+			catch(IOException e){
+				// End of the log
+			}
+			finally{
+				in.close();
+			}
+			RandomAccessFile raf = new RandomAccessFile(walFile, "rw");
+			try{
+				if(raf.length() > validLength)
+					raf.setLength(validLength);
+			}
+			finally{
+				raf.close();
+			}
+		}
+		walStream = new FileOutputStream(walFile, true);
+		walOut = new DataOutputStream(walStream);
+	}
+
+	/**
+	 * Loop run by the compactor thread. Waits for a flush and compacts
+	 * while there is a run of similar sized tables.
+	 */
+	private void compactLoop(){
+		while(true){
+			List<SSTable> run = null;
+			boolean includesOldest;
+			File output;
+			synchronized (this) {
+				while(!closed && (run = pickCompactionRun()) == null){
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if(closed)
+					return;
+				includesOldest = tables.indexOf(run.get(0)) == 0;
+				output = new File(dir, (nextTableId++)+TABLE_SUFFIX);
+				compacting = true;
+			}
+			try{
+				SSTable merged = compact(run, includesOldest, output);
+				synchronized (this) {
+					if(!tables.containsAll(run)){	// Tables were dropped by deleteAll()
+						merged.delete();
+						continue;
+					}
+					int position = tables.indexOf(run.get(0));
+					tables.removeAll(run);
+					tables.add(position, merged);
+					writeManifest();
+					for(int i=0;i<run.size();i++)
+						run.get(i).delete();
+				}
+			}
+			catch(IOException e){
+				e.printStackTrace();
+				output.delete();
+			}
+			finally{
+				synchronized (this) {
+					compacting = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Picks a run of at least COMPACTION_THRESHOLD adjacent tables whose
+	 * sizes are within a factor of two of each other. Only adjacent tables
+	 * are merged so that the order of the tables stays the order of writes.
+	 * @return run of tables, null if nothing to compact
+	 */
+	private List<SSTable> pickCompactionRun(){
+		if(compacting)
+			return null;
+		int start = 0;
+		for(int i=1;i<=tables.size();i++){
+			boolean similar = i < tables.size() && isSimilarSize(tables.get(start), tables.get(i));
+			if(!similar){
+				if(i - start >= COMPACTION_THRESHOLD)
+					return new ArrayList<SSTable>(tables.subList(start, i));
+				start = i;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Whether the sizes of two tables are within a factor of two
+	 * @return
+	 */
+	private static boolean isSimilarSize(SSTable a, SSTable b){
+		long small = Math.min(a.getSize(), b.getSize());
+		long large = Math.max(a.getSize(), b.getSize());
+		return large <= 2 * small;
+	}
+
+	/**
+	 * Merges a run of tables into a new table. The tables are immutable
+	 * so this runs without the engine lock. Tombstones can be dropped only
+	 * when there is no older table which may still have the key.
+	 * @param run:- Tables to be merged, oldest first
+	 * @param includesOldest:- Whether the run starts with the oldest table
+	 * @param output:- File of the merged table
+	 * @return merged table
+	 * @throws IOException
+	 */
+	private SSTable compact(List<SSTable> run, boolean includesOldest, File output) throws IOException{
+		ArrayList<Iterator<SSTable.Entry>> sources = new ArrayList<Iterator<SSTable.Entry>>();
+		ArrayList<SSTable.EntryIterator> openIterators = new ArrayList<SSTable.EntryIterator>();
+		int expectedCount = 0;
+		try{
+			for(int i=0;i<run.size();i++){
+				SSTable.EntryIterator iterator = run.get(i).iterator(null);
+				openIterators.add(iterator);
+				sources.add(iterator);
+				expectedCount += run.get(i).getEntryCount();
+			}
+			Iterator<SSTable.Entry> merged = new MergeIterator(sources);
+			if(includesOldest)
+				merged = new LiveEntryIterator(merged);
+			return SSTable.write(output, merged, expectedCount, BLOOM_FALSE_POSITIVE_RATE);
+		}
+		finally{
+			for(int i=0;i<openIterators.size();i++)
+				openIterators.get(i).close();
+		}
+	}
+
+	/**
+	 * Iterator which merges sorted sources, oldest source first, into one
+	 * sorted sequence. For a key present in several sources only the entry
+	 * of the newest source is returned.
+	 */
+	private static class MergeIterator implements Iterator<SSTable.Entry> {
+		private final PriorityQueue<Head> heads;
+		private final List<Iterator<SSTable.Entry>> sources;
+
+		/**
+		 * Current entry of a source
+		 */
+		private static class Head implements Comparable<Head> {
+			final SSTable.Entry entry;
+			final int source;
+
+			Head(SSTable.Entry entry, int source){
+				this.entry = entry;
+				this.source = source;
+			}
+
+			@Override
+			public int compareTo(Head another) {
+				int cmp = entry.key.compareTo(another.entry.key);
+				if(cmp != 0)
+					return cmp;
+				return another.source - source;		// Newer source first
+			}
+		}
+
+		MergeIterator(List<Iterator<SSTable.Entry>> sources){
+			this.sources = sources;
+			this.heads = new PriorityQueue<Head>(Math.max(1, sources.size()));
+			for(int i=0;i<sources.size();i++)
+				pull(i);
+		}
+
+		private void pull(int source){
+			Iterator<SSTable.Entry> iterator = sources.get(source);
+			if(iterator.hasNext())
+				heads.add(new Head(iterator.next(), source));
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !heads.isEmpty();
+		}
+
+		@Override
+		public SSTable.Entry next() {
+			if(heads.isEmpty())
+				throw new NoSuchElementException();
+			Head head = heads.poll();
+			pull(head.source);
+			// Skip the older entries of the same key
+			while(!heads.isEmpty() && heads.peek().entry.key.equals(head.entry.key)){
+				Head older = heads.poll();
+				pull(older.source);
+			}
+			return head.entry;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Iterator which skips tombstones
+	 */
+	private static class LiveEntryIterator implements Iterator<SSTable.Entry> {
+		private final Iterator<SSTable.Entry> source;
+		private SSTable.Entry next;
+
+		LiveEntryIterator(Iterator<SSTable.Entry> source){
+			this.source = source;
+			advance();
+		}
+
+		private void advance(){
+			next = null;
+			while(source.hasNext()){
+				SSTable.Entry entry = source.next();
+				if(!entry.deleted){
+					next = entry;
+					return;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public SSTable.Entry next() {
+			if(next == null)
+				throw new NoSuchElementException();
+			SSTable.Entry current = next;
+			advance();
+			return current;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
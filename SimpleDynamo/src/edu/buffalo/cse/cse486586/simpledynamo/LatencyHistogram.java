@@ -0,0 +1,97 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class records latencies in a log linear histogram, in the manner of
+ * HdrHistogram, so that percentiles can be read without keeping the samples.
+ *
+ * Latencies are recorded in microseconds. Values below 64 have a bucket each,
+ * every power of two above is cut into 32 buckets, so a percentile is off by
+ * at most about 3%. Recording is lock free (one atomic increment per bucket
+ * and counter), which keeps it cheap enough for every request.
+ *
+ * @author biplap
+ *
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;		// Buckets per power of two
+	private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;			// Values below this have a bucket each
+	private static final int MAX_SHIFT = 40 - SUB_BUCKET_BITS;			// Up to 2^40 us (~12 days)
+	static final int BUCKET_COUNT = LINEAR_LIMIT + MAX_SHIFT * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * Records a latency
+	 * @param nanos
+	 */
+	public void record(long nanos){
+		if(nanos < 0)
+			nanos = 0;
+		buckets.incrementAndGet(bucketOf(nanos / 1000));
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		long max = maxNanos.get();
+		while(nanos > max && !maxNanos.compareAndSet(max, nanos))
+			max = maxNanos.get();
+	}
+
+	/**
+	 * Returns the number of latencies recorded
+	 * @return
+	 */
+	public long getCount(){
+		return count.get();
+	}
+
+	/**
+	 * Copies the histogram into a Stat. Latencies recorded during the copy
+	 * may be partly included.
+	 *
+	 * @param name:- Name of the Stat
+	 * @return
+	 */
+	public LatencyMetrics.Stat snapshot(String name){
+		int last = BUCKET_COUNT - 1;
+		while(last >= 0 && buckets.get(last) == 0)
+			last--;
+		long[] counts = new long[last + 1];		// Trailing empty buckets left out
+		for(int i=0;i<=last;i++)
+			counts[i] = buckets.get(i);
+		return new LatencyMetrics.Stat(name, count.get(), totalNanos.get(), maxNanos.get(), counts);
+	}
+
+	/**
+	 * Returns the bucket of a value
+	 * @param micros
+	 * @return
+	 */
+	static int bucketOf(long micros){
+		if(micros < LINEAR_LIMIT)
+			return (int) micros;
+		int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;	// Value is in [32, 64) << shift
+		if(shift > MAX_SHIFT)
+			return BUCKET_COUNT - 1;
+		int subBucket = (int) (micros >>> shift) - SUB_BUCKETS;
+		return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Returns the highest value of a bucket
+	 * @param bucket
+	 * @return value in microseconds
+	 */
+	static long highestValueOf(int bucket){
+		if(bucket < LINEAR_LIMIT)
+			return bucket;
+		int shift = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+		long subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
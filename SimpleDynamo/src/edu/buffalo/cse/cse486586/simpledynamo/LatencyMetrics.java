@@ -0,0 +1,223 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class records the latencies of the operations of this node in
+ * histograms (see LatencyHistogram), and counts events such as failed
+ * requests.
+ *
+ * Latencies of the operations coordinated by this node are recorded under
+ * a name made of the operation and the consistency level used, eg.
+ * "read.QUORUM", so the levels can be compared. Other paths are recorded
+ * under their own names, eg. "local.get" or "rtt.11108".
+ *
+ * Recording is lock free. The latencies of the JSON encoding of messages
+ * are shared by all the nodes in a process and recorded in PROCESS.
+ *
+ * @author biplap
+ *
+ */
+public class LatencyMetrics {
+	public static final LatencyMetrics PROCESS = new LatencyMetrics();		// Metrics of the process, eg. "json.encode"
+	private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+	private final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+	/**
+	 * Latencies recorded under one name, copied from its histogram. Stats of
+	 * several nodes can be merged, eg. to aggregate the stats of a cluster.
+	 */
+	public static class Stat {
+		private final String name;
+		private long count;
+		private long totalNanos;
+		private long maxNanos;
+		private long[] buckets;
+
+		Stat(String name, long count, long totalNanos, long maxNanos, long[] buckets){
+			this.name = name;
+			this.count = count;
+			this.totalNanos = totalNanos;
+			this.maxNanos = maxNanos;
+			this.buckets = buckets;
+		}
+
+		/**
+		 * Returns the name of the operation and level
+		 * @return
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns the number of operations
+		 * @return
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * Returns the mean latency in milliseconds
+		 * @return
+		 */
+		public double getMeanMillis() {
+			return count == 0 ? 0 : totalNanos / 1e6 / count;
+		}
+
+		/**
+		 * Returns the max latency in milliseconds
+		 * @return
+		 */
+		public double getMaxMillis() {
+			return maxNanos / 1e6;
+		}
+
+		/**
+		 * Returns a percentile of the latencies
+		 * @param percentile:- eg. 0.99
+		 * @return latency in milliseconds, at most about 3% above the exact one
+		 */
+		public double getPercentileMillis(double percentile){
+			long total = 0;
+			for(int i=0;i<buckets.length;i++)
+				total += buckets[i];
+			if(total == 0)
+				return 0;
+			long rank = Math.max(1, (long) Math.ceil(percentile * total));
+			long seen = 0;
+			for(int i=0;i<buckets.length;i++){
+				seen += buckets[i];
+				if(seen >= rank)
+					return Math.min(LatencyHistogram.highestValueOf(i) / 1e3, getMaxMillis());
+			}
+			return getMaxMillis();
+		}
+
+		/**
+		 * Adds the latencies of another Stat to this one
+		 * @param other
+		 */
+		public void merge(Stat other){
+			count += other.count;
+			totalNanos += other.totalNanos;
+			maxNanos = Math.max(maxNanos, other.maxNanos);
+			if(other.buckets.length > buckets.length){
+				long[] merged = new long[other.buckets.length];
+				System.arraycopy(buckets, 0, merged, 0, buckets.length);
+				buckets = merged;
+			}
+			for(int i=0;i<other.buckets.length;i++)
+				buckets[i] += other.buckets[i];
+		}
+
+		/**
+		 * Returns a copy of this Stat
+		 * @return
+		 */
+		public Stat copy(){
+			return new Stat(name, count, totalNanos, maxNanos, buckets.clone());
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s count %d, ms:- mean %.3f, p50 %.3f, p95 %.3f, p99 %.3f, p99.9 %.3f, max %.3f",
+					name, count, getMeanMillis(), getPercentileMillis(0.5), getPercentileMillis(0.95),
+					getPercentileMillis(0.99), getPercentileMillis(0.999), getMaxMillis());
+		}
+	}
+
+	/**
+	 * Records the latency of an operation
+	 * @param operation:- eg. "read", "write", "delete"
+	 * @param level:- Consistency level of the operation
+	 * @param startNanos:- System.nanoTime() at the start of the operation
+	 */
+	public void record(String operation, ConsistencyLevel level, long startNanos){
+		record(operation + "." + level.name(), startNanos);
+	}
+
+	/**
+	 * Records the latency of an operation
+	 * @param name:- Name of the operation, eg. "scan"
+	 * @param startNanos:- System.nanoTime() at the start of the operation
+	 */
+	public void record(String name, long startNanos){
+		recordNanos(name, System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Records a latency
+	 * @param name:- Name of the operation
+	 * @param nanos:- Latency
+	 */
+	public void recordNanos(String name, long nanos){
+		LatencyHistogram histogram = histograms.get(name);
+		if(histogram == null){
+			LatencyHistogram newHistogram = new LatencyHistogram();
+			histogram = histograms.putIfAbsent(name, newHistogram);
+			if(histogram == null)
+				histogram = newHistogram;
+		}
+		histogram.record(nanos);
+	}
+
+	/**
+	 * Adds to a counter
+	 * @param name:- eg. "requests.failed"
+	 * @param delta:- Amount to add, negative for gauges going down (eg. "requests.inflight")
+	 */
+	public void add(String name, long delta){
+		AtomicLong counter = counters.get(name);
+		if(counter == null){
+			AtomicLong newCounter = new AtomicLong();
+			counter = counters.putIfAbsent(name, newCounter);
+			if(counter == null)
+				counter = newCounter;
+		}
+		counter.addAndGet(delta);
+	}
+
+	/**
+	 * Adds one to a counter
+	 * @param name
+	 */
+	public void increment(String name){
+		add(name, 1);
+	}
+
+	/**
+	 * Returns a copy of the latencies recorded so far, ordered by name
+	 * @return
+	 */
+	public ArrayList<Stat> getStats(){
+		TreeMap<String, LatencyHistogram> sorted = new TreeMap<String, LatencyHistogram>(histograms);
+		ArrayList<Stat> statList = new ArrayList<Stat>(sorted.size());
+		Iterator<Map.Entry<String, LatencyHistogram>> iterator = sorted.entrySet().iterator();
+		while(iterator.hasNext()){
+			Map.Entry<String, LatencyHistogram> entry = iterator.next();
+			statList.add(entry.getValue().snapshot(entry.getKey()));
+		}
+		return statList;
+	}
+
+	/**
+	 * Returns a copy of the counters, ordered by name
+	 * @return
+	 */
+	public TreeMap<String, Long> getCounters(){
+		TreeMap<String, Long> counterMap = new TreeMap<String, Long>();
+		Iterator<Map.Entry<String, AtomicLong>> iterator = counters.entrySet().iterator();
+		while(iterator.hasNext()){
+			Map.Entry<String, AtomicLong> entry = iterator.next();
+			counterMap.put(entry.getKey(), entry.getValue().get());
+		}
+		return counterMap;
+	}
+}
@@ -0,0 +1,103 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * This class implements group commit of an append only log.
+ *
+ * A storage engine appends and flushes records to the log under its own
+ * lock and gets a sequence number from appended(). The writer then leaves
+ * the engine lock and calls await() with that number. The first waiting
+ * writer syncs the log once for every record appended so far, the writers
+ * arriving meanwhile wait for that sync or take the next one. This way
+ * concurrent writers share an fsync and no engine lock is held while the
+ * disk syncs.
+ *
+ * The records are visible to readers of the engine once appended, ie.
+ * slightly before they are durable. A write is acknowledged only after
+ * await() returns true.
+ *
+ * @author biplap
+ *
+ */
+public class LogSync {
+	private FileOutputStream stream;	// Log the last records were appended to
+	private long appended = 0;
+	private long synced = 0;
+	private boolean syncing = false;
+
+	/**
+	 * Records an append to the log, to be called after the records are
+	 * flushed to the stream and under the same lock as the append.
+	 *
+	 * @param stream:- Stream of the log the records were appended to
+	 * @return sequence number to be passed to await()
+	 */
+	public synchronized long appended(FileOutputStream stream){
+		this.stream = stream;
+		return ++appended;
+	}
+
+	/**
+	 * Marks everything appended so far as durable. To be called when the
+	 * log has been synced by the engine itself, before the log is closed
+	 * or replaced.
+	 */
+	public synchronized void durable(){
+		synced = appended;
+		notifyAll();
+	}
+
+	/**
+	 * Blocks till the records with the given sequence number are synced,
+	 * syncing the log if no other writer is doing it.
+	 *
+	 * @param sequence:- Sequence number returned by appended()
+	 * @return true if the records are durable, false if the sync failed
+	 */
+	public boolean await(long sequence){
+		boolean interrupted = false;
+		try{
+			while(true){
+				FileOutputStream target;
+				long covered;
+				synchronized (this) {
+					while(syncing && synced < sequence){
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							// The sync takes a bounded time, keep waiting for the result
+							interrupted = true;
+						}
+					}
+					if(synced >= sequence)
+						return true;
+					syncing = true;
+					target = stream;
+					covered = appended;
+				}
+				boolean success = true;
+				try {
+					target.getFD().sync();
+				} catch (IOException e) {
+					success = false;
+					e.printStackTrace();
+				}
+				synchronized (this) {
+					syncing = false;
+					if(success && covered > synced)
+						synced = covered;
+					notifyAll();
+					// The log may have been synced and replaced meanwhile
+					if(!success)
+						return synced >= sequence;
+				}
+			}
+		}
+		finally{
+			if(interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -18,12 +18,45 @@ public class Message {
 	public static final int WRITE_ACK = 4;			// Type for a write response
 	public static final int DELETE = 5;				// Type for a delete request
 	public static final int DELETE_ACK = 6;			// Type for a delete response
+	public static final int SNAPSHOT = 7;			// Type for a snapshot request
+	public static final int SNAPSHOT_ACK = 8;		// Type for a snapshot response, followed by the segments
+	public static final int READ_VERSION = 9;		// Type for a request of the version (without value) of a key
+	public static final int READ_VERSION_ACK = 10;	// Type for a version response
+	public static final int FILTER = 11;			// Type for a message sharing the bloom filter of a node
+	public static final int FILTER_ACK = 12;		// Type for a filter response
+	public static final int SCAN = 13;				// Type for a request of a page of keys, starting at key
+	public static final int SCAN_ACK = 14;			// Type for a scan response
+	public static final int STATS = 15;				// Type for a request of the stats of a node
+	public static final int STATS_ACK = 16;			// Type for a stats response
+	public static final int SLOW_OPS = 17;			// Type for a request of the slow operation log of a node
+	public static final int SLOW_OPS_ACK = 18;		// Type for a slow operation log response
+	public static final int GET = 19;				// Type for a client read, coordinated by the receiving node
+	public static final int GET_ACK = 20;			// Type for a client read response
+	public static final int PUT = 21;				// Type for a client write, coordinated by the receiving node
+	public static final int PUT_ACK = 22;			// Type for a client write response
+	public static final int REMOVE = 23;			// Type for a client delete, coordinated by the receiving node
+	public static final int REMOVE_ACK = 24;		// Type for a client delete response
+	public static final int CAS = 25;				// Type for a request to write a key value if its version is the expected one
+	public static final int CAS_ACK = 26;			// Type for a cas response
 		
 	private int type;			// Type of the message
 	private String key;			// Key of the record (used in write request)
 	private String value;		// Value of the record (used in write request)
 	ArrayList<KeyVal> keyValList;	// Key value list (used in read request)
 	private int sqlResult;		// Sql result (used in delete request)
+	private ArrayList<SnapshotSegment> segmentList;	// Snapshot segments (used in snapshot request)
+	private int sender;			// Address of the sending node (used in filter message)
+	private BloomFilter bloomFilter;	// Bloom filter over the keys of the sender (used in filter message)
+	private int limit;			// Max number of key value pairs (used in scan request)
+	private String toKey;		// Exclusive end of the keys (used in scan request), null for no end
+	private NodeStats stats;	// Stats of the node (used in stats response)
+	private ArrayList<OperationTrace> traces;	// Slow operations of the node (used in slow operation log response)
+	private Boolean traced;		// Whether the coordinator traces the request, null if not
+	private Long storageNanos;	// Time spent in the storage engine of the replica, null if not traced
+	private String level;		// Consistency level (used in client requests), null for ALL
+	private Boolean compress;	// Whether the sender accepts compressed messages (see WireCodec), null if not
+	private Long expiresAt;		// Expiry time (ms) of the value (used in client write request), null if it does not expire
+	private String version;		// Expected version of the key (used in cas request), current version (used in cas response)
 	
 	/**
 	 * Returns the type of the message
@@ -107,6 +140,214 @@ public class Message {
 		this.sqlResult = sqlResult;
 	}
 
+	/**
+	 * Returns the snapshot segments in the message
+	 * @return
+	 */
+	public ArrayList<SnapshotSegment> getSegmentList() {
+		return segmentList;
+	}
+
+	/**
+	 * Sets the snapshot segments in the message
+	 * @param segmentList
+	 */
+	public void setSegmentList(ArrayList<SnapshotSegment> segmentList) {
+		this.segmentList = segmentList;
+	}
+
+	/**
+	 * Returns the address of the sending node
+	 * @return
+	 */
+	public int getSender() {
+		return sender;
+	}
+
+	/**
+	 * Sets the address of the sending node
+	 * @param sender
+	 */
+	public void setSender(int sender) {
+		this.sender = sender;
+	}
+
+	/**
+	 * Returns the bloom filter in the message
+	 * @return
+	 */
+	public BloomFilter getBloomFilter() {
+		return bloomFilter;
+	}
+
+	/**
+	 * Sets the bloom filter in the message
+	 * @param bloomFilter
+	 */
+	public void setBloomFilter(BloomFilter bloomFilter) {
+		this.bloomFilter = bloomFilter;
+	}
+
+	/**
+	 * Returns the max number of key value pairs asked for
+	 * @return
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Sets the max number of key value pairs asked for
+	 * @param limit
+	 */
+	public void setLimit(int limit) {
+		this.limit = limit;
+	}
+
+	/**
+	 * Returns the exclusive end of the keys asked for
+	 * @return null for no end
+	 */
+	public String getToKey() {
+		return toKey;
+	}
+
+	/**
+	 * Sets the exclusive end of the keys asked for
+	 * @param toKey:- null for no end
+	 */
+	public void setToKey(String toKey) {
+		this.toKey = toKey;
+	}
+
+	/**
+	 * Returns the stats of the node
+	 * @return
+	 */
+	public NodeStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Sets the stats of the node
+	 * @param stats
+	 */
+	public void setStats(NodeStats stats) {
+		this.stats = stats;
+	}
+
+	/**
+	 * Returns the traces of the slow operations in the message
+	 * @return
+	 */
+	public ArrayList<OperationTrace> getTraces() {
+		return traces;
+	}
+
+	/**
+	 * Sets the traces of the slow operations in the message
+	 * @param traces
+	 */
+	public void setTraces(ArrayList<OperationTrace> traces) {
+		this.traces = traces;
+	}
+
+	/**
+	 * Returns whether the coordinator traces the request (see OperationTrace)
+	 * @return
+	 */
+	public boolean isTraced() {
+		return traced != null && traced;
+	}
+
+	/**
+	 * Marks the request as traced, so that the replica reports its storage time.
+	 * Untraced requests leave the field out of the json.
+	 */
+	public void setTraced() {
+		this.traced = Boolean.TRUE;
+	}
+
+	/**
+	 * Returns the time spent in the storage engine of the replica, -1 if not reported
+	 * @return
+	 */
+	public long getStorageNanos() {
+		return storageNanos == null ? -1 : storageNanos;
+	}
+
+	/**
+	 * Sets the time spent in the storage engine of the replica
+	 * @param storageNanos
+	 */
+	public void setStorageNanos(long storageNanos) {
+		this.storageNanos = storageNanos;
+	}
+
+	/**
+	 * Returns the consistency level of a client request
+	 * @return
+	 */
+	public ConsistencyLevel getLevel() {
+		return ConsistencyLevel.parse(level, ConsistencyLevel.ALL);
+	}
+
+	/**
+	 * Sets the consistency level of a client request
+	 * @param level
+	 */
+	public void setLevel(ConsistencyLevel level) {
+		this.level = level == null ? null : level.name();
+	}
+
+	/**
+	 * Returns whether the sender accepts compressed messages (see WireCodec)
+	 * @return
+	 */
+	public boolean acceptsCompression() {
+		return compress != null && compress;
+	}
+
+	/**
+	 * Marks the message as sent by a node accepting compressed messages.
+	 * Other messages leave the field out of the json.
+	 */
+	public void setAcceptsCompression() {
+		this.compress = Boolean.TRUE;
+	}
+
+	/**
+	 * Returns the version of the key, expected in a cas request or current in its response
+	 * @return
+	 */
+	public String getVersion() {
+		return version;
+	}
+
+	/**
+	 * Sets the version of the key, expected in a cas request or current in its response
+	 * @param version
+	 */
+	public void setVersion(String version) {
+		this.version = version;
+	}
+
+	/**
+	 * Returns the expiry time of the value of a client write
+	 * @return time (ms), 0 if the value does not expire
+	 */
+	public long getExpiresAt() {
+		return expiresAt == null ? 0 : expiresAt;
+	}
+
+	/**
+	 * Sets the expiry time of the value of a client write
+	 * @param expiresAt:- Time (ms), 0 if the value does not expire
+	 */
+	public void setExpiresAt(long expiresAt) {
+		this.expiresAt = expiresAt > 0 ? Long.valueOf(expiresAt) : null;
+	}
+
 	/**
 	 * Serializes Message object to it's Json representation
 	 * Refer https://code.google.com/p/google-gson/
@@ -114,8 +355,10 @@ public class Message {
 	 * @return Json representation of the object
 	 */
 	public String toJson(){
+		long start = System.nanoTime();
 		Gson gson = new Gson();
 		String jsonString = gson.toJson(this);
+		LatencyMetrics.PROCESS.record("json.encode", start);
 		return jsonString;
 	}
 	
@@ -123,12 +366,16 @@ public class Message {
 	 * Deserializes Message object from it's Json representation
 	 * Refer https://code.google.com/p/google-gson/
 	 * 
-	 * @param jsonString	Json string representing the Message Object
+	 * @param jsonString	Json string representing the Message Object, or a compressed one (see WireCodec)
 	 * @return	Message object
 	 */
 	public static Message fromJson(String jsonString){
+		if(WireCodec.isCompressed(jsonString))
+			jsonString = WireCodec.decompress(jsonString);
+		long start = System.nanoTime();
 		Gson gson = new Gson();
 		Message message = gson.fromJson(jsonString, Message.class);
+		LatencyMetrics.PROCESS.record("json.decode", start);
 		return message;
 	}
 }
@@ -0,0 +1,101 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class holds the stats of a node as sent in reply to a STATS message:
+ * the latency histograms and counters of LatencyMetrics, and the counters of
+ * the cache, the bloom filters, hedging and read coalescing.
+ *
+ * The stats of several nodes can be merged into the stats of a cluster.
+ *
+ * @author biplap
+ *
+ */
+public class NodeStats {
+	private int address;		// Address of the node, 0 for merged stats
+	private long timestamp;		// Time (ms) at which the stats were taken
+	private ArrayList<LatencyMetrics.Stat> latencies = new ArrayList<LatencyMetrics.Stat>();
+	private TreeMap<String, Long> counters = new TreeMap<String, Long>();
+
+	public NodeStats(int address, long timestamp){
+		this.address = address;
+		this.timestamp = timestamp;
+	}
+
+	public int getAddress() {
+		return address;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public ArrayList<LatencyMetrics.Stat> getLatencies() {
+		return latencies;
+	}
+
+	public TreeMap<String, Long> getCounters() {
+		return counters;
+	}
+
+	/**
+	 * Adds the latencies of a LatencyMetrics
+	 * @param statList
+	 */
+	public void addLatencies(ArrayList<LatencyMetrics.Stat> statList){
+		latencies.addAll(statList);
+	}
+
+	/**
+	 * Sets a counter
+	 * @param name
+	 * @param value
+	 */
+	public void putCounter(String name, long value){
+		counters.put(name, value);
+	}
+
+	/**
+	 * Adds the stats of another node to these, latencies of the same name are
+	 * merged and counters of the same name are summed
+	 * @param other
+	 */
+	public void merge(NodeStats other){
+		address = 0;
+		timestamp = Math.max(timestamp, other.timestamp);
+		for(int i=0;i<other.latencies.size();i++){
+			LatencyMetrics.Stat stat = other.latencies.get(i);
+			int j = 0;
+			while(j < latencies.size() && !latencies.get(j).getName().equals(stat.getName()))
+				j++;
+			if(j < latencies.size())
+				latencies.get(j).merge(stat);
+			else
+				latencies.add(stat.copy());
+		}
+		Iterator<Map.Entry<String, Long>> iterator = other.counters.entrySet().iterator();
+		while(iterator.hasNext()){
+			Map.Entry<String, Long> entry = iterator.next();
+			Long value = counters.get(entry.getKey());
+			counters.put(entry.getKey(), (value == null ? 0 : value) + entry.getValue());
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(address == 0 ? "Cluster" : "Node "+address).append('\n');
+		for(int i=0;i<latencies.size();i++)
+			sb.append("  ").append(latencies.get(i)).append('\n');
+		Iterator<Map.Entry<String, Long>> iterator = counters.entrySet().iterator();
+		while(iterator.hasNext()){
+			Map.Entry<String, Long> entry = iterator.next();
+			sb.append("  ").append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+		}
+		return sb.toString();
+	}
+}
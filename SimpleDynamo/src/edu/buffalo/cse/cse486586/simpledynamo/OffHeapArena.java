@@ -0,0 +1,200 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * This class implements an arena of off heap memory for large values, so
+ * that long lived copies of them (eg. in the cache of hot keys) do not add
+ * to the work of the garbage collector.
+ *
+ * Memory is taken from the OS in slabs of direct ByteBuffers, and each slab
+ * is cut into chunks of one power of two size class. A freed chunk goes back
+ * to the free list of its class. Values larger than a slab get a direct
+ * buffer of their own.
+ *
+ * A value is referenced by a ValueHandle which must be released when it is
+ * no longer needed. A handle which becomes unreachable without being
+ * released is a leak. It is detected through a phantom reference and its
+ * chunk is reclaimed. In debug builds the stack trace of the allocation is
+ * logged too.
+ *
+ * @author biplap
+ *
+ */
+public class OffHeapArena {
+	public static final int DEFAULT_THRESHOLD = 4096;		// Values of at least this many bytes go off heap
+	private static final String TAG = OffHeapArena.class.getSimpleName();
+	private static final int MIN_CLASS_SHIFT = 12;			// Smallest chunk, 4KB
+	private static final int SLAB_SHIFT = 20;				// Slab size, 1MB
+
+	private final long capacity;
+	private long reserved = 0;			// Bytes taken from the OS
+	private long used = 0;				// Bytes in live chunks
+	private final ArrayList<ArrayList<ByteBuffer>> freeLists = new ArrayList<ArrayList<ByteBuffer>>();
+	private final ReferenceQueue<ValueHandle> leakQueue = new ReferenceQueue<ValueHandle>();
+	private final HashSet<LeakTracker> trackers = new HashSet<LeakTracker>();
+	private final boolean debug;
+	private long leakCount = 0;
+
+	/**
+	 * Tracks a handle until it is released, to detect leaks
+	 */
+	static class LeakTracker extends PhantomReference<ValueHandle> {
+		final ByteBuffer chunk;
+		final int sizeClass;
+		final Throwable allocationSite;		// null unless debugging
+
+		LeakTracker(ValueHandle handle, ReferenceQueue<ValueHandle> queue, ByteBuffer chunk, int sizeClass, Throwable allocationSite){
+			super(handle, queue);
+			this.chunk = chunk;
+			this.sizeClass = sizeClass;
+			this.allocationSite = allocationSite;
+		}
+	}
+
+	/**
+	 * Public constructor
+	 * @param capacity:- Max number of off heap bytes, beyond which allocations fail
+	 * @param debug:- Whether to record where leaked handles were allocated, see BuildConfig.DEBUG
+	 */
+	public OffHeapArena(long capacity, boolean debug){
+		this.capacity = capacity;
+		this.debug = debug;
+		for(int shift=MIN_CLASS_SHIFT;shift<=SLAB_SHIFT;shift++)
+			freeLists.add(new ArrayList<ByteBuffer>());
+	}
+
+	/**
+	 * Copies a value into the arena
+	 * @param bytes:- Value
+	 * @return handle of the value with one reference, null if the arena is full
+	 */
+	public synchronized ValueHandle allocate(byte[] bytes){
+		reclaimLeaks();
+		int sizeClass = sizeClass(bytes.length);
+		ByteBuffer chunk;
+		if(sizeClass < 0){		// Larger than a slab
+			if(reserved + bytes.length > capacity)
+				return null;
+			chunk = ByteBuffer.allocateDirect(bytes.length);
+			reserved += bytes.length;
+			used += bytes.length;
+		}
+		else{
+			ArrayList<ByteBuffer> freeList = freeLists.get(sizeClass);
+			if(freeList.isEmpty() && !addSlab(sizeClass))
+				return null;
+			chunk = freeList.remove(freeList.size() - 1);
+			used += chunk.capacity();
+		}
+		chunk.clear();
+		chunk.put(bytes);
+		chunk.flip();
+		ValueHandle handle = new ValueHandle(this, chunk.asReadOnlyBuffer(), bytes.length);
+		Throwable allocationSite = debug ? new Throwable("Allocation of the leaked value") : null;
+		LeakTracker tracker = new LeakTracker(handle, leakQueue, chunk, sizeClass, allocationSite);
+		handle.setTracker(tracker);
+		trackers.add(tracker);
+		return handle;
+	}
+
+	/**
+	 * Returns the chunk of a released handle to the arena
+	 * @param tracker:- Tracker of the handle
+	 */
+	synchronized void free(LeakTracker tracker){
+		if(!trackers.remove(tracker))
+			return;
+		tracker.clear();
+		recycle(tracker);
+	}
+
+	/**
+	 * Returns the number of bytes in live values (rounded up to the chunk sizes)
+	 * @return
+	 */
+	public synchronized long getUsedBytes(){
+		return used;
+	}
+
+	/**
+	 * Returns the number of off heap bytes taken from the OS
+	 * @return
+	 */
+	public synchronized long getReservedBytes(){
+		return reserved;
+	}
+
+	/**
+	 * Returns the number of handles found unreachable without being released
+	 * @return
+	 */
+	public synchronized long getLeakCount(){
+		reclaimLeaks();
+		return leakCount;
+	}
+
+	/**
+	 * Reclaims the chunks of the handles collected without being released
+	 */
+	private void reclaimLeaks(){
+		LeakTracker tracker;
+		while((tracker = (LeakTracker) leakQueue.poll()) != null){
+			if(!trackers.remove(tracker))
+				continue;
+			leakCount++;
+			if(tracker.allocationSite != null)
+				DynamoLog.e(TAG, "Off heap value leaked", tracker.allocationSite);
+			else
+				DynamoLog.e(TAG, "Off heap value leaked");
+			recycle(tracker);
+		}
+	}
+
+	private void recycle(LeakTracker tracker){
+		if(tracker.sizeClass < 0){		// Own buffer, left to the garbage collector
+			used -= tracker.chunk.capacity();
+			reserved -= tracker.chunk.capacity();
+			return;
+		}
+		used -= tracker.chunk.capacity();
+		freeLists.get(tracker.sizeClass).add(tracker.chunk);
+	}
+
+	/**
+	 * Takes a new slab from the OS and cuts it into chunks of a size class
+	 * @param sizeClass
+	 * @return false if the arena is full
+	 */
+	private boolean addSlab(int sizeClass){
+		int slabSize = 1 << SLAB_SHIFT;
+		if(reserved + slabSize > capacity)
+			return false;
+		ByteBuffer slab = ByteBuffer.allocateDirect(slabSize);
+		reserved += slabSize;
+		int chunkSize = 1 << (sizeClass + MIN_CLASS_SHIFT);
+		ArrayList<ByteBuffer> freeList = freeLists.get(sizeClass);
+		for(int offset=0;offset<slabSize;offset+=chunkSize){
+			slab.limit(offset + chunkSize);
+			slab.position(offset);
+			freeList.add(slab.slice());
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the size class of a value
+	 * @param length
+	 * @return index of the class, -1 if larger than a slab
+	 */
+	private static int sizeClass(int length){
+		for(int shift=MIN_CLASS_SHIFT;shift<=SLAB_SHIFT;shift++)
+			if(length <= 1 << shift)
+				return shift - MIN_CLASS_SHIFT;
+		return -1;
+	}
+}
@@ -0,0 +1,203 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+
+/**
+ * This class records the phases of one operation of a coordinator, such as
+ * routing, the connect, send, await and decode of the request to each replica,
+ * the time spent in the storage engine of the replica and the merge of the
+ * responses. Each phase holds its offset from the start of the operation,
+ * its duration, the replica it concerns and the bytes it moved.
+ *
+ * Phases of the requests to the replicas are added from the request threads,
+ * hence the methods are synchronized.
+ *
+ * Traces are created and kept by a SlowOperationLog.
+ *
+ * @author biplap
+ *
+ */
+public class OperationTrace {
+	private final String operation;		// Operation, eg. read.QUORUM
+	private final String key;			// Key or start key of the operation
+	private final long timestamp;		// Time (ms) at which the operation started
+	private final transient long startNanos;
+	private long durationNanos = -1;	// -1 until the operation ends
+	private final ArrayList<Phase> phaseList = new ArrayList<Phase>();
+
+	/**
+	 * A phase of an operation
+	 */
+	public static class Phase {
+		private final String name;
+		private final int address;		// Replica of the phase, 0 for the coordinator
+		private final long offsetNanos;	// Start of the phase from the start of the operation
+		private final long durationNanos;
+		private final long bytes;		// Bytes sent or received, 0 if none
+
+		Phase(String name, int address, long offsetNanos, long durationNanos, long bytes){
+			this.name = name;
+			this.address = address;
+			this.offsetNanos = offsetNanos;
+			this.durationNanos = durationNanos;
+			this.bytes = bytes;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getAddress() {
+			return address;
+		}
+
+		public long getOffsetNanos() {
+			return offsetNanos;
+		}
+
+		public long getDurationNanos() {
+			return durationNanos;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+	}
+
+	/**
+	 * Package private constructor, traces are created by SlowOperationLog.begin()
+	 * @param operation
+	 * @param key
+	 */
+	OperationTrace(String operation, String key){
+		this.operation = operation;
+		this.key = key;
+		this.timestamp = System.currentTimeMillis();
+		this.startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Records a phase of the coordinator which started at the given time and ends now
+	 * @param name:- Name of the phase
+	 * @param start:- System.nanoTime() at the start of the phase
+	 * @return System.nanoTime() at the end of the phase, to start the next phase with
+	 */
+	public long phase(String name, long start){
+		return phase(name, 0, start, 0);
+	}
+
+	/**
+	 * Records a phase which started at the given time and ends now
+	 * @param name:- Name of the phase
+	 * @param address:- Replica of the phase, 0 for the coordinator
+	 * @param start:- System.nanoTime() at the start of the phase
+	 * @param bytes:- Bytes moved in the phase
+	 * @return System.nanoTime() at the end of the phase, to start the next phase with
+	 */
+	public long phase(String name, int address, long start, long bytes){
+		long end = System.nanoTime();
+		// A phase may have started just before the trace, when the operation's own clock did
+		addPhase(new Phase(name, address, Math.max(0, start - startNanos), end - start, bytes));
+		return end;
+	}
+
+	/**
+	 * Records a phase of a replica whose duration was measured by the replica,
+	 * such as the time spent in its storage engine
+	 * @param name:- Name of the phase
+	 * @param address:- Replica of the phase
+	 * @param durationNanos:- Duration reported by the replica
+	 */
+	public void remotePhase(String name, int address, long durationNanos){
+		addPhase(new Phase(name, address, -1, durationNanos, 0));
+	}
+
+	private synchronized void addPhase(Phase phase){
+		phaseList.add(phase);
+	}
+
+	/**
+	 * Ends the operation
+	 * @return duration of the operation
+	 */
+	synchronized long end(){
+		durationNanos = System.nanoTime() - startNanos;
+		return durationNanos;
+	}
+
+	public String getOperation() {
+		return operation;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public synchronized long getDurationNanos() {
+		return durationNanos;
+	}
+
+	public synchronized ArrayList<Phase> getPhaseList() {
+		return new ArrayList<Phase>(phaseList);
+	}
+
+	/**
+	 * Formats the trace with a line per phase, in the order the phases started.
+	 * Phases measured by a replica have no offset, they follow the phase of the
+	 * coordinator after which they were recorded.
+	 */
+	@Override
+	public synchronized String toString() {
+		// Sort keys, the offset of the last phase of the replica for phases measured by it
+		final HashMap<Phase, Long> sortKeys = new HashMap<Phase, Long>();
+		HashMap<Integer, Long> lastOffsets = new HashMap<Integer, Long>();
+		for(int i=0;i<phaseList.size();i++){
+			Phase phase = phaseList.get(i);
+			long sortKey = phase.offsetNanos;
+			if(sortKey < 0)
+				sortKey = lastOffsets.containsKey(phase.address) ? lastOffsets.get(phase.address) : Long.MAX_VALUE;
+			else
+				lastOffsets.put(phase.address, sortKey);
+			sortKeys.put(phase, sortKey);
+		}
+		ArrayList<Phase> sortedList = new ArrayList<Phase>(phaseList);
+		Collections.sort(sortedList, new Comparator<Phase>() {		// Stable, so equal keys keep their order
+			@Override
+			public int compare(Phase lhs, Phase rhs) {
+				long lhsKey = sortKeys.get(lhs);
+				long rhsKey = sortKeys.get(rhs);
+				return lhsKey < rhsKey ? -1 : (lhsKey == rhsKey ? 0 : 1);
+			}
+		});
+		
+		StringBuilder sb = new StringBuilder();
+		sb.append(new SimpleDateFormat("HH:mm:ss.SSS").format(new Date(timestamp)))
+			.append(' ').append(operation).append(' ').append(key)
+			.append(" took ").append(formatMillis(durationNanos)).append(" ms\n");
+		for(int i=0;i<sortedList.size();i++){
+			Phase phase = sortedList.get(i);
+			sb.append("  ").append(phase.offsetNanos < 0 ? "      " : "+"+formatMillis(phase.offsetNanos))
+				.append(' ').append(phase.name);
+			if(phase.address != 0)
+				sb.append(' ').append(phase.address);
+			sb.append(' ').append(formatMillis(phase.durationNanos)).append(" ms");
+			if(phase.bytes > 0)
+				sb.append(", ").append(phase.bytes).append(" bytes");
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static String formatMillis(long nanos){
+		return String.format("%.3f", nanos / 1e6);
+	}
+}
@@ -0,0 +1,143 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * This class coalesces concurrent reads of the same key (single flight),
+ * so that a burst of reads of a hot key does not send a burst of requests
+ * to its replicas.
+ *
+ * A read which arrives while a read of the key is in flight does not
+ * attach to it, as that read may have reached the replicas before a write
+ * which completed before the new read arrived. Instead all the reads which
+ * arrive during a flight wait for it to finish and then share one new
+ * flight, which starts after all of them arrived. So every read still sees
+ * every write completed before it started, and a burst of reads of a key
+ * costs at most two fan outs.
+ *
+ * @author biplap
+ *
+ */
+public class ReadCoalescer {
+	private final HashMap<String, Flight> inFlight = new HashMap<String, Flight>();	// Flights started, by key
+	private final HashMap<String, Flight> waiting = new HashMap<String, Flight>();		// Flights to start next, by key
+	private long readCount = 0;
+	private long flightCount = 0;
+
+	/**
+	 * Reads a key value pair from the replicas
+	 */
+	public interface Loader {
+		public ArrayList<KeyVal> load();
+	}
+
+	/**
+	 * A read shared by the callers which joined it. The callers wait on the
+	 * latch of their own flight (or of the flight before it), so a flight
+	 * finishing wakes only the callers of its key.
+	 */
+	private static class Flight {
+		final CountDownLatch done = new CountDownLatch(1);
+		boolean started = false;		// Under the lock of the coalescer
+		ArrayList<KeyVal> result;		// Set before done is counted down
+		RuntimeException error;
+	}
+
+	/**
+	 * Reads a key, sharing the read with the concurrent callers for the same key
+	 *
+	 * @param key:- Key of the read, including anything else which changes its result (eg. consistency level)
+	 * @param loader:- Read to run if this caller leads the flight
+	 * @return result of the flight, a copy of the list for each caller
+	 */
+	public ArrayList<KeyVal> read(String key, Loader loader){
+		Flight flight;
+		Flight previous;
+		boolean leader = false;
+		// The lock only guards the maps, callers wait outside of it
+		synchronized (this) {
+			readCount++;
+			previous = inFlight.get(key);
+			flight = waiting.get(key);
+			if(previous == null && flight == null){
+				flight = new Flight();
+				start(key, flight);
+				leader = true;
+			}
+			else if(flight == null){
+				flight = new Flight();
+				waiting.put(key, flight);
+			}
+		}
+		if(!leader){
+			// Wait till the previous flight is done, then the first of the waiting callers starts this one
+			if(previous != null)
+				await(key, previous);
+			synchronized (this) {
+				if(!flight.started){		// The previous flight has left inFlight before it was done
+					waiting.remove(key);
+					start(key, flight);
+					leader = true;
+				}
+			}
+			if(!leader){
+				await(key, flight);
+				return resultOf(flight);
+			}
+		}
+
+		try{
+			flight.result = loader.load();
+		}
+		catch(RuntimeException e){
+			flight.error = e;
+		}
+		synchronized (this) {
+			inFlight.remove(key);
+		}
+		flight.done.countDown();
+		return resultOf(flight);
+	}
+
+	/**
+	 * Marks a flight as started, under the lock of the coalescer
+	 */
+	private void start(String key, Flight flight){
+		flight.started = true;
+		inFlight.put(key, flight);
+		flightCount++;
+	}
+
+	private static void await(String key, Flight flight){
+		try {
+			flight.done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a read of "+key, e);
+		}
+	}
+
+	/**
+	 * Returns the number of reads
+	 * @return
+	 */
+	public synchronized long getReadCount(){
+		return readCount;
+	}
+
+	/**
+	 * Returns the number of reads actually sent to the replicas
+	 * @return
+	 */
+	public synchronized long getFlightCount(){
+		return flightCount;
+	}
+
+	private static ArrayList<KeyVal> resultOf(Flight flight){
+		if(flight.error != null)
+			throw flight.error;
+		return new ArrayList<KeyVal>(flight.result);
+	}
+}
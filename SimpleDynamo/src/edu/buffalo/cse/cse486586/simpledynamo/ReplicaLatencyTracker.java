@@ -0,0 +1,151 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * This class tracks the latencies of the requests sent to each node,
+ * to find out when a replica is slower than usual and to rank the
+ * replicas of a key by how fast they are likely to respond.
+ *
+ * The latest SAMPLE_COUNT latencies of each node are kept in a ring buffer,
+ * and percentiles are computed over them. A percentile is recomputed only
+ * every RECOMPUTE_INTERVAL samples, as it needs a sort.
+ *
+ * Each node also has an exponentially weighted moving average (EWMA) of
+ * its response time and a count of its outstanding requests. As in C3,
+ * a node is scored as ewma * (1 + outstanding)^3, so a node with a queue
+ * building up is avoided before its response time shows it. A failed
+ * request counts as a response time of at least FAILURE_PENALTY.
+ * The EWMA of a node which has not responded for DECAY_INTERVAL is halved,
+ * so a node which was slow once gets read traffic again after a while.
+ *
+ * @author biplap
+ *
+ */
+public class ReplicaLatencyTracker {
+	private static final int SAMPLE_COUNT = 128;		// Latencies kept per node
+	private static final int MIN_SAMPLES = 16;			// Samples needed before a percentile is given
+	private static final int RECOMPUTE_INTERVAL = 16;	// Samples after which a percentile is recomputed
+	private static final double EWMA_WEIGHT = 0.3;		// Weight of a new response time in the EWMA
+	private static final long FAILURE_PENALTY = 100000000L;	// Response time (ns) counted for a failed request
+	private static final long DECAY_INTERVAL = 10000;	// Time (ms) without responses after which the EWMA is halved
+
+	private final HashMap<Integer, NodeLatencies> nodes = new HashMap<Integer, NodeLatencies>();
+
+	/**
+	 * Latencies of one node
+	 */
+	private static class NodeLatencies {
+		final long[] samples = new long[SAMPLE_COUNT];
+		int count = 0;				// Number of samples ever recorded
+		double cachedPercentile = -1;
+		long cachedValue = -1;
+		int cachedAtCount = 0;
+		double ewma = 0;			// EWMA of the response time in nanoseconds, 0 until the first response
+		int outstanding = 0;		// Requests sent and not yet responded to
+		long updatedAt = 0;			// Time (ms) of the last update of the EWMA
+	}
+
+	/**
+	 * Records that a request is sent to a node
+	 * @param address:- Address of the node
+	 */
+	public synchronized void onRequestStart(int address){
+		getLatencies(address).outstanding++;
+	}
+
+	/**
+	 * Records the end of a request to a node
+	 * @param address:- Address of the node
+	 * @param nanos:- Latency in nanoseconds
+	 * @param success:- false if the node failed to respond
+	 */
+	public synchronized void onRequestEnd(int address, long nanos, boolean success){
+		NodeLatencies latencies = getLatencies(address);
+		latencies.outstanding--;
+		if(success){
+			latencies.samples[latencies.count % SAMPLE_COUNT] = nanos;
+			latencies.count++;
+		}
+		else
+			nanos = Math.max(nanos, Math.max(FAILURE_PENALTY, (long) latencies.ewma * 2));
+		if(latencies.ewma == 0)
+			latencies.ewma = nanos;
+		else
+			latencies.ewma += EWMA_WEIGHT * (nanos - latencies.ewma);
+		latencies.updatedAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Returns the score of a node, lower is better
+	 * @param address:- Address of the node
+	 * @return
+	 */
+	public synchronized double getScore(int address){
+		NodeLatencies latencies = nodes.get(address);
+		if(latencies == null)
+			return 0;
+		long now = System.currentTimeMillis();
+		if(latencies.ewma > 0 && now - latencies.updatedAt > DECAY_INTERVAL){
+			latencies.ewma /= 2;
+			latencies.updatedAt = now;
+		}
+		double queue = 1 + latencies.outstanding;
+		return latencies.ewma * queue * queue * queue;
+	}
+
+	/**
+	 * Orders nodes by their score, best first. Nodes with equal scores (eg.
+	 * nodes not contacted yet) keep their order in the list.
+	 * @param nodeList
+	 * @return ordered copy of the list
+	 */
+	public synchronized ArrayList<DHTNode> rank(ArrayList<DHTNode> nodeList){
+		final HashMap<Integer, Double> scores = new HashMap<Integer, Double>();
+		for(int i=0;i<nodeList.size();i++)
+			scores.put(nodeList.get(i).getAddress(), getScore(nodeList.get(i).getAddress()));
+		ArrayList<DHTNode> ranked = new ArrayList<DHTNode>(nodeList);
+		Collections.sort(ranked, new Comparator<DHTNode>() {	// Stable sort
+			@Override
+			public int compare(DHTNode lhs, DHTNode rhs) {
+				return Double.compare(scores.get(lhs.getAddress()), scores.get(rhs.getAddress()));
+			}
+		});
+		return ranked;
+	}
+
+	private NodeLatencies getLatencies(int address){
+		NodeLatencies latencies = nodes.get(address);
+		if(latencies == null){
+			latencies = new NodeLatencies();
+			nodes.put(address, latencies);
+		}
+		return latencies;
+	}
+
+	/**
+	 * Returns a percentile of the recent latencies of a node
+	 * @param address:- Address of the node
+	 * @param percentile:- eg. 0.95
+	 * @return latency in nanoseconds, -1 if there are not enough samples
+	 */
+	public synchronized long getPercentile(int address, double percentile){
+		NodeLatencies latencies = nodes.get(address);
+		if(latencies == null || latencies.count < MIN_SAMPLES)
+			return -1;
+		if(latencies.cachedPercentile == percentile && latencies.count - latencies.cachedAtCount < RECOMPUTE_INTERVAL)
+			return latencies.cachedValue;
+		int size = Math.min(latencies.count, SAMPLE_COUNT);
+		long[] sorted = Arrays.copyOf(latencies.samples, size);
+		Arrays.sort(sorted);
+		int index = Math.min(size - 1, (int) Math.ceil(percentile * size) - 1);
+		latencies.cachedPercentile = percentile;
+		latencies.cachedValue = sorted[Math.max(0, index)];
+		latencies.cachedAtCount = latencies.count;
+		return latencies.cachedValue;
+	}
+}
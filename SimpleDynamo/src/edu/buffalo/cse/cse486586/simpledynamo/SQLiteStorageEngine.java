@@ -0,0 +1,162 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+/**
+ * This class implements the storage engine over SQLite using DBHelper.
+ * Writes go through WriteBatcher so that they are group committed.
+ *
+ * @author biplap
+ *
+ */
+public class SQLiteStorageEngine implements StorageEngine {
+	private DBHelper dbHelper = null;
+	private WriteBatcher writeBatcher = null;
+
+	/**
+	 * Public constructor
+	 * @param context
+	 */
+	public SQLiteStorageEngine(Context context){
+		dbHelper = new DBHelper(context);
+		writeBatcher = new WriteBatcher(dbHelper);
+	}
+
+	@Override
+	public KeyVal get(String key) {
+		ArrayList<KeyVal> keyValList = query(DBHelper.KEY_FIELD+"=?", new String[]{key});
+		if(keyValList.size()==0)
+			return null;
+		return keyValList.get(0);
+	}
+
+	/**
+	 * The row is written without a version, the increment is done by
+	 * DBHelper in the same statement as the write.
+	 */
+	@Override
+	public boolean put(String key, String val) {
+		ContentValues values = new ContentValues();
+		values.put(DBHelper.KEY_FIELD, key);
+		values.put(DBHelper.VALUE_FIELD, val);
+		return writeBatcher.write(values);
+	}
+
+	@Override
+	public boolean put(String key, String val, String version) {
+		return writeBatcher.write(buildContentValues(key, val, version));
+	}
+
+	/**
+	 * All the rows are queued together so that they are committed in a few batches
+	 */
+	@Override
+	public boolean putAll(List<KeyVal> keyValList) {
+		ArrayList<ContentValues> valuesList = new ArrayList<ContentValues>(keyValList.size());
+		for(int i=0;i<keyValList.size();i++){
+			KeyVal keyVal = keyValList.get(i);
+			valuesList.add(buildContentValues(keyVal.getKey(), keyVal.getVal(), keyVal.getVersion()));
+		}
+		return writeBatcher.writeAll(valuesList);
+	}
+
+	@Override
+	public int delete(String key) {
+		return dbHelper.delete(DBHelper.KEY_FIELD+"=?", new String[]{key});
+	}
+
+	@Override
+	public int deleteAll() {
+		return dbHelper.delete("1", null);
+	}
+
+	@Override
+	public ArrayList<KeyVal> scan() {
+		return query(null, null);
+	}
+
+	@Override
+	public ArrayList<KeyVal> range(String fromKey, String toKey) {
+		return range(fromKey, toKey, 0);
+	}
+
+	@Override
+	public ArrayList<KeyVal> range(String fromKey, String toKey, int limit) {
+		ArrayList<String> args = new ArrayList<String>(2);
+		StringBuilder selection = new StringBuilder("1");
+		if(fromKey != null){
+			selection.append(" AND ").append(DBHelper.KEY_FIELD).append(">=?");
+			args.add(fromKey);
+		}
+		if(toKey != null){
+			selection.append(" AND ").append(DBHelper.KEY_FIELD).append("<?");
+			args.add(toKey);
+		}
+		return query(selection.toString(), args.toArray(new String[args.size()]), DBHelper.KEY_FIELD,
+				limit > 0 ? String.valueOf(limit) : null);
+	}
+
+	/**
+	 * Stops the committer before the database is closed, so that no batch
+	 * runs on a closed database
+	 */
+	@Override
+	public void close() {
+		writeBatcher.close();
+		dbHelper.close();
+	}
+
+	/**
+	 * Runs a query and converts the resulting rows to key value pairs
+	 * @param selection
+	 * @param selectionArgs
+	 * @return
+	 */
+	private ArrayList<KeyVal> query(String selection, String[] selectionArgs){
+		return query(selection, selectionArgs, null, null);
+	}
+
+	/**
+	 * Runs a query and converts the resulting rows to key value pairs
+	 * @param selection
+	 * @param selectionArgs
+	 * @param sortOrder
+	 * @param limit:- Max number of rows, null for no limit
+	 * @return
+	 */
+	private ArrayList<KeyVal> query(String selection, String[] selectionArgs, String sortOrder, String limit){
+		ArrayList<KeyVal> keyValList = new ArrayList<KeyVal>();
+		Cursor cursor = dbHelper.query(null, selection, selectionArgs, sortOrder, limit);
+		if (cursor.moveToFirst()){
+			do{
+				KeyVal newKeyVal = new KeyVal();
+				newKeyVal.setKey(cursor.getString(0));
+				newKeyVal.setVal(cursor.getString(1));
+				newKeyVal.setVersion(cursor.getString(2));
+				keyValList.add(newKeyVal);
+			}while(cursor.moveToNext());
+		}
+		cursor.close();
+		return keyValList;
+	}
+
+	/**
+	 * Builds the row to be written
+	 * @param key
+	 * @param val
+	 * @param version
+	 * @return
+	 */
+	private ContentValues buildContentValues(String key, String val, String version){
+		ContentValues values = new ContentValues();
+		values.put(DBHelper.KEY_FIELD, key);
+		values.put(DBHelper.VALUE_FIELD, val);
+		values.put(DBHelper.VERSION_FIELD, Integer.valueOf(version));
+		return values;
+	}
+}
@@ -0,0 +1,488 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * This class represents an immutable sorted string table of the LSM storage engine.
+ *
+ * File layout:-
+ * entries sorted by key | bloom filter | sparse index | footer
+ *
+ * The sparse index keeps the key and offset of every INDEX_INTERVAL'th entry
+ * and is kept in memory along with the bloom filter, so a point read which
+ * passes the bloom filter reads one block of entries from disk.
+ *
+ * @author biplap
+ *
+ */
+public class SSTable {
+	private static final int MAGIC = 0x53535431;			// "SST1"
+	private static final int FOOTER_SIZE = 8 + 8 + 4 + 4;
+	private static final int INDEX_INTERVAL = 16;			// Entries per index block
+	private static final byte FLAG_DELETED = 1;
+
+	private final File file;
+	private final RandomAccessFile dataFile;
+	private final BloomFilter bloomFilter;
+	private final String[] indexKeys;		// First key of each block
+	private final long[] indexOffsets;		// Offset of each block
+	private final long dataEnd;				// End of the entries, ie start of the bloom filter
+	private final int entryCount;
+
+	/**
+	 * An entry of the LSM storage engine. A deleted entry (tombstone)
+	 * shadows the older entries of the key.
+	 */
+	public static class Entry {
+		final String key;
+		final String val;
+		final long version;
+		final boolean deleted;
+
+		Entry(String key, String val, long version, boolean deleted){
+			this.key = key;
+			this.val = val;
+			this.version = version;
+			this.deleted = deleted;
+		}
+
+		/**
+		 * Converts the entry to a key value pair
+		 * @return
+		 */
+		KeyVal toKeyVal(){
+			KeyVal keyVal = new KeyVal();
+			keyVal.setKey(key);
+			keyVal.setVal(val);
+			keyVal.setVersion(String.valueOf(version));
+			return keyVal;
+		}
+	}
+
+	/**
+	 * Private constructor, use open() to open an existing table
+	 */
+	private SSTable(File file, RandomAccessFile dataFile, BloomFilter bloomFilter, String[] indexKeys,
+			long[] indexOffsets, long dataEnd, int entryCount){
+		this.file = file;
+		this.dataFile = dataFile;
+		this.bloomFilter = bloomFilter;
+		this.indexKeys = indexKeys;
+		this.indexOffsets = indexOffsets;
+		this.dataEnd = dataEnd;
+		this.entryCount = entryCount;
+	}
+
+	/**
+	 * Writes the entries (which must be sorted by key) to a new table file
+	 * and opens it. The file is synced to disk before this method returns.
+	 *
+	 * @param file:- File to be written
+	 * @param entries:- Entries sorted by key
+	 * @param expectedCount:- Expected number of entries, used to size the bloom filter
+	 * @param falsePositiveRate:- False positive rate of the bloom filter
+	 * @return the opened table
+	 * @throws IOException
+	 */
+	public static SSTable write(File file, Iterator<Entry> entries, int expectedCount, double falsePositiveRate) throws IOException{
+		BloomFilter bloomFilter = new BloomFilter(expectedCount, falsePositiveRate);
+		ArrayList<String> indexKeys = new ArrayList<String>();
+		ArrayList<Long> indexOffsets = new ArrayList<Long>();
+		FileOutputStream fos = new FileOutputStream(file);
+		try{
+			CountingOutputStream cos = new CountingOutputStream(new BufferedOutputStream(fos));
+			DataOutputStream out = new DataOutputStream(cos);
+			int count = 0;
+			while(entries.hasNext()){
+				Entry entry = entries.next();
+				if(count % INDEX_INTERVAL == 0){
+					indexKeys.add(entry.key);
+					indexOffsets.add(cos.getCount());
+				}
+				writeEntry(out, entry);
+				bloomFilter.add(entry.key);
+				count++;
+			}
+			long bloomOffset = cos.getCount();
+			bloomFilter.writeTo(out);
+			long indexOffset = cos.getCount();
+			out.writeInt(indexKeys.size());
+			for(int i=0;i<indexKeys.size();i++){
+				writeString(out, indexKeys.get(i));
+				out.writeLong(indexOffsets.get(i));
+			}
+			out.writeLong(bloomOffset);
+			out.writeLong(indexOffset);
+			out.writeInt(count);
+			out.writeInt(MAGIC);
+			out.flush();
+			fos.getFD().sync();
+		}
+		finally{
+			fos.close();
+		}
+		return open(file);
+	}
+
+	/**
+	 * Opens an existing table file, loading its bloom filter and index in memory
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static SSTable open(File file) throws IOException{
+		RandomAccessFile dataFile = new RandomAccessFile(file, "r");
+		try{
+			long length = dataFile.length();
+			if(length < FOOTER_SIZE)
+				throw new IOException("Truncated table "+file);
+			dataFile.seek(length - FOOTER_SIZE);
+			long bloomOffset = dataFile.readLong();
+			long indexOffset = dataFile.readLong();
+			int entryCount = dataFile.readInt();
+			if(dataFile.readInt() != MAGIC)
+				throw new IOException("Corrupt table "+file);
+
+			byte[] meta = new byte[(int) (length - FOOTER_SIZE - bloomOffset)];
+			dataFile.seek(bloomOffset);
+			dataFile.readFully(meta);
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(meta));
+			BloomFilter bloomFilter = BloomFilter.readFrom(in);
+			int indexSize = in.readInt();
+			String[] indexKeys = new String[indexSize];
+			long[] indexOffsets = new long[indexSize];
+			for(int i=0;i<indexSize;i++){
+				indexKeys[i] = readString(in);
+				indexOffsets[i] = in.readLong();
+			}
+			return new SSTable(file, dataFile, bloomFilter, indexKeys, indexOffsets, bloomOffset, entryCount);
+		}
+		catch(IOException e){
+			dataFile.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the file of the table
+	 * @return
+	 */
+	public File getFile(){
+		return file;
+	}
+
+	/**
+	 * Returns the size of the table file in bytes
+	 * @return
+	 */
+	public long getSize(){
+		return file.length();
+	}
+
+	/**
+	 * Returns the number of entries in the table
+	 * @return
+	 */
+	public int getEntryCount(){
+		return entryCount;
+	}
+
+	/**
+	 * Reads the entry of a key
+	 * @param key
+	 * @return entry, null if the key is not in the table
+	 * @throws IOException
+	 */
+	public Entry get(String key) throws IOException{
+		if(!bloomFilter.mightContain(key))
+			return null;
+		int block = findBlock(key);
+		if(block < 0)
+			return null;
+		long blockEnd = block+1 < indexOffsets.length ? indexOffsets[block+1] : dataEnd;
+		byte[] blockData = new byte[(int) (blockEnd - indexOffsets[block])];
+		synchronized (dataFile) {
+			dataFile.seek(indexOffsets[block]);
+			dataFile.readFully(blockData);
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(blockData));
+		for(int i=0;i<INDEX_INTERVAL && in.available() > 0;i++){
+			Entry entry = readEntry(in);
+			int cmp = entry.key.compareTo(key);
+			if(cmp == 0)
+				return entry;
+			if(cmp > 0)
+				break;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns an iterator over the entries with key >= fromKey in key order.
+	 * The iterator reads the file sequentially and has to be closed.
+	 *
+	 * @param fromKey:- Inclusive lower bound, null to iterate from the start
+	 * @return
+	 * @throws IOException
+	 */
+	public EntryIterator iterator(String fromKey) throws IOException{
+		long start = 0;
+		if(fromKey != null && indexOffsets.length > 0){
+			int block = findBlock(fromKey);
+			if(block > 0)
+				start = indexOffsets[block];
+		}
+		return new EntryIterator(file, start, dataEnd, fromKey);
+	}
+
+	/**
+	 * Closes the table
+	 */
+	public void close(){
+		try {
+			dataFile.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Closes and deletes the table file
+	 */
+	public void delete(){
+		close();
+		file.delete();
+	}
+
+	/**
+	 * Finds the block which may contain the key using binary search on the index
+	 * @param key
+	 * @return index of the block, -1 if the key is smaller than the first key
+	 */
+	private int findBlock(String key){
+		int low = 0, high = indexKeys.length - 1, result = -1;
+		while(low <= high){
+			int mid = (low + high) >>> 1;
+			if(indexKeys[mid].compareTo(key) <= 0){
+				result = mid;
+				low = mid + 1;
+			}
+			else
+				high = mid - 1;
+		}
+		return result;
+	}
+
+	/**
+	 * Serializes an entry. Also used by the write ahead log.
+	 * @param out
+	 * @param entry
+	 * @throws IOException
+	 */
+	static void writeEntry(DataOutput out, Entry entry) throws IOException{
+		writeString(out, entry.key);
+		out.writeByte(entry.deleted ? FLAG_DELETED : 0);
+		out.writeLong(entry.version);
+		if(!entry.deleted)
+			writeString(out, entry.val);
+	}
+
+	/**
+	 * Deserializes an entry written by writeEntry()
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	static Entry readEntry(DataInput in) throws IOException{
+		String key = readString(in);
+		boolean deleted = in.readByte() == FLAG_DELETED;
+		long version = in.readLong();
+		String val = deleted ? null : readString(in);
+		return new Entry(key, val, version, deleted);
+	}
+
+	/**
+	 * Writes a string as length followed by UTF-8 bytes, -1 length for null.
+	 * Unlike writeUTF() this is not limited to 64KB strings.
+	 */
+	static void writeString(DataOutput out, String str) throws IOException{
+		if(str == null){
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = str.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a string written by writeString()
+	 */
+	static String readString(DataInput in) throws IOException{
+		int length = in.readInt();
+		if(length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * Sequential iterator over the entries of a table file
+	 */
+	public static class EntryIterator implements Iterator<Entry> {
+		private final CountingInputStream counter;
+		private final DataInputStream in;
+		private final long start;
+		private final long end;
+		private Entry next;
+
+		private EntryIterator(File file, long start, long end, String fromKey) throws IOException{
+			FileInputStream fis = new FileInputStream(file);
+			fis.getChannel().position(start);
+			this.counter = new CountingInputStream(new BufferedInputStream(fis));
+			this.in = new DataInputStream(counter);
+			this.start = start;
+			this.end = end;
+			advance();
+			while(next != null && fromKey != null && next.key.compareTo(fromKey) < 0)
+				advance();
+		}
+
+		private void advance() throws IOException{
+			if(start + counter.getCount() >= end){
+				next = null;
+				return;
+			}
+			next = readEntry(in);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Entry next() {
+			if(next == null)
+				throw new NoSuchElementException();
+			Entry current = next;
+			try {
+				advance();
+			} catch (EOFException e) {
+				next = null;
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			return current;
+		}
+
+		/**
+		 * Returns the next entry without consuming it
+		 * @return
+		 */
+		public Entry peek(){
+			return next;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * Closes the underlying file
+		 */
+		public void close(){
+			try {
+				in.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Output stream which counts the bytes written, used to record offsets
+	 */
+	static class CountingOutputStream extends FilterOutputStream {
+		private long count = 0;
+
+		CountingOutputStream(OutputStream out){
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		long getCount(){
+			return count;
+		}
+	}
+
+	/**
+	 * Input stream which counts the bytes read, used to track offsets
+	 */
+	static class CountingInputStream extends FilterInputStream {
+		private long count = 0;
+
+		CountingInputStream(InputStream in){
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if(b >= 0)
+				count++;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = in.read(b, off, len);
+			if(n > 0)
+				count += n;
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = in.skip(n);
+			count += skipped;
+			return skipped;
+		}
+
+		long getCount(){
+			return count;
+		}
+	}
+}
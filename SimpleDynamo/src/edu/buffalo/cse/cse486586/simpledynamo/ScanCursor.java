@@ -0,0 +1,198 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import android.database.AbstractWindowedCursor;
+import android.database.CursorWindow;
+import android.os.Bundle;
+
+/**
+ * This class implements a Cursor over the result of a "*" or "@" query,
+ * possibly limited to a key range, which holds only one page of the result
+ * at a time.
+ *
+ * Pages are read on demand from a scan in key order (see DynamoOperation.scanDHT()
+ * and scanLocal()) and copied into the CursorWindow of the cursor. Only the
+ * start key of each page is remembered, so a page which has left the window
+ * can be read again when the cursor moves back to it.
+ *
+ * The Cursor interface needs the row count up front, so getCount() goes
+ * through the remaining pages once, keeping their start keys and the rows
+ * of the first MAX_COUNTED_PAGES pages, so that a result of up to that many
+ * pages is not read again while iterating it.
+ * As the pages are read at different times, rows written or deleted during
+ * the iteration may or may not be seen.
+ *
+ * The rows have the version of the key along with the key and value, to
+ * be passed to a conditional update (see SimpleDynamoProvider.update()).
+ *
+ * A cursor can also be limited to a single page. Its continuation token is
+ * then returned in the extras under EXTRA_CONTINUATION, to be passed back in
+ * the next query.
+ *
+ * @author biplap
+ *
+ */
+public class ScanCursor extends AbstractWindowedCursor {
+	public static final String EXTRA_CONTINUATION = "continuation";
+	private static final String[] COLUMNS = new String[]{DBHelper.KEY_FIELD, DBHelper.VALUE_FIELD, DBHelper.VERSION_FIELD};
+	private static final int MAX_COUNTED_PAGES = 16;	// Pages kept from the count, to be iterated without reading them again
+
+	private final DynamoOperation dynamoOperation;
+	private final boolean local;			// Scan of this node ("@") instead of the whole DHT ("*")
+	private final String toKey;				// Exclusive end of the keys, null for no end
+	private final int pageSize;
+	private final boolean singlePage;
+	private final ArrayList<String> pageStarts = new ArrayList<String>();	// Start key of each page found so far
+	private final HashMap<Integer, ScanPage> countedPages = new HashMap<Integer, ScanPage>();	// Pages read by getCount(), by index
+	private boolean lastPageFound = false;
+	private int count = -1;					// Number of rows, -1 until counted
+	private String continuation = null;		// Token after the single page
+
+	/**
+	 * Public constructor
+	 *
+	 * @param dynamoOperation
+	 * @param local:- true to scan the keys of this node, false to scan the whole DHT
+	 * @param pageSize:- Number of rows read at a time
+	 * @param fromKey:- Continuation token (inclusive start key) to start from, null for the first key
+	 * @param singlePage:- Whether the cursor is limited to the first page
+	 */
+	public ScanCursor(DynamoOperation dynamoOperation, boolean local, int pageSize, String fromKey, boolean singlePage){
+		this(dynamoOperation, local, pageSize, fromKey, null, singlePage);
+	}
+
+	/**
+	 * Public constructor of a cursor over a key range
+	 *
+	 * @param dynamoOperation
+	 * @param local:- true to scan the keys of this node, false to scan the whole DHT
+	 * @param pageSize:- Number of rows read at a time
+	 * @param fromKey:- Continuation token (inclusive start key) to start from, null for the first key
+	 * @param toKey:- Exclusive end of the keys, null for no end
+	 * @param singlePage:- Whether the cursor is limited to the first page
+	 */
+	public ScanCursor(DynamoOperation dynamoOperation, boolean local, int pageSize, String fromKey, String toKey, boolean singlePage){
+		this.dynamoOperation = dynamoOperation;
+		this.local = local;
+		this.toKey = toKey;
+		ScanPage.checkPageSize(pageSize);
+		this.pageSize = pageSize;
+		this.singlePage = singlePage;
+		pageStarts.add(fromKey);
+	}
+
+	@Override
+	public String[] getColumnNames() {
+		return COLUMNS;
+	}
+
+	/**
+	 * Counts the rows by going through all the pages once. The first page
+	 * is kept in the window.
+	 */
+	@Override
+	public int getCount() {
+		if(count >= 0)
+			return count;
+		int rows = 0;
+		for(int pageIndex=0;;pageIndex++){
+			ScanPage page = readPage(pageIndex);
+			if(pageIndex == 0)
+				fillWindow(0, page);
+			if(pageIndex < MAX_COUNTED_PAGES)
+				countedPages.put(pageIndex, page);
+			rows += page.getKeyValList().size();
+			if(singlePage || page.getContinuation() == null){
+				continuation = singlePage ? page.getContinuation() : null;
+				break;
+			}
+		}
+		count = rows;
+		return count;
+	}
+
+	@Override
+	public boolean onMove(int oldPosition, int newPosition) {
+		if(mWindow == null || newPosition < mWindow.getStartPosition()
+				|| newPosition >= mWindow.getStartPosition() + mWindow.getNumRows())
+			fillWindow(newPosition, mWindow);
+		return true;
+	}
+
+	/**
+	 * Fills a window with the page holding the given row
+	 */
+	@Override
+	public void fillWindow(int position, CursorWindow window) {
+		int pageIndex = position / pageSize;
+		ScanPage page = readPage(pageIndex);
+		if(window == null){
+			window = new CursorWindow(ScanCursor.class.getSimpleName());
+			setWindow(window);
+		}
+		fillWindow(pageIndex * pageSize, page, window);
+	}
+
+	/**
+	 * Returns the continuation token of a single page cursor in EXTRA_CONTINUATION
+	 */
+	@Override
+	public Bundle getExtras() {
+		getCount();
+		Bundle extras = new Bundle();
+		if(continuation != null)
+			extras.putString(EXTRA_CONTINUATION, continuation);
+		return extras;
+	}
+
+	/**
+	 * Fills the window of the cursor with the page starting at a row
+	 */
+	private void fillWindow(int startPosition, ScanPage page){
+		if(mWindow == null)
+			setWindow(new CursorWindow(ScanCursor.class.getSimpleName()));
+		fillWindow(startPosition, page, mWindow);
+	}
+
+	private static void fillWindow(int startPosition, ScanPage page, CursorWindow window){
+		window.clear();
+		window.setNumColumns(COLUMNS.length);
+		window.setStartPosition(startPosition);
+		ArrayList<KeyVal> keyValList = page.getKeyValList();
+		for(int i=0;i<keyValList.size();i++){
+			KeyVal keyVal = keyValList.get(i);
+			if(!window.allocRow())
+				break;
+			window.putString(keyVal.getKey(), startPosition + i, 0);
+			window.putString(keyVal.getVal(), startPosition + i, 1);
+			window.putString(keyVal.getVersion(), startPosition + i, 2);
+		}
+	}
+
+	/**
+	 * Reads a page, reading the pages before it first if their start keys
+	 * are not known yet
+	 * @param pageIndex
+	 * @return
+	 */
+	private ScanPage readPage(int pageIndex){
+		ScanPage counted = countedPages.get(pageIndex);
+		if(counted != null)
+			return counted;
+		while(pageStarts.size() <= pageIndex && !lastPageFound)
+			readPage(pageStarts.size() - 1);
+		int index = Math.min(pageIndex, pageStarts.size() - 1);
+		String fromKey = pageStarts.get(index);
+		ScanPage page = local ? dynamoOperation.scanLocal(fromKey, toKey, pageSize)
+				: dynamoOperation.scanDHT(fromKey, toKey, pageSize);
+		if(index == pageStarts.size() - 1){
+			if(page.getContinuation() == null)
+				lastPageFound = true;
+			else
+				pageStarts.add(page.getContinuation());
+		}
+		return page;
+	}
+}
@@ -0,0 +1,98 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.ArrayList;
+
+/**
+ * This class represents a page of a scan over the keys in key order, along
+ * with the continuation token from which the next page starts.
+ *
+ * @author biplap
+ *
+ */
+public class ScanPage {
+	private final ArrayList<KeyVal> keyValList;
+	private final String continuation;
+
+	/**
+	 * Public constructor
+	 * @param keyValList:- Key value pairs of the page in key order
+	 * @param continuation:- Token of the next page, null if this is the last page
+	 */
+	public ScanPage(ArrayList<KeyVal> keyValList, String continuation){
+		this.keyValList = keyValList;
+		this.continuation = continuation;
+	}
+
+	/**
+	 * Returns the key value pairs of the page
+	 * @return
+	 */
+	public ArrayList<KeyVal> getKeyValList() {
+		return keyValList;
+	}
+
+	/**
+	 * Returns the token of the next page. The token is the smallest key
+	 * after the last key of this page, ie. the inclusive start of the next page.
+	 * @return null if this is the last page
+	 */
+	public String getContinuation() {
+		return continuation;
+	}
+
+	/**
+	 * Returns the token of the page following a key
+	 * @param lastKey:- Last key of a page
+	 * @return
+	 */
+	public static String continuationAfter(String lastKey){
+		return lastKey + '\u0000';		// Smallest string greater than the key
+	}
+
+	/**
+	 * Returns the exclusive end of the keys starting with a prefix, ie. the
+	 * smallest string greater than all of them
+	 * @param prefix
+	 * @return null if there is no such string (the prefix is empty or all '\uffff')
+	 */
+	public static String prefixEnd(String prefix){
+		int end = prefix.length();
+		while(end > 0 && prefix.charAt(end-1) == '\uffff')
+			end--;
+		if(end == 0)
+			return null;
+		return prefix.substring(0, end-1) + (char) (prefix.charAt(end-1) + 1);
+	}
+
+	/**
+	 * Parses the page size of a scan, as given by a client
+	 * @param limit:- Page size, null for the default
+	 * @param defaultSize:- Page size if none is given
+	 * @return
+	 * @throws IllegalArgumentException if the page size is not a number or not positive,
+	 * a page size of 0 would read all the keys at once
+	 */
+	public static int parsePageSize(String limit, int defaultSize){
+		if(limit == null)
+			return defaultSize;
+		int pageSize;
+		try{
+			pageSize = Integer.parseInt(limit.trim());
+		}
+		catch(NumberFormatException e){
+			throw new IllegalArgumentException("Invalid page size "+limit, e);
+		}
+		checkPageSize(pageSize);
+		return pageSize;
+	}
+
+	/**
+	 * Checks that a page size is positive
+	 * @param pageSize
+	 * @throws IllegalArgumentException if it is not
+	 */
+	public static void checkPageSize(int pageSize){
+		if(pageSize <= 0)
+			throw new IllegalArgumentException("Page size must be positive: "+pageSize);
+	}
+}
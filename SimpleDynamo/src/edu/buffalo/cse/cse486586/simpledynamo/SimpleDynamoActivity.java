@@ -35,14 +35,11 @@ package edu.buffalo.cse.cse486586.simpledynamo;
 /** messages are sent between the objects by serializing and deserializing the 		 **/
 /** objects of Message class in it's JSON format.									 **/
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.ArrayList;
+import java.nio.channels.ServerSocketChannel;
 
 import android.os.AsyncTask;
 import android.os.Bundle;
@@ -64,8 +61,29 @@ public class SimpleDynamoActivity extends Activity {
 	private static int REPLICATION_COUNT = 3;		// Number of replica's for a key value pair
 	private static int READ_QUORUM = 2;				// Read quorum
 	private static int WRITE_QUORUM = 2;			// Write quorum
+	private static String STORAGE_ENGINE = StorageEngineFactory.SQLITE;	// Local storage engine, see StorageEngineFactory
+	private static int CACHE_MODE = DynamoOperation.CACHE_OFF;	// Coordinator side cache of hot keys
+	private static int CACHE_SIZE = 10000;			// Max key value pairs in the cache
+	private static long CACHE_TTL = 60000;			// Time to live (ms) of a cached key value pair
+	private static long CACHE_OFF_HEAP_CAPACITY = 64 << 20;	// Off heap bytes for large cached values
+	private static int CACHE_OFF_HEAP_THRESHOLD = OffHeapArena.DEFAULT_THRESHOLD;	// Size from which a cached value is off heap
+	private static boolean FILTER_ENABLED = false;	// Whether reads of absent keys are answered from bloom filters
+	private static double FILTER_FALSE_POSITIVE_RATE = 0.01;	// False positive rate of the bloom filters
+	private static long FILTER_INTERVAL = 1000;		// Interval (ms) at which the bloom filter is shared
+	private static boolean COALESCE_READS = true;	// Whether concurrent reads of a key share their requests to the replicas
+	private static boolean ADAPTIVE_REPLICA_SELECTION = true;	// Whether ONE and QUORUM reads go to the least loaded replicas
+	private static boolean HEDGE_READS = false;		// Whether ONE and QUORUM reads are hedged to another replica
+	private static double HEDGE_PERCENTILE = 0.95;	// Latency percentile of a replica after which a read is hedged
+	private static double HEDGE_BUDGET = 0.05;		// Max hedged requests per read
+	private static long SLOW_OPERATION_THRESHOLD = 1000;	// Duration (ms) from which the trace of an operation is kept, -1 to disable tracing
+	private static int SLOW_OPERATION_CAPACITY = 100;	// Max traces of slow operations kept
+	private static int COMPRESSION_THRESHOLD = WireCodec.DEFAULT_THRESHOLD;	// Length of JSON from which messages are compressed, -1 to disable
+	private static long TOMBSTONE_GRACE_PERIOD = 60000;	// Time (ms) after a delete for which its tombstone is kept in any case
+	private static long TOMBSTONE_COMPACTION_INTERVAL = 10000;	// Interval (ms) between the steps of the tombstone compaction, -1 to disable
 
+	private static final String SNAPSHOT_DIR = "snapshot";	// Directory of the snapshot files
 	private final int SERVER_PORT = 10000;			// Port at which server is listening
+	private static int SERVER_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);	// Threads serving requests
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -87,7 +105,11 @@ public class SimpleDynamoActivity extends Activity {
 			 * you know how it works by reading
 			 * http://developer.android.com/reference/android/os/AsyncTask.html
 			 */
-			ServerSocket serverSocket = new ServerSocket(SERVER_PORT);
+			// The server socket is opened from a channel so that accepted sockets have
+			// channels too, which lets snapshots be sent with zero copy transferTo()
+			ServerSocketChannel serverChannel = ServerSocketChannel.open();
+			ServerSocket serverSocket = serverChannel.socket();
+			serverSocket.bind(new InetSocketAddress(SERVER_PORT));
 			new InitDynamoTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, serverSocket);
 		} catch (IOException e) {
 			/*
@@ -130,62 +152,27 @@ public class SimpleDynamoActivity extends Activity {
 			int myAddress = Integer.parseInt(myPort)*2;
 			
 			// Initialize dynamo
-			dynamoOperation = DynamoOperation.createAndGetInstance(getApplicationContext(), myAddress, NODE_COUNT, REPLICATION_COUNT, READ_QUORUM, WRITE_QUORUM);
+			StorageEngine storageEngine = StorageEngineFactory.create(STORAGE_ENGINE, getApplicationContext());
+			File snapshotDir = getApplicationContext().getDir(SNAPSHOT_DIR, Context.MODE_PRIVATE);
+			// Published to the content provider only once configured
+			dynamoOperation = DynamoOperation.createInstance(storageEngine, snapshotDir, myAddress, NODE_COUNT, REPLICATION_COUNT, READ_QUORUM, WRITE_QUORUM);
+			dynamoOperation.configureCache(CACHE_MODE, CACHE_SIZE, CACHE_TTL, CACHE_OFF_HEAP_CAPACITY, CACHE_OFF_HEAP_THRESHOLD);
+			dynamoOperation.configureCompression(COMPRESSION_THRESHOLD);
+			dynamoOperation.configureReadCoalescing(COALESCE_READS);
+			dynamoOperation.configureReplicaSelection(ADAPTIVE_REPLICA_SELECTION);
+			if(HEDGE_READS)
+				dynamoOperation.configureHedging(HEDGE_PERCENTILE, HEDGE_BUDGET);
+			if(SLOW_OPERATION_THRESHOLD >= 0)
+				dynamoOperation.configureSlowOperationLog(SLOW_OPERATION_THRESHOLD, SLOW_OPERATION_CAPACITY);
+			if(FILTER_ENABLED)
+				dynamoOperation.configureFilters(FILTER_FALSE_POSITIVE_RATE, FILTER_INTERVAL);
+			if(TOMBSTONE_COMPACTION_INTERVAL > 0)
+				dynamoOperation.configureTombstoneCompaction(TOMBSTONE_GRACE_PERIOD, TOMBSTONE_COMPACTION_INTERVAL);
+			DynamoOperation.publishInstance(dynamoOperation);
 			
 			// Can listen to incoming requests once dynamo is initialized
-			while(true){		// Keep listening to incoming requests
-				try {
-					Socket soc = serverSocket.accept();
-					Log.v(TAG, "Client connected");
-					BufferedReader br = new BufferedReader(new InputStreamReader(soc.getInputStream()));
-					BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(soc.getOutputStream()));
-					String rawMsg = br.readLine();
-					Message inMsg = Message.fromJson(rawMsg);
-					Log.v(TAG, "Message type "+inMsg.getType());
-					
-					// Handling read request
-					if(inMsg.getType() == Message.READ){
-						
-						String key = inMsg.getKey();
-						ArrayList<KeyVal> keyValList = null;
-						keyValList = dynamoOperation.readLocalKeyVal(key);
-						Message reply = new Message();
-						reply.setType(Message.READ_ACK);
-						reply.setKeyValList(keyValList);
-						String replyStr = reply.toJson();
-						bw.write(replyStr+"\n");
-						bw.flush();
-					}
-					
-					// handling request to write a new key value
-					else if(inMsg.getType() == Message.WRITE){
-						Log.v(TAG, "Insert request received at "+myPort);
-						dynamoOperation.writeLocalKeyVal(inMsg.getKey(), inMsg.getValue());
-						Message response = new Message();
-						response.setType(Message.WRITE_ACK);
-						String responseStr = response.toJson();
-						bw.write(responseStr+"\n");
-						bw.flush();
-					}
-					
-					// handling request to delete key value
-					else if(inMsg.getType() == Message.DELETE){
-						int res = dynamoOperation.deleteLocalKeyVal(inMsg.getKey());
-						Message response = new Message();
-						response.setType(Message.DELETE_ACK);
-						response.setSqlResult(res);
-				    	String responseStr = response.toJson();
-				    	bw.write(responseStr+"\n");
-				    	bw.flush();
-					}
-					br.close();
-					bw.close();
-					soc.close();
-				} catch (IOException e) {
-					Log.e(TAG, "ServerTask socket IOException");
-				}
-			}
+			new DynamoServer(dynamoOperation, serverSocket, SERVER_THREADS).serve();
+			return null;
 		}
 	}
 }
-
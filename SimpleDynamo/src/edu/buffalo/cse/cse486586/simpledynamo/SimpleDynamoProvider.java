@@ -20,18 +20,26 @@ import android.util.Log;
 public class SimpleDynamoProvider extends ContentProvider {
 	static final String TAG = SimpleDynamoProvider.class.getSimpleName();
 	static final int INIT_DYNAMO_WAIT_TIME = 100;			// Wait interval for waiting dynamo to be initialized
+	static final int SCAN_PAGE_SIZE = 256;				// Rows read at a time by the cursor of a "*" or "@" query
+	static final String QUERY_LIMIT = "limit";			// Uri parameter to get a single page of a "*" or "@" query
+	static final String QUERY_CONTINUATION = ScanCursor.EXTRA_CONTINUATION;	// Uri parameter with the token of the page to get
+	static final String QUERY_CONSISTENCY = "consistency";	// Uri parameter with the consistency level (one, quorum or all)
+	static final String QUERY_PREFIX = "prefix";		// Uri parameter limiting a "*" or "@" query to the keys with a prefix
+	static final String QUERY_FROM = "from";			// Uri parameter with the inclusive start key of a "*" or "@" query
+	static final String QUERY_TO = "to";				// Uri parameter with the exclusive end key of a "*" or "@" query
 	private DynamoOperation dynamoOperation = null;	
 	
 	@Override
 	/**
 	 * Implements delete operation.
 	 * Redirects to dynamo operation object for the implementation.
+	 * The consistency level can be given as the "consistency" parameter of the uri.
 	 */
 	public int delete(Uri uri, String selection, String[] selectionArgs) {	
 		ensureDynamoInit(); 		// Make sure that dynamo is initialized
 		int result = 0;
     	String key = selection;
-    	result = dynamoOperation.deleteDHTKeyVal(key);
+    	result = dynamoOperation.deleteDHTKeyVal(key, getConsistencyLevel(uri));
     	return result;
 	}
 
@@ -45,12 +53,16 @@ public class SimpleDynamoProvider extends ContentProvider {
 	/**
 	 * Implements insert/write operation.
 	 * Redirects to dynamo operation object for the implementation
+	 * The consistency level can be given as the "consistency" parameter of the uri.
+	 * An expiry time (ms) can be given in the "expires" value, after which the
+	 * key value pair is not read any more.
 	 */
 	public Uri insert(Uri uri, ContentValues values) {
 		ensureDynamoInit();			// Make sure that dynamo is initialized
 		String key = values.getAsString(DBHelper.KEY_FIELD);
     	String val = values.getAsString(DBHelper.VALUE_FIELD);
-    	dynamoOperation.writeDHTKeyVal(key, val);
+    	Long expiresAt = values.getAsLong(DBHelper.EXPIRES_FIELD);
+    	dynamoOperation.writeDHTKeyVal(key, val, getConsistencyLevel(uri), expiresAt == null ? 0 : expiresAt);
 		return uri;
 	}
 
@@ -63,48 +75,107 @@ public class SimpleDynamoProvider extends ContentProvider {
 	/**
 	 * Implements query/read operation.
 	 * Redirects to dynamo operation object for the implementation
+	 * 
+	 * The results of "*" and "@" are read lazily a page at a time (see ScanCursor).
+	 * With a "limit" parameter in the uri only one page is returned, and the
+	 * token of the next page is in the extras of the cursor under "continuation".
+	 * The token is passed back as the "continuation" parameter of the uri to
+	 * get the next page. A limit which is not a positive number is rejected
+	 * with IllegalArgumentException.
+	 * 
+	 * A "*" or "@" query can be limited to the keys with the "prefix" parameter
+	 * of the uri, or to the keys from the "from" parameter (inclusive) to the
+	 * "to" parameter (exclusive). They are read in key order from the ordered
+	 * index of each node. The same parameters are passed with a continuation.
+	 * 
+	 * The consistency level of a read of a key can be given as the "consistency"
+	 * parameter of the uri.
 	 */
 	public Cursor query(Uri uri, String[] projection, String selection,
 			String[] selectionArgs, String sortOrder) {
 		ensureDynamoInit();			// Make sure that dynamo is initialized
 		ArrayList<KeyVal> keyValList = new ArrayList<KeyVal>();
 		String key = selection;
-    	if(key.equals("*"))
-    		keyValList = dynamoOperation.readDHTAll();
-    	else if(key.equals("@"))
-    		keyValList = dynamoOperation.readAllLocal();
+    	if(key.equals("*") || key.equals("@")){
+    		String limit = uri.getQueryParameter(QUERY_LIMIT);
+    		String continuation = uri.getQueryParameter(QUERY_CONTINUATION);
+    		String prefix = uri.getQueryParameter(QUERY_PREFIX);
+    		String fromKey = prefix != null ? prefix : uri.getQueryParameter(QUERY_FROM);
+    		String toKey = prefix != null ? ScanPage.prefixEnd(prefix) : uri.getQueryParameter(QUERY_TO);
+    		int pageSize = ScanPage.parsePageSize(limit, SCAN_PAGE_SIZE);	// Rejects 0, which would read all the keys
+    		return new ScanCursor(dynamoOperation, key.equals("@"), pageSize, continuation != null ? continuation : fromKey,
+    				toKey, limit != null);
+    	}
     	else{
-    		keyValList = dynamoOperation.readDHTKeyVal(key);
+    		keyValList = dynamoOperation.readDHTKeyVal(key, getConsistencyLevel(uri));
     	}
     	Cursor resultCursor = buildCursorFromKeyValList(keyValList);
 		return resultCursor;
 	}
 
 	@Override
+	/**
+	 * Implements a conditional write (compare and set) of the key in the selection.
+	 * The value is written only if the key has the version in the "version" value,
+	 * as read by query(), or is not present if it is 0 or not given. It is done
+	 * in one round trip to the replicas (see DynamoOperation.casDHTKeyVal()).
+	 * The consistency level can be given as the "consistency" parameter of the uri,
+	 * and an expiry time in the "expires" value as for insert().
+	 * 
+	 * Returns the new version of the key (> 0) if the write succeeded. On a conflict
+	 * it returns -(current version + 1), ie. -1 if the key is not present, and the
+	 * write can be retried with the version -result-1. 0 means that too few replicas
+	 * answered to decide, the write may have been applied at some of them and the
+	 * key is to be read again.
+	 * 
+	 * Two updates of the same version through different nodes can each be applied
+	 * at some replicas, giving the same new version to both values, and the update
+	 * which returns a conflict is not undone. Reads and sync then pick the greater
+	 * of the two values (in the order of their UTF-8 bytes) wherever they see both,
+	 * so that every node settles on the same value (see Tombstone.winsTie()).
+	 */
 	public int update(Uri uri, ContentValues values, String selection,
 			String[] selectionArgs) {
-		// TODO Auto-generated method stub
-		return 0;
+		ensureDynamoInit();			// Make sure that dynamo is initialized
+		String val = values.getAsString(DBHelper.VALUE_FIELD);
+		Long expectedVersion = values.getAsLong(DBHelper.VERSION_FIELD);
+		Long expiresAt = values.getAsLong(DBHelper.EXPIRES_FIELD);
+		long result = dynamoOperation.casDHTKeyVal(selection, val, expectedVersion == null ? 0 : expectedVersion,
+				getConsistencyLevel(uri), expiresAt == null ? 0 : expiresAt);
+		if(result > Integer.MAX_VALUE || result < Integer.MIN_VALUE)
+			throw new IllegalStateException("Version of key "+selection+" does not fit the result of update(): "+result);
+		return (int) result;
 	}
 	
 	/**
 	 * This mehod builds a Cursor from list of key value pairs
 	 * returned from dynamo operation object to be returned as result of
-	 * query()
+	 * query(). The version is given too, for update().
 	 *  
 	 * @param keyValList
 	 * @return
 	 */
 	private Cursor buildCursorFromKeyValList(ArrayList<KeyVal> keyValList){
-		MatrixCursor matCursor = new MatrixCursor(new String[]{DBHelper.KEY_FIELD,DBHelper.VALUE_FIELD});
+		MatrixCursor matCursor = new MatrixCursor(new String[]{DBHelper.KEY_FIELD,DBHelper.VALUE_FIELD,DBHelper.VERSION_FIELD});
 		matCursor.moveToFirst();
 		for(int i=0;i<keyValList.size();i++){
 			KeyVal keyVal = keyValList.get(i);
-			matCursor.addRow(new String[]{keyVal.getKey(),keyVal.getVal()});
+			matCursor.addRow(new String[]{keyVal.getKey(),keyVal.getVal(),keyVal.getVersion()});
 		}
 		return matCursor;
 	}
 	
+	/**
+	 * Returns the consistency level asked for in the uri.
+	 * Defaults to ALL, ie. linearizable reads and writes.
+	 * 
+	 * @param uri
+	 * @return
+	 */
+	private ConsistencyLevel getConsistencyLevel(Uri uri){
+		return ConsistencyLevel.parse(uri.getQueryParameter(QUERY_CONSISTENCY), ConsistencyLevel.ALL);
+	}
+	
 	/**
 	 * Makes the current thread to wait till dynamo is initialized.
 	 * This is important as handling queries before dynamo is initializes
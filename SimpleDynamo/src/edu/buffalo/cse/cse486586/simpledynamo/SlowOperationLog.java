@@ -0,0 +1,97 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.ArrayList;
+
+/**
+ * This class keeps the traces (see OperationTrace) of the operations of a
+ * coordinator which took longer than a threshold, in a ring buffer holding
+ * the most recent ones.
+ *
+ * Every operation is traced while it runs, as whether it is slow is known only
+ * at its end. A trace is a handful of small objects, against the sockets and
+ * JSON of the operation, and the trace of an operation under the threshold is
+ * dropped at its end without taking the lock of the buffer.
+ *
+ * @author biplap
+ *
+ */
+public class SlowOperationLog {
+	private static final String TAG = SlowOperationLog.class.getSimpleName();
+	private final long thresholdNanos;
+	private final OperationTrace[] traces;	// Ring buffer of the slow traces
+	private int next = 0;					// Index of the next trace in the buffer
+	private long slowCount = 0;				// Slow operations since the start
+
+	/**
+	 * Public constructor
+	 * @param thresholdMillis:- Duration (ms) from which an operation is slow
+	 * @param capacity:- Max number of traces kept
+	 */
+	public SlowOperationLog(long thresholdMillis, int capacity){
+		if(capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive");
+		this.thresholdNanos = thresholdMillis * 1000000L;
+		this.traces = new OperationTrace[capacity];
+	}
+
+	/**
+	 * Starts the trace of an operation
+	 * @param operation:- Operation, eg. read.QUORUM
+	 * @param key:- Key of the operation
+	 * @return
+	 */
+	public OperationTrace begin(String operation, String key){
+		return new OperationTrace(operation, key);
+	}
+
+	/**
+	 * Ends the trace of an operation, keeping it if the operation was slow
+	 * @param trace:- Trace, ignored if null
+	 */
+	public void end(OperationTrace trace){
+		if(trace == null || trace.end() < thresholdNanos)
+			return;
+		DynamoLog.v(TAG, "Slow operation "+trace.getOperation()+" "+trace.getKey());
+		synchronized (this) {
+			traces[next] = trace;
+			next = (next + 1) % traces.length;
+			slowCount++;
+		}
+	}
+
+	/**
+	 * Returns the traces kept, oldest first
+	 * @return
+	 */
+	public synchronized ArrayList<OperationTrace> dump(){
+		ArrayList<OperationTrace> traceList = new ArrayList<OperationTrace>();
+		for(int i=0;i<traces.length;i++){
+			OperationTrace trace = traces[(next + i) % traces.length];
+			if(trace != null)
+				traceList.add(trace);
+		}
+		return traceList;
+	}
+
+	/**
+	 * Drops the traces kept
+	 */
+	public synchronized void clear(){
+		for(int i=0;i<traces.length;i++)
+			traces[i] = null;
+		next = 0;
+	}
+
+	/**
+	 * Returns the number of slow operations since the start, including
+	 * the ones no more in the buffer
+	 * @return
+	 */
+	public synchronized long getSlowCount(){
+		return slowCount;
+	}
+
+	public long getThresholdMillis(){
+		return thresholdNanos / 1000000L;
+	}
+}
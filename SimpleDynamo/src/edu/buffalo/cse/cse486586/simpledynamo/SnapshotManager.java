@@ -0,0 +1,342 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.Socket;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * This class manages the point in time snapshots of the local storage
+ * which are used to bootstrap a recovering node.
+ *
+ * A snapshot file holds one segment per partition of the ring, each segment
+ * sorted by key, followed by an index of the segments. A peer sends the
+ * segments asked for straight from the file to the socket with
+ * FileChannel.transferTo(), along with the writes done after the snapshot.
+ * The recovering node memory maps the received segments and bulk loads them.
+ *
+ * @author biplap
+ *
+ */
+public class SnapshotManager {
+	public static final int MAX_DELTA = 10000;			// Writes after a snapshot beyond which the snapshot is dropped
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+	private static final String RECEIVED_PREFIX = "received-";
+
+	private final File dir;
+	private final StorageEngine storageEngine;
+	private final DynamoRing dynamoRing;
+	private HashSet<String> writesSinceSnapshot = new HashSet<String>();
+	private File snapshotFile = null;
+	private ArrayList<SnapshotSegment> segments = null;
+
+	/**
+	 * Public constructor. Deletes the snapshots left by a previous run as
+	 * they do not cover the writes done since.
+	 *
+	 * @param dir:- Directory for the snapshot files
+	 * @param storageEngine:- Storage engine whose data is snapshotted
+	 * @param dynamoRing:- Ring used to partition the keys
+	 */
+	public SnapshotManager(File dir, StorageEngine storageEngine, DynamoRing dynamoRing){
+		this.dir = dir;
+		this.storageEngine = storageEngine;
+		this.dynamoRing = dynamoRing;
+		dir.mkdirs();
+		File[] files = dir.listFiles();
+		for(int i=0;files != null && i<files.length;i++)
+			files[i].delete();
+	}
+
+	/**
+	 * Records that a key was written locally, so that it is sent along with
+	 * the snapshot. Must be called after the write is done.
+	 * Once there are more than MAX_DELTA writes the snapshot is dropped,
+	 * the next request takes a new one.
+	 * @param key
+	 */
+	public synchronized void recordWrite(String key){
+		if(snapshotFile == null)
+			return;
+		writesSinceSnapshot.add(key);
+		if(writesSinceSnapshot.size() > MAX_DELTA)
+			dropSnapshot();
+	}
+
+	/**
+	 * Drops the snapshot, the next request takes a new one. Called when
+	 * keys are removed (eg. purged tombstones), as a snapshot can not
+	 * send that a key it holds is gone.
+	 */
+	public synchronized void dropSnapshot(){
+		if(snapshotFile == null)
+			return;
+		snapshotFile.delete();
+		snapshotFile = null;
+		segments = null;
+		writesSinceSnapshot = new HashSet<String>();
+	}
+
+	/**
+	 * Serves a snapshot request. Sends a SNAPSHOT_ACK line with the segments
+	 * (offsets relative to the end of the line) and the writes done after the
+	 * snapshot, followed by the bytes of the segments.
+	 *
+	 * @param request:- SNAPSHOT request with the partitions needed
+	 * @param socket:- Socket to the recovering node
+	 * @param wireCodec:- Codec of the header line, the delta in it is compressed if large
+	 * @throws IOException
+	 */
+	public void serve(Message request, Socket socket, WireCodec wireCodec) throws IOException{
+		FileInputStream fis;
+		ArrayList<SnapshotSegment> fileSegments;
+		ArrayList<String> deltaKeys;
+		synchronized (this) {
+			if(snapshotFile == null)
+				takeSnapshot();
+			fis = new FileInputStream(snapshotFile);	// Stays readable even if the snapshot is dropped
+			fileSegments = segments;
+			deltaKeys = new ArrayList<String>(writesSinceSnapshot);
+		}
+		try{
+			sendSnapshot(request, socket, wireCodec, fis, fileSegments, deltaKeys);
+		}
+		finally{
+			fis.close();
+		}
+	}
+
+	/**
+	 * Sends the SNAPSHOT_ACK line and the segments asked for
+	 */
+	private void sendSnapshot(Message request, Socket socket, WireCodec wireCodec, FileInputStream fis,
+			ArrayList<SnapshotSegment> fileSegments, ArrayList<String> deltaKeys) throws IOException{
+		HashSet<Integer> partitions = new HashSet<Integer>();
+		List<SnapshotSegment> requested = request.getSegmentList();
+		for(int i=0;i<requested.size();i++)
+			partitions.add(requested.get(i).getPartition());
+		ArrayList<SnapshotSegment> sendSegments = new ArrayList<SnapshotSegment>();
+		ArrayList<SnapshotSegment> replySegments = new ArrayList<SnapshotSegment>();
+		long streamOffset = 0;
+		for(int i=0;i<fileSegments.size();i++){
+			SnapshotSegment segment = fileSegments.get(i);
+			if(!partitions.contains(segment.getPartition()))
+				continue;
+			SnapshotSegment replySegment = new SnapshotSegment();
+			replySegment.setPartition(segment.getPartition());
+			replySegment.setOffset(streamOffset);
+			replySegment.setLength(segment.getLength());
+			replySegment.setCount(segment.getCount());
+			sendSegments.add(segment);
+			replySegments.add(replySegment);
+			streamOffset += segment.getLength();
+		}
+
+		ArrayList<KeyVal> delta = new ArrayList<KeyVal>(deltaKeys.size());
+		for(int i=0;i<deltaKeys.size();i++){
+			KeyVal keyVal = storageEngine.get(deltaKeys.get(i));
+			if(keyVal != null)
+				delta.add(keyVal);
+		}
+
+		Message reply = new Message();
+		reply.setType(Message.SNAPSHOT_ACK);
+		reply.setSegmentList(replySegments);
+		reply.setKeyValList(delta);
+		OutputStream out = socket.getOutputStream();
+		out.write((wireCodec.encode(reply, request.acceptsCompression())+"\n").getBytes("UTF-8"));
+		out.flush();
+
+		// Zero copy when the socket has a channel (accepted from a ServerSocketChannel)
+		WritableByteChannel target = socket.getChannel() != null ? socket.getChannel() : Channels.newChannel(out);
+		FileChannel source = fis.getChannel();
+		for(int i=0;i<sendSegments.size();i++){
+			SnapshotSegment segment = sendSegments.get(i);
+			long sent = 0;
+			while(sent < segment.getLength())
+				sent += source.transferTo(segment.getOffset() + sent, segment.getLength() - sent, target);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Receives the segments announced in a SNAPSHOT_ACK into a local file,
+	 * memory maps the file and decodes the records.
+	 *
+	 * @param reply:- SNAPSHOT_ACK received
+	 * @param in:- Stream positioned at the first byte of the segments
+	 * @return records of the segments
+	 * @throws IOException
+	 */
+	public ArrayList<CompactKeyVal> receive(Message reply, InputStream in) throws IOException{
+		List<SnapshotSegment> replySegments = reply.getSegmentList();
+		long total = 0;
+		int count = 0;
+		for(int i=0;i<replySegments.size();i++){
+			total += replySegments.get(i).getLength();
+			count += replySegments.get(i).getCount();
+		}
+		ArrayList<CompactKeyVal> recordList = new ArrayList<CompactKeyVal>(count);
+		if(total == 0)
+			return recordList;
+
+		File file = File.createTempFile(RECEIVED_PREFIX, null, dir);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try{
+			FileChannel channel = raf.getChannel();
+			ReadableByteChannel source = Channels.newChannel(in);
+			long received = 0;
+			while(received < total){
+				long n = channel.transferFrom(source, received, total - received);
+				if(n <= 0)
+					throw new IOException("Snapshot transfer ended after "+received+" of "+total+" bytes");
+				received += n;
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, total);
+			for(int i=0;i<count;i++)
+				recordList.add(readRecord(buffer));
+		}
+		finally{
+			raf.close();
+			file.delete();
+		}
+		return recordList;
+	}
+
+	/**
+	 * Takes a new snapshot of the storage engine. The set of written keys is
+	 * reset before the scan, so a write is either in the snapshot or in the
+	 * set (or both, which is harmless).
+	 * @throws IOException
+	 */
+	private void takeSnapshot() throws IOException{
+		writesSinceSnapshot = new HashSet<String>();
+		ArrayList<KeyVal> keyValList = storageEngine.scan();
+
+		TreeMap<Integer, ArrayList<KeyVal>> partitions = new TreeMap<Integer, ArrayList<KeyVal>>();
+		for(int i=0;i<keyValList.size();i++){
+			KeyVal keyVal = keyValList.get(i);
+			int partition = dynamoRing.getResponsibleNode(keyVal.getKey()).getAddress();
+			ArrayList<KeyVal> partitionList = partitions.get(partition);
+			if(partitionList == null){
+				partitionList = new ArrayList<KeyVal>();
+				partitions.put(partition, partitionList);
+			}
+			partitionList.add(keyVal);
+		}
+
+		File file = new File(dir, SNAPSHOT_PREFIX+System.currentTimeMillis());
+		ArrayList<SnapshotSegment> fileSegments = new ArrayList<SnapshotSegment>();
+		FileOutputStream fos = new FileOutputStream(file);
+		try{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+			long offset = 0;
+			Iterator<Integer> iterator = partitions.keySet().iterator();
+			while(iterator.hasNext()){
+				int partition = iterator.next();
+				ArrayList<KeyVal> partitionList = partitions.get(partition);
+				Collections.sort(partitionList, new Comparator<KeyVal>() {
+					@Override
+					public int compare(KeyVal lhs, KeyVal rhs) {
+						return lhs.getKey().compareTo(rhs.getKey());
+					}
+				});
+				int start = out.size();
+				for(int i=0;i<partitionList.size();i++)
+					writeRecord(out, partitionList.get(i));
+				SnapshotSegment segment = new SnapshotSegment();
+				segment.setPartition(partition);
+				segment.setOffset(offset);
+				segment.setLength(out.size() - start);
+				segment.setCount(partitionList.size());
+				fileSegments.add(segment);
+				offset += segment.getLength();
+			}
+			// Index of the segments
+			for(int i=0;i<fileSegments.size();i++){
+				SnapshotSegment segment = fileSegments.get(i);
+				out.writeInt(segment.getPartition());
+				out.writeLong(segment.getOffset());
+				out.writeLong(segment.getLength());
+				out.writeInt(segment.getCount());
+			}
+			out.writeInt(fileSegments.size());
+			out.flush();
+			fos.getFD().sync();
+		}
+		finally{
+			fos.close();
+		}
+
+		snapshotFile = file;
+		segments = fileSegments;
+	}
+
+	/**
+	 * Writes a key value pair of a segment
+	 * Layout:- key | value | version
+	 */
+	private static void writeRecord(DataOutputStream out, KeyVal keyVal) throws IOException{
+		SSTable.writeString(out, keyVal.getKey());
+		SSTable.writeString(out, keyVal.getVal());
+		out.writeLong(Long.parseLong(keyVal.getVersion()));
+	}
+
+	/**
+	 * Reads a record written by writeRecord() from a mapped segment.
+	 * The bytes are kept as UTF-8, without decoding them to Strings.
+	 */
+	private static CompactKeyVal readRecord(MappedByteBuffer buffer){
+		byte[] key = readBytes(buffer);
+		byte[] val = readBytes(buffer);
+		return new CompactKeyVal(key, val, buffer.getLong());
+	}
+
+	/**
+	 * Reads the bytes of a string written by SSTable.writeString() from a mapped segment
+	 */
+	private static byte[] readBytes(MappedByteBuffer buffer){
+		int length = buffer.getInt();
+		if(length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Reads a line (the JSON header) from a stream without reading past it,
+	 * so that the stream is left at the first byte of the segments.
+	 * @param in
+	 * @return line, null if the stream ended before any byte
+	 * @throws IOException
+	 */
+	public static String readLine(InputStream in) throws IOException{
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while((b = in.read()) != -1 && b != '\n')
+			line.write(b);
+		if(b == -1 && line.size() == 0)
+			return null;
+		return line.toString("UTF-8");
+	}
+}
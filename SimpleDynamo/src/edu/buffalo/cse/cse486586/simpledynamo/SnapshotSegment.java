@@ -0,0 +1,80 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+/**
+ * This class represents a segment of a snapshot file. A segment holds the
+ * key value pairs of one partition of the ring (ie. the keys for which one
+ * node is the responsible node) sorted by key.
+ *
+ * @author biplap
+ *
+ */
+public class SnapshotSegment {
+	private int partition;		// Address of the node responsible for the keys of the segment
+	private long offset;		// Offset of the segment in the snapshot file (or in the transfer stream)
+	private long length;		// Length of the segment in bytes
+	private int count;			// Number of key value pairs in the segment
+
+	/**
+	 * Returns the partition of the segment
+	 * @return
+	 */
+	public int getPartition() {
+		return partition;
+	}
+
+	/**
+	 * Sets the partition of the segment
+	 * @param partition
+	 */
+	public void setPartition(int partition) {
+		this.partition = partition;
+	}
+
+	/**
+	 * Returns the offset of the segment
+	 * @return
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Sets the offset of the segment
+	 * @param offset
+	 */
+	public void setOffset(long offset) {
+		this.offset = offset;
+	}
+
+	/**
+	 * Returns the length of the segment
+	 * @return
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Sets the length of the segment
+	 * @param length
+	 */
+	public void setLength(long length) {
+		this.length = length;
+	}
+
+	/**
+	 * Returns the number of key value pairs in the segment
+	 * @return
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Sets the number of key value pairs in the segment
+	 * @param count
+	 */
+	public void setCount(int count) {
+		this.count = count;
+	}
+}
@@ -0,0 +1,91 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This interface abstracts the local persistence of key value pairs
+ * with their versions. DynamoOperation does all its local reads and
+ * writes through this interface, so that the storage engine of a node
+ * can be selected through configuration (see StorageEngineFactory).
+ *
+ * @author biplap
+ *
+ */
+public interface StorageEngine {
+
+	/**
+	 * Reads a key value pair
+	 * @param key
+	 * @return key value pair, null if the key is not present
+	 */
+	public KeyVal get(String key);
+
+	/**
+	 * Writes a key value pair with version one more than the current
+	 * version of the key, or version 1 if the key is not present.
+	 * @param key
+	 * @param val
+	 * @return true if the write is durable
+	 */
+	public boolean put(String key, String val);
+
+	/**
+	 * Writes a key value pair with the version supplied
+	 * @param key
+	 * @param val
+	 * @param version
+	 * @return true if the write is durable
+	 */
+	public boolean put(String key, String val, String version);
+
+	/**
+	 * Writes a list of key value pairs with their versions.
+	 * Used for bulk writes like in sync.
+	 * @param keyValList
+	 * @return true if all the writes are durable
+	 */
+	public boolean putAll(List<KeyVal> keyValList);
+
+	/**
+	 * Deletes a key value pair
+	 * @param key
+	 * @return number of key value pairs deleted
+	 */
+	public int delete(String key);
+
+	/**
+	 * Deletes all the key value pairs
+	 * @return number of key value pairs deleted
+	 */
+	public int deleteAll();
+
+	/**
+	 * Reads all the key value pairs
+	 * @return
+	 */
+	public ArrayList<KeyVal> scan();
+
+	/**
+	 * Reads the key value pairs with fromKey <= key < toKey in key order.
+	 * @param fromKey:- Inclusive lower bound, null for no lower bound
+	 * @param toKey:- Exclusive upper bound, null for no upper bound
+	 * @return
+	 */
+	public ArrayList<KeyVal> range(String fromKey, String toKey);
+
+	/**
+	 * Reads at most limit key value pairs with fromKey <= key < toKey in key order.
+	 * Used to page through the keys.
+	 * @param fromKey:- Inclusive lower bound, null for no lower bound
+	 * @param toKey:- Exclusive upper bound, null for no upper bound
+	 * @param limit:- Max number of key value pairs, 0 for no limit
+	 * @return
+	 */
+	public ArrayList<KeyVal> range(String fromKey, String toKey, int limit);
+
+	/**
+	 * Releases the resources held by the engine
+	 */
+	public void close();
+}
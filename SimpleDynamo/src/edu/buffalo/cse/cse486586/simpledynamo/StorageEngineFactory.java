@@ -0,0 +1,44 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.io.IOException;
+
+import android.content.Context;
+
+/**
+ * This class creates the storage engine of a node from its configured name.
+ *
+ * @author biplap
+ *
+ */
+public class StorageEngineFactory {
+	public static final String SQLITE = "sqlite";	// SQLite engine using DBHelper
+	public static final String LSM = "lsm";			// Pure java log structured merge tree engine
+	public static final String BITCASK = "bitcask";	// Pure java log structured hash engine
+
+	/**
+	 * Creates the storage engine with the given name
+	 *
+	 * @param engineName:- Name of the engine, one of SQLITE, LSM, BITCASK
+	 * @param context:- Context of the application, used for the location of the data
+	 * @return
+	 */
+	public static StorageEngine create(String engineName, Context context){
+		if(SQLITE.equals(engineName))
+			return new SQLiteStorageEngine(context);
+		if(LSM.equals(engineName)){
+			try {
+				return new LSMStorageEngine(context.getDir(LSM, Context.MODE_PRIVATE));
+			} catch (IOException e) {
+				throw new IllegalStateException("Can't open the LSM storage engine", e);
+			}
+		}
+		if(BITCASK.equals(engineName)){
+			try {
+				return new BitcaskStorageEngine(context.getDir(BITCASK, Context.MODE_PRIVATE));
+			} catch (IOException e) {
+				throw new IllegalStateException("Can't open the Bitcask storage engine", e);
+			}
+		}
+		throw new IllegalArgumentException("Unknown storage engine "+engineName);
+	}
+}
@@ -0,0 +1,80 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class orders the local operations on a key without a global lock.
+ *
+ * Keys are hashed onto a fixed array of locks (stripes). Operations on the
+ * same key always take the same lock and are applied one after the other,
+ * while operations on keys of different stripes run in parallel. Two keys
+ * may share a stripe, which only costs some parallelism.
+ *
+ * Operations on all the keys (eg. a "@" delete) take every stripe, always
+ * in index order so that they can not deadlock with each other.
+ *
+ * @author biplap
+ *
+ */
+public class StripedKeyLock {
+	private final ReentrantLock[] stripes;
+	private final int mask;
+
+	/**
+	 * Public constructor
+	 * @param stripeCount:- Number of locks, rounded up to a power of two
+	 */
+	public StripedKeyLock(int stripeCount){
+		int size = 1;
+		while(size < stripeCount)
+			size <<= 1;
+		stripes = new ReentrantLock[size];
+		for(int i=0;i<size;i++)
+			stripes[i] = new ReentrantLock();
+		mask = size - 1;
+	}
+
+	/**
+	 * Locks the stripe of a key
+	 * @param key
+	 */
+	public void lock(String key){
+		stripeOf(key).lock();
+	}
+
+	/**
+	 * Unlocks the stripe of a key
+	 * @param key
+	 */
+	public void unlock(String key){
+		stripeOf(key).unlock();
+	}
+
+	/**
+	 * Locks every stripe, in index order
+	 */
+	public void lockAll(){
+		for(int i=0;i<stripes.length;i++)
+			stripes[i].lock();
+	}
+
+	/**
+	 * Unlocks every stripe, in reverse index order
+	 */
+	public void unlockAll(){
+		for(int i=stripes.length-1;i>=0;i--)
+			stripes[i].unlock();
+	}
+
+	/**
+	 * Returns the number of stripes
+	 * @return
+	 */
+	public int getStripeCount(){
+		return stripes.length;
+	}
+
+	private ReentrantLock stripeOf(String key){
+		return stripes[CompactKeyVal.hash(key) & mask];
+	}
+}
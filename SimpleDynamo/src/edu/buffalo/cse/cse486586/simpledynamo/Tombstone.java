@@ -0,0 +1,148 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.ArrayList;
+
+/**
+ * This class marks deleted keys. A delete writes a tombstone, a key value
+ * pair whose value is PREFIX followed by the time of the delete, with the
+ * next version of the key like any write. So the tombstone beats the copies
+ * of the key at replicas which missed the delete, in reads, scans and sync,
+ * and it goes everywhere a value goes (storage engines, snapshots, messages)
+ * without a change to their formats.
+ *
+ * Copies of a key with the same version and different values are ordered
+ * by winsTie(), so that every node picks the same one whatever the order
+ * the copies arrive in: a tombstone wins, otherwise the greater value.
+ *
+ * Tombstones are left out of what the clients read, and are purged by the
+ * compaction of DynamoOperation once all the replicas have them.
+ *
+ * @author biplap
+ *
+ */
+public final class Tombstone {
+	public static final String PREFIX = "\u0001tombstone:";	// Values starting with it can not be written by clients
+	private static final byte[] PREFIX_BYTES = PREFIX.getBytes();	// ASCII, same in UTF-8
+
+	private Tombstone(){
+	}
+
+	/**
+	 * Returns the value of a tombstone
+	 * @param deletedAt:- Time of the delete (ms)
+	 * @return
+	 */
+	public static String create(long deletedAt){
+		return PREFIX + deletedAt;
+	}
+
+	/**
+	 * Checks whether a value is a tombstone
+	 * @param val
+	 * @return
+	 */
+	public static boolean isTombstone(String val){
+		return val != null && val.startsWith(PREFIX);
+	}
+
+	/**
+	 * Checks whether a key value pair is a tombstone
+	 * @param keyVal
+	 * @return
+	 */
+	public static boolean isTombstone(KeyVal keyVal){
+		return isTombstone(keyVal.getVal());
+	}
+
+	/**
+	 * Checks whether the UTF-8 bytes of a value are a tombstone
+	 * @param val
+	 * @return
+	 */
+	public static boolean isTombstone(byte[] val){
+		if(val == null || val.length < PREFIX_BYTES.length)
+			return false;
+		for(int i=0;i<PREFIX_BYTES.length;i++)
+			if(val[i] != PREFIX_BYTES[i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Returns the time of the delete of a tombstone
+	 * @param val:- Value of a tombstone
+	 * @return time (ms), 0 if it can not be read
+	 */
+	public static long getDeletedAt(String val){
+		try{
+			return Long.parseLong(val.substring(PREFIX.length()));
+		}
+		catch(NumberFormatException e){
+			return 0;
+		}
+	}
+
+	/**
+	 * Checks whether a key value pair replaces the current one of its key:-
+	 * its version is newer, or the same and it wins the tie (see winsTie())
+	 * @param keyVal
+	 * @param current:- Current key value pair, null if none
+	 * @return
+	 */
+	public static boolean supersedes(KeyVal keyVal, KeyVal current){
+		if(current == null)
+			return true;
+		long version = Long.parseLong(keyVal.getVersion());
+		long currentVersion = Long.parseLong(current.getVersion());
+		return version > currentVersion || (version == currentVersion && winsTie(keyVal.getVal(), current.getVal()));
+	}
+
+	/**
+	 * Checks whether a value replaces the current value of its key when
+	 * both have the same version:- a tombstone beats a value, otherwise the
+	 * greater in the order of their UTF-8 bytes wins. Two conditional writes
+	 * from different coordinators can give the same version to different
+	 * values at different replicas, and this order makes the reads and sync
+	 * of every node settle on the same one.
+	 * @param val
+	 * @param currentVal
+	 * @return false if the values are equal
+	 */
+	public static boolean winsTie(String val, String currentVal){
+		if(isTombstone(val) != isTombstone(currentVal))
+			return isTombstone(val);
+		if(val == null ? currentVal == null : val.equals(currentVal))
+			return false;
+		return CompactKeyVal.compare(CompactKeyVal.encode(val), CompactKeyVal.encode(currentVal)) > 0;
+	}
+
+	/**
+	 * Checks whether the UTF-8 bytes of a value replace the current value
+	 * of its key when both have the same version, see winsTie(String, String)
+	 * @param val
+	 * @param currentVal
+	 * @return false if the values are equal
+	 */
+	public static boolean winsTie(byte[] val, byte[] currentVal){
+		if(isTombstone(val) != isTombstone(currentVal))
+			return isTombstone(val);
+		return CompactKeyVal.compare(val, currentVal) > 0;
+	}
+
+	/**
+	 * Removes the tombstones from a list of key value pairs
+	 * @param keyValList
+	 * @return the same list
+	 */
+	public static ArrayList<KeyVal> removeTombstones(ArrayList<KeyVal> keyValList){
+		int kept = 0;
+		for(int i=0;i<keyValList.size();i++){
+			KeyVal keyVal = keyValList.get(i);
+			if(!isTombstone(keyVal))
+				keyValList.set(kept++, keyVal);
+		}
+		while(keyValList.size() > kept)
+			keyValList.remove(keyValList.size() - 1);
+		return keyValList;
+	}
+}
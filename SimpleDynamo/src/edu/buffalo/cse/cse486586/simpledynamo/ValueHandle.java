@@ -0,0 +1,87 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class references a value held in an OffHeapArena.
+ *
+ * A handle is created with one reference. Every additional holder must call
+ * retain() and every holder must call release() when done, the memory goes
+ * back to the arena with the last release. The value is copied to the heap
+ * only when it is read, ie. when it is handed to a client or a message.
+ *
+ * @author biplap
+ *
+ */
+public final class ValueHandle {
+	private final OffHeapArena arena;
+	private final ByteBuffer buffer;		// Read only view of the value
+	private final int length;
+	private OffHeapArena.LeakTracker tracker;
+	private int refCount = 1;
+
+	/**
+	 * Package private constructor, handles are created by OffHeapArena.allocate()
+	 */
+	ValueHandle(OffHeapArena arena, ByteBuffer buffer, int length){
+		this.arena = arena;
+		this.buffer = buffer;
+		this.length = length;
+	}
+
+	void setTracker(OffHeapArena.LeakTracker tracker){
+		this.tracker = tracker;
+	}
+
+	/**
+	 * Adds a reference to the value
+	 * @return this handle
+	 */
+	public synchronized ValueHandle retain(){
+		if(refCount <= 0)
+			throw new IllegalStateException("Value already released");
+		refCount++;
+		return this;
+	}
+
+	/**
+	 * Drops a reference to the value, freeing it with the last reference
+	 */
+	public void release(){
+		synchronized (this) {
+			if(refCount <= 0)
+				throw new IllegalStateException("Value already released");
+			if(--refCount > 0)
+				return;
+		}
+		arena.free(tracker);
+	}
+
+	/**
+	 * Returns the length of the value in bytes
+	 * @return
+	 */
+	public int getLength(){
+		return length;
+	}
+
+	/**
+	 * Copies the value to the heap
+	 * @return UTF-8 bytes of the value
+	 */
+	public synchronized byte[] getBytes(){
+		if(refCount <= 0)
+			throw new IllegalStateException("Value already released");
+		byte[] bytes = new byte[length];
+		buffer.duplicate().get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Decodes the value to a String
+	 * @return
+	 */
+	public String getString(){
+		return CompactKeyVal.decode(getBytes());
+	}
+}
@@ -0,0 +1,267 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * This class encodes messages for the wire, compressing the large ones.
+ *
+ * Messages are sent as lines of JSON. A message whose JSON is at least the
+ * threshold long is sent instead as a line starting with COMPRESSED_PREFIX,
+ * followed by the base64 of its deflated UTF-8 bytes. A JSON line always starts
+ * with '{', so Message.fromJson() tells the two apart and every node can read
+ * compressed lines. Deflate at its fastest level is used as it is in the JDK and
+ * Android, the JSON of key value lists compresses well even so.
+ *
+ * Compression is negotiated per message:- a node with compression enabled marks
+ * the messages it sends as accepting compressed replies, and only then are the
+ * replies compressed. Requests are compressed only to nodes seen to accept
+ * compression (see DynamoOperation).
+ *
+ * A message is sent as it was if compressed it is not smaller. The bytes
+ * before and after compression are counted, to tune the threshold.
+ *
+ * @author biplap
+ *
+ */
+public class WireCodec {
+	public static final int DEFAULT_THRESHOLD = 1024;	// Length of JSON from which messages are compressed
+	public static final String COMPRESSED_PREFIX = "Z";
+	private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+	private static final int[] BASE64_VALUES = new int[128];
+	static {
+		for(int i=0;i<BASE64_VALUES.length;i++)
+			BASE64_VALUES[i] = -1;
+		for(int i=0;i<BASE64.length;i++)
+			BASE64_VALUES[BASE64[i]] = i;
+	}
+
+	private final int threshold;				// -1 if compression is disabled
+	private final AtomicLong messageCount = new AtomicLong();
+	private final AtomicLong byteCount = new AtomicLong();				// Bytes of all the lines sent
+	private final AtomicLong compressedCount = new AtomicLong();
+	private final AtomicLong bytesBeforeCompression = new AtomicLong();	// Of the compressed messages
+	private final AtomicLong bytesAfterCompression = new AtomicLong();
+	private final AtomicLong incompressibleCount = new AtomicLong();	// Messages sent as they were, not smaller compressed
+
+	/**
+	 * Public constructor
+	 * @param threshold:- Length of JSON from which messages are compressed, -1 to disable compression
+	 */
+	public WireCodec(int threshold){
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Returns whether this node compresses messages
+	 * @return
+	 */
+	public boolean isEnabled(){
+		return threshold >= 0;
+	}
+
+	/**
+	 * Encodes a message to a line (without the newline)
+	 * @param msg:- Message, marked as accepting compressed replies if compression is enabled
+	 * @param compress:- Whether the receiver accepts compressed messages
+	 * @return
+	 */
+	public String encode(Message msg, boolean compress){
+		if(isEnabled())
+			msg.setAcceptsCompression();
+		String json = msg.toJson();
+		String line = json;
+		if(compress && isEnabled() && json.length() >= threshold){
+			String compressed = compress(json);
+			if(compressed.length() < json.length()){
+				line = compressed;
+				compressedCount.incrementAndGet();
+				bytesBeforeCompression.addAndGet(json.length() + 1);
+				bytesAfterCompression.addAndGet(line.length() + 1);
+			}
+			else		// Eg. random values, which base64 makes larger than they were
+				incompressibleCount.incrementAndGet();
+		}
+		messageCount.incrementAndGet();
+		byteCount.addAndGet(line.length() + 1);
+		return line;
+	}
+
+	/**
+	 * Checks whether a line is a compressed message
+	 * @param line
+	 * @return
+	 */
+	public static boolean isCompressed(String line){
+		return line != null && line.startsWith(COMPRESSED_PREFIX);
+	}
+
+	/**
+	 * Compresses JSON to a line
+	 * @param json
+	 * @return COMPRESSED_PREFIX followed by the base64 of the deflated json
+	 */
+	public static String compress(String json){
+		long start = System.nanoTime();
+		byte[] bytes;
+		try {
+			bytes = json.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);		// UTF-8 is always supported
+		}
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+		byte[] compressed = new byte[bytes.length / 2 + 64];
+		int length = 0;
+		try{
+			deflater.setInput(bytes);
+			deflater.finish();
+			while(!deflater.finished()){
+				if(length == compressed.length){
+					byte[] grown = new byte[compressed.length * 2];
+					System.arraycopy(compressed, 0, grown, 0, length);
+					compressed = grown;
+				}
+				length += deflater.deflate(compressed, length, compressed.length - length);
+			}
+		}
+		finally{
+			deflater.end();
+		}
+		String line = encodeBase64(compressed, length);
+		LatencyMetrics.PROCESS.record("wire.deflate", start);
+		return line;
+	}
+
+	/**
+	 * Decompresses a line made by compress()
+	 * @param line
+	 * @return JSON of the message
+	 */
+	public static String decompress(String line){
+		long start = System.nanoTime();
+		byte[] compressed = decodeBase64(line, COMPRESSED_PREFIX.length());
+		Inflater inflater = new Inflater(true);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4 + 64);
+		try{
+			// A raw deflate stream needs an extra byte at the end for the inflater to finish
+			byte[] input = new byte[compressed.length + 1];
+			System.arraycopy(compressed, 0, input, 0, compressed.length);
+			inflater.setInput(input);
+			byte[] buffer = new byte[8192];
+			while(!inflater.finished()){
+				int n = inflater.inflate(buffer);
+				if(n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new IllegalArgumentException("Truncated compressed message");
+				out.write(buffer, 0, n);
+			}
+			String json = out.toString("UTF-8");
+			LatencyMetrics.PROCESS.record("wire.inflate", start);
+			return json;
+		} catch (DataFormatException e) {
+			throw new IllegalArgumentException("Corrupt compressed message", e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		finally{
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Encodes bytes to base64, after COMPRESSED_PREFIX
+	 */
+	private static String encodeBase64(byte[] bytes, int length){
+		char[] chars = new char[COMPRESSED_PREFIX.length() + (length + 2) / 3 * 4];
+		COMPRESSED_PREFIX.getChars(0, COMPRESSED_PREFIX.length(), chars, 0);
+		int n = COMPRESSED_PREFIX.length();
+		for(int i=0;i<length;i+=3){
+			int b0 = bytes[i] & 0xFF;
+			int b1 = i+1 < length ? bytes[i+1] & 0xFF : 0;
+			int b2 = i+2 < length ? bytes[i+2] & 0xFF : 0;
+			chars[n++] = BASE64[b0 >>> 2];
+			chars[n++] = BASE64[((b0 & 0x3) << 4) | (b1 >>> 4)];
+			chars[n++] = i+1 < length ? BASE64[((b1 & 0xF) << 2) | (b2 >>> 6)] : '=';
+			chars[n++] = i+2 < length ? BASE64[b2 & 0x3F] : '=';
+		}
+		return new String(chars);
+	}
+
+	private static byte[] decodeBase64(String s, int from){
+		int end = s.length();
+		while(end > from && s.charAt(end-1) == '=')
+			end--;
+		int length = end - from;
+		if(length % 4 == 1)
+			throw new IllegalArgumentException("Invalid base64 length");
+		byte[] bytes = new byte[length * 3 / 4];
+		int bits = 0;
+		int bitCount = 0;
+		int n = 0;
+		for(int i=from;i<end;i++){
+			char c = s.charAt(i);
+			int value = c < 128 ? BASE64_VALUES[c] : -1;
+			if(value < 0)
+				throw new IllegalArgumentException("Invalid base64 character "+c);
+			bits = (bits << 6) | value;
+			bitCount += 6;
+			if(bitCount >= 8){
+				bitCount -= 8;
+				bytes[n++] = (byte) (bits >>> bitCount);
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns the number of messages encoded
+	 * @return
+	 */
+	public long getMessageCount(){
+		return messageCount.get();
+	}
+
+	/**
+	 * Returns the bytes of all the lines encoded
+	 * @return
+	 */
+	public long getByteCount(){
+		return byteCount.get();
+	}
+
+	/**
+	 * Returns the number of messages compressed
+	 * @return
+	 */
+	public long getCompressedCount(){
+		return compressedCount.get();
+	}
+
+	/**
+	 * Returns the number of messages above the threshold sent as they were, as they
+	 * were not smaller compressed
+	 * @return
+	 */
+	public long getIncompressibleCount(){
+		return incompressibleCount.get();
+	}
+
+	/**
+	 * Returns the bytes of the compressed messages before compression
+	 * @return
+	 */
+	public long getBytesBeforeCompression(){
+		return bytesBeforeCompression.get();
+	}
+
+	/**
+	 * Returns the bytes of the compressed messages after compression
+	 * @return
+	 */
+	public long getBytesAfterCompression(){
+		return bytesAfterCompression.get();
+	}
+}
@@ -0,0 +1,221 @@
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import android.content.ContentValues;
+import android.util.Log;
+
+/**
+ * This class implements group commit of writes in front of DBHelper.
+ * Writes are put in a queue and a single committer thread gathers the
+ * writes arriving within a short window (or till the batch is full) and
+ * commits them in one SQLite transaction. This way the journal is synced
+ * once per batch instead of once per key.
+ *
+ * A caller of write() is blocked till the batch containing its write has
+ * been committed, so a write is acknowledged only after it is durable.
+ *
+ * The window is waited only while writes arrive concurrently (the last
+ * batch had more than one write, or more are already queued). A lone
+ * writer is committed right away instead of waiting for writes which
+ * will not come.
+ *
+ * @author biplap
+ *
+ */
+public class WriteBatcher {
+	private static final String TAG = WriteBatcher.class.getSimpleName();
+	public static final int DEFAULT_BATCH_SIZE = 64;		// Max writes committed in one transaction
+	public static final long DEFAULT_BATCH_WINDOW = 5;		// Max time (ms) to wait for more writes
+
+	private final DBHelper dbHelper;
+	private final int batchSize;
+	private final long batchWindow;
+	private final LinkedBlockingQueue<PendingWrite> writeQueue = new LinkedBlockingQueue<PendingWrite>();
+	private final Thread committer;
+	private volatile boolean closed = false;	// Set before the committer exits, no write is committed after
+
+	/**
+	 * A write waiting in the queue to be committed
+	 */
+	private static class PendingWrite {
+		private final ContentValues values;
+		private final CountDownLatch committed = new CountDownLatch(1);
+		private volatile boolean success = false;
+
+		PendingWrite(ContentValues values){
+			this.values = values;
+		}
+	}
+
+	/**
+	 * Constructor with default batch size and batch window
+	 * @param dbHelper
+	 */
+	public WriteBatcher(DBHelper dbHelper){
+		this(dbHelper, DEFAULT_BATCH_SIZE, DEFAULT_BATCH_WINDOW);
+	}
+
+	/**
+	 * Public constructor. Starts the committer thread.
+	 *
+	 * @param dbHelper:- DBHelper to which the batches are committed
+	 * @param batchSize:- Max number of writes in a batch
+	 * @param batchWindow:- Max time in milliseconds a batch waits for more writes
+	 */
+	public WriteBatcher(DBHelper dbHelper, int batchSize, long batchWindow){
+		this.dbHelper = dbHelper;
+		this.batchSize = batchSize;
+		this.batchWindow = batchWindow;
+		committer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				commitLoop();
+			}
+		}, TAG);
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	/**
+	 * Writes a row and waits till the batch containing it is committed.
+	 *
+	 * @param values:- Row to be written
+	 * @return true if the write was committed, false otherwise
+	 */
+	public boolean write(ContentValues values){
+		PendingWrite pendingWrite = new PendingWrite(values);
+		writeQueue.add(pendingWrite);
+		if(closed)		// The committer may have drained the queue for the last time
+			failQueued();
+		return await(pendingWrite);
+	}
+
+	/**
+	 * Writes a list of rows and waits till all of them are committed.
+	 * The rows are queued together so they are committed in as few batches
+	 * as possible. Used for bulk writes like in sync.
+	 *
+	 * @param valuesList:- Rows to be written
+	 * @return true if all the writes were committed, false otherwise
+	 */
+	public boolean writeAll(List<ContentValues> valuesList){
+		ArrayList<PendingWrite> pendingWrites = new ArrayList<PendingWrite>(valuesList.size());
+		for(int i=0;i<valuesList.size();i++)
+			pendingWrites.add(new PendingWrite(valuesList.get(i)));
+		writeQueue.addAll(pendingWrites);
+		if(closed)
+			failQueued();
+		boolean success = true;
+		for(int i=0;i<pendingWrites.size();i++)
+			success = await(pendingWrites.get(i)) && success;
+		return success;
+	}
+
+	/**
+	 * Stops the committer. The writes gathered so far are committed, the
+	 * writes queued after them and all the later writes fail.
+	 */
+	public void close(){
+		closed = true;
+		committer.interrupt();
+		try {
+			committer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		failQueued();
+	}
+
+	/**
+	 * Fails the writes in the queue, so that their callers do not wait
+	 * for a committer which has exited
+	 */
+	private void failQueued(){
+		ArrayList<PendingWrite> pendingWrites = new ArrayList<PendingWrite>();
+		writeQueue.drainTo(pendingWrites);
+		for(int i=0;i<pendingWrites.size();i++)
+			pendingWrites.get(i).committed.countDown();
+	}
+
+	/**
+	 * Blocks till the given write is committed
+	 * @param pendingWrite
+	 * @return
+	 */
+	private boolean await(PendingWrite pendingWrite){
+		try {
+			pendingWrite.committed.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return pendingWrite.success;
+	}
+
+	/**
+	 * Loop run by the committer thread. Waits for the first write of a batch,
+	 * then keeps gathering writes till the batch window expires or the batch
+	 * is full, and commits the batch in one transaction. If the thread is
+	 * interrupted, the writes gathered so far are committed and the loop exits.
+	 */
+	private void commitLoop(){
+		ArrayList<PendingWrite> batch = new ArrayList<PendingWrite>(batchSize);
+		ArrayList<ContentValues> valuesList = new ArrayList<ContentValues>(batchSize);
+		int lastBatchSize = 0;
+		boolean interrupted = false;
+		while(!interrupted){
+			try {
+				batch.add(writeQueue.take());
+				writeQueue.drainTo(batch, batchSize - batch.size());
+				boolean concurrent = lastBatchSize > 1 || batch.size() > 1;
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchWindow);
+				while(concurrent && batch.size() < batchSize){
+					if(writeQueue.drainTo(batch, batchSize - batch.size()) > 0)
+						continue;
+					long remaining = deadline - System.nanoTime();
+					if(remaining <= 0)
+						break;
+					PendingWrite next = writeQueue.poll(remaining, TimeUnit.NANOSECONDS);
+					if(next == null)
+						break;
+					batch.add(next);
+				}
+			} catch (InterruptedException e) {
+				Log.e(TAG, "Committer interrupted");
+				interrupted = true;
+				if(batch.size() == 0)
+					break;
+			}
+
+			for(int i=0;i<batch.size();i++)
+				valuesList.add(batch.get(i).values);
+			boolean success = false;
+			try{
+				dbHelper.insertBatch(valuesList);
+				success = true;
+			}
+			catch(Exception e){
+				Log.e(TAG, "Batch commit of "+batch.size()+" writes failed");
+				e.printStackTrace();
+			}
+			for(int i=0;i<batch.size();i++){
+				PendingWrite pendingWrite = batch.get(i);
+				pendingWrite.success = success;
+				pendingWrite.committed.countDown();
+			}
+			lastBatchSize = batch.size();
+			batch.clear();
+			valuesList.clear();
+		}
+		// Writes queued after the last batch are failed, so their callers do not wait forever.
+		// A write queued after this drain sees closed and fails itself.
+		closed = true;
+		failQueued();
+		Thread.currentThread().interrupt();
+	}
+}
@@ -0,0 +1,46 @@
+package edu.buffalo.cse.cse486586.simpledynamo.benchmark;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.buffalo.cse.cse486586.simpledynamo.SHA1Helper;
+
+/**
+ * Benchmarks SHA1Helper.genHash(), which runs for every key routed by the ring
+ *
+ * @author biplap
+ *
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HashBenchmark {
+	private String[] keys;
+	private int next = 0;
+
+	@Setup
+	public void setup(){
+		keys = new Workload().keys(4096);
+	}
+
+	@Benchmark
+	public String genHash() throws NoSuchAlgorithmException {
+		String key = keys[next];
+		next = (next + 1) & (keys.length - 1);
+		return SHA1Helper.genHash(key);
+	}
+}
@@ -0,0 +1,100 @@
+package edu.buffalo.cse.cse486586.simpledynamo.benchmark;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.buffalo.cse.cse486586.simpledynamo.CompactKeyVal;
+import edu.buffalo.cse.cse486586.simpledynamo.KeyVal;
+import edu.buffalo.cse.cse486586.simpledynamo.KeyValMergeTable;
+
+/**
+ * Benchmarks the merge of the key value pairs of all the nodes into their
+ * latest versions, as done by DynamoOperation.readDHTAll() with the JSON
+ * dumps of the nodes and by sync() with their snapshots.
+ *
+ * Every key is held by replicationCount of the nodeCount nodes, and the
+ * replicas of a key may hold different versions of it.
+ *
+ * @author biplap
+ *
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MergeBenchmark {
+	private static final int MIN_BULK_SIZE = 1024;		// Same as DynamoOperation
+
+	@Param({"1000", "100000"})
+	public int keyCount;
+
+	@Param({"5"})
+	public int nodeCount;
+
+	@Param({"3"})
+	public int replicationCount;
+
+	private ArrayList<ArrayList<KeyVal>> nodeLists;
+	private ArrayList<ArrayList<CompactKeyVal>> nodeRecordLists;
+
+	@Setup
+	public void setup(){
+		Workload workload = new Workload();
+		ArrayList<KeyVal> keyValList = workload.keyValList(keyCount);
+		nodeLists = new ArrayList<ArrayList<KeyVal>>();
+		nodeRecordLists = new ArrayList<ArrayList<CompactKeyVal>>();
+		for(int i=0;i<nodeCount;i++){
+			nodeLists.add(new ArrayList<KeyVal>());
+			nodeRecordLists.add(new ArrayList<CompactKeyVal>());
+		}
+		for(int i=0;i<keyValList.size();i++){
+			KeyVal keyVal = keyValList.get(i);
+			int coordinator = workload.nextInt(nodeCount);
+			for(int j=0;j<replicationCount;j++){		// A replica may be behind by a version
+				KeyVal replica = new KeyVal();
+				replica.setKey(keyVal.getKey());
+				replica.setVal(keyVal.getVal());
+				replica.setVersion(String.valueOf(Integer.parseInt(keyVal.getVersion()) - workload.nextInt(2)));
+				int node = (coordinator + j) % nodeCount;
+				nodeLists.get(node).add(replica);
+				nodeRecordLists.get(node).add(CompactKeyVal.fromKeyVal(replica));
+			}
+		}
+	}
+
+	@Benchmark
+	public ArrayList<KeyVal> mergeKeyVals(){
+		KeyValMergeTable resultTable = new KeyValMergeTable(MIN_BULK_SIZE);
+		for(int i=0;i<nodeLists.size();i++){
+			ArrayList<KeyVal> keyValList = nodeLists.get(i);
+			for(int j=0;j<keyValList.size();j++)
+				resultTable.merge(keyValList.get(j));
+		}
+		return resultTable.toKeyValList();
+	}
+
+	@Benchmark
+	public ArrayList<KeyVal> mergeSnapshots(){
+		KeyValMergeTable resultTable = new KeyValMergeTable(MIN_BULK_SIZE);
+		for(int i=0;i<nodeRecordLists.size();i++){
+			ArrayList<CompactKeyVal> recordList = nodeRecordLists.get(i);
+			for(int j=0;j<recordList.size();j++)
+				resultTable.merge(recordList.get(j));
+		}
+		return resultTable.toKeyValList();
+	}
+}
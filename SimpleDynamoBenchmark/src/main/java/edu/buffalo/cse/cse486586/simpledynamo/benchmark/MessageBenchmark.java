@@ -0,0 +1,57 @@
+package edu.buffalo.cse.cse486586.simpledynamo.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.buffalo.cse.cse486586.simpledynamo.Message;
+
+/**
+ * Benchmarks the JSON encoding of the messages exchanged between the nodes.
+ * A list of one key value pair is the reply of a read, larger lists are
+ * replies of scans and "*" reads.
+ *
+ * @author biplap
+ *
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageBenchmark {
+	@Param({"1", "256", "10000"})
+	public int listSize;
+
+	private Message message;
+	private String json;
+
+	@Setup
+	public void setup(){
+		message = new Message();
+		message.setType(Message.READ_ACK);
+		message.setKeyValList(new Workload().keyValList(listSize));
+		json = message.toJson();
+	}
+
+	@Benchmark
+	public String toJson(){
+		return message.toJson();
+	}
+
+	@Benchmark
+	public Message fromJson(){
+		return Message.fromJson(json);
+	}
+}
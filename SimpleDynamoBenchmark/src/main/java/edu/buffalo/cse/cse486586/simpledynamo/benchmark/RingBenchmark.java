@@ -0,0 +1,68 @@
+package edu.buffalo.cse.cse486586.simpledynamo.benchmark;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.buffalo.cse.cse486586.simpledynamo.DHTNode;
+import edu.buffalo.cse.cse486586.simpledynamo.DynamoRing;
+
+/**
+ * Benchmarks the routing of a key by DynamoRing, ie. finding its
+ * coordinator and the successors holding its replicas.
+ *
+ * @author biplap
+ *
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RingBenchmark {
+	@Param({"5"})
+	public int nodeCount;
+
+	@Param({"3"})
+	public int replicationCount;
+
+	private DynamoRing dynamoRing;
+	private String[] keys;
+	private DHTNode[] nodes;
+	private int next = 0;
+
+	@Setup
+	public void setup(){
+		dynamoRing = DynamoRing.createAndGetInstance(nodeCount);
+		keys = new Workload().keys(4096);
+		nodes = new DHTNode[keys.length];
+		for(int i=0;i<keys.length;i++)
+			nodes[i] = dynamoRing.getResponsibleNode(keys[i]);
+	}
+
+	@Benchmark
+	public DHTNode getResponsibleNode(){
+		String key = keys[next];
+		next = (next + 1) & (keys.length - 1);
+		return dynamoRing.getResponsibleNode(key);
+	}
+
+	@Benchmark
+	public ArrayList<DHTNode> getNSuccessors(){
+		DHTNode node = nodes[next];
+		next = (next + 1) & (nodes.length - 1);
+		return dynamoRing.getNSuccessors(node, replicationCount - 1);
+	}
+}
@@ -0,0 +1,108 @@
+package edu.buffalo.cse.cse486586.simpledynamo.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.buffalo.cse.cse486586.simpledynamo.BitcaskStorageEngine;
+import edu.buffalo.cse.cse486586.simpledynamo.KeyVal;
+import edu.buffalo.cse.cse486586.simpledynamo.LSMStorageEngine;
+import edu.buffalo.cse.cse486586.simpledynamo.StorageEngine;
+
+/**
+ * Benchmarks the local put, get and scan of the storage engines which run
+ * on the JVM. The SQLite engine needs the Android framework and is not
+ * covered here.
+ *
+ * The engine is loaded with recordCount keys before the benchmarks, puts
+ * overwrite these keys so that the data set keeps its size.
+ *
+ * @author biplap
+ *
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StorageBenchmark {
+	private static final int SCAN_PAGE_SIZE = 256;		// Same as SimpleDynamoProvider
+
+	@Param({"lsm", "bitcask"})
+	public String engine;
+
+	@Param({"10000"})
+	public int recordCount;
+
+	private File dir;
+	private StorageEngine storageEngine;
+	private Workload workload;
+	private String[] keys;
+	private String[] values;
+	private int next = 0;
+
+	@Setup
+	public void setup() throws IOException{
+		dir = File.createTempFile("storage", engine);
+		dir.delete();
+		dir.mkdirs();
+		storageEngine = engine.equals("lsm") ? new LSMStorageEngine(dir) : new BitcaskStorageEngine(dir);
+		workload = new Workload();
+		keys = workload.keys(recordCount);
+		values = new String[1024];
+		for(int i=0;i<values.length;i++)
+			values[i] = workload.nextValue();
+		for(int i=0;i<keys.length;i++)
+			storageEngine.put(keys[i], values[i % values.length]);
+	}
+
+	@TearDown
+	public void tearDown(){
+		storageEngine.close();
+		delete(dir);
+	}
+
+	@Benchmark
+	public boolean put(){
+		int i = nextIndex();
+		return storageEngine.put(keys[i], values[i & (values.length - 1)]);
+	}
+
+	@Benchmark
+	public KeyVal get(){
+		return storageEngine.get(keys[nextIndex()]);
+	}
+
+	@Benchmark
+	public ArrayList<KeyVal> scanPage(){
+		return storageEngine.range(keys[nextIndex()], null, SCAN_PAGE_SIZE);
+	}
+
+	private int nextIndex(){
+		next = (next + 1 + workload.nextInt(7)) % keys.length;
+		return next;
+	}
+
+	private static void delete(File file){
+		File[] children = file.listFiles();
+		if(children != null)
+			for(int i=0;i<children.length;i++)
+				delete(children[i]);
+		file.delete();
+	}
+}
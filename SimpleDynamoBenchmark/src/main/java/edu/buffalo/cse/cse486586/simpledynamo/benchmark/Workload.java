@@ -0,0 +1,108 @@
+package edu.buffalo.cse.cse486586.simpledynamo.benchmark;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import edu.buffalo.cse.cse486586.simpledynamo.KeyVal;
+
+/**
+ * This class generates the keys and values used by the benchmarks.
+ *
+ * Keys are alphanumeric strings of 8 to 40 characters, like the keys
+ * inserted by the grading scripts. Value sizes follow a skewed mix, most of
+ * them small, some of a few KB and a few larger than the off heap threshold
+ * of the cache:-
+ * 70% 16-128 bytes, 25% 256 bytes-2KB, 5% 4KB-32KB.
+ *
+ * A fixed seed is used so that every run benchmarks the same data.
+ *
+ * @author biplap
+ *
+ */
+public class Workload {
+	public static final long SEED = 486586;
+	private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+	private final Random random;
+
+	public Workload(){
+		this(SEED);
+	}
+
+	public Workload(long seed){
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Generates a key
+	 * @return
+	 */
+	public String nextKey(){
+		return randomString(8 + random.nextInt(33));
+	}
+
+	/**
+	 * Generates a value from the size mix
+	 * @return
+	 */
+	public String nextValue(){
+		int p = random.nextInt(100);
+		int length;
+		if(p < 70)
+			length = 16 + random.nextInt(113);
+		else if(p < 95)
+			length = 256 + random.nextInt(2048 - 256 + 1);
+		else
+			length = 4096 + random.nextInt(32768 - 4096 + 1);
+		return randomString(length);
+	}
+
+	/**
+	 * Generates a list of distinct keys
+	 * @param count
+	 * @return
+	 */
+	public String[] keys(int count){
+		String[] keys = new String[count];
+		for(int i=0;i<count;i++)
+			keys[i] = nextKey() + i;		// Suffix keeps the keys distinct
+		return keys;
+	}
+
+	/**
+	 * Generates a key value pair
+	 * @param key
+	 * @param version
+	 * @return
+	 */
+	public KeyVal keyVal(String key, int version){
+		KeyVal keyVal = new KeyVal();
+		keyVal.setKey(key);
+		keyVal.setVal(nextValue());
+		keyVal.setVersion(String.valueOf(version));
+		return keyVal;
+	}
+
+	/**
+	 * Generates a list of key value pairs with distinct keys
+	 * @param count
+	 * @return
+	 */
+	public ArrayList<KeyVal> keyValList(int count){
+		String[] keys = keys(count);
+		ArrayList<KeyVal> keyValList = new ArrayList<KeyVal>(count);
+		for(int i=0;i<count;i++)
+			keyValList.add(keyVal(keys[i], 1 + random.nextInt(5)));
+		return keyValList;
+	}
+
+	public int nextInt(int bound){
+		return random.nextInt(bound);
+	}
+
+	private String randomString(int length){
+		char[] chars = new char[length];
+		for(int i=0;i<length;i++)
+			chars[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+		return new String(chars);
+	}
+}
@@ -0,0 +1,81 @@
+package edu.buffalo.cse.cse486586.simpledynamo.cluster;
+
+import java.util.Arrays;
+
+/**
+ * This class records the latencies of one type of operation of one client
+ * thread. The latencies are kept exactly, and merged and sorted for the
+ * percentiles once the run is over.
+ *
+ * @author biplap
+ *
+ */
+public class LatencyRecorder {
+	private long[] latencies = new long[1024];	// Nanoseconds
+	private int count = 0;
+	private long errorCount = 0;
+
+	/**
+	 * Records a successful operation
+	 * @param nanos:- Latency of the operation
+	 */
+	public void record(long nanos){
+		if(count == latencies.length)
+			latencies = Arrays.copyOf(latencies, count * 2);
+		latencies[count++] = nanos;
+	}
+
+	/**
+	 * Records a failed operation
+	 */
+	public void recordError(){
+		errorCount++;
+	}
+
+	/**
+	 * Adds the latencies of another recorder to this one
+	 * @param other
+	 */
+	public void add(LatencyRecorder other){
+		if(count + other.count > latencies.length)
+			latencies = Arrays.copyOf(latencies, Math.max(count + other.count, latencies.length * 2));
+		System.arraycopy(other.latencies, 0, latencies, count, other.count);
+		count += other.count;
+		errorCount += other.errorCount;
+	}
+
+	public int getCount(){
+		return count;
+	}
+
+	public long getErrorCount(){
+		return errorCount;
+	}
+
+	/**
+	 * Formats the count, throughput and latency percentiles of the operations
+	 *
+	 * @param name:- Name of the type of operation
+	 * @param elapsedNanos:- Duration of the run
+	 * @return
+	 */
+	public String report(String name, long elapsedNanos){
+		long[] sorted = Arrays.copyOf(latencies, count);
+		Arrays.sort(sorted);
+		double throughput = count * 1e9 / elapsedNanos;
+		double mean = 0;
+		for(int i=0;i<sorted.length;i++)
+			mean += sorted[i];
+		mean = count == 0 ? 0 : mean / count;
+		return String.format("[%s] ops %d, errors %d, throughput %.1f ops/s, latency ms:- mean %.3f, p50 %.3f, p95 %.3f, p99 %.3f, p99.9 %.3f, max %.3f",
+				name, count, errorCount, throughput, mean / 1e6, percentile(sorted, 0.50), percentile(sorted, 0.95),
+				percentile(sorted, 0.99), percentile(sorted, 0.999), count == 0 ? 0 : sorted[count-1] / 1e6);
+	}
+
+	private static double percentile(long[] sorted, double p){
+		if(sorted.length == 0)
+			return 0;
+		int index = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, index)] / 1e6;
+	}
+}
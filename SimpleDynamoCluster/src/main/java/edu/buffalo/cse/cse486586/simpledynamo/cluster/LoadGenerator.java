@@ -0,0 +1,375 @@
+package edu.buffalo.cse.cse486586.simpledynamo.cluster;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.buffalo.cse.cse486586.simpledynamo.ConsistencyLevel;
+import edu.buffalo.cse.cse486586.simpledynamo.DynamoOperation;
+import edu.buffalo.cse.cse486586.simpledynamo.DynamoRing;
+import edu.buffalo.cse.cse486586.simpledynamo.WireCodec;
+
+/**
+ * This class drives a YCSB style workload against a LocalCluster and
+ * reports the throughput and latency percentiles of each operation.
+ *
+ * The records are loaded first, then the client threads run the mix of
+ * the workload through randomly chosen live nodes, as the grading scripts
+ * do through the content providers of the emulators. Workloads:-
+ * A  50% read, 50% update (update heavy)
+ * B  95% read, 5% update (read heavy)
+ * C  100% read
+ * E  95% scan, 5% insert
+ * W  10% read, 90% update (write heavy)
+ *
+ * Keys are chosen by a Zipfian (hot keys) or uniform distribution. With
+ * fault injection a random node is killed every interval and started again
+ * after the downtime, with no more nodes down at a time than the quorums
+ * tolerate.
+ *
+ * Usage:- java -jar cluster.jar [-option value]...
+ * -workload A|B|C|E|W (B), -nodes (5), -records (10000), -operations (100000),
+ * -threads (16), -distribution zipfian|uniform (zipfian), -theta (0.99),
+ * -valuesize (100), -scanlength (100), -level ONE|QUORUM|ALL (ALL),
+ * -engine lsm|bitcask (lsm), -faults interval ms, 0 for none (0),
+ * -downtime ms (2000), -baseaddress (21108), -dir (temporary directory),
+ * -stats none|cluster|nodes (cluster), -slowthreshold ms from which operations
+ * are traced, -1 for none (-1), -slowcapacity traces kept per node (20),
+ * -compression length of JSON from which messages are compressed, -1 for none (1024)
+ *
+ * At the end of the run the stats of the nodes are scraped (see StatsScraper).
+ * As the nodes share a JVM, the process wide stats (json.*) of each node are
+ * those of the whole process.
+ *
+ * @author biplap
+ *
+ */
+public class LoadGenerator {
+	private static final String READ = "READ";
+	private static final String UPDATE = "UPDATE";
+	private static final String INSERT = "INSERT";
+	private static final String SCAN = "SCAN";
+	private static final String[] OPERATIONS = new String[]{READ, UPDATE, INSERT, SCAN};
+	private static final String KEY_PREFIX = "user";
+	private static final int REPLICATION_COUNT = 3;
+	private static final int READ_QUORUM = 2;
+	private static final int WRITE_QUORUM = 2;
+
+	private final HashMap<String, String> options;
+	private final LocalCluster cluster;
+	private final double[] mix;					// Proportion of each of OPERATIONS
+	private final int recordCount;
+	private final int valueSize;
+	private final int scanLength;
+	private final ConsistencyLevel level;
+	private final ZipfianGenerator zipfian;		// null for the uniform distribution
+	private final AtomicLong nextInsert;
+	private final long slowThreshold;			// Duration (ms) from which operations are traced, -1 if not
+	private final AtomicBoolean running = new AtomicBoolean(true);
+	private long killCount = 0;
+
+	public static void main(String[] args) throws Exception {
+		HashMap<String, String> options = parseOptions(args);
+		new LoadGenerator(options).run();
+		System.exit(0);		// Threads of the killed nodes may still be finishing
+	}
+
+	public LoadGenerator(HashMap<String, String> options) throws IOException{
+		this.options = options;
+		String dirName = option("dir", null);
+		File dir;
+		if(dirName == null){
+			dir = File.createTempFile("cluster", "");
+			dir.delete();
+		}
+		else
+			dir = new File(dirName);
+		dir.mkdirs();
+		cluster = new LocalCluster(dir, intOption("nodes", 5), intOption("baseaddress", 21108),
+				REPLICATION_COUNT, READ_QUORUM, WRITE_QUORUM, option("engine", LocalCluster.LSM), intOption("serverthreads", 16));
+		slowThreshold = Long.parseLong(option("slowthreshold", "-1"));
+		if(slowThreshold >= 0)
+			cluster.setSlowOperationLog(slowThreshold, intOption("slowcapacity", 20));
+		cluster.setCompressionThreshold(intOption("compression", WireCodec.DEFAULT_THRESHOLD));
+		mix = parseMix(option("workload", "B"));
+		recordCount = intOption("records", 10000);
+		valueSize = intOption("valuesize", 100);
+		scanLength = intOption("scanlength", 100);
+		level = ConsistencyLevel.parse(option("level", "ALL"), ConsistencyLevel.ALL);
+		zipfian = option("distribution", "zipfian").equals("uniform") ? null
+				: new ZipfianGenerator(recordCount, Double.parseDouble(option("theta", String.valueOf(ZipfianGenerator.DEFAULT_THETA))), true);
+		nextInsert = new AtomicLong(recordCount);
+		System.out.println("Cluster of "+cluster.getNodeCount()+" nodes at loopback ports from "
+				+DynamoRing.getAddress(intOption("baseaddress", 21108), 0)+", data in "+dir);
+	}
+
+	/**
+	 * Starts the cluster, loads the records and runs the workload
+	 * @throws Exception
+	 */
+	public void run() throws Exception {
+		cluster.start();
+		int threadCount = intOption("threads", 16);
+
+		// Load phase
+		long start = System.nanoTime();
+		final AtomicLong nextLoad = new AtomicLong(0);
+		ArrayList<LatencyRecorder[]> loadRecorders = runClients(threadCount, new ClientTask() {
+			@Override
+			public boolean runOnce(Random random, LatencyRecorder[] recorders) {
+				long item = nextLoad.getAndIncrement();
+				if(item >= recordCount)
+					return false;
+				write(random, keyOf(item), recorders[1]);
+				return true;
+			}
+		});
+		long loadNanos = System.nanoTime() - start;
+		System.out.println(merge(loadRecorders, 1).report("LOAD", loadNanos));
+
+		// Run phase
+		final long operationCount = intOption("operations", 100000);
+		final AtomicLong nextOperation = new AtomicLong(0);
+		Thread faultInjector = startFaultInjector(intOption("faults", 0), intOption("downtime", 2000));
+		start = System.nanoTime();
+		ArrayList<LatencyRecorder[]> runRecorders = runClients(threadCount, new ClientTask() {
+			@Override
+			public boolean runOnce(Random random, LatencyRecorder[] recorders) {
+				if(nextOperation.getAndIncrement() >= operationCount)
+					return false;
+				runOperation(random, recorders);
+				return true;
+			}
+		});
+		long runNanos = System.nanoTime() - start;
+		running.set(false);
+		if(faultInjector != null)
+			faultInjector.join();
+
+		LatencyRecorder overall = new LatencyRecorder();
+		for(int i=0;i<OPERATIONS.length;i++){
+			LatencyRecorder recorder = merge(runRecorders, i);
+			if(recorder.getCount() + recorder.getErrorCount() == 0)
+				continue;
+			System.out.println(recorder.report(OPERATIONS[i], runNanos));
+			overall.add(recorder);
+		}
+		System.out.println(overall.report("OVERALL", runNanos));
+		System.out.println("[FAULTS] nodes killed "+killCount);
+		String stats = option("stats", "cluster");
+		if(!stats.equals("none"))
+			System.out.print(StatsScraper.report(StatsScraper.scrape("127.0.0.1", intOption("baseaddress", 21108), cluster.getNodeCount()),
+					stats.equals("nodes")));
+		if(slowThreshold >= 0)
+			System.out.print(StatsScraper.reportSlowOperations(StatsScraper.scrapeSlowOperations("127.0.0.1",
+					intOption("baseaddress", 21108), cluster.getNodeCount())));
+		cluster.stop();
+	}
+
+	/**
+	 * One operation of a client thread
+	 */
+	private interface ClientTask {
+		/**
+		 * @return false once the client is done
+		 */
+		public boolean runOnce(Random random, LatencyRecorder[] recorders);
+	}
+
+	/**
+	 * Runs client threads until their task is done
+	 * @return recorders of each thread, one per operation
+	 * @throws InterruptedException
+	 */
+	private ArrayList<LatencyRecorder[]> runClients(int threadCount, final ClientTask task) throws InterruptedException{
+		final ArrayList<LatencyRecorder[]> recorderList = new ArrayList<LatencyRecorder[]>();
+		Thread[] threads = new Thread[threadCount];
+		for(int i=0;i<threadCount;i++){
+			final LatencyRecorder[] recorders = new LatencyRecorder[OPERATIONS.length];
+			for(int j=0;j<recorders.length;j++)
+				recorders[j] = new LatencyRecorder();
+			recorderList.add(recorders);
+			final Random random = new Random(i);
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while(task.runOnce(random, recorders));
+				}
+			}, "client-"+i);
+			threads[i].start();
+		}
+		for(int i=0;i<threadCount;i++)
+			threads[i].join();
+		return recorderList;
+	}
+
+	private void runOperation(Random random, LatencyRecorder[] recorders){
+		double p = random.nextDouble();
+		int operation = 0;
+		while(operation < mix.length - 1 && p >= mix[operation]){
+			p -= mix[operation];
+			operation++;
+		}
+		String operationName = OPERATIONS[operation];
+		if(operationName.equals(READ))
+			read(random, keyOf(chooseItem(random)), recorders[0]);
+		else if(operationName.equals(UPDATE))
+			write(random, keyOf(chooseItem(random)), recorders[1]);
+		else if(operationName.equals(INSERT))
+			write(random, keyOf(nextInsert.getAndIncrement()), recorders[2]);
+		else
+			scan(random, keyOf(chooseItem(random)), recorders[3]);
+	}
+
+	private void read(Random random, String key, LatencyRecorder recorder){
+		DynamoOperation coordinator = chooseCoordinator(random);
+		long start = System.nanoTime();
+		try{
+			if(coordinator == null)
+				throw new IllegalStateException("No node is up");
+			coordinator.readDHTKeyVal(key, level);
+			recorder.record(System.nanoTime() - start);
+		}
+		catch(RuntimeException e){
+			recorder.recordError();
+		}
+	}
+
+	private void write(Random random, String key, LatencyRecorder recorder){
+		DynamoOperation coordinator = chooseCoordinator(random);
+		long start = System.nanoTime();
+		try{
+			if(coordinator == null)
+				throw new IllegalStateException("No node is up");
+			coordinator.writeDHTKeyVal(key, randomValue(random), level);
+			recorder.record(System.nanoTime() - start);
+		}
+		catch(RuntimeException e){
+			recorder.recordError();
+		}
+	}
+
+	private void scan(Random random, String fromKey, LatencyRecorder recorder){
+		DynamoOperation coordinator = chooseCoordinator(random);
+		long start = System.nanoTime();
+		try{
+			if(coordinator == null)
+				throw new IllegalStateException("No node is up");
+			coordinator.scanDHT(fromKey, 1 + random.nextInt(scanLength));
+			recorder.record(System.nanoTime() - start);
+		}
+		catch(RuntimeException e){
+			recorder.recordError();
+		}
+	}
+
+	/**
+	 * Kills a random node every interval and starts it again after the downtime
+	 * @param interval:- ms between kills, 0 for no faults
+	 * @param downtime:- ms for which a killed node stays down
+	 * @return thread of the injector, null if there are no faults
+	 */
+	private Thread startFaultInjector(final long interval, final long downtime){
+		if(interval <= 0 || cluster.getTolerableFailures() == 0)
+			return null;
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Random random = new Random();
+				try{
+					while(running.get()){
+						Thread.sleep(interval);
+						if(!running.get())
+							break;
+						int index = random.nextInt(cluster.getNodeCount());
+						System.out.println("Killing node "+index);
+						cluster.killNode(index);
+						killCount++;
+						Thread.sleep(downtime);
+						System.out.println("Starting node "+index);
+						cluster.startNode(index);
+					}
+				}
+				catch(Exception e){
+					e.printStackTrace();
+				}
+			}
+		}, "fault-injector");
+		thread.start();
+		return thread;
+	}
+
+	private DynamoOperation chooseCoordinator(Random random){
+		int start = random.nextInt(cluster.getNodeCount());
+		for(int i=0;i<cluster.getNodeCount();i++){
+			DynamoOperation node = cluster.getNode((start + i) % cluster.getNodeCount());
+			if(node != null)
+				return node;
+		}
+		return null;
+	}
+
+	private long chooseItem(Random random){
+		if(zipfian != null)
+			return zipfian.next(random);
+		return (long) (random.nextDouble() * recordCount);
+	}
+
+	private static String keyOf(long item){
+		return KEY_PREFIX + item;
+	}
+
+	private String randomValue(Random random){
+		char[] chars = new char[valueSize];
+		for(int i=0;i<valueSize;i++)
+			chars[i] = (char) ('a' + random.nextInt(26));
+		return new String(chars);
+	}
+
+	private static LatencyRecorder merge(ArrayList<LatencyRecorder[]> recorderList, int operation){
+		LatencyRecorder merged = new LatencyRecorder();
+		for(int i=0;i<recorderList.size();i++)
+			merged.add(recorderList.get(i)[operation]);
+		return merged;
+	}
+
+	/**
+	 * Returns the proportions of OPERATIONS in a workload
+	 */
+	private static double[] parseMix(String workload){
+		if(workload.equals("A"))
+			return new double[]{0.5, 0.5, 0, 0};
+		if(workload.equals("B"))
+			return new double[]{0.95, 0.05, 0, 0};
+		if(workload.equals("C"))
+			return new double[]{1, 0, 0, 0};
+		if(workload.equals("E"))
+			return new double[]{0, 0, 0.05, 0.95};
+		if(workload.equals("W"))
+			return new double[]{0.1, 0.9, 0, 0};
+		throw new IllegalArgumentException("Unknown workload "+workload);
+	}
+
+	private static HashMap<String, String> parseOptions(String[] args){
+		HashMap<String, String> options = new HashMap<String, String>();
+		for(int i=0;i+1<args.length;i+=2){
+			if(!args[i].startsWith("-"))
+				throw new IllegalArgumentException("Expected an option instead of "+args[i]);
+			options.put(args[i].substring(1), args[i+1]);
+		}
+		return options;
+	}
+
+	private String option(String name, String defaultValue){
+		String value = options.get(name);
+		return value == null ? defaultValue : value;
+	}
+
+	private int intOption(String name, int defaultValue){
+		return Integer.parseInt(option(name, String.valueOf(defaultValue)));
+	}
+}
@@ -0,0 +1,241 @@
+package edu.buffalo.cse.cse486586.simpledynamo.cluster;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
+
+import edu.buffalo.cse.cse486586.simpledynamo.BitcaskStorageEngine;
+import edu.buffalo.cse.cse486586.simpledynamo.DynamoOperation;
+import edu.buffalo.cse.cse486586.simpledynamo.DynamoRing;
+import edu.buffalo.cse.cse486586.simpledynamo.DynamoServer;
+import edu.buffalo.cse.cse486586.simpledynamo.LSMStorageEngine;
+import edu.buffalo.cse.cse486586.simpledynamo.StorageEngine;
+import edu.buffalo.cse.cse486586.simpledynamo.WireCodec;
+
+/**
+ * This class runs a Dynamo cluster of several nodes in one JVM.
+ *
+ * Every node has its own storage engine and snapshot directory under the
+ * base directory, and its own DynamoServer on the loopback port given by
+ * its address in the ring. The nodes reach each other through the loopback
+ * address, the same way the emulators reach each other through 10.0.2.2.
+ *
+ * A node can be killed, which closes its server and storage engine like a
+ * crash, and started again on the same directory, which recovers it through
+ * DynamoOperation.sync() as on the emulators.
+ *
+ * @author biplap
+ *
+ */
+public class LocalCluster {
+	public static final String LSM = "lsm";
+	public static final String BITCASK = "bitcask";
+
+	private final File baseDir;
+	private final int nodeCount;
+	private final int baseAddress;
+	private final int replicationCount;
+	private final int readQuorum;
+	private final int writeQuorum;
+	private final String engineName;
+	private final int serverThreads;
+	private final InetAddress loopback;
+	private final LocalNode[] nodes;
+	private long slowOperationThreshold = -1;	// Duration (ms) from which operations are traced, -1 if not
+	private int slowOperationCapacity = 0;
+	private int compressionThreshold = WireCodec.DEFAULT_THRESHOLD;	// Length of JSON from which messages are compressed, -1 if not
+	private long tombstoneGracePeriod = 60000;
+	private long tombstoneCompactionInterval = -1;	// Interval (ms) between the steps of the tombstone compaction, -1 if disabled
+
+	/**
+	 * State of a node of the cluster, null fields while the node is down
+	 */
+	private static class LocalNode {
+		StorageEngine storageEngine;
+		DynamoOperation dynamoOperation;
+		DynamoServer server;
+	}
+
+	/**
+	 * Public constructor, the nodes are started by start()
+	 *
+	 * @param baseDir:- Directory under which the nodes keep their data
+	 * @param nodeCount:- Number of nodes
+	 * @param baseAddress:- Address (loopback port) of the first node, see DynamoRing
+	 * @param replicationCount
+	 * @param readQuorum
+	 * @param writeQuorum
+	 * @param engineName:- Storage engine of the nodes, LSM or BITCASK
+	 * @param serverThreads:- Threads serving requests at each node
+	 */
+	public LocalCluster(File baseDir, int nodeCount, int baseAddress, int replicationCount, int readQuorum, int writeQuorum,
+			String engineName, int serverThreads){
+		this.baseDir = baseDir;
+		this.nodeCount = nodeCount;
+		this.baseAddress = baseAddress;
+		this.replicationCount = replicationCount;
+		this.readQuorum = readQuorum;
+		this.writeQuorum = writeQuorum;
+		this.engineName = engineName;
+		this.serverThreads = serverThreads;
+		this.loopback = InetAddress.getLoopbackAddress();
+		this.nodes = new LocalNode[nodeCount];
+		for(int i=0;i<nodeCount;i++)
+			nodes[i] = new LocalNode();
+	}
+
+	/**
+	 * Enables the slow operation log of the nodes started from now on
+	 * (see DynamoOperation.configureSlowOperationLog())
+	 * @param thresholdMillis
+	 * @param capacity
+	 */
+	public void setSlowOperationLog(long thresholdMillis, int capacity){
+		this.slowOperationThreshold = thresholdMillis;
+		this.slowOperationCapacity = capacity;
+	}
+
+	/**
+	 * Sets the compression threshold of the nodes started from now on
+	 * (see DynamoOperation.configureCompression())
+	 * @param threshold:- Length of JSON from which messages are compressed, -1 to disable compression
+	 */
+	public void setCompressionThreshold(int threshold){
+		this.compressionThreshold = threshold;
+	}
+
+	/**
+	 * Enables the tombstone compaction of the nodes started from now on
+	 * (see DynamoOperation.configureTombstoneCompaction())
+	 * @param gracePeriod
+	 * @param interval:- Interval (ms) between the steps of the compaction, -1 to disable it
+	 */
+	public void setTombstoneCompaction(long gracePeriod, long interval){
+		this.tombstoneGracePeriod = gracePeriod;
+		this.tombstoneCompactionInterval = interval;
+	}
+
+	/**
+	 * Starts all the nodes
+	 * @throws IOException
+	 */
+	public void start() throws IOException{
+		for(int i=0;i<nodeCount;i++)
+			startNode(i);
+	}
+
+	/**
+	 * Kills all the running nodes
+	 */
+	public void stop(){
+		for(int i=0;i<nodeCount;i++)
+			if(isUp(i))
+				killNode(i);
+	}
+
+	/**
+	 * Starts a node, recovering its data from its directory and from the other nodes
+	 *
+	 * @param index:- Index of the node, from 0 to nodeCount-1
+	 * @throws IOException
+	 */
+	public void startNode(int index) throws IOException{
+		LocalNode node = nodes[index];
+		synchronized (node) {
+			if(node.dynamoOperation != null)
+				throw new IllegalStateException("Node "+index+" is already running");
+			File nodeDir = new File(baseDir, "node"+index);
+			File dataDir = new File(nodeDir, "data");
+			File snapshotDir = new File(nodeDir, "snapshot");
+			dataDir.mkdirs();
+			snapshotDir.mkdirs();
+			StorageEngine storageEngine = engineName.equals(BITCASK) ? new BitcaskStorageEngine(dataDir) : new LSMStorageEngine(dataDir);
+			int address = DynamoRing.getAddress(baseAddress, index);
+			// The node syncs before its port is opened, like on the emulators. Nodes
+			// syncing from it meanwhile see it as failed instead of waiting for it.
+			DynamoOperation dynamoOperation = DynamoOperation.create(storageEngine, snapshotDir, loopback, address,
+					nodeCount, baseAddress, replicationCount, readQuorum, writeQuorum);
+			dynamoOperation.configureCompression(compressionThreshold);
+			if(tombstoneCompactionInterval > 0)
+				dynamoOperation.configureTombstoneCompaction(tombstoneGracePeriod, tombstoneCompactionInterval);
+			if(slowOperationThreshold >= 0)
+				dynamoOperation.configureSlowOperationLog(slowOperationThreshold, slowOperationCapacity);
+			ServerSocketChannel serverChannel = ServerSocketChannel.open();
+			ServerSocket serverSocket = serverChannel.socket();
+			serverSocket.setReuseAddress(true);
+			serverSocket.bind(new InetSocketAddress(loopback, address));
+			final DynamoServer server = new DynamoServer(dynamoOperation, serverSocket, serverThreads);
+			Thread serverThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					server.serve();
+				}
+			}, "node-"+address);
+			serverThread.setDaemon(true);
+			serverThread.start();
+			node.storageEngine = storageEngine;
+			node.dynamoOperation = dynamoOperation;
+			node.server = server;
+		}
+	}
+
+	/**
+	 * Kills a node. It stops answering the other nodes immediately, and its
+	 * storage engine is closed.
+	 *
+	 * @param index:- Index of the node
+	 */
+	public void killNode(int index){
+		LocalNode node = nodes[index];
+		synchronized (node) {
+			if(node.dynamoOperation == null)
+				return;
+			node.server.close();
+			node.dynamoOperation.close();
+			node.storageEngine.close();
+			node.storageEngine = null;
+			node.dynamoOperation = null;
+			node.server = null;
+		}
+	}
+
+	/**
+	 * Checks whether a node is running
+	 * @param index
+	 * @return
+	 */
+	public boolean isUp(int index){
+		LocalNode node = nodes[index];
+		synchronized (node) {
+			return node.dynamoOperation != null;
+		}
+	}
+
+	/**
+	 * Returns the coordinator of a node, to run client operations through it
+	 * @param index
+	 * @return null if the node is down
+	 */
+	public DynamoOperation getNode(int index){
+		LocalNode node = nodes[index];
+		synchronized (node) {
+			return node.dynamoOperation;
+		}
+	}
+
+	public int getNodeCount(){
+		return nodeCount;
+	}
+
+	/**
+	 * Returns the number of nodes a write can be missing from while the
+	 * cluster still answers every operation at its quorums
+	 * @return
+	 */
+	public int getTolerableFailures(){
+		return Math.max(0, replicationCount - Math.max(readQuorum, writeQuorum));
+	}
+}
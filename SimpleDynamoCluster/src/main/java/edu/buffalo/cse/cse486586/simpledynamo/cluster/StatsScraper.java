@@ -0,0 +1,172 @@
+package edu.buffalo.cse.cse486586.simpledynamo.cluster;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import edu.buffalo.cse.cse486586.simpledynamo.DynamoRing;
+import edu.buffalo.cse.cse486586.simpledynamo.Message;
+import edu.buffalo.cse.cse486586.simpledynamo.NodeStats;
+import edu.buffalo.cse.cse486586.simpledynamo.OperationTrace;
+
+/**
+ * This class scrapes the stats of every node of a cluster with a STATS message
+ * and prints them along with the stats of the whole cluster.
+ *
+ * It works against a LocalCluster as well as against the emulators, whose
+ * redirected ports (11108, 11112, ...) are reachable on the loopback of the host.
+ * Nodes which do not answer are skipped. With -slowops it dumps the slow
+ * operation log of every node instead (see SlowOperationLog).
+ *
+ * Usage:- java -cp cluster.jar edu.buffalo.cse.cse486586.simpledynamo.cluster.StatsScraper [-option value]...
+ * -host (127.0.0.1), -baseaddress (11108), -nodes (5), -pernode true|false (true),
+ * -slowops true|false (false)
+ *
+ * @author biplap
+ *
+ */
+public class StatsScraper {
+	private static final int TIMEOUT = 2000;		// Connect and read timeout (ms)
+
+	public static void main(String[] args) {
+		HashMap<String, String> options = new HashMap<String, String>();
+		for(int i=0;i+1<args.length;i+=2)
+			options.put(args[i].substring(1), args[i+1]);
+		String host = options.containsKey("host") ? options.get("host") : "127.0.0.1";
+		int baseAddress = options.containsKey("baseaddress") ? Integer.parseInt(options.get("baseaddress")) : DynamoRing.DEFAULT_BASE_ADDRESS;
+		int nodeCount = options.containsKey("nodes") ? Integer.parseInt(options.get("nodes")) : 5;
+		boolean perNode = !options.containsKey("pernode") || Boolean.parseBoolean(options.get("pernode"));
+		if(Boolean.parseBoolean(options.get("slowops")))
+			System.out.print(reportSlowOperations(scrapeSlowOperations(host, baseAddress, nodeCount)));
+		else
+			System.out.print(report(scrape(host, baseAddress, nodeCount), perNode));
+	}
+
+	/**
+	 * Scrapes the stats of the nodes of a cluster
+	 * @param host:- Host of the nodes
+	 * @param baseAddress:- Address of the first node
+	 * @param nodeCount:- Number of nodes
+	 * @return stats of the nodes which answered
+	 */
+	public static ArrayList<NodeStats> scrape(String host, int baseAddress, int nodeCount){
+		ArrayList<NodeStats> statsList = new ArrayList<NodeStats>();
+		for(int i=0;i<nodeCount;i++){
+			int address = DynamoRing.getAddress(baseAddress, i);
+			try{
+				NodeStats stats = scrape(host, address);
+				if(stats != null)
+					statsList.add(stats);
+			}
+			catch(IOException e){
+				System.err.println("No stats from "+address+": "+e.getMessage());
+			}
+		}
+		return statsList;
+	}
+
+	/**
+	 * Scrapes the stats of one node
+	 * @param host:- Host of the node
+	 * @param address:- Port of the node
+	 * @return stats of the node, null if the node did not answer
+	 * @throws IOException
+	 */
+	public static NodeStats scrape(String host, int address) throws IOException{
+		Message response = request(host, address, Message.STATS);
+		return response == null ? null : response.getStats();
+	}
+
+	/**
+	 * Scrapes the slow operation logs of the nodes of a cluster
+	 * @param host:- Host of the nodes
+	 * @param baseAddress:- Address of the first node
+	 * @param nodeCount:- Number of nodes
+	 * @return SLOW_OPS_ACK of the nodes which answered
+	 */
+	public static ArrayList<Message> scrapeSlowOperations(String host, int baseAddress, int nodeCount){
+		ArrayList<Message> responseList = new ArrayList<Message>();
+		for(int i=0;i<nodeCount;i++){
+			int address = DynamoRing.getAddress(baseAddress, i);
+			try{
+				Message response = request(host, address, Message.SLOW_OPS);
+				if(response != null)
+					responseList.add(response);
+			}
+			catch(IOException e){
+				System.err.println("No slow operations from "+address+": "+e.getMessage());
+			}
+		}
+		return responseList;
+	}
+
+	/**
+	 * Sends a request without arguments to a node
+	 * @param host:- Host of the node
+	 * @param address:- Port of the node
+	 * @param type:- Type of the request
+	 * @return response, null if the node did not answer
+	 * @throws IOException
+	 */
+	private static Message request(String host, int address, int type) throws IOException{
+		Message message = new Message();
+		message.setType(type);
+		Socket socket = new Socket();
+		try{
+			socket.connect(new InetSocketAddress(host, address), TIMEOUT);
+			socket.setSoTimeout(TIMEOUT);
+			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+			BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			bw.write(message.toJson()+"\n");
+			bw.flush();
+			String responseStr = br.readLine();
+			if(responseStr == null)
+				return null;
+			return Message.fromJson(responseStr);
+		}
+		finally{
+			socket.close();
+		}
+	}
+
+	/**
+	 * Formats the stats of the nodes followed by the merged stats of the cluster
+	 * @param statsList:- Stats of the nodes
+	 * @param perNode:- Whether the stats of each node are included
+	 * @return
+	 */
+	public static String report(ArrayList<NodeStats> statsList, boolean perNode){
+		StringBuilder sb = new StringBuilder();
+		NodeStats cluster = new NodeStats(0, 0);
+		for(int i=0;i<statsList.size();i++){
+			if(perNode)
+				sb.append(statsList.get(i));
+			cluster.merge(statsList.get(i));
+		}
+		sb.append(cluster);
+		return sb.toString();
+	}
+
+	/**
+	 * Formats the slow operations of the nodes, node by node
+	 * @param responseList:- SLOW_OPS_ACK of the nodes
+	 * @return
+	 */
+	public static String reportSlowOperations(ArrayList<Message> responseList){
+		StringBuilder sb = new StringBuilder();
+		for(int i=0;i<responseList.size();i++){
+			ArrayList<OperationTrace> traces = responseList.get(i).getTraces();
+			sb.append("Slow operations of node ").append(responseList.get(i).getSender())
+				.append(": ").append(traces.size()).append('\n');
+			for(int j=0;j<traces.size();j++)
+				sb.append(traces.get(j));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,81 @@
+package edu.buffalo.cse.cse486586.simpledynamo.cluster;
+
+import java.util.Random;
+
+/**
+ * This class generates item numbers from 0 to itemCount-1 following a
+ * Zipfian distribution, as done by YCSB (after Gray et al., "Quickly
+ * generating billion-record synthetic databases", SIGMOD 1994).
+ *
+ * Item 0 is the most popular. The ranks are scrambled with a hash so that
+ * the hot items are spread over the key space, and so over the ring,
+ * instead of being next to each other.
+ *
+ * @author biplap
+ *
+ */
+public class ZipfianGenerator {
+	public static final double DEFAULT_THETA = 0.99;	// Same as YCSB
+	private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+	private static final long FNV_PRIME = 1099511628211L;
+
+	private final long itemCount;
+	private final double theta;
+	private final double zetan;
+	private final double alpha;
+	private final double eta;
+	private final boolean scrambled;
+
+	/**
+	 * Public constructor
+	 * @param itemCount:- Number of items
+	 * @param theta:- Skew, 0.99 gives a few very hot items
+	 * @param scrambled:- Whether the ranks are spread over the items
+	 */
+	public ZipfianGenerator(long itemCount, double theta, boolean scrambled){
+		this.itemCount = itemCount;
+		this.theta = theta;
+		this.scrambled = scrambled;
+		this.zetan = zeta(itemCount, theta);
+		double zeta2 = zeta(2, theta);
+		this.alpha = 1.0 / (1.0 - theta);
+		this.eta = (1 - Math.pow(2.0 / itemCount, 1 - theta)) / (1 - zeta2 / zetan);
+	}
+
+	/**
+	 * Returns the next item
+	 * @param random:- Random of the calling thread
+	 * @return
+	 */
+	public long next(Random random){
+		double u = random.nextDouble();
+		double uz = u * zetan;
+		long rank;
+		if(uz < 1.0)
+			rank = 0;
+		else if(uz < 1.0 + Math.pow(0.5, theta))
+			rank = 1;
+		else
+			rank = Math.min(itemCount - 1, (long) (itemCount * Math.pow(eta * u - eta + 1, alpha)));
+		if(!scrambled)
+			return rank;
+		return (fnvHash(rank) & Long.MAX_VALUE) % itemCount;
+	}
+
+	private static double zeta(long n, double theta){
+		double sum = 0;
+		for(long i=1;i<=n;i++)
+			sum += 1 / Math.pow(i, theta);
+		return sum;
+	}
+
+	private static long fnvHash(long value){
+		long hash = FNV_OFFSET;
+		for(int i=0;i<8;i++){
+			hash ^= value & 0xFF;
+			hash *= FNV_PRIME;
+			value >>>= 8;
+		}
+		return hash;
+	}
+}
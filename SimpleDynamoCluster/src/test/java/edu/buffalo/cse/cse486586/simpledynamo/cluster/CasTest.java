@@ -0,0 +1,110 @@
+package edu.buffalo.cse.cse486586.simpledynamo.cluster;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.buffalo.cse.cse486586.simpledynamo.ConsistencyLevel;
+import edu.buffalo.cse.cse486586.simpledynamo.DynamoOperation;
+import edu.buffalo.cse.cse486586.simpledynamo.KeyVal;
+
+/**
+ * Tests the conditional writes of casDHTKeyVal() at consistency level ALL
+ * while a replica of the key is down.
+ *
+ * A write applied by the replicas which answered must succeed, so that a
+ * client never retries (and applies again) a write which was done.
+ *
+ * @author biplap
+ *
+ */
+public class CasTest {
+	private static final int BASE_ADDRESS = 33108;
+	private static final int INCREMENTS = 20;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private LocalCluster cluster;
+
+	@After
+	public void tearDown(){
+		if(cluster != null)
+			cluster.stop();
+	}
+
+	@Test
+	public void casWithReplicaDown() throws Exception{
+		cluster = new LocalCluster(folder.newFolder(), 3, BASE_ADDRESS, 3, 2, 2, LocalCluster.LSM, 4);
+		cluster.start();
+		cluster.killNode(2);
+		DynamoOperation node = cluster.getNode(0);
+
+		assertEquals(1, node.casDHTKeyVal("key", "v1", 0, ConsistencyLevel.ALL, 0));
+		assertEquals(2, node.casDHTKeyVal("key", "v2", 1, ConsistencyLevel.ALL, 0));
+		// Conflicts are -(current version + 1), also for a key which is not present
+		assertEquals(-3, node.casDHTKeyVal("key", "stale", 1, ConsistencyLevel.ALL, 0));
+		assertEquals(-1, node.casDHTKeyVal("absent", "v1", 5, ConsistencyLevel.ALL, 0));
+		assertEquals(2, localVersion(cluster.getNode(0), "key"));
+		assertEquals(2, localVersion(cluster.getNode(1), "key"));
+
+		// Too few replicas to decide is neither a success nor a conflict
+		cluster.killNode(1);
+		assertEquals(0, node.casDHTKeyVal("key", "v3", 2, ConsistencyLevel.ALL, 0));
+	}
+
+	@Test
+	public void counterWithReplicaDown() throws Exception{
+		cluster = new LocalCluster(folder.newFolder(), 3, BASE_ADDRESS, 3, 2, 2, LocalCluster.BITCASK, 4);
+		cluster.start();
+		cluster.killNode(1);
+		// Read and increment through both coordinators, every write is applied once and succeeds
+		for(int i=0;i<INCREMENTS;i++){
+			DynamoOperation node = cluster.getNode(i % 2 == 0 ? 0 : 2);
+			ArrayList<KeyVal> keyValList = node.readDHTKeyVal("counter", ConsistencyLevel.ALL);
+			long version = keyValList.isEmpty() ? 0 : Long.parseLong(keyValList.get(0).getVersion());
+			int count = keyValList.isEmpty() ? 0 : Integer.parseInt(keyValList.get(0).getVal());
+			assertEquals(i, count);
+			assertEquals(version+1, node.casDHTKeyVal("counter", String.valueOf(count+1), version, ConsistencyLevel.ALL, 0));
+		}
+		ArrayList<KeyVal> keyValList = cluster.getNode(0).readDHTKeyVal("counter", ConsistencyLevel.ALL);
+		assertEquals(String.valueOf(INCREMENTS), keyValList.get(0).getVal());
+		assertEquals(INCREMENTS, localVersion(cluster.getNode(0), "counter"));
+		assertEquals(INCREMENTS, localVersion(cluster.getNode(2), "counter"));
+	}
+
+	@Test
+	public void equalVersionsConverge() throws Exception{
+		cluster = new LocalCluster(folder.newFolder(), 3, BASE_ADDRESS, 3, 2, 2, LocalCluster.LSM, 4);
+		cluster.start();
+		// Two values with the same version, applied at the replicas in opposite orders
+		cluster.getNode(0).writeLocalKeyVal("key", "a", "5");
+		cluster.getNode(0).writeLocalKeyVal("key", "b", "5");
+		cluster.getNode(1).writeLocalKeyVal("key", "b", "5");
+		cluster.getNode(1).writeLocalKeyVal("key", "a", "5");
+		cluster.getNode(2).writeLocalKeyVal("key", "a", "5");
+		for(int i=0;i<3;i++)
+			assertEquals(i == 2 ? "a" : "b", cluster.getNode(i).readLocalKeyVal("key").get(0).getVal());
+		// Every coordinator reads the same value
+		for(int i=0;i<3;i++)
+			assertEquals("b", cluster.getNode(i).readDHTKeyVal("key", ConsistencyLevel.ALL).get(0).getVal());
+	}
+
+	/**
+	 * Reads the version of a key at a replica
+	 * @param node
+	 * @param key
+	 * @return 0 if the key is not present
+	 */
+	private static long localVersion(DynamoOperation node, String key){
+		ArrayList<KeyVal> keyValList = node.readLocalKeyVal(key);
+		if(keyValList.isEmpty())
+			return 0;
+		return Long.parseLong(keyValList.get(0).getVersion());
+	}
+}
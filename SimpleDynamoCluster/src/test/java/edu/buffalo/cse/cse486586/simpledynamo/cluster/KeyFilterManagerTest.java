@@ -0,0 +1,112 @@
+package edu.buffalo.cse.cse486586.simpledynamo.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.buffalo.cse.cse486586.simpledynamo.KeyFilterManager;
+import edu.buffalo.cse.cse486586.simpledynamo.KeyVal;
+import edu.buffalo.cse.cse486586.simpledynamo.LSMStorageEngine;
+
+/**
+ * Tests that the local bloom filter is rebuilt off the write path, and that
+ * a key written while a rebuild scans the storage engine is in the new filter.
+ *
+ * @author biplap
+ *
+ */
+public class KeyFilterManagerTest {
+	private static final int MY_ADDRESS = 5554;
+	private static final int KEYS = 3000;		// More than the smallest filter is sized for
+	private static final long WRITE_TIMEOUT = 5000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ScanHookEngine storageEngine;
+
+	/**
+	 * Storage engine counting its scans, which can run a hook in the middle of a scan
+	 */
+	private static class ScanHookEngine extends LSMStorageEngine {
+		volatile int scanCount = 0;
+		volatile Runnable scanHook = null;
+
+		ScanHookEngine(File dir) throws IOException{
+			super(dir);
+		}
+
+		@Override
+		public synchronized ArrayList<KeyVal> scan() {
+			scanCount++;
+			ArrayList<KeyVal> keyValList = super.scan();
+			Runnable hook = scanHook;
+			if(hook != null)
+				hook.run();
+			return keyValList;
+		}
+	}
+
+	@After
+	public void tearDown(){
+		if(storageEngine != null)
+			storageEngine.close();
+	}
+
+	@Test
+	public void writesOnlyMarkTheRebuild() throws Exception{
+		storageEngine = new ScanHookEngine(folder.newFolder());
+		KeyFilterManager manager = new KeyFilterManager(storageEngine, 0.01, 60000);
+		assertEquals(1, storageEngine.scanCount);
+		for(int i=0;i<KEYS;i++){
+			storageEngine.put("key"+i, "val");
+			manager.recordWrite("key"+i);
+		}
+		assertEquals("a write scanned the storage engine", 1, storageEngine.scanCount);
+		manager.rebuildIfNeeded();
+		assertEquals(2, storageEngine.scanCount);
+		manager.rebuildIfNeeded();		// Nothing written since
+		assertEquals(2, storageEngine.scanCount);
+		for(int i=0;i<KEYS;i++)
+			assertTrue(manager.mightContain(MY_ADDRESS, MY_ADDRESS, "key"+i));
+	}
+
+	@Test
+	public void keyWrittenDuringRebuildIsKept() throws Exception{
+		storageEngine = new ScanHookEngine(folder.newFolder());
+		final KeyFilterManager manager = new KeyFilterManager(storageEngine, 0.01, 60000);
+		final boolean[] readDuringScan = new boolean[1];
+		storageEngine.scanHook = new Runnable() {
+			@Override
+			public void run() {
+				// From another thread, which would block if the rebuild held the lock of the manager
+				Thread writer = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						manager.recordWrite("late");
+						readDuringScan[0] = manager.mightContain(MY_ADDRESS, MY_ADDRESS, "late");
+					}
+				});
+				writer.start();
+				try {
+					writer.join(WRITE_TIMEOUT);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		assertFalse(manager.mightContain(MY_ADDRESS, MY_ADDRESS, "late"));
+		manager.rebuild();
+		assertTrue("the write was blocked by the rebuild", readDuringScan[0]);
+		assertTrue("the key written during the scan was lost", manager.mightContain(MY_ADDRESS, MY_ADDRESS, "late"));
+	}
+}
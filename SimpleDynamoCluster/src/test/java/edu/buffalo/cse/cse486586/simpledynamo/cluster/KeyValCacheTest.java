@@ -0,0 +1,76 @@
+package edu.buffalo.cse.cse486586.simpledynamo.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import edu.buffalo.cse.cse486586.simpledynamo.KeyVal;
+import edu.buffalo.cse.cse486586.simpledynamo.KeyValCache;
+
+/**
+ * Tests which writes racing with a read keep its result out of the cache.
+ * Only a write to the key read may do so, the coordinator applies writes
+ * to other keys all the time.
+ *
+ * @author biplap
+ *
+ */
+public class KeyValCacheTest {
+	private static final int CACHE_SIZE = 100;
+	private static final long TTL = 60000;
+
+	@Test
+	public void writeToAnotherKeyDoesNotPreventCaching(){
+		KeyValCache cache = new KeyValCache(CACHE_SIZE, TTL);
+		long stamp = cache.getInvalidationStamp();
+		cache.invalidate("other");		// Written while "hot" is read from the replicas
+		cache.put(keyVal("hot", "val", "1"), stamp);
+		KeyVal cached = cache.get("hot");
+		assertNotNull(cached);
+		assertEquals("val", cached.getVal());
+	}
+
+	@Test
+	public void writeToTheSameKeyPreventsCaching(){
+		KeyValCache cache = new KeyValCache(CACHE_SIZE, TTL);
+		long stamp = cache.getInvalidationStamp();
+		cache.invalidate("hot");
+		cache.put(keyVal("hot", "old", "1"), stamp);
+		assertNull(cache.get("hot"));
+
+		// A read started after the write is cached
+		stamp = cache.getInvalidationStamp();
+		cache.put(keyVal("hot", "new", "2"), stamp);
+		assertEquals("new", cache.get("hot").getVal());
+	}
+
+	@Test
+	public void invalidateAllPreventsCaching(){
+		KeyValCache cache = new KeyValCache(CACHE_SIZE, TTL);
+		long stamp = cache.getInvalidationStamp();
+		cache.invalidateAll();
+		cache.put(keyVal("hot", "val", "1"), stamp);
+		assertNull(cache.get("hot"));
+	}
+
+	@Test
+	public void forgottenInvalidationPreventsCaching(){
+		KeyValCache cache = new KeyValCache(CACHE_SIZE, TTL);
+		long stamp = cache.getInvalidationStamp();
+		cache.invalidate("hot");
+		for(int i=0;i<2*CACHE_SIZE;i++)		// Pushes "hot" out of the remembered invalidations
+			cache.invalidate("other"+i);
+		cache.put(keyVal("hot", "old", "1"), stamp);
+		assertNull(cache.get("hot"));
+	}
+
+	private static KeyVal keyVal(String key, String val, String version){
+		KeyVal keyVal = new KeyVal();
+		keyVal.setKey(key);
+		keyVal.setVal(val);
+		keyVal.setVersion(version);
+		return keyVal;
+	}
+}
@@ -0,0 +1,80 @@
+package edu.buffalo.cse.cse486586.simpledynamo.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import edu.buffalo.cse.cse486586.simpledynamo.CompactKeyVal;
+import edu.buffalo.cse.cse486586.simpledynamo.KeyVal;
+import edu.buffalo.cse.cse486586.simpledynamo.KeyValMergeTable;
+import edu.buffalo.cse.cse486586.simpledynamo.Tombstone;
+
+/**
+ * Tests that merging the copies of a key picks the same copy whatever
+ * order they arrive in, also when they have the same version.
+ *
+ * @author biplap
+ *
+ */
+public class KeyValMergeTableTest {
+	private static final String[][] TIES = {
+		{"a", "b"},
+		{"b", "ba"},
+		{"\ufffd", "\ud83d\ude00"},		// UTF-16 and UTF-8 order differ, the UTF-8 order wins
+		{"z", Tombstone.create(1)},
+		{Tombstone.create(1), Tombstone.create(2)},
+	};
+
+	@Test
+	public void newerVersionWins(){
+		assertEquals("old", mergeKeyVals(keyVal("new", 1), keyVal("old", 2)).getVal());
+		assertEquals("old", mergeKeyVals(keyVal("old", 2), keyVal("new", 1)).getVal());
+		assertEquals("old", mergeRecords(keyVal("new", 1), keyVal("old", 2)).getVal());
+		assertEquals("old", mergeRecords(keyVal("old", 2), keyVal("new", 1)).getVal());
+	}
+
+	@Test
+	public void equalVersionsMergeInAnyOrder(){
+		for(int i=0;i<TIES.length;i++){
+			KeyVal lower = keyVal(TIES[i][0], 3);
+			KeyVal greater = keyVal(TIES[i][1], 3);
+			assertEquals(greater.getVal(), mergeKeyVals(lower, greater).getVal());
+			assertEquals(greater.getVal(), mergeKeyVals(greater, lower).getVal());
+			assertEquals(greater.getVal(), mergeRecords(lower, greater).getVal());
+			assertEquals(greater.getVal(), mergeRecords(greater, lower).getVal());
+			assertTrue(Tombstone.supersedes(greater, lower));
+			assertFalse(Tombstone.supersedes(lower, greater));
+		}
+		assertFalse(Tombstone.supersedes(keyVal("a", 3), keyVal("a", 3)));
+	}
+
+	private static KeyVal mergeKeyVals(KeyVal first, KeyVal second){
+		KeyValMergeTable table = new KeyValMergeTable(1);
+		table.merge(first);
+		table.merge(second);
+		ArrayList<KeyVal> keyValList = table.toKeyValList();
+		assertEquals(1, keyValList.size());
+		return keyValList.get(0);
+	}
+
+	private static KeyVal mergeRecords(KeyVal first, KeyVal second){
+		KeyValMergeTable table = new KeyValMergeTable(1);
+		table.merge(CompactKeyVal.fromKeyVal(first));
+		table.merge(CompactKeyVal.fromKeyVal(second));
+		ArrayList<KeyVal> keyValList = table.toKeyValList();
+		assertEquals(1, keyValList.size());
+		return keyValList.get(0);
+	}
+
+	private static KeyVal keyVal(String val, long version){
+		KeyVal keyVal = new KeyVal();
+		keyVal.setKey("key");
+		keyVal.setVal(val);
+		keyVal.setVersion(String.valueOf(version));
+		return keyVal;
+	}
+}
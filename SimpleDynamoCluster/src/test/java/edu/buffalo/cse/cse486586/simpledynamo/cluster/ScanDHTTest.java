@@ -0,0 +1,105 @@
+package edu.buffalo.cse.cse486586.simpledynamo.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.buffalo.cse.cse486586.simpledynamo.DynamoOperation;
+import edu.buffalo.cse.cse486586.simpledynamo.KeyVal;
+import edu.buffalo.cse.cse486586.simpledynamo.ScanPage;
+
+/**
+ * Tests the paging of scanDHT() over keys which are mostly deleted.
+ *
+ * The pages are read one after the other from the continuations, as the
+ * cursor of a "*" query does. It finds the page of a row by dividing the
+ * position of the row by the page size, so every page but the last must be
+ * full even when the nodes send mostly tombstones.
+ *
+ * @author biplap
+ *
+ */
+public class ScanDHTTest {
+	private static final int BASE_ADDRESS = 32108;
+	private static final int KEYS = 300;
+	private static final int LIVE_EVERY = 10;		// Every tenth key is kept, the others are deleted
+	private static final int PAGE_SIZE = 7;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private LocalCluster cluster;
+
+	@After
+	public void tearDown(){
+		if(cluster != null)
+			cluster.stop();
+	}
+
+	@Test
+	public void lsmPagesAreFull() throws Exception{
+		checkPages(LocalCluster.LSM);
+	}
+
+	@Test
+	public void bitcaskPagesAreFull() throws Exception{
+		checkPages(LocalCluster.BITCASK);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void zeroPageSizeIsRejected() throws Exception{
+		cluster = new LocalCluster(folder.newFolder(), 3, BASE_ADDRESS, 3, 2, 2, LocalCluster.LSM, 4);
+		cluster.start();
+		cluster.getNode(0).scanDHT(null, 0);		// Would read all the keys at once
+	}
+
+	/**
+	 * Writes the keys, deletes most of them and pages through all the keys
+	 * @param engineName:- Storage engine of the nodes
+	 * @throws Exception
+	 */
+	private void checkPages(String engineName) throws Exception{
+		cluster = new LocalCluster(folder.newFolder(), 3, BASE_ADDRESS, 3, 2, 2, engineName, 4);
+		cluster.start();
+		DynamoOperation node = cluster.getNode(0);
+		ArrayList<String> expectedKeys = new ArrayList<String>();
+		for(int i=0;i<KEYS;i++){
+			String key = String.format("key%03d", i);
+			node.writeDHTKeyVal(key, "val"+i);
+			if(i % LIVE_EVERY == 0)
+				expectedKeys.add(key);
+			else
+				node.deleteDHTKeyVal(key);
+		}
+
+		ArrayList<String> scannedKeys = new ArrayList<String>();
+		String fromKey = null;
+		ScanPage page;
+		do{
+			page = node.scanDHT(fromKey, PAGE_SIZE);
+			ArrayList<KeyVal> keyValList = page.getKeyValList();
+			if(page.getContinuation() != null)
+				assertEquals("short page after "+scannedKeys.size()+" rows", PAGE_SIZE, keyValList.size());
+			for(int i=0;i<keyValList.size();i++)
+				scannedKeys.add(keyValList.get(i).getKey());
+			fromKey = page.getContinuation();
+		}
+		while(fromKey != null);
+		assertTrue(page.getKeyValList().size() <= PAGE_SIZE);
+		assertEquals(expectedKeys, scannedKeys);
+
+		// A page as large as the scan holds every live key
+		page = node.scanDHT(null, expectedKeys.size());
+		assertEquals(expectedKeys.size(), page.getKeyValList().size());
+		page = node.scanDHT(null, expectedKeys.size() + 1);
+		assertEquals(expectedKeys.size(), page.getKeyValList().size());
+		assertNull(page.getContinuation());
+	}
+}
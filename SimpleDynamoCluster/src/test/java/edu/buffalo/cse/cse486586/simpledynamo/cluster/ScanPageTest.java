@@ -0,0 +1,52 @@
+package edu.buffalo.cse.cse486586.simpledynamo.cluster;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import edu.buffalo.cse.cse486586.simpledynamo.ScanPage;
+
+/**
+ * Tests the parsing of the "limit" parameter of a "*" or "@" query, as done
+ * by SimpleDynamoProvider.query() before it builds the ScanCursor.
+ *
+ * @author biplap
+ *
+ */
+public class ScanPageTest {
+	private static final int DEFAULT_PAGE_SIZE = 100;
+
+	@Test
+	public void missingLimitIsTheDefault(){
+		assertEquals(DEFAULT_PAGE_SIZE, ScanPage.parsePageSize(null, DEFAULT_PAGE_SIZE));
+	}
+
+	@Test
+	public void positiveLimitIsThePageSize(){
+		assertEquals(5, ScanPage.parsePageSize("5", DEFAULT_PAGE_SIZE));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void zeroLimitIsRejected(){
+		ScanPage.parsePageSize("0", DEFAULT_PAGE_SIZE);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void negativeLimitIsRejected(){
+		ScanPage.parsePageSize("-3", DEFAULT_PAGE_SIZE);
+	}
+
+	@Test
+	public void nonNumericLimitIsRejected(){
+		try{
+			ScanPage.parsePageSize("ten", DEFAULT_PAGE_SIZE);
+		}
+		catch(NumberFormatException e){
+			throw new AssertionError("Raw NumberFormatException for a non numeric limit");
+		}
+		catch(IllegalArgumentException e){
+			return;
+		}
+		throw new AssertionError("Non numeric limit accepted");
+	}
+}
@@ -0,0 +1,145 @@
+package edu.buffalo.cse.cse486586.simpledynamo.cluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.buffalo.cse.cse486586.simpledynamo.DynamoOperation;
+import edu.buffalo.cse.cse486586.simpledynamo.KeyVal;
+
+/**
+ * Stress test of the per key ordering of the local writes of a node.
+ *
+ * Several threads write the same key and their own keys through
+ * DynamoOperation at once, while another thread applies stale replica
+ * versions of the shared key. Every version a writer reads back after its
+ * write must be newer than the last one it read, and no increment may be
+ * lost.
+ *
+ * @author biplap
+ *
+ */
+public class VersionMonotonicityTest {
+	private static final int BASE_ADDRESS = 31108;
+	private static final int WRITERS = 8;
+	private static final int WRITES = 500;		// Writes of each writer to each of its keys
+	private static final String SHARED_KEY = "shared";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private LocalCluster cluster;
+
+	@After
+	public void tearDown(){
+		if(cluster != null)
+			cluster.stop();
+	}
+
+	@Test
+	public void lsmVersionsStrictlyIncrease() throws Exception{
+		checkVersions(LocalCluster.LSM);
+	}
+
+	@Test
+	public void bitcaskVersionsStrictlyIncrease() throws Exception{
+		checkVersions(LocalCluster.BITCASK);
+	}
+
+	/**
+	 * Runs the writers on the first node of a local cluster
+	 * @param engineName:- Storage engine of the nodes
+	 * @throws Exception
+	 */
+	private void checkVersions(String engineName) throws Exception{
+		cluster = new LocalCluster(folder.newFolder(), 3, BASE_ADDRESS, 3, 2, 2, engineName, 4);
+		cluster.start();
+		final DynamoOperation node = cluster.getNode(0);
+		final List<String> failures = new ArrayList<String>();
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final CountDownLatch doneLatch = new CountDownLatch(WRITERS);
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		for(int i=0;i<WRITERS;i++){
+			final String ownKey = "key"+i;
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try{
+						startLatch.await();
+						long lastShared = 0;
+						for(int j=1;j<=WRITES;j++){
+							if(!node.writeLocalKeyVal(SHARED_KEY, "v"+j) || !node.writeLocalKeyVal(ownKey, "v"+j)){
+								fail("write not committed");
+								return;
+							}
+							long shared = version(node, SHARED_KEY);
+							if(shared <= lastShared)
+								fail(SHARED_KEY+" went from version "+lastShared+" to "+shared);
+							lastShared = shared;
+							long own = version(node, ownKey);
+							if(own != j)
+								fail(ownKey+" has version "+own+" after "+j+" writes");
+						}
+					}
+					catch(InterruptedException e){
+						fail("interrupted");
+					}
+					finally{
+						doneLatch.countDown();
+					}
+				}
+
+				private void fail(String failure){
+					synchronized (failures) {
+						failures.add(failure);
+					}
+				}
+			}));
+		}
+		// Applies replicas of the shared key one version behind, as a slow coordinator would
+		threads.add(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try{
+					startLatch.await();
+				}
+				catch(InterruptedException e){
+					return;
+				}
+				while(doneLatch.getCount() > 0){
+					long current = version(node, SHARED_KEY);
+					if(current > 1)
+						node.writeLocalKeyVal(SHARED_KEY, "stale", String.valueOf(current - 1));
+				}
+			}
+		}));
+		for(int i=0;i<threads.size();i++)
+			threads.get(i).start();
+		startLatch.countDown();
+		for(int i=0;i<threads.size();i++)
+			threads.get(i).join();
+		assertTrue(failures.toString(), failures.isEmpty());
+		assertEquals(WRITERS * WRITES, version(node, SHARED_KEY));
+	}
+
+	/**
+	 * Reads the local version of a key
+	 * @param node
+	 * @param key
+	 * @return 0 if the key is not present
+	 */
+	private static long version(DynamoOperation node, String key){
+		ArrayList<KeyVal> keyValList = node.readLocalKeyVal(key);
+		if(keyValList.isEmpty())
+			return 0;
+		return Long.parseLong(keyValList.get(0).getVersion());
+	}
+}
@@ -0,0 +1,154 @@
+package edu.buffalo.cse.cse486586.simpledynamo.server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+
+import edu.buffalo.cse.cse486586.simpledynamo.ConsistencyLevel;
+import edu.buffalo.cse.cse486586.simpledynamo.KeyVal;
+import edu.buffalo.cse.cse486586.simpledynamo.Message;
+
+/**
+ * This class is a client of a standalone server. It sends GET, PUT and
+ * REMOVE messages to a node, which coordinates them with the replicas
+ * of the key as the content provider does on an emulator.
+ *
+ * Usage:- java -cp server.jar edu.buffalo.cse.cse486586.simpledynamo.server.DynamoClient
+ * host:port [-level ONE|QUORUM|ALL] [-ttl ms] get key | put key value | remove key
+ *
+ * @author biplap
+ *
+ */
+public class DynamoClient {
+	private static final int TIMEOUT = 30000;		// Connect and read timeout (ms)
+	private final InetSocketAddress endpoint;
+
+	public static void main(String[] args) throws IOException {
+		int argIndex = 1;
+		ConsistencyLevel level = ConsistencyLevel.ALL;
+		long ttl = 0;
+		if(args.length > argIndex + 1 && args[argIndex].equals("-level")){
+			level = ConsistencyLevel.parse(args[argIndex + 1], ConsistencyLevel.ALL);
+			argIndex += 2;
+		}
+		if(args.length > argIndex + 1 && args[argIndex].equals("-ttl")){
+			ttl = Long.parseLong(args[argIndex + 1]);
+			argIndex += 2;
+		}
+		if(args.length < argIndex + 2){
+			System.err.println("Usage: DynamoClient host:port [-level ONE|QUORUM|ALL] [-ttl ms] get key | put key value | remove key");
+			System.exit(1);
+		}
+		int colon = args[0].lastIndexOf(':');
+		DynamoClient client = new DynamoClient(new InetSocketAddress(args[0].substring(0, colon), Integer.parseInt(args[0].substring(colon + 1))));
+		String command = args[argIndex];
+		String key = args[argIndex + 1];
+		if(command.equals("get")){
+			KeyVal keyVal = client.get(key, level);
+			System.out.println(keyVal == null ? "(not found)" : keyVal.getVal());
+		}
+		else if(command.equals("put") && args.length > argIndex + 2){
+			client.put(key, args[argIndex + 2], level, ttl > 0 ? System.currentTimeMillis() + ttl : 0);
+			System.out.println("OK");
+		}
+		else if(command.equals("remove"))
+			System.out.println(client.remove(key, level)+" deleted");
+		else{
+			System.err.println("Unknown command "+command);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Public constructor
+	 * @param endpoint:- Host and port of the node coordinating the requests
+	 */
+	public DynamoClient(InetSocketAddress endpoint){
+		this.endpoint = endpoint;
+	}
+
+	/**
+	 * Reads a key
+	 * @param key
+	 * @param level:- Consistency level of the read
+	 * @return latest version of the key, null if not found
+	 * @throws IOException
+	 */
+	public KeyVal get(String key, ConsistencyLevel level) throws IOException{
+		Message msg = new Message();
+		msg.setType(Message.GET);
+		msg.setKey(key);
+		msg.setLevel(level);
+		ArrayList<KeyVal> keyValList = request(msg).getKeyValList();
+		return keyValList == null || keyValList.isEmpty() ? null : keyValList.get(0);
+	}
+
+	/**
+	 * Writes a key value pair
+	 * @param key
+	 * @param value
+	 * @param level:- Consistency level of the write
+	 * @throws IOException
+	 */
+	public void put(String key, String value, ConsistencyLevel level) throws IOException{
+		put(key, value, level, 0);
+	}
+
+	/**
+	 * Writes a key value pair which expires
+	 * @param key
+	 * @param value
+	 * @param level:- Consistency level of the write
+	 * @param expiresAt:- Time (ms) from which the key value pair is not read, 0 if it does not expire
+	 * @throws IOException
+	 */
+	public void put(String key, String value, ConsistencyLevel level, long expiresAt) throws IOException{
+		Message msg = new Message();
+		msg.setType(Message.PUT);
+		msg.setKey(key);
+		msg.setValue(value);
+		msg.setLevel(level);
+		msg.setExpiresAt(expiresAt);
+		request(msg);
+	}
+
+	/**
+	 * Deletes a key
+	 * @param key
+	 * @param level:- Consistency level of the delete
+	 * @return number of key value pairs deleted
+	 * @throws IOException
+	 */
+	public int remove(String key, ConsistencyLevel level) throws IOException{
+		Message msg = new Message();
+		msg.setType(Message.REMOVE);
+		msg.setKey(key);
+		msg.setLevel(level);
+		return request(msg).getSqlResult();
+	}
+
+	private Message request(Message msg) throws IOException{
+		Socket socket = new Socket();
+		try{
+			socket.connect(endpoint, TIMEOUT);
+			socket.setSoTimeout(TIMEOUT);
+			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+			BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			msg.setAcceptsCompression();		// Large replies (eg. values) are compressed, see WireCodec
+			bw.write(msg.toJson()+"\n");
+			bw.flush();
+			String responseStr = br.readLine();
+			if(responseStr == null)
+				throw new IOException("No response from "+endpoint);
+			return Message.fromJson(responseStr);
+		}
+		finally{
+			socket.close();
+		}
+	}
+}
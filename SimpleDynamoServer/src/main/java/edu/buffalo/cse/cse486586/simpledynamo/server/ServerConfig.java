@@ -0,0 +1,296 @@
+package edu.buffalo.cse.cse486586.simpledynamo.server;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import edu.buffalo.cse.cse486586.simpledynamo.DynamoOperation;
+import edu.buffalo.cse.cse486586.simpledynamo.OffHeapArena;
+import edu.buffalo.cse.cse486586.simpledynamo.WireCodec;
+
+/**
+ * This class holds the configuration of a standalone server, read from a
+ * properties file. Properties given to the JVM with -D override the file,
+ * so that nodes can share one file and differ only in node.address and
+ * data.dir. The properties and their defaults, which are the ones of
+ * SimpleDynamoActivity where it has them:-
+ *
+ * node.address			Address of this node, one of the ring members
+ * ring.&lt;address&gt;		host:port of each member of the ring, the port defaults to the address
+ * server.bind			Interface the server listens on (0.0.0.0), at the port of this node
+ * server.threads		Threads serving the requests of the other nodes (2 per core, at least 4)
+ * client.threads		Threads serving client requests (2 per core, at least 4)
+ * replication.count	(3), read.quorum (2), write.quorum (2)
+ * storage.engine		lsm or bitcask (lsm)
+ * data.dir				Directory of the data and snapshots of this node (data)
+ * cache.mode			off, on or verify (off), cache.size (10000), cache.ttl ms (60000),
+ * 						cache.offheap.capacity bytes (64 MB), cache.offheap.threshold bytes
+ * filter.enabled		(false), filter.fpp (0.01), filter.interval ms (1000)
+ * coalesce.reads		(true), adaptive.selection (true)
+ * hedge.reads			(false), hedge.percentile (0.95), hedge.budget (0.05)
+ * slow.threshold		ms from which traces of operations are kept, -1 to disable (1000),
+ * 						slow.capacity (100)
+ * compression.threshold	Length of JSON from which messages are compressed, -1 to disable (1024)
+ * tombstone.grace		ms after a delete for which its tombstone is kept in any case (60000)
+ * tombstone.interval	ms between the steps of the tombstone compaction, -1 to disable (10000)
+ * log.verbose			Whether verbose messages are logged (false)
+ *
+ * @author biplap
+ *
+ */
+public class ServerConfig {
+	public static final String LSM = "lsm";
+	public static final String BITCASK = "bitcask";
+	private static final String RING_PREFIX = "ring.";
+	private static final int DEFAULT_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+	private final Properties properties;
+	private final int myAddress;
+	private final TreeMap<Integer, InetSocketAddress> members = new TreeMap<Integer, InetSocketAddress>();
+
+	/**
+	 * Reads and validates a configuration file
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static ServerConfig load(File file) throws IOException{
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(file);
+		try{
+			properties.load(in);
+		}
+		finally{
+			in.close();
+		}
+		properties.putAll(System.getProperties());
+		return new ServerConfig(properties);
+	}
+
+	/**
+	 * Public constructor, validates the configuration
+	 * @param properties
+	 */
+	public ServerConfig(Properties properties){
+		this.properties = properties;
+		Iterator<String> iterator = properties.stringPropertyNames().iterator();
+		while(iterator.hasNext()){
+			String name = iterator.next();
+			if(!name.startsWith(RING_PREFIX))
+				continue;
+			int address = parseInt(name, name.substring(RING_PREFIX.length()));
+			members.put(address, parseEndpoint(name, properties.getProperty(name).trim(), address));
+		}
+		if(members.isEmpty())
+			throw new IllegalArgumentException("No ring members (ring.<address>=host:port)");
+		myAddress = getInt("node.address", -1);
+		if(!members.containsKey(myAddress))
+			throw new IllegalArgumentException("node.address "+myAddress+" is not a ring member");
+		if(getReplicationCount() < 1 || getReplicationCount() > members.size())
+			throw new IllegalArgumentException("replication.count must be from 1 to the number of ring members");
+		if(getReadQuorum() < 1 || getReadQuorum() > getReplicationCount()
+				|| getWriteQuorum() < 1 || getWriteQuorum() > getReplicationCount())
+			throw new IllegalArgumentException("read.quorum and write.quorum must be from 1 to replication.count");
+		if(!getStorageEngine().equals(LSM) && !getStorageEngine().equals(BITCASK))
+			throw new IllegalArgumentException("Unknown storage.engine "+getStorageEngine());
+		getCacheMode();		// Validates it
+	}
+
+	private static InetSocketAddress parseEndpoint(String name, String value, int address){
+		int colon = value.lastIndexOf(':');
+		String host = colon < 0 ? value : value.substring(0, colon);
+		int port = colon < 0 ? address : parseInt(name, value.substring(colon + 1));
+		InetSocketAddress endpoint = new InetSocketAddress(host, port);
+		if(endpoint.isUnresolved())
+			throw new IllegalArgumentException("Unknown host "+host+" of "+name);
+		return endpoint;
+	}
+
+	private static int parseInt(String name, String value){
+		try{
+			return Integer.parseInt(value.trim());
+		}
+		catch(NumberFormatException e){
+			throw new IllegalArgumentException("Invalid number "+value+" in "+name);
+		}
+	}
+
+	private String get(String name, String defaultValue){
+		String value = properties.getProperty(name);
+		return value == null ? defaultValue : value.trim();
+	}
+
+	private int getInt(String name, int defaultValue){
+		String value = properties.getProperty(name);
+		return value == null ? defaultValue : parseInt(name, value);
+	}
+
+	private long getLong(String name, long defaultValue){
+		String value = properties.getProperty(name);
+		try{
+			return value == null ? defaultValue : Long.parseLong(value.trim());
+		}
+		catch(NumberFormatException e){
+			throw new IllegalArgumentException("Invalid number "+value+" in "+name);
+		}
+	}
+
+	private double getDouble(String name, double defaultValue){
+		String value = properties.getProperty(name);
+		try{
+			return value == null ? defaultValue : Double.parseDouble(value.trim());
+		}
+		catch(NumberFormatException e){
+			throw new IllegalArgumentException("Invalid number "+value+" in "+name);
+		}
+	}
+
+	private boolean getBoolean(String name, boolean defaultValue){
+		String value = properties.getProperty(name);
+		return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+	}
+
+	/**
+	 * Returns the address of this node
+	 * @return
+	 */
+	public int getMyAddress() {
+		return myAddress;
+	}
+
+	/**
+	 * Returns the host and port of each ring member, by address
+	 * @return
+	 */
+	public TreeMap<Integer, InetSocketAddress> getMembers() {
+		return members;
+	}
+
+	/**
+	 * Returns the address the server socket binds to
+	 * @return
+	 */
+	public InetSocketAddress getBindAddress() {
+		return new InetSocketAddress(get("server.bind", "0.0.0.0"), members.get(myAddress).getPort());
+	}
+
+	public int getServerThreads() {
+		return getInt("server.threads", DEFAULT_THREADS);
+	}
+
+	public int getClientThreads() {
+		return getInt("client.threads", DEFAULT_THREADS);
+	}
+
+	public int getReplicationCount() {
+		return getInt("replication.count", 3);
+	}
+
+	public int getReadQuorum() {
+		return getInt("read.quorum", 2);
+	}
+
+	public int getWriteQuorum() {
+		return getInt("write.quorum", 2);
+	}
+
+	public String getStorageEngine() {
+		return get("storage.engine", LSM);
+	}
+
+	public File getDataDir() {
+		return new File(get("data.dir", "data"));
+	}
+
+	/**
+	 * Returns the cache mode, one of DynamoOperation.CACHE_OFF, CACHE_ON and CACHE_VERIFY
+	 * @return
+	 */
+	public int getCacheMode() {
+		String mode = get("cache.mode", "off");
+		if(mode.equals("off"))
+			return DynamoOperation.CACHE_OFF;
+		if(mode.equals("on"))
+			return DynamoOperation.CACHE_ON;
+		if(mode.equals("verify"))
+			return DynamoOperation.CACHE_VERIFY;
+		throw new IllegalArgumentException("Unknown cache.mode "+mode);
+	}
+
+	public int getCacheSize() {
+		return getInt("cache.size", 10000);
+	}
+
+	public long getCacheTtl() {
+		return getLong("cache.ttl", 60000);
+	}
+
+	public long getCacheOffHeapCapacity() {
+		return getLong("cache.offheap.capacity", 64 << 20);
+	}
+
+	public int getCacheOffHeapThreshold() {
+		return getInt("cache.offheap.threshold", OffHeapArena.DEFAULT_THRESHOLD);
+	}
+
+	public boolean isFilterEnabled() {
+		return getBoolean("filter.enabled", false);
+	}
+
+	public double getFilterFalsePositiveRate() {
+		return getDouble("filter.fpp", 0.01);
+	}
+
+	public long getFilterInterval() {
+		return getLong("filter.interval", 1000);
+	}
+
+	public boolean isCoalesceReads() {
+		return getBoolean("coalesce.reads", true);
+	}
+
+	public boolean isAdaptiveSelection() {
+		return getBoolean("adaptive.selection", true);
+	}
+
+	public boolean isHedgeReads() {
+		return getBoolean("hedge.reads", false);
+	}
+
+	public double getHedgePercentile() {
+		return getDouble("hedge.percentile", 0.95);
+	}
+
+	public double getHedgeBudget() {
+		return getDouble("hedge.budget", 0.05);
+	}
+
+	public long getSlowOperationThreshold() {
+		return getLong("slow.threshold", 1000);
+	}
+
+	public int getSlowOperationCapacity() {
+		return getInt("slow.capacity", 100);
+	}
+
+	public int getCompressionThreshold() {
+		return getInt("compression.threshold", WireCodec.DEFAULT_THRESHOLD);
+	}
+
+	public long getTombstoneGracePeriod() {
+		return getLong("tombstone.grace", 60000);
+	}
+
+	public long getTombstoneCompactionInterval() {
+		return getLong("tombstone.interval", 10000);
+	}
+
+	public boolean isVerbose() {
+		return getBoolean("log.verbose", false);
+	}
+}
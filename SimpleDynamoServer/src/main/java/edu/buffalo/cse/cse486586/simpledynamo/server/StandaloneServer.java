@@ -0,0 +1,127 @@
+package edu.buffalo.cse.cse486586.simpledynamo.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
+
+import edu.buffalo.cse.cse486586.simpledynamo.BitcaskStorageEngine;
+import edu.buffalo.cse.cse486586.simpledynamo.DynamoLog;
+import edu.buffalo.cse.cse486586.simpledynamo.DynamoOperation;
+import edu.buffalo.cse.cse486586.simpledynamo.DynamoServer;
+import edu.buffalo.cse.cse486586.simpledynamo.LSMStorageEngine;
+import edu.buffalo.cse.cse486586.simpledynamo.StorageEngine;
+
+/**
+ * This class runs a node of the Dynamo DHT as a standalone JVM process,
+ * without Android. It does what SimpleDynamoActivity does on an emulator:-
+ * it opens the storage engine, initializes dynamo (which syncs the entries
+ * the node missed from the other nodes) and then serves the requests of the
+ * other nodes and of the clients (see DynamoClient) with a DynamoServer.
+ *
+ * The node is configured by a properties file (see ServerConfig), its ring
+ * members may be on other hosts. The storage engine is closed on shutdown
+ * (SIGTERM or Ctrl-C), a killed node recovers from its files and the other
+ * nodes when started again.
+ *
+ * Usage:- java [JVM flags] -jar server.jar server.properties
+ *
+ * @author biplap
+ *
+ */
+public class StandaloneServer {
+	private static final String TAG = StandaloneServer.class.getSimpleName();
+	private final ServerConfig config;
+	private StorageEngine storageEngine;
+	private DynamoOperation dynamoOperation;
+	private DynamoServer server;
+
+	public static void main(String[] args) throws Exception {
+		if(args.length != 1){
+			System.err.println("Usage: java -jar server.jar <server.properties>");
+			System.exit(1);
+		}
+		ServerConfig config;
+		try{
+			config = ServerConfig.load(new File(args[0]));
+		}
+		catch(IllegalArgumentException e){
+			System.err.println("Invalid configuration: "+e.getMessage());
+			System.exit(1);
+			return;
+		}
+		final StandaloneServer standaloneServer = new StandaloneServer(config);
+		standaloneServer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				standaloneServer.stop();
+			}
+		}, "shutdown"));
+		standaloneServer.serve();
+	}
+
+	public StandaloneServer(ServerConfig config){
+		this.config = config;
+	}
+
+	/**
+	 * Opens the storage engine, initializes dynamo and binds the server socket
+	 * @throws IOException
+	 */
+	public void start() throws IOException{
+		DynamoLog.setVerbose(config.isVerbose());
+		File dataDir = new File(config.getDataDir(), "data");
+		File snapshotDir = new File(config.getDataDir(), "snapshot");
+		dataDir.mkdirs();
+		snapshotDir.mkdirs();
+		storageEngine = config.getStorageEngine().equals(ServerConfig.BITCASK) ? new BitcaskStorageEngine(dataDir)
+				: new LSMStorageEngine(dataDir);
+
+		// Initialize dynamo, the port is opened only after the sync as on the emulators
+		DynamoLog.i(TAG, "Starting node "+config.getMyAddress()+" of a ring of "+config.getMembers().size());
+		dynamoOperation = DynamoOperation.create(storageEngine, snapshotDir, config.getMembers(), config.getMyAddress(),
+				config.getReplicationCount(), config.getReadQuorum(), config.getWriteQuorum());
+		dynamoOperation.configureCache(config.getCacheMode(), config.getCacheSize(), config.getCacheTtl(),
+				config.getCacheOffHeapCapacity(), config.getCacheOffHeapThreshold());
+		dynamoOperation.configureCompression(config.getCompressionThreshold());
+		dynamoOperation.configureReadCoalescing(config.isCoalesceReads());
+		dynamoOperation.configureReplicaSelection(config.isAdaptiveSelection());
+		if(config.isHedgeReads())
+			dynamoOperation.configureHedging(config.getHedgePercentile(), config.getHedgeBudget());
+		if(config.getSlowOperationThreshold() >= 0)
+			dynamoOperation.configureSlowOperationLog(config.getSlowOperationThreshold(), config.getSlowOperationCapacity());
+		if(config.isFilterEnabled())
+			dynamoOperation.configureFilters(config.getFilterFalsePositiveRate(), config.getFilterInterval());
+		if(config.getTombstoneCompactionInterval() > 0)
+			dynamoOperation.configureTombstoneCompaction(config.getTombstoneGracePeriod(), config.getTombstoneCompactionInterval());
+
+		// Opened from a channel so that snapshots can be sent with zero copy transferTo()
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		ServerSocket serverSocket = serverChannel.socket();
+		serverSocket.setReuseAddress(true);
+		serverSocket.bind(config.getBindAddress());
+		server = new DynamoServer(dynamoOperation, serverSocket, config.getServerThreads(), config.getClientThreads());
+		DynamoLog.i(TAG, "Node "+config.getMyAddress()+" listening at "+config.getBindAddress());
+	}
+
+	/**
+	 * Serves requests until the server is stopped
+	 */
+	public void serve(){
+		server.serve();
+	}
+
+	/**
+	 * Closes the server and then the storage engine
+	 */
+	public synchronized void stop(){
+		if(server == null)
+			return;
+		DynamoLog.i(TAG, "Stopping node "+config.getMyAddress());
+		server.close();
+		dynamoOperation.close();
+		storageEngine.close();
+		server = null;
+	}
+}